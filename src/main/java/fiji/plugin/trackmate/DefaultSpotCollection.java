@@ -1,7 +1,11 @@
 package fiji.plugin.trackmate;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.SortedMap;
@@ -30,11 +34,126 @@ public class DefaultSpotCollection extends DefaultTOCollection< Spot > implement
 		SpotCollection
 {
 
+	/**
+	 * The optional columnar copy of spot features, <code>null</code> if it has
+	 * not been built or was discarded.
+	 */
+	private volatile SpotFeatureTable featureTable;
+
 	public DefaultSpotCollection()
 	{
 		super();
 	}
 
+	/*
+	 * FEATURE TABLE
+	 */
+
+	/**
+	 * Builds a {@link SpotFeatureTable} holding the values of the specified
+	 * features for all the spots of this collection, and uses it from now on
+	 * in {@link #filter(FeatureFilter)}, {@link #filter(Collection)} and
+	 * {@link #collectValues(String, boolean)} for the features it stores.
+	 * <p>
+	 * The table is discarded when spots are added to or removed from this
+	 * collection, and when it is found stale because a spot feature changed
+	 * (see {@link SpotFeatureTable#isStale()}). The methods above then query
+	 * the spots again, until this method is called again after computing
+	 * features. The table does not replace the feature maps of the spots, and
+	 * therefore adds to the memory they use.
+	 *
+	 * @param features
+	 *            the features to store in the table. Cannot contain
+	 *            {@link TrackmateConstants#VISIBILITY}.
+	 * @return the new table.
+	 * @throws IllegalArgumentException
+	 *             if the features contain
+	 *             {@link TrackmateConstants#VISIBILITY}.
+	 */
+	public SpotFeatureTable buildFeatureTable( final Collection< String > features )
+	{
+		final Spot[] spots = new Spot[ getNObjects( false ) ];
+		int row = 0;
+		for ( final Spot spot : iterable( false ) )
+		{
+			spots[ row++ ] = spot;
+		}
+		final SpotFeatureTable table = new SpotFeatureTable( spots, features );
+
+		final List< Runnable > tasks = new ArrayList< Runnable >( features.size() );
+		for ( final String feature : features )
+		{
+			tasks.add( new Runnable()
+			{
+				@Override
+				public void run()
+				{
+					table.fill( feature );
+				}
+			} );
+		}
+		execute( tasks, "buildFeatureTable" );
+
+		featureTable = table;
+		return table;
+	}
+
+	/**
+	 * Returns the feature table of this collection. A stale table is discarded
+	 * first.
+	 *
+	 * @return the feature table, or <code>null</code> if it has not been built
+	 *         or was discarded.
+	 * @see #buildFeatureTable(Collection)
+	 */
+	public SpotFeatureTable getFeatureTable()
+	{
+		final SpotFeatureTable table = featureTable;
+		if ( null != table && table.isStale() )
+		{
+			featureTable = null;
+			return null;
+		}
+		return table;
+	}
+
+	/**
+	 * Discards the feature table of this collection, if any. Filtering and
+	 * collecting values will then query the spots directly.
+	 */
+	public void discardFeatureTable()
+	{
+		featureTable = null;
+	}
+
+	@Override
+	public void add( final Spot object, final Integer frame )
+	{
+		featureTable = null;
+		super.add( object, frame );
+	}
+
+	@Override
+	public boolean remove( final Spot object, final Integer frame )
+	{
+		featureTable = null;
+		return super.remove( object, frame );
+	}
+
+	@Override
+	public void put( final int frame, final Collection< Spot > objects )
+	{
+		featureTable = null;
+		super.put( frame, objects );
+	}
+
+	@Override
+	public void clear()
+	{
+		featureTable = null;
+		super.clear();
+	}
+
 	/**
 	 * Returns a new {@link SpotCollection}, made of only the spots marked as
 	 * visible. All the spots will then be marked as not-visible.
@@ -46,6 +165,7 @@ public class DefaultSpotCollection extends DefaultTOCollection< Spot > implement
 	{
 		final DefaultSpotCollection ns = new DefaultSpotCollection();
 		ns.setNumThreads( numThreads );
+		invalidateVisibleSpatialIndex();
 
 		final Collection< Integer > frames = content.keySet();
 		final ExecutorService executors = Executors
@@ -67,6 +187,7 @@ public class DefaultSpotCollection extends DefaultTOCollection< Spot > implement
 						{
 							nfc.add( object );
 							object.setVisible( false );
+							ns.watchVisibility( object );
 						}
 					}
 					ns.content.put( frame, nfc );
@@ -120,6 +241,13 @@ public class DefaultSpotCollection extends DefaultTOCollection< Spot > implement
 	@Override
 	public final void filter( final FeatureFilter featurefilter )
 	{
+		invalidateVisibleSpatialIndex();
+		final SpotFeatureTable table = getFeatureTable();
+		if ( null != table && table.hasFeature( featurefilter.feature ) )
+		{
+			filter( table, Collections.singleton( featurefilter ) );
+			return;
+		}
 
 		final Collection< Integer > frames = content.keySet();
 		final ExecutorService executors = Executors
@@ -207,6 +335,13 @@ public class DefaultSpotCollection extends DefaultTOCollection< Spot > implement
 	@Override
 	public final void filter( final Collection< FeatureFilter > filters )
 	{
+		invalidateVisibleSpatialIndex();
+		final SpotFeatureTable table = getFeatureTable();
+		if ( null != table && table.getFeatures().containsAll( featureNames( filters ) ) )
+		{
+			filter( table, filters );
+			return;
+		}
 
 		final Collection< Integer > frames = content.keySet();
 		final ExecutorService executors = Executors
@@ -352,6 +487,9 @@ public class DefaultSpotCollection extends DefaultTOCollection< Spot > implement
 	public final double[] collectValues( final String feature,
 			final boolean visibleOnly )
 	{
+		final SpotFeatureTable table = getFeatureTable();
+		if ( null != table && table.hasFeature( feature ) ) { return collectValues( table, feature, visibleOnly ); }
+
 		final double[] values = new double[ getNObjects( visibleOnly ) ];
 		int index = 0;
 		for ( final Spot object : iterable( visibleOnly ) )
@@ -369,7 +507,119 @@ public class DefaultSpotCollection extends DefaultTOCollection< Spot > implement
 			values[ index ] = val;
 			index++;
 		}
-		return values;
+		return index == values.length ? values : Arrays.copyOf( values, index );
+	}
+
+	/**
+	 * Filters the spots by scanning the columns of the feature table, split in
+	 * one chunk of rows per thread.
+	 */
+	private void filter( final SpotFeatureTable table, final Collection< FeatureFilter > filters )
+	{
+		final int nFilters = filters.size();
+		final double[][] columns = new double[ nFilters ][];
+		final double[] thresholds = new double[ nFilters ];
+		final boolean[] isAbove = new boolean[ nFilters ];
+		int f = 0;
+		for ( final FeatureFilter filter : filters )
+		{
+			columns[ f ] = table.getColumn( filter.feature );
+			thresholds[ f ] = filter.value.doubleValue();
+			isAbove[ f ] = filter.isAbove;
+			f++;
+		}
+
+		final int nRows = table.getNRows();
+		final int nChunks = Math.max( 1, Math.min( numThreads, nRows ) );
+		final List< Runnable > tasks = new ArrayList< Runnable >( nChunks );
+		for ( int c = 0; c < nChunks; c++ )
+		{
+			final int start = ( int ) ( ( long ) nRows * c / nChunks );
+			final int end = ( int ) ( ( long ) nRows * ( c + 1 ) / nChunks );
+			tasks.add( new Runnable()
+			{
+				@Override
+				public void run()
+				{
+					for ( int row = start; row < end; row++ )
+					{
+						boolean visible = true;
+						for ( int i = 0; i < nFilters; i++ )
+						{
+							final int cmp = Double.compare( columns[ i ][ row ], thresholds[ i ] );
+							if ( isAbove[ i ] ? cmp < 0 : cmp > 0 )
+							{
+								visible = false;
+								break;
+							}
+						}
+						table.getSpot( row ).setVisible( visible );
+					}
+				}
+			} );
+		}
+		execute( tasks, "filter" );
+	}
+
+	/**
+	 * Collects the values of a feature from the feature table, in the order of
+	 * the collection, skipping {@link Double#NaN} values.
+	 */
+	private static double[] collectValues( final SpotFeatureTable table, final String feature, final boolean visibleOnly )
+	{
+		final double[] column = table.getColumn( feature );
+		final double[] values = new double[ column.length ];
+		int index = 0;
+		for ( int row = 0; row < column.length; row++ )
+		{
+			final double val = column[ row ];
+			if ( Double.isNaN( val ) || visibleOnly && !table.getSpot( row ).isVisible() )
+			{
+				continue;
+			}
+			values[ index++ ] = val;
+		}
+		return index == values.length ? values : Arrays.copyOf( values, index );
+	}
+
+	private static Set< String > featureNames( final Collection< FeatureFilter > filters )
+	{
+		final Set< String > features = new HashSet< String >( 2 * filters.size() );
+		for ( final FeatureFilter filter : filters )
+		{
+			features.add( filter.feature );
+		}
+		return features;
+	}
+
+	/**
+	 * Runs the specified tasks on {@link #numThreads} threads and waits for
+	 * them to complete.
+	 */
+	private void execute( final Collection< Runnable > tasks, final String operation )
+	{
+		final ExecutorService executors = Executors.newFixedThreadPool( numThreads );
+		for ( final Runnable task : tasks )
+		{
+			executors.execute( task );
+		}
+
+		executors.shutdown();
+		try
+		{
+			final boolean ok = executors.awaitTermination( TIME_OUT_DELAY,
+					TIME_OUT_UNITS );
+			if ( !ok )
+			{
+				System.err.println( "[SpotCollection." + operation + "()] Timeout of "
+						+ TIME_OUT_DELAY + " " + TIME_OUT_UNITS
+						+ " reached." );
+			}
+		}
+		catch ( final InterruptedException e )
+		{
+			e.printStackTrace();
+		}
 	}
 
 	/**
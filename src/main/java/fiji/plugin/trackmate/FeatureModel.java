@@ -6,7 +6,6 @@ import java.util.HashMap;
 import java.util.LinkedHashSet;
 import java.util.Map;
 import java.util.Set;
-import java.util.concurrent.ConcurrentHashMap;
 
 import org.jgrapht.graph.DefaultWeightedEdge;
 
@@ -37,16 +36,16 @@ public class FeatureModel< T extends TrackableObject< T >>
 	private final Map< String, Boolean > trackFeatureIsInt = new HashMap< String, Boolean >();
 
 	/**
-	 * Feature storage. We use a Map of Map as a 2D Map. The list maps each
-	 * track to its feature map. The feature map maps each feature to the double
-	 * value for the specified feature.
+	 * Feature storage for tracks. One column of primitive values per feature,
+	 * indexed by track.
 	 */
-	Map< Integer, Map< String, Double >> trackFeatureValues = new ConcurrentHashMap< Integer, Map< String, Double >>();
+	final FeatureTable< Integer > trackFeatureValues = new FeatureTable< Integer >();
 
 	/**
-	 * Feature storage for edges.
+	 * Feature storage for edges. One column of primitive values per feature,
+	 * indexed by edge.
 	 */
-	private final ConcurrentHashMap< DefaultWeightedEdge, ConcurrentHashMap< String, Double >> edgeFeatureValues = new ConcurrentHashMap< DefaultWeightedEdge, ConcurrentHashMap< String, Double >>();
+	private final FeatureTable< DefaultWeightedEdge > edgeFeatureValues = new FeatureTable< DefaultWeightedEdge >();
 
 	private final Collection< String > edgeFeatures = new LinkedHashSet< String >();
 
@@ -105,7 +104,7 @@ public class FeatureModel< T extends TrackableObject< T >>
 	 */
 	public Map< Integer, Map< String, Double >> getAllTrackFeatureValues()
 	{
-		return Collections.unmodifiableMap( trackFeatureValues );
+		return Collections.unmodifiableMap( trackFeatureValues.toMap() );
 	}
 
 	/**
@@ -127,11 +126,7 @@ public class FeatureModel< T extends TrackableObject< T >>
 				+ trackFeature ); }
 		final Set< Integer > keys = model.getTrackModel().trackIDs( visibleOnly );
 		final double[] val = new double[ keys.size() ];
-		int index = 0;
-		for ( final Integer trackID : keys )
-		{
-			val[ index++ ] = getTrackFeature( trackID, trackFeature ).doubleValue();
-		}
+		trackFeatureValues.values( trackFeature, keys, val, 0 );
 		return val;
 	}
 
@@ -145,13 +140,15 @@ public class FeatureModel< T extends TrackableObject< T >>
 	 * @param visibleOnly
 	 *            if <code>true</code>, will only include edges in visible
 	 *            tracks, in all the tracks otherwise.
-	 * @return a new <code>double[]</code>, one element per edge.
+	 * @return a new <code>double[]</code>, one element per edge. Edges with
+	 *         no value for this feature get {@link Double#NaN}.
 	 */
 	public double[] getEdgeFeatureValues( final String edgeFeature,
 			final boolean visibleOnly )
 	{
 		if ( !edgeFeatures.contains( edgeFeature ) ) { throw new IllegalArgumentException( "Unknown edge feature: "
 				+ edgeFeature ); }
+
 		final Set< Integer > keys = model.getTrackModel().trackIDs( visibleOnly );
 		int nvals = 0;
 		for ( final Integer trackID : keys )
@@ -163,11 +160,7 @@ public class FeatureModel< T extends TrackableObject< T >>
 		int index = 0;
 		for ( final Integer trackID : keys )
 		{
-			for ( final DefaultWeightedEdge edge : model.getTrackModel()
-					.trackEdges( trackID ) )
-			{
-				val[ index++ ] = getEdgeFeature( edge, edgeFeature ).doubleValue();
-			}
+			index = edgeFeatureValues.values( edgeFeature, model.getTrackModel().trackEdges( trackID ), val, index );
 		}
 		return val;
 	}
@@ -190,25 +183,42 @@ public class FeatureModel< T extends TrackableObject< T >>
 	 * @param value
 	 *            the feature value
 	 */
-	public synchronized void putEdgeFeature( final DefaultWeightedEdge edge,
+	public void putEdgeFeature( final DefaultWeightedEdge edge,
 			final String feature, final Double value )
 	{
-		ConcurrentHashMap< String, Double > map = edgeFeatureValues.get( edge );
-		if ( null == map )
-		{
-			map = new ConcurrentHashMap< String, Double >();
-			edgeFeatureValues.put( edge, map );
-		}
-		map.put( feature, value );
+		edgeFeatureValues.put( edge, feature, value.doubleValue() );
 	}
 
+	/**
+	 * Returns the numerical value of the specified edge feature for the
+	 * specified edge.
+	 *
+	 * @param edge
+	 *            the edge to quest.
+	 * @param featureName
+	 *            the desired feature.
+	 * @return the feature value, or <code>null</code> if the edge has no value
+	 *         for this feature.
+	 */
 	public Double getEdgeFeature( final DefaultWeightedEdge edge,
 			final String featureName )
 	{
-		final ConcurrentHashMap< String, Double > map = edgeFeatureValues
-				.get( edge );
-		if ( null == map ) { return null; }
-		return map.get( featureName );
+		return edgeFeatureValues.get( edge, featureName );
+	}
+
+	/**
+	 * Discards all the feature values of the specified edges. This is called
+	 * by the {@link Model} once the removal of edges has been signaled.
+	 *
+	 * @param edges
+	 *            the edges to forget.
+	 */
+	void removeEdgeFeatures( final Collection< DefaultWeightedEdge > edges )
+	{
+		for ( final DefaultWeightedEdge edge : edges )
+		{
+			edgeFeatureValues.remove( edge );
+		}
 	}
 
 	/**
@@ -406,15 +416,9 @@ public class FeatureModel< T extends TrackableObject< T >>
 	 * @param value
 	 *            the feature value.
 	 */
-	public synchronized void putTrackFeature( final Integer trackID, final String feature, final Double value )
+	public void putTrackFeature( final Integer trackID, final String feature, final Double value )
 	{
-		Map< String, Double > trackFeatureMap = trackFeatureValues.get( trackID );
-		if ( null == trackFeatureMap )
-		{
-			trackFeatureMap = new HashMap< String, Double >( trackFeatures.size() );
-			trackFeatureValues.put( trackID, trackFeatureMap );
-		}
-		trackFeatureMap.put( feature, value );
+		trackFeatureValues.put( trackID, feature, value.doubleValue() );
 	}
 
 	/**
@@ -425,11 +429,12 @@ public class FeatureModel< T extends TrackableObject< T >>
 	 *            the track ID to quest.
 	 * @param feature
 	 *            the desired feature.
+	 * @return the feature value, or <code>null</code> if the track has no
+	 *         value for this feature.
 	 */
 	public Double getTrackFeature( final Integer trackID, final String feature )
 	{
-		final Map< String, Double > valueMap = trackFeatureValues.get( trackID );
-		return valueMap.get( feature );
+		return trackFeatureValues.get( trackID, feature );
 	}
 
 	/**
@@ -452,7 +457,7 @@ public class FeatureModel< T extends TrackableObject< T >>
 			for ( final Integer trackID : model.getTrackModel().trackIDs( false ) )
 			{
 				val = getTrackFeature( trackID, feature );
-				if ( null == val )
+				if ( null == val || val.isNaN() )
 				{
 					continue;
 				}
@@ -614,7 +619,7 @@ public class FeatureModel< T extends TrackableObject< T >>
 		appendFeatureDeclarations( str, edgeFeatures, edgeFeatureNames, edgeFeatureShortNames, edgeFeatureDimensions, edgeFeatureIsInt );
 		str.append( '\n' );
 		str.append( " - Values:\n" );
-		appendFeatureValues( str, edgeFeatureValues );
+		appendFeatureValues( str, edgeFeatureValues.toMap() );
 
 		// Track
 		str.append( "Track features:\n" );
@@ -622,7 +627,7 @@ public class FeatureModel< T extends TrackableObject< T >>
 		appendFeatureDeclarations( str, trackFeatures, trackFeatureNames, trackFeatureShortNames, trackFeatureDimensions, trackFeatureIsInt );
 		str.append( '\n' );
 		str.append( " - Values:\n" );
-		appendFeatureValues( str, trackFeatureValues );
+		appendFeatureValues( str, trackFeatureValues.toMap() );
 
 		return str.toString();
 	}
@@ -0,0 +1,204 @@
+package fiji.plugin.trackmate;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Columnar storage for the numerical features of a set of objects, such as
+ * edges or tracks.
+ * <p>
+ * Each object is given a compact ordinal when it receives its first feature
+ * value, and each feature is stored in a dense <code>double[]</code> indexed by
+ * these ordinals. Each column has a bit set that tells which values are
+ * present, so that a {@link Double#NaN} value can be stored and told apart
+ * from a missing value. The ordinals of removed objects are recycled.
+ * <p>
+ * All methods are synchronized on the table instance.
+ *
+ * @param <K>
+ *            the type of the objects whose features are stored.
+ */
+class FeatureTable< K >
+{
+
+	private static final int INITIAL_CAPACITY = 16;
+
+	private final Map< K, Integer > ordinals = new HashMap< K, Integer >();
+
+	/**
+	 * The columns, one per feature, in the order the features were first put.
+	 * Missing values are {@link Double#NaN}.
+	 */
+	private final Map< String, double[] > columns = new LinkedHashMap< String, double[] >();
+
+	/**
+	 * The ordinals that have a value, one bit set per feature.
+	 */
+	private final Map< String, BitSet > present = new HashMap< String, BitSet >();
+
+	/**
+	 * The objects by ordinal. <code>null</code> for free ordinals.
+	 */
+	private Object[] keys = new Object[ INITIAL_CAPACITY ];
+
+	/**
+	 * The number of ordinals used so far, including the free ones.
+	 */
+	private int size = 0;
+
+	private int[] free = new int[ INITIAL_CAPACITY ];
+
+	private int nFree = 0;
+
+	/**
+	 * Stores a feature value for the specified object.
+	 */
+	synchronized void put( final K key, final String feature, final double value )
+	{
+		final int ordinal = ordinalOf( key );
+		double[] column = columns.get( feature );
+		if ( null == column )
+		{
+			column = new double[ keys.length ];
+			Arrays.fill( column, Double.NaN );
+			columns.put( feature, column );
+			present.put( feature, new BitSet() );
+		}
+		column[ ordinal ] = value;
+		present.get( feature ).set( ordinal );
+	}
+
+	/**
+	 * Returns the value of a feature for the specified object, as a boxed
+	 * {@link Double}, or <code>null</code> if the object has no value stored
+	 * for this feature.
+	 */
+	synchronized Double get( final K key, final String feature )
+	{
+		final Integer ordinal = ordinals.get( key );
+		if ( null == ordinal ) { return null; }
+		final double[] column = columns.get( feature );
+		if ( null == column || !present.get( feature ).get( ordinal.intValue() ) ) { return null; }
+		return Double.valueOf( column[ ordinal.intValue() ] );
+	}
+
+	/**
+	 * Copies the values of a feature for the specified objects in the
+	 * specified array, starting at the specified index. Objects with no value
+	 * get {@link Double#NaN}.
+	 *
+	 * @return the index following the last value copied.
+	 */
+	synchronized int values( final String feature, final Collection< ? extends K > objects, final double[] target, int index )
+	{
+		final double[] column = columns.get( feature );
+		for ( final K key : objects )
+		{
+			final Integer ordinal = ordinals.get( key );
+			target[ index++ ] = ( null == ordinal || null == column ) ? Double.NaN : column[ ordinal.intValue() ];
+		}
+		return index;
+	}
+
+	/**
+	 * Returns the number of objects that have features in this table.
+	 */
+	synchronized int size()
+	{
+		return ordinals.size();
+	}
+
+	/**
+	 * Removes all the feature values of the specified object.
+	 */
+	synchronized void remove( final K key )
+	{
+		final Integer ordinal = ordinals.remove( key );
+		if ( null == ordinal ) { return; }
+		final int i = ordinal.intValue();
+		keys[ i ] = null;
+		for ( final double[] column : columns.values() )
+		{
+			column[ i ] = Double.NaN;
+		}
+		for ( final BitSet bits : present.values() )
+		{
+			bits.clear( i );
+		}
+		if ( nFree == free.length )
+		{
+			free = Arrays.copyOf( free, 2 * free.length );
+		}
+		free[ nFree++ ] = i;
+	}
+
+	/**
+	 * Returns a new map of maps holding the content of this table. Missing
+	 * values are not included, stored {@link Double#NaN} values are.
+	 */
+	@SuppressWarnings( "unchecked" )
+	synchronized Map< K, Map< String, Double >> toMap()
+	{
+		final Map< K, Map< String, Double >> map = new LinkedHashMap< K, Map< String, Double >>( 2 * ordinals.size() );
+		for ( int i = 0; i < size; i++ )
+		{
+			if ( null == keys[ i ] )
+			{
+				continue;
+			}
+			final Map< String, Double > values = new HashMap< String, Double >( 2 * columns.size() );
+			for ( final String feature : columns.keySet() )
+			{
+				if ( present.get( feature ).get( i ) )
+				{
+					values.put( feature, Double.valueOf( columns.get( feature )[ i ] ) );
+				}
+			}
+			map.put( ( K ) keys[ i ], values );
+		}
+		return map;
+	}
+
+	/*
+	 * PRIVATE METHODS
+	 */
+
+	private int ordinalOf( final K key )
+	{
+		final Integer ordinal = ordinals.get( key );
+		if ( null != ordinal ) { return ordinal.intValue(); }
+
+		final int i;
+		if ( nFree > 0 )
+		{
+			i = free[ --nFree ];
+		}
+		else
+		{
+			if ( size == keys.length )
+			{
+				grow();
+			}
+			i = size++;
+		}
+		keys[ i ] = key;
+		ordinals.put( key, Integer.valueOf( i ) );
+		return i;
+	}
+
+	private void grow()
+	{
+		final int capacity = 2 * keys.length;
+		keys = Arrays.copyOf( keys, capacity );
+		for ( final Map.Entry< String, double[] > entry : columns.entrySet() )
+		{
+			final double[] column = Arrays.copyOf( entry.getValue(), capacity );
+			Arrays.fill( column, size, capacity, Double.NaN );
+			entry.setValue( column );
+		}
+	}
+}
@@ -102,6 +102,18 @@ public class Model< T extends TrackableObject< T >>
 	Set< ModelChangeListener< T >> modelChangeListeners =
 			new LinkedHashSet< ModelChangeListener< T >>();
 
+	/**
+	 * The dispatcher that delivers events to the listeners on its own thread.
+	 * If <code>null</code>, events are delivered synchronously.
+	 */
+	private volatile ModelChangeDispatcher< T > eventDispatcher;
+
+	/**
+	 * Marks the threads that never wait for the event dispatcher in this
+	 * model, because they hold other locks that listeners may need.
+	 */
+	private final ThreadLocal< Boolean > dispatcherWaitsDeferred = new ThreadLocal< Boolean >();
+
 	/*
 	 * CONSTRUCTOR
 	 */
@@ -219,6 +231,40 @@ public class Model< T extends TrackableObject< T >>
 		return modelChangeListeners;
 	}
 
+	/**
+	 * Sets the dispatcher used to deliver {@link ModelChangeEvent}s to the
+	 * listeners of this model.
+	 * <p>
+	 * By default, events are delivered synchronously, by the thread that
+	 * modified the model, when the transaction closes. With a dispatcher,
+	 * events are delivered on its own thread, possibly merged with other
+	 * events. Listeners then run concurrently with the editors, without
+	 * holding the monitor of this model, and must synchronize on it to read
+	 * the model consistently. Editors wait for the dispatcher to catch up
+	 * after a transaction closes, once they have released the monitor of this
+	 * model, unless they still hold it.
+	 *
+	 * @param eventDispatcher
+	 *            the dispatcher to use, or <code>null</code> to deliver events
+	 *            synchronously.
+	 */
+	public synchronized void setEventDispatcher( final ModelChangeDispatcher< T > eventDispatcher )
+	{
+		this.eventDispatcher = eventDispatcher;
+	}
+
+	/**
+	 * Returns the dispatcher used to deliver {@link ModelChangeEvent}s to the
+	 * listeners of this model.
+	 *
+	 * @return the dispatcher, or <code>null</code> if events are delivered
+	 *         synchronously.
+	 */
+	public ModelChangeDispatcher< T > getEventDispatcher()
+	{
+		return eventDispatcher;
+	}
+
 	/*
 	 * PHYSICAL UNITS
 	 */
@@ -271,20 +317,24 @@ public class Model< T extends TrackableObject< T >>
 							updateLevel + "." );
 	}
 
-	public synchronized void endUpdate()
+	public void endUpdate()
 	{
-		updateLevel--;
-		if ( DEBUG )
-			System.out
-					.println( "[TrackMateModel] #endUpdate: decreasing update level to " +
-							updateLevel + "." );
-		if ( updateLevel == 0 )
+		synchronized ( this )
 		{
+			updateLevel--;
+			if ( DEBUG )
+				System.out
+						.println( "[TrackMateModel] #endUpdate: decreasing update level to " +
+								updateLevel + "." );
+			if ( updateLevel != 0 )
+				return;
+
 			if ( DEBUG )
 				System.out
 						.println( "[TrackMateModel] #endUpdate: update level is 0, calling flushUpdate()." );
 			flushUpdate();
 		}
+		awaitDispatcher();
 	}
 
 	/*
@@ -305,8 +355,7 @@ public class Model< T extends TrackableObject< T >>
 		{
 			final ModelChangeEvent< T > event =
 					new ModelChangeEvent< T >( this, ModelChangeEvent.TRACKS_COMPUTED );
-			for ( final ModelChangeListener< T > listener : modelChangeListeners )
-				listener.modelChanged( event );
+			fireModelChanged( event );
 		}
 	}
 
@@ -325,6 +374,10 @@ public class Model< T extends TrackableObject< T >>
 	 * inspecting the specified graph. All new tracks found will be made visible
 	 * and will be given a default name.
 	 * <p>
+	 * The tracks are computed in one pass over the graph, which is then used
+	 * by this model as is: no per-edge change is recorded, and listeners
+	 * receive a single event. This is the method to use to import the result
+	 * of a tracker.
 	 *
 	 * @param graph
 	 *            the graph to parse for tracks.
@@ -341,8 +394,7 @@ public class Model< T extends TrackableObject< T >>
 		{
 			final ModelChangeEvent< T > event =
 					new ModelChangeEvent< T >( this, ModelChangeEvent.TRACKS_COMPUTED );
-			for ( final ModelChangeListener< T > listener : modelChangeListeners )
-				listener.modelChanged( event );
+			fireModelChanged( event );
 		}
 	}
 
@@ -374,8 +426,7 @@ public class Model< T extends TrackableObject< T >>
 		{
 			final ModelChangeEvent< T > event =
 					new ModelChangeEvent< T >( this, ModelChangeEvent.SPOTS_COMPUTED );
-			for ( final ModelChangeListener< T > listener : modelChangeListeners )
-				listener.modelChanged( event );
+			fireModelChanged( event );
 		}
 	}
 
@@ -396,8 +447,7 @@ public class Model< T extends TrackableObject< T >>
 		{
 			final ModelChangeEvent< T > event =
 					new ModelChangeEvent< T >( this, ModelChangeEvent.SPOTS_COMPUTED );
-			for ( final ModelChangeListener< T > listener : modelChangeListeners )
-				listener.modelChanged( event );
+			fireModelChanged( event );
 		}
 	}
 
@@ -591,6 +641,8 @@ public class Model< T extends TrackableObject< T >>
 	{
 		spotsUpdated.add( spotToUpdate ); // Enlist for feature update when
 		// transaction is marked as finished
+		// Its position may have changed.
+		spots.invalidateSpatialIndex( spotToUpdate.frame() );
 		final Set< DefaultWeightedEdge > touchingEdges =
 				trackModel.edgesOf( spotToUpdate );
 		if ( null != touchingEdges )
@@ -770,16 +822,10 @@ public class Model< T extends TrackableObject< T >>
 			tracksToUpdate.add( trackModel.trackIDOf( modifiedEdge ) );
 		}
 
-		// Deal with new or moved spots: we need to update their features.
+		// New or moved spots: their features need to be updated, which is
+		// left to listeners such as FeatureUpdater.
 		final int nSpotsToUpdate =
 				spotsAdded.size() + spotsMoved.size() + spotsUpdated.size();
-		if ( nSpotsToUpdate > 0 )
-		{
-			final HashSet< T > spotsToUpdate = new HashSet< T >( nSpotsToUpdate );
-			spotsToUpdate.addAll( spotsAdded );
-			spotsToUpdate.addAll( spotsMoved );
-			spotsToUpdate.addAll( spotsUpdated );
-		}
 
 		// Initialize event
 		final ModelChangeEvent< T > event =
@@ -846,10 +892,7 @@ public class Model< T extends TrackableObject< T >>
 							.println( "[TrackMateModel] #flushUpdate(): firing model modified event" );
 					System.out.println( "[TrackMateModel] to " + modelChangeListeners );
 				}
-				for ( final ModelChangeListener< T > listener : modelChangeListeners )
-				{
-					listener.modelChanged( event );
-				}
+				fireModelChanged( event );
 			}
 
 			// Fire events stored in the event cache
@@ -863,14 +906,12 @@ public class Model< T extends TrackableObject< T >>
 				}
 				final ModelChangeEvent< T > cachedEvent =
 						new ModelChangeEvent< T >( this, eventID );
-				for ( final ModelChangeListener< T > listener : modelChangeListeners )
-				{
-					listener.modelChanged( cachedEvent );
-				}
+				fireModelChanged( cachedEvent );
 			}
 		}
 		finally
 		{
+			featureModel.removeEdgeFeatures( trackModel.edgesRemoved );
 			spotsAdded.clear();
 			spotsRemoved.clear();
 			spotsMoved.clear();
@@ -882,4 +923,50 @@ public class Model< T extends TrackableObject< T >>
 			eventCache.clear();
 		}
 	}
+
+	/**
+	 * Delivers an event to the listeners of this model, either directly or
+	 * through the event dispatcher if there is one.
+	 */
+	private void fireModelChanged( final ModelChangeEvent< T > event )
+	{
+		final ModelChangeDispatcher< T > dispatcher = eventDispatcher;
+		if ( null != dispatcher )
+		{
+			dispatcher.dispatch( event );
+			awaitDispatcher();
+			return;
+		}
+		for ( final ModelChangeListener< T > listener : modelChangeListeners )
+		{
+			listener.modelChanged( event );
+		}
+	}
+
+	/**
+	 * Makes the calling thread never wait for the event dispatcher when it
+	 * ends a transaction or fires an event. It must then call
+	 * {@link ModelChangeDispatcher#awaitCapacity()} itself, once it has
+	 * released the locks that listeners may need. Used by the writer thread of
+	 * a {@link ModelEditQueue}.
+	 */
+	void deferDispatcherWaits()
+	{
+		dispatcherWaitsDeferred.set( Boolean.TRUE );
+	}
+
+	/**
+	 * Waits for the event dispatcher, if there is one, to have room for more
+	 * events. Does not wait while the calling thread holds the monitor of this
+	 * model, because the listeners may need it, nor if the calling thread
+	 * deferred its waits.
+	 */
+	private void awaitDispatcher()
+	{
+		final ModelChangeDispatcher< T > dispatcher = eventDispatcher;
+		if ( null != dispatcher && !Thread.holdsLock( this ) && null == dispatcherWaitsDeferred.get() )
+		{
+			dispatcher.awaitCapacity();
+		}
+	}
 }
@@ -0,0 +1,352 @@
+package fiji.plugin.trackmate;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.jgrapht.graph.DefaultWeightedEdge;
+
+import fiji.plugin.trackmate.tracking.TrackableObject;
+
+/**
+ * Delivers the {@link ModelChangeEvent}s of a {@link Model} to its listeners
+ * on a dedicated thread, instead of the thread that modified the model.
+ * <p>
+ * Events are delivered in the order they were fired. Events fired within a
+ * configurable time window after a first one are delivered together, and
+ * consecutive events of the same type are merged into one:
+ * {@link ModelChangeEvent#MODEL_MODIFIED} events are merged in one event
+ * carrying all the spots, edges and updated tracks, and the other event types
+ * are only delivered once.
+ * <p>
+ * Firing an event never blocks, since the model fires them while holding its
+ * monitor. Instead, the model calls {@link #awaitCapacity()} once it has
+ * released its monitor, and editors wait there while more events than the
+ * capacity are waiting for delivery, so that slow listeners slow down the
+ * editors instead of accumulating events. Listeners that edit the model from
+ * the delivery thread do not wait, so the number of waiting events can exceed
+ * the capacity by the events they fire.
+ * <p>
+ * A model uses a dispatcher once it is passed to
+ * {@link Model#setEventDispatcher(ModelChangeDispatcher)}. Without it, events
+ * are delivered synchronously, by the thread that edits the model and while it
+ * holds the model monitor. With a dispatcher, listeners run on the delivery
+ * thread, concurrently with the editors and without holding any lock. The
+ * model may have changed again by the time they receive an event, and
+ * listeners that read the model must synchronize on it, as the
+ * {@link fiji.plugin.trackmate.features.FeatureUpdater} does.
+ *
+ * @param <T>
+ *            the type of objects in the model.
+ */
+public class ModelChangeDispatcher< T extends TrackableObject< T >>
+{
+
+	private final Model< T > model;
+
+	/**
+	 * The events waiting for delivery. Guarded by this instance.
+	 */
+	private final Deque< ModelChangeEvent< T >> queue = new ArrayDeque< ModelChangeEvent< T >>();
+
+	private final long windowNanos;
+
+	private final int capacity;
+
+	private final Thread thread;
+
+	/**
+	 * Number of events fired and not delivered yet. Guarded by this instance.
+	 */
+	private long pending = 0;
+
+	/**
+	 * Written under this instance.
+	 */
+	private volatile boolean shutdown = false;
+
+	/*
+	 * CONSTRUCTOR
+	 */
+
+	/**
+	 * Creates a dispatcher for the specified model and starts its delivery
+	 * thread.
+	 *
+	 * @param model
+	 *            the model whose listeners will receive the events.
+	 * @param window
+	 *            the time to wait for more events after a first one, before
+	 *            delivering them. Use 0 to only merge the events already
+	 *            pending.
+	 * @param unit
+	 *            the unit of the time window.
+	 * @param capacity
+	 *            the number of events waiting for delivery above which
+	 *            editors wait, and the maximal number of events delivered
+	 *            together.
+	 */
+	public ModelChangeDispatcher( final Model< T > model, final long window, final TimeUnit unit, final int capacity )
+	{
+		this.model = model;
+		this.windowNanos = unit.toNanos( window );
+		this.capacity = Math.max( 1, capacity );
+		this.thread = new Thread( "ModelChangeDispatcher" )
+		{
+			@Override
+			public void run()
+			{
+				deliveryLoop();
+			}
+		};
+		thread.setDaemon( true );
+		thread.start();
+	}
+
+	/*
+	 * METHODS
+	 */
+
+	/**
+	 * Enqueues an event for delivery. Does not block.
+	 *
+	 * @param event
+	 *            the event to deliver.
+	 */
+	public void dispatch( final ModelChangeEvent< T > event )
+	{
+		if ( shutdown ) { throw new IllegalStateException( "The dispatcher has been shut down." ); }
+		synchronized ( this )
+		{
+			queue.add( event );
+			pending++;
+			notifyAll();
+		}
+	}
+
+	/**
+	 * Waits while more events than the capacity are waiting for delivery.
+	 * Returns at once when called from the delivery thread. Must not be
+	 * called while holding the monitor of the model, since listeners may
+	 * need it.
+	 */
+	public void awaitCapacity()
+	{
+		if ( Thread.currentThread() == thread ) { return; }
+		boolean interrupted = false;
+		synchronized ( this )
+		{
+			while ( !shutdown && queue.size() > capacity )
+			{
+				try
+				{
+					wait();
+				}
+				catch ( final InterruptedException e )
+				{
+					interrupted = true;
+				}
+			}
+		}
+		if ( interrupted )
+		{
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Waits until all the events fired so far have been delivered.
+	 *
+	 * @throws InterruptedException
+	 *             if interrupted while waiting.
+	 */
+	public synchronized void flush() throws InterruptedException
+	{
+		while ( pending > 0 )
+		{
+			wait();
+		}
+	}
+
+	/**
+	 * Delivers the pending events, then stops the delivery thread.
+	 *
+	 * @throws InterruptedException
+	 *             if interrupted while waiting.
+	 */
+	public void shutdown() throws InterruptedException
+	{
+		flush();
+		synchronized ( this )
+		{
+			shutdown = true;
+			notifyAll();
+		}
+		thread.join();
+	}
+
+	/*
+	 * PRIVATE METHODS
+	 */
+
+	private void deliveryLoop()
+	{
+		final List< ModelChangeEvent< T >> burst = new ArrayList< ModelChangeEvent< T >>( capacity );
+		while ( true )
+		{
+			synchronized ( this )
+			{
+				try
+				{
+					while ( queue.isEmpty() && !shutdown )
+					{
+						wait();
+					}
+					if ( queue.isEmpty() )
+					{
+						return;
+					}
+					final long deadline = System.nanoTime() + windowNanos;
+					long remaining = windowNanos;
+					while ( queue.size() < capacity && remaining > 0 && !shutdown )
+					{
+						TimeUnit.NANOSECONDS.timedWait( this, remaining );
+						remaining = deadline - System.nanoTime();
+					}
+				}
+				catch ( final InterruptedException e )
+				{
+					// Deliver what we have.
+				}
+				while ( burst.size() < capacity && !queue.isEmpty() )
+				{
+					burst.add( queue.poll() );
+				}
+				// Wake up the editors waiting for capacity.
+				notifyAll();
+			}
+			if ( burst.isEmpty() )
+			{
+				continue;
+			}
+
+			for ( final ModelChangeEvent< T > event : coalesce( burst ) )
+			{
+				final List< ModelChangeListener< T >> listeners = new ArrayList< ModelChangeListener< T >>( model.getModelChangeListener() );
+				for ( final ModelChangeListener< T > listener : listeners )
+				{
+					try
+					{
+						listener.modelChanged( event );
+					}
+					catch ( final RuntimeException e )
+					{
+						e.printStackTrace();
+					}
+				}
+			}
+
+			synchronized ( this )
+			{
+				pending -= burst.size();
+				notifyAll();
+			}
+			burst.clear();
+		}
+	}
+
+	/**
+	 * Merges consecutive events of the same type.
+	 */
+	private List< ModelChangeEvent< T >> coalesce( final List< ModelChangeEvent< T >> events )
+	{
+		final List< ModelChangeEvent< T >> coalesced = new ArrayList< ModelChangeEvent< T >>( events.size() );
+		ModelChangeEvent< T > current = null;
+		boolean copied = false;
+		for ( final ModelChangeEvent< T > event : events )
+		{
+			if ( null != current && current.getEventID() == event.getEventID() )
+			{
+				if ( event.getEventID() == ModelChangeEvent.MODEL_MODIFIED )
+				{
+					if ( !copied )
+					{
+						// Do not alter the events fired by the model.
+						current = copy( current );
+						coalesced.set( coalesced.size() - 1, current );
+						copied = true;
+					}
+					merge( current, event );
+				}
+				continue;
+			}
+			current = event;
+			copied = false;
+			coalesced.add( event );
+		}
+		return coalesced;
+	}
+
+	private ModelChangeEvent< T > copy( final ModelChangeEvent< T > event )
+	{
+		final ModelChangeEvent< T > copy = new ModelChangeEvent< T >( event.getSource(), event.getEventID() );
+		copy.setTracksUpdated( new HashSet< Integer >() );
+		merge( copy, event );
+		return copy;
+	}
+
+	/**
+	 * Merges the content of a {@link ModelChangeEvent#MODEL_MODIFIED} event in
+	 * another one, that was fired before it. The flag of the latest event
+	 * wins, except that an object added and then modified stays added. Spots
+	 * keep their first origin frame and their last destination frame.
+	 */
+	private static < T extends TrackableObject< T >> void merge( final ModelChangeEvent< T > into, final ModelChangeEvent< T > event )
+	{
+		for ( final T spot : event.getSpots() )
+		{
+			final Integer flag = event.getSpotFlag( spot );
+			final Integer previous = into.getSpotFlag( spot );
+			into.addSpot( spot );
+			if ( null == previous || previous.intValue() != ModelChangeEvent.FLAG_SPOT_ADDED || null == flag || flag.intValue() == ModelChangeEvent.FLAG_SPOT_REMOVED )
+			{
+				into.putSpotFlag( spot, flag );
+			}
+			if ( null == into.getFromFrame( spot ) && null != event.getFromFrame( spot ) )
+			{
+				into.putFromFrame( spot, event.getFromFrame( spot ) );
+			}
+			if ( null != event.getToFrame( spot ) )
+			{
+				into.putToFrame( spot, event.getToFrame( spot ) );
+			}
+		}
+
+		for ( final DefaultWeightedEdge edge : event.getEdges() )
+		{
+			final Integer flag = event.getEdgeFlag( edge );
+			final Integer previous = into.getEdgeFlag( edge );
+			into.addEdge( edge );
+			if ( null == previous || previous.intValue() != ModelChangeEvent.FLAG_EDGE_ADDED || null == flag || flag.intValue() == ModelChangeEvent.FLAG_EDGE_REMOVED )
+			{
+				into.putEdgeFlag( edge, flag );
+			}
+		}
+
+		final Set< Integer > tracks = event.getTrackUpdated();
+		if ( null != tracks )
+		{
+			Set< Integer > intoTracks = into.getTrackUpdated();
+			if ( null == intoTracks )
+			{
+				intoTracks = new HashSet< Integer >();
+				into.setTracksUpdated( intoTracks );
+			}
+			intoTracks.addAll( tracks );
+		}
+	}
+}
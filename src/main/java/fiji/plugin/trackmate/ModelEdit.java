@@ -0,0 +1,248 @@
+package fiji.plugin.trackmate;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.jgrapht.graph.DefaultWeightedEdge;
+
+import fiji.plugin.trackmate.tracking.TrackableObject;
+
+/**
+ * A batch of modifications of a {@link Model}, to be applied as a whole by a
+ * {@link ModelEditQueue}.
+ * <p>
+ * Modifications are recorded with the methods of this class, that mirror the
+ * editing methods of {@link Model}, and are applied in the order they were
+ * recorded. Once the batch has been applied, the value returned by the model
+ * method for each modification can be retrieved with
+ * {@link #getResult(int)}, for instance to get the edges created.
+ * <p>
+ * If a modification throws an exception, the modifications recorded before it
+ * stay applied, and the next ones are not applied.
+ *
+ * @param <T>
+ *            the type of objects in the model.
+ */
+public class ModelEdit< T extends TrackableObject< T >>
+{
+
+	/**
+	 * A single modification of the model.
+	 */
+	private static abstract class Operation< T extends TrackableObject< T >>
+	{
+		abstract Object apply( Model< T > model );
+	}
+
+	private final List< Operation< T >> operations = new ArrayList< Operation< T >>();
+
+	private Object[] results;
+
+	/*
+	 * RECORDING METHODS
+	 */
+
+	/**
+	 * Records the addition of a spot.
+	 *
+	 * @see Model#addSpotTo(TrackableObject, Integer)
+	 */
+	public ModelEdit< T > addSpotTo( final T spot, final Integer frame )
+	{
+		return record( new Operation< T >()
+		{
+			@Override
+			Object apply( final Model< T > model )
+			{
+				return model.addSpotTo( spot, frame );
+			}
+		} );
+	}
+
+	/**
+	 * Records the removal of a spot.
+	 *
+	 * @see Model#removeSpot(TrackableObject)
+	 */
+	public ModelEdit< T > removeSpot( final T spot )
+	{
+		return record( new Operation< T >()
+		{
+			@Override
+			Object apply( final Model< T > model )
+			{
+				return model.removeSpot( spot );
+			}
+		} );
+	}
+
+	/**
+	 * Records moving a spot from a frame to another.
+	 *
+	 * @see Model#moveSpotFrom(TrackableObject, Integer, Integer)
+	 */
+	public ModelEdit< T > moveSpotFrom( final T spot, final Integer fromFrame, final Integer toFrame )
+	{
+		return record( new Operation< T >()
+		{
+			@Override
+			Object apply( final Model< T > model )
+			{
+				return model.moveSpotFrom( spot, fromFrame, toFrame );
+			}
+		} );
+	}
+
+	/**
+	 * Records marking a spot for feature update.
+	 *
+	 * @see Model#updateFeatures(TrackableObject)
+	 */
+	public ModelEdit< T > updateFeatures( final T spot )
+	{
+		return record( new Operation< T >()
+		{
+			@Override
+			Object apply( final Model< T > model )
+			{
+				model.updateFeatures( spot );
+				return null;
+			}
+		} );
+	}
+
+	/**
+	 * Records the creation of an edge. Its result is the edge created.
+	 *
+	 * @see Model#addEdge(TrackableObject, TrackableObject, double)
+	 */
+	public ModelEdit< T > addEdge( final T source, final T target, final double weight )
+	{
+		return record( new Operation< T >()
+		{
+			@Override
+			Object apply( final Model< T > model )
+			{
+				return model.addEdge( source, target, weight );
+			}
+		} );
+	}
+
+	/**
+	 * Records the removal of the edge between two spots.
+	 *
+	 * @see Model#removeEdge(TrackableObject, TrackableObject)
+	 */
+	public ModelEdit< T > removeEdge( final T source, final T target )
+	{
+		return record( new Operation< T >()
+		{
+			@Override
+			Object apply( final Model< T > model )
+			{
+				return model.removeEdge( source, target );
+			}
+		} );
+	}
+
+	/**
+	 * Records the removal of an edge.
+	 *
+	 * @see Model#removeEdge(DefaultWeightedEdge)
+	 */
+	public ModelEdit< T > removeEdge( final DefaultWeightedEdge edge )
+	{
+		return record( new Operation< T >()
+		{
+			@Override
+			Object apply( final Model< T > model )
+			{
+				return Boolean.valueOf( model.removeEdge( edge ) );
+			}
+		} );
+	}
+
+	/**
+	 * Records setting the weight of an edge.
+	 *
+	 * @see Model#setEdgeWeight(DefaultWeightedEdge, double)
+	 */
+	public ModelEdit< T > setEdgeWeight( final DefaultWeightedEdge edge, final double weight )
+	{
+		return record( new Operation< T >()
+		{
+			@Override
+			Object apply( final Model< T > model )
+			{
+				model.setEdgeWeight( edge, weight );
+				return null;
+			}
+		} );
+	}
+
+	/**
+	 * Records setting the visibility of a track.
+	 *
+	 * @see Model#setTrackVisibility(Integer, boolean)
+	 */
+	public ModelEdit< T > setTrackVisibility( final Integer trackID, final boolean visible )
+	{
+		return record( new Operation< T >()
+		{
+			@Override
+			Object apply( final Model< T > model )
+			{
+				return Boolean.valueOf( model.setTrackVisibility( trackID, visible ) );
+			}
+		} );
+	}
+
+	/*
+	 * METHODS
+	 */
+
+	/**
+	 * Returns the number of modifications recorded in this batch.
+	 *
+	 * @return the number of modifications.
+	 */
+	public int size()
+	{
+		return operations.size();
+	}
+
+	/**
+	 * Returns the value returned by the model for the modification with the
+	 * specified index, in recording order. Returns <code>null</code> if the
+	 * batch has not been applied yet.
+	 *
+	 * @param index
+	 *            the index of the modification.
+	 * @return the result of the modification.
+	 */
+	public Object getResult( final int index )
+	{
+		if ( null == results ) { return null; }
+		return results[ index ];
+	}
+
+	/**
+	 * Applies the modifications of this batch to the specified model. Must be
+	 * called by the thread that owns the model transaction.
+	 */
+	void apply( final Model< T > model )
+	{
+		final Object[] res = new Object[ operations.size() ];
+		for ( int i = 0; i < res.length; i++ )
+		{
+			res[ i ] = operations.get( i ).apply( model );
+		}
+		results = res;
+	}
+
+	private ModelEdit< T > record( final Operation< T > operation )
+	{
+		operations.add( operation );
+		return this;
+	}
+}
@@ -0,0 +1,366 @@
+package fiji.plugin.trackmate;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import fiji.plugin.trackmate.tracking.TrackableObject;
+
+/**
+ * Applies batches of modifications to a {@link Model} from a single writer
+ * thread.
+ * <p>
+ * Editors submit {@link ModelEdit} batches with {@link #submit(ModelEdit)},
+ * which only enqueues them, so that concurrent editors do not contend on the
+ * model. The writer thread applies the batches in submission order. It
+ * applies all the batches pending when it wakes up, up to a maximal number,
+ * in a single model transaction, so that listeners receive one
+ * {@link ModelChangeEvent} for all of them. The futures returned by
+ * {@link #submit(ModelEdit)} complete once the transaction has ended. Without
+ * a {@link ModelChangeDispatcher}, the listeners have then been notified. With
+ * one, the events have only been handed to the dispatcher, and may not have
+ * been delivered yet. The queue is bounded: submitting
+ * blocks while it is full, except for batches submitted by a listener from the
+ * writer thread, which are applied in the next transaction.
+ * <p>
+ * Readers that need a consistent view of the model, that is, one that never
+ * shows a half-applied batch, should read it through {@link #read(Callable)}.
+ * This does not give them a snapshot of the model: copying the model for each
+ * transaction would cost more than applying the batches. Instead, readers and
+ * the writer exclude each other with a read-write lock. Several readers can
+ * run concurrently, but they wait while the writer applies a transaction and
+ * notifies the listeners synchronously, and the writer waits for the running
+ * readers. When the model has a dispatcher, the writer waits for it to catch
+ * up only after releasing the lock, so that listeners can be readers.
+ * <p>
+ * The model can still be modified directly, but such modifications are not
+ * ordered with respect to the batches of this queue.
+ *
+ * @param <T>
+ *            the type of objects in the model.
+ */
+public class ModelEditQueue< T extends TrackableObject< T >>
+{
+
+	private static final int DEFAULT_CAPACITY = 1024;
+
+	private static final int DEFAULT_MAX_BATCHES_PER_TRANSACTION = 64;
+
+	private final Model< T > model;
+
+	private final BlockingQueue< PendingEdit > queue;
+
+	private final int maxBatchesPerTransaction;
+
+	private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+	/**
+	 * Marks the end of the queue.
+	 */
+	private final PendingEdit poisonPill = new PendingEdit( null );
+
+	/**
+	 * The batches submitted from the writer thread, applied in the next
+	 * transaction. Only accessed by the writer thread.
+	 */
+	private final List< PendingEdit > deferred = new ArrayList< PendingEdit >();
+
+	private final Thread writer;
+
+	private volatile boolean shutdown = false;
+
+	/*
+	 * CONSTRUCTORS
+	 */
+
+	/**
+	 * Creates a new edit queue for the specified model, with default capacity,
+	 * and starts its writer thread.
+	 *
+	 * @param model
+	 *            the model to edit.
+	 */
+	public ModelEditQueue( final Model< T > model )
+	{
+		this( model, DEFAULT_CAPACITY, DEFAULT_MAX_BATCHES_PER_TRANSACTION );
+	}
+
+	/**
+	 * Creates a new edit queue for the specified model, and starts its writer
+	 * thread.
+	 *
+	 * @param model
+	 *            the model to edit.
+	 * @param capacity
+	 *            the maximal number of batches waiting to be applied.
+	 * @param maxBatchesPerTransaction
+	 *            the maximal number of batches applied in a single model
+	 *            transaction.
+	 */
+	public ModelEditQueue( final Model< T > model, final int capacity, final int maxBatchesPerTransaction )
+	{
+		this.model = model;
+		this.queue = new ArrayBlockingQueue< PendingEdit >( capacity );
+		this.maxBatchesPerTransaction = Math.max( 1, maxBatchesPerTransaction );
+		this.writer = new Thread( "ModelEditQueue writer" )
+		{
+			@Override
+			public void run()
+			{
+				writeLoop();
+			}
+		};
+		writer.setDaemon( true );
+		writer.start();
+	}
+
+	/*
+	 * METHODS
+	 */
+
+	/**
+	 * Enqueues a batch of modifications. Blocks while the queue is full.
+	 * <p>
+	 * When called from the writer thread, typically by a model listener, the
+	 * batch is not put in the queue, since the writer would wait for itself if
+	 * the queue were full. It is instead kept aside and applied in the next
+	 * transaction, before the batches waiting in the queue.
+	 *
+	 * @param edit
+	 *            the batch to apply. It must not be modified after this call.
+	 * @return a future that completes with the batch once the transaction it
+	 *         was applied in has ended, or with the exception thrown while
+	 *         applying it.
+	 * @throws InterruptedException
+	 *             if interrupted while waiting for space in the queue.
+	 * @throws IllegalStateException
+	 *             if this queue has been shut down.
+	 */
+	public Future< ModelEdit< T >> submit( final ModelEdit< T > edit ) throws InterruptedException
+	{
+		if ( shutdown ) { throw new IllegalStateException( "The edit queue has been shut down." ); }
+		final PendingEdit task = new PendingEdit( edit );
+		if ( Thread.currentThread() == writer )
+		{
+			deferred.add( task );
+		}
+		else
+		{
+			queue.put( task );
+		}
+		return task;
+	}
+
+	/**
+	 * Runs the specified reader while no batch is being applied and no
+	 * listener is being notified by the writer, and returns its result. Several readers can
+	 * run concurrently. The reader sees the live model, not a snapshot, and
+	 * delays the next transaction while it runs.
+	 *
+	 * @param reader
+	 *            the reader to run.
+	 * @return the result of the reader.
+	 * @throws Exception
+	 *             the exception thrown by the reader, if any.
+	 */
+	public < R > R read( final Callable< R > reader ) throws Exception
+	{
+		lock.readLock().lock();
+		try
+		{
+			return reader.call();
+		}
+		finally
+		{
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Stops accepting new batches, and waits until all the batches submitted
+	 * so far have been applied.
+	 *
+	 * @throws InterruptedException
+	 *             if interrupted while waiting.
+	 */
+	public void shutdown() throws InterruptedException
+	{
+		if ( !shutdown )
+		{
+			shutdown = true;
+			queue.put( poisonPill );
+		}
+		writer.join();
+	}
+
+	/*
+	 * PRIVATE METHODS
+	 */
+
+	private void writeLoop()
+	{
+		// Listeners on the dispatcher thread may be readers: never wait for
+		// it while holding the write lock.
+		model.deferDispatcherWaits();
+		final List< PendingEdit > batches = new ArrayList< PendingEdit >( maxBatchesPerTransaction );
+		boolean done = false;
+		while ( !done )
+		{
+			if ( deferred.isEmpty() )
+			{
+				try
+				{
+					batches.add( queue.take() );
+				}
+				catch ( final InterruptedException e )
+				{
+					// Only shutdown() stops the writer.
+					continue;
+				}
+			}
+			else
+			{
+				batches.addAll( deferred );
+				deferred.clear();
+			}
+			queue.drainTo( batches, Math.max( 0, maxBatchesPerTransaction - batches.size() ) );
+
+			lock.writeLock().lock();
+			try
+			{
+				model.beginUpdate();
+				try
+				{
+					for ( final PendingEdit batch : batches )
+					{
+						if ( batch == poisonPill )
+						{
+							done = true;
+							continue;
+						}
+						batch.apply();
+					}
+				}
+				finally
+				{
+					model.endUpdate();
+				}
+			}
+			catch ( final RuntimeException e )
+			{
+				// Thrown by a listener. Do not let it stop the writer.
+				e.printStackTrace();
+			}
+			finally
+			{
+				lock.writeLock().unlock();
+			}
+
+			// The transaction has ended: the batches are done.
+			for ( final PendingEdit batch : batches )
+			{
+				batch.complete();
+			}
+			batches.clear();
+
+			final ModelChangeDispatcher< T > dispatcher = model.getEventDispatcher();
+			if ( null != dispatcher )
+			{
+				dispatcher.awaitCapacity();
+			}
+		}
+
+		// Batches that raced with shutdown() will never be applied.
+		final List< PendingEdit > late = new ArrayList< PendingEdit >( deferred );
+		queue.drainTo( late );
+		for ( final PendingEdit batch : late )
+		{
+			batch.cancel( false );
+		}
+	}
+
+	/*
+	 * INNER CLASS
+	 */
+
+	/**
+	 * A batch waiting to be applied. It is applied by the writer thread with
+	 * {@link #apply()}, and its future completes only when
+	 * {@link #complete()} is called, after the transaction has ended.
+	 */
+	private final class PendingEdit extends FutureTask< ModelEdit< T >>
+	{
+
+		private final ModelEdit< T > edit;
+
+		private boolean applied = false;
+
+		private RuntimeException error;
+
+		public PendingEdit( final ModelEdit< T > edit )
+		{
+			super( new Runnable()
+			{
+				@Override
+				public void run()
+				{}
+			}, null );
+			this.edit = edit;
+		}
+
+		/**
+		 * Applies the batch to the model, unless it has been cancelled, and
+		 * keeps the exception thrown, if any.
+		 */
+		private void apply()
+		{
+			if ( isCancelled() )
+			{
+				return;
+			}
+			applied = true;
+			try
+			{
+				edit.apply( model );
+			}
+			catch ( final RuntimeException e )
+			{
+				error = e;
+			}
+		}
+
+		/**
+		 * Completes the future with the outcome of {@link #apply()}. Does
+		 * nothing if the batch was not applied.
+		 */
+		private void complete()
+		{
+			if ( !applied )
+			{
+				return;
+			}
+			if ( null == error )
+			{
+				set( edit );
+			}
+			else
+			{
+				setException( error );
+			}
+		}
+
+		/**
+		 * Does nothing: batches are applied by the writer thread, not by
+		 * running their future.
+		 */
+		@Override
+		public void run()
+		{}
+	}
+}
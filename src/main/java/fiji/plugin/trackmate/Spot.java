@@ -148,15 +148,43 @@ public class Spot extends AbstractTrackableObject< Spot > implements
 	 */
 	public Spot( final int ID )
 	{
-		super( new double[ 3 ], ID );
+		super( new double[ 3 ], ID, -1 );
 		this.features = new ConcurrentHashMap< String, Double >();
 	}
 
 	protected final ConcurrentMap< String, Double > features;
 
+	/**
+	 * Counts the feature changes made on this spot through
+	 * {@link #putFeature(String, Double)} and {@link #setFrame(int)}.
+	 * Visibility changes are not counted.
+	 */
+	private volatile int featureModCount = 0;
+
+	/**
+	 * Returns the number of feature changes made on this spot through
+	 * {@link #putFeature(String, Double)} and {@link #setFrame(int)}, except
+	 * for the {@link TrackmateConstants#VISIBILITY} feature. A
+	 * {@link SpotFeatureTable} compares it to the value it recorded for this
+	 * spot to detect that its values may be stale. Changes made directly to
+	 * the map returned by {@link #getFeatures()} are not counted.
+	 *
+	 * @return the feature modification count.
+	 */
+	int getFeatureModCount()
+	{
+		return featureModCount;
+	}
+
 	/**
 	 * Exposes the storage map of features for this object. Altering the
 	 * returned map will alter the spot.
+	 * <p>
+	 * The privileged features (position, {@link TrackmateConstants#FRAME},
+	 * {@link TrackmateConstants#RADIUS}, {@link TrackmateConstants#QUALITY} and
+	 * {@link TrackmateConstants#VISIBILITY}) are mirrored in primitive fields
+	 * that are only updated through {@link #putFeature(String, Double)} and the
+	 * dedicated setters. Do not change them through this map.
 	 *
 	 * @return a map of {@link String}s to {@link Double}s.
 	 */
@@ -193,6 +221,36 @@ public class Spot extends AbstractTrackableObject< Spot > implements
 	public void putFeature( final String feature, final Double value )
 	{
 		features.put( feature, value );
+		updatePrimitiveField( feature, value );
+		if ( !TrackmateConstants.VISIBILITY.equals( feature ) )
+		{
+			featureModCount++;
+		}
+	}
+
+	/**
+	 * Mirrors the value of a privileged feature in its primitive field. Does
+	 * nothing for other features.
+	 */
+	private void updatePrimitiveField( final String feature, final Double value )
+	{
+		if ( null == value )
+			return;
+
+		if ( TrackmateConstants.POSITION_X.equals( feature ) )
+			position[ 0 ] = value.doubleValue();
+		else if ( TrackmateConstants.POSITION_Y.equals( feature ) )
+			position[ 1 ] = value.doubleValue();
+		else if ( TrackmateConstants.POSITION_Z.equals( feature ) )
+			position[ 2 ] = value.doubleValue();
+		else if ( TrackmateConstants.FRAME.equals( feature ) )
+			frame = value.intValue();
+		else if ( TrackmateConstants.RADIUS.equals( feature ) )
+			radius = value.doubleValue();
+		else if ( TrackmateConstants.QUALITY.equals( feature ) )
+			quality = value.doubleValue();
+		else if ( TrackmateConstants.VISIBILITY.equals( feature ) )
+			super.setVisible( value.intValue() == 1 );
 	}
 
 	/**
@@ -237,63 +295,19 @@ public class Spot extends AbstractTrackableObject< Spot > implements
 		return s.toString();
 	}
 
-	@Override
-	public int frame()
-	{
-		return getFeature( TrackmateConstants.FRAME ).intValue();
-	}
-
 	@Override
 	public void setFrame( final int frame )
 	{
+		super.setFrame( frame );
 		features.put( TrackmateConstants.FRAME, ( double ) frame );
+		featureModCount++;
 	}
 
 	@Override
 	public void setVisible( final boolean visibility )
 	{
+		super.setVisible( visibility );
 		features.put( TrackmateConstants.VISIBILITY,
 				visibility ? TrackmateConstants.ONE : TrackmateConstants.ZERO );
 	}
-
-	@Override
-	public boolean isVisible()
-	{
-		return features.get( TrackmateConstants.VISIBILITY ).intValue() == 1;
-	}
-
-	@Override
-	public double radius()
-	{
-		return features.get( TrackmateConstants.RADIUS ).doubleValue();
-	}
-
-	@Override
-	public void localize( final float[] position )
-	{
-		assert ( position.length >= n );
-		for ( int d = 0; d < n; ++d )
-			position[ d ] = getFloatPosition( d );
-	}
-
-	@Override
-	public void localize( final double[] position )
-	{
-		assert ( position.length >= n );
-		for ( int d = 0; d < n; ++d )
-			position[ d ] = getDoublePosition( d );
-	}
-
-	@Override
-	public float getFloatPosition( final int d )
-	{
-		return ( float ) getDoublePosition( d );
-	}
-
-	@Override
-	public double getDoublePosition( final int d )
-	{
-		assert ( d >= 0 && d < n );
-		return getFeature( TrackmateConstants.POSITION_FEATURES[ d ] );
-	}
 }
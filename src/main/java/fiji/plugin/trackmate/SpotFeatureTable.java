@@ -0,0 +1,168 @@
+package fiji.plugin.trackmate;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A columnar copy of some features of the spots of a
+ * {@link DefaultSpotCollection}.
+ * <p>
+ * Spots are mapped to dense row indices, in the iteration order of the
+ * collection (by frame), and each feature is stored in one primitive
+ * <code>double[]</code> column. Spots that do not have a feature get
+ * {@link Double#NaN} in its column. This allows filtering and collecting
+ * feature values by scanning arrays instead of querying the feature map of
+ * each spot.
+ * <p>
+ * The table is a copy: the feature maps of the spots remain the source of
+ * truth, so it adds to the memory used by the spots. It is only valid as long
+ * as the features of its spots do not change. The table records the feature
+ * modification count of each of its spots when it is built, and
+ * {@link #isStale()} reports whether a feature of one of them changed since,
+ * through {@link Spot#putFeature(String, Double)} or
+ * {@link Spot#setFrame(int)}. Spots outside the table are not checked.
+ * Changes of the visibility of spots are not tracked, so the
+ * {@link TrackmateConstants#VISIBILITY} feature cannot be stored in a table.
+ * Neither are changes made directly to the map returned by
+ * {@link Spot#getFeatures()}.
+ * <p>
+ * The spot collection that owns the table discards it when spots are added or
+ * removed, and when it finds it stale.
+ */
+public class SpotFeatureTable
+{
+
+	private final Spot[] spots;
+
+	private final Map< String, double[] > columns;
+
+	private final int[] modCounts;
+
+	/**
+	 * Creates a table for the specified spots and features. The columns are
+	 * allocated but not filled; they must be filled with
+	 * {@link #fill(String)}.
+	 *
+	 * @param spots
+	 *            the spots, one per row.
+	 * @param features
+	 *            the features to store.
+	 */
+	SpotFeatureTable( final Spot[] spots, final Collection< String > features )
+	{
+		if ( features.contains( TrackmateConstants.VISIBILITY ) ) { throw new IllegalArgumentException( "The visibility of spots cannot be stored in a feature table." ); }
+		this.spots = spots;
+		this.modCounts = new int[ spots.length ];
+		for ( int row = 0; row < spots.length; row++ )
+		{
+			modCounts[ row ] = spots[ row ].getFeatureModCount();
+		}
+		this.columns = new LinkedHashMap< String, double[] >( 2 * features.size() );
+		for ( final String feature : features )
+		{
+			columns.put( feature, new double[ spots.length ] );
+		}
+	}
+
+	/**
+	 * Returns the number of rows, that is, of spots in this table.
+	 *
+	 * @return the number of rows.
+	 */
+	public int getNRows()
+	{
+		return spots.length;
+	}
+
+	/**
+	 * Returns the spot at the specified row.
+	 *
+	 * @param row
+	 *            the row.
+	 * @return the spot.
+	 */
+	public Spot getSpot( final int row )
+	{
+		return spots[ row ];
+	}
+
+	/**
+	 * Returns the features stored in this table.
+	 *
+	 * @return an unmodifiable set of feature names.
+	 */
+	public Set< String > getFeatures()
+	{
+		return Collections.unmodifiableSet( columns.keySet() );
+	}
+
+	/**
+	 * Returns <code>true</code> if the specified feature is stored in this
+	 * table.
+	 *
+	 * @param feature
+	 *            the feature name.
+	 * @return <code>true</code> if the feature has a column.
+	 */
+	public boolean hasFeature( final String feature )
+	{
+		return columns.containsKey( feature );
+	}
+
+	/**
+	 * Returns the column of values of the specified feature, one per row, or
+	 * <code>null</code> if the feature is not stored in this table. The
+	 * returned array is the storage of this table, and must not be modified.
+	 *
+	 * @param feature
+	 *            the feature name.
+	 * @return the column of values.
+	 */
+	public double[] getColumn( final String feature )
+	{
+		return columns.get( feature );
+	}
+
+	/**
+	 * Returns <code>true</code> if a feature of a spot of this table, possibly
+	 * not stored in this table, changed since this table was created. The
+	 * values of this table must not be used then.
+	 *
+	 * @return <code>true</code> if the values of this table may be stale.
+	 */
+	public boolean isStale()
+	{
+		for ( int row = 0; row < spots.length; row++ )
+		{
+			if ( spots[ row ].getFeatureModCount() != modCounts[ row ] ) { return true; }
+		}
+		return false;
+	}
+
+	/**
+	 * Copies the values of the specified feature from the spots.
+	 *
+	 * @param feature
+	 *            the feature to copy. Must be stored in this table.
+	 */
+	void fill( final String feature )
+	{
+		final double[] column = columns.get( feature );
+		if ( null == column ) { throw new IllegalArgumentException( "Feature " + feature + " is not stored in this table." ); }
+		for ( int row = 0; row < spots.length; row++ )
+		{
+			final Double val = spots[ row ].getFeature( feature );
+			column[ row ] = null == val ? Double.NaN : val.doubleValue();
+		}
+	}
+
+	@Override
+	public String toString()
+	{
+		return super.toString() + ": " + spots.length + " spots, features " + Arrays.toString( columns.keySet().toArray() );
+	}
+}
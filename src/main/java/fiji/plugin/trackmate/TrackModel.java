@@ -1,5 +1,8 @@
 package fiji.plugin.trackmate;
 
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
@@ -9,25 +12,24 @@ import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import net.imglib2.multithreading.SimpleMultiThreading;
 
 import org.jgrapht.Graph;
+import org.jgrapht.Graphs;
 import org.jgrapht.UndirectedGraph;
 import org.jgrapht.VertexFactory;
 import org.jgrapht.alg.DijkstraShortestPath;
-import org.jgrapht.event.ConnectedComponentTraversalEvent;
-import org.jgrapht.event.EdgeTraversalEvent;
 import org.jgrapht.event.GraphEdgeChangeEvent;
 import org.jgrapht.event.GraphListener;
 import org.jgrapht.event.GraphVertexChangeEvent;
-import org.jgrapht.event.TraversalListener;
-import org.jgrapht.event.TraversalListenerAdapter;
-import org.jgrapht.event.VertexTraversalEvent;
 import org.jgrapht.graph.AsUnweightedGraph;
 import org.jgrapht.graph.DefaultWeightedEdge;
 import org.jgrapht.graph.ListenableUndirectedGraph;
 import org.jgrapht.graph.SimpleDirectedWeightedGraph;
 import org.jgrapht.graph.SimpleWeightedGraph;
-import org.jgrapht.traverse.BreadthFirstIterator;
 import org.jgrapht.traverse.DepthFirstIterator;
 import org.jgrapht.traverse.GraphIterator;
 
@@ -38,7 +40,6 @@ import fiji.plugin.trackmate.graph.TimeDirectedNeighborIndex;
 import fiji.plugin.trackmate.graph.TimeDirectedSortedDepthFirstIterator;
 import fiji.plugin.trackmate.tracking.TrackableObject;
 import fiji.plugin.trackmate.util.AlphanumComparator;
-import fiji.plugin.trackmate.util.TMUtils;
 
 /**
  * A component of {@link Model} specialized for tracks
@@ -104,6 +105,12 @@ public class TrackModel< T extends TrackableObject< T >>
 
 	private static final Boolean DEFAULT_VISIBILITY = Boolean.TRUE;
 
+	/**
+	 * Below this number of edges, the tracks of a new graph are built in the
+	 * calling thread.
+	 */
+	private static final int MIN_EDGES_PER_THREAD = 10000;
+
 	// ~ Instance fields
 	// --------------------------------------------------------
 
@@ -123,6 +130,48 @@ public class TrackModel< T extends TrackableObject< T >>
 
 	private final Iterator< String > nameGenerator = new DefaultNameGenerator();
 
+	/**
+	 * Orders track IDs by track name, then by ID for tracks with the same name.
+	 */
+	private final Comparator< Integer > nameComparator = new Comparator< Integer >()
+	{
+		@Override
+		public int compare( final Integer o1, final Integer o2 )
+		{
+			final String n1 = names.get( o1 );
+			final String n2 = names.get( o2 );
+			final int c;
+			if ( null == n1 || null == n2 )
+			{
+				c = null == n1 ? ( null == n2 ? 0 : -1 ) : 1;
+			}
+			else
+			{
+				c = AlphanumComparator.instance.compare( n1, n2 );
+			}
+			return c != 0 ? c : o1.compareTo( o2 );
+		}
+	};
+
+	/**
+	 * The IDs of all the tracks, sorted by name. Must be updated <b>before</b>
+	 * a track name is changed or removed, and after it is added.
+	 */
+	private final TreeSet< Integer > sortedTrackIDs = new TreeSet< Integer >( nameComparator );
+
+	/**
+	 * The IDs of the visible tracks, sorted by name.
+	 */
+	private final TreeSet< Integer > sortedVisibleTrackIDs = new TreeSet< Integer >( nameComparator );
+
+	/**
+	 * Unmodifiable copies of the sorted track IDs returned by
+	 * {@link #trackIDs(boolean)}, discarded when the tracks change.
+	 */
+	private Set< Integer > trackIDsView;
+
+	private Set< Integer > visibleTrackIDsView;
+
 	/*
 	 * Constructors -----------------------------------------------------------
 	 */
@@ -210,6 +259,7 @@ public class TrackModel< T extends TrackableObject< T >>
 
 		visibility = trackVisibility;
 		names = trackNames;
+		rebuildSortedTrackIDs();
 		connectedVertexSets = trackSpots;
 		connectedEdgeSets = trackEdges;
 
@@ -287,7 +337,20 @@ public class TrackModel< T extends TrackableObject< T >>
 
 	Boolean setVisibility( final Integer trackID, final boolean visible )
 	{
-		return visibility.put( trackID, Boolean.valueOf( visible ) );
+		final Boolean previous = visibility.put( trackID, Boolean.valueOf( visible ) );
+		if ( sortedTrackIDs.contains( trackID ) )
+		{
+			if ( visible )
+			{
+				sortedVisibleTrackIDs.add( trackID );
+			}
+			else
+			{
+				sortedVisibleTrackIDs.remove( trackID );
+			}
+			visibleTrackIDsView = null;
+		}
+		return previous;
 	}
 
 	/*
@@ -440,30 +503,35 @@ public class TrackModel< T extends TrackableObject< T >>
 
 	/**
 	 * Returns the set of track IDs managed by this model, ordered by track
-	 * names (alpha-numerically sorted).
+	 * names (alpha-numerically sorted). Tracks with the same name are ordered
+	 * by ID.
+	 * <p>
+	 * The sorted IDs are maintained as tracks are created, renamed, merged,
+	 * split or hidden, so this method does not sort them. The returned set is
+	 * an unmodifiable snapshot, shared by calls made while the tracks do not
+	 * change.
 	 *
 	 * @param visibleOnly
 	 *            if <code>true</code>, only visible track IDs will be returned.
-	 * @return a new set of track IDs.
+	 * @return an unmodifiable set of track IDs.
 	 */
 	public Set< Integer > trackIDs( final boolean visibleOnly )
 	{
-		final Set< Integer > ids = TMUtils.sortByValue( names, AlphanumComparator.instance ).keySet();
 		if ( !visibleOnly )
 		{
-			return ids;
+			if ( null == trackIDsView )
+			{
+				trackIDsView = Collections.unmodifiableSet( new LinkedHashSet< Integer >( sortedTrackIDs ) );
+			}
+			return trackIDsView;
 		}
 		else
 		{
-			final Set< Integer > vids = new LinkedHashSet< Integer >( ids.size() );
-			for ( final Integer id : ids )
+			if ( null == visibleTrackIDsView )
 			{
-				if ( visibility.get( id ) )
-				{
-					vids.add( id );
-				}
+				visibleTrackIDsView = Collections.unmodifiableSet( new LinkedHashSet< Integer >( sortedVisibleTrackIDs ) );
 			}
-			return vids;
+			return visibleTrackIDsView;
 		}
 	}
 
@@ -518,7 +586,16 @@ public class TrackModel< T extends TrackableObject< T >>
 	 */
 	public void setName( final Integer id, final String name )
 	{
+		final boolean visible = sortedVisibleTrackIDs.remove( id );
+		sortedTrackIDs.remove( id );
 		names.put( id, name );
+		sortedTrackIDs.add( id );
+		if ( visible )
+		{
+			sortedVisibleTrackIDs.add( id );
+		}
+		trackIDsView = null;
+		visibleTrackIDsView = null;
 	}
 
 	/**
@@ -598,6 +675,12 @@ public class TrackModel< T extends TrackableObject< T >>
 	/**
 	 * Generates initial connected sets in bulk, from a graph. All sets are
 	 * created visible, and are give a default name.
+	 * <p>
+	 * The connected components are found in a single union-find pass over the
+	 * edges, without going through the graph listener. Track IDs are given in
+	 * the order in which the components are met when iterating over the
+	 * vertices, solitary vertices consuming an ID as well. The vertex and
+	 * edge sets of the tracks and the ID maps are then built concurrently.
 	 */
 	private void init( final UndirectedGraph< T, DefaultWeightedEdge > graph )
 	{
@@ -614,17 +697,274 @@ public class TrackModel< T extends TrackableObject< T >>
 		edgesRemoved.clear();
 		tracksUpdated.clear();
 
-		final Set< T > vertexSet = graph.vertexSet();
-		if ( vertexSet.size() > 0 )
+		final Set< DefaultWeightedEdge > edgeSet = graph.edgeSet();
+		if ( edgeSet.isEmpty() )
+		{
+			// Only solitary vertices, which are not tracks.
+			IDcounter = graph.vertexSet().size();
+			rebuildSortedTrackIDs();
+			return;
+		}
+
+		/*
+		 * Index vertices and edges.
+		 */
+
+		final List< T > vertices = new ArrayList< T >( graph.vertexSet() );
+		final int nVertices = vertices.size();
+		final Map< T, Integer > index = new HashMap< T, Integer >( 2 * nVertices );
+		for ( int i = 0; i < nVertices; i++ )
+		{
+			index.put( vertices.get( i ), Integer.valueOf( i ) );
+		}
+		final List< DefaultWeightedEdge > edges = new ArrayList< DefaultWeightedEdge >( edgeSet );
+		final int nEdges = edges.size();
+		final int[] edgeSource = new int[ nEdges ];
+
+		/*
+		 * Union-find. The root of a component is its vertex of lowest index,
+		 * so that components are numbered in order of their first vertex.
+		 */
+
+		final int[] parent = new int[ nVertices ];
+		for ( int i = 0; i < nVertices; i++ )
+		{
+			parent[ i ] = i;
+		}
+		for ( int k = 0; k < nEdges; k++ )
+		{
+			final DefaultWeightedEdge edge = edges.get( k );
+			edgeSource[ k ] = index.get( graph.getEdgeSource( edge ) ).intValue();
+			final int a = find( parent, edgeSource[ k ] );
+			final int b = find( parent, index.get( graph.getEdgeTarget( edge ) ).intValue() );
+			if ( a < b )
+			{
+				parent[ b ] = a;
+			}
+			else if ( b < a )
+			{
+				parent[ a ] = b;
+			}
+		}
+
+		/*
+		 * Number components. Vertices are given the compact index of their
+		 * track, or -1 if they are solitary.
+		 */
+
+		final int[] vertexTrack = new int[ nVertices ];
+		final int[] nTrackVertices = new int[ nVertices ];
+		for ( int i = 0; i < nVertices; i++ )
+		{
+			nTrackVertices[ find( parent, i ) ]++;
+		}
+		final List< Integer > trackIDList = new ArrayList< Integer >();
+		for ( int i = 0; i < nVertices; i++ )
+		{
+			final int root = find( parent, i );
+			if ( root == i )
+			{
+				if ( nTrackVertices[ i ] > 1 )
+				{
+					vertexTrack[ i ] = trackIDList.size();
+					trackIDList.add( Integer.valueOf( IDcounter ) );
+				}
+				else
+				{
+					vertexTrack[ i ] = -1;
+				}
+				IDcounter++;
+			}
+			else
+			{
+				vertexTrack[ i ] = vertexTrack[ root ];
+			}
+		}
+		final int nTracks = trackIDList.size();
+
+		/*
+		 * Group vertices and edges by track.
+		 */
+
+		final int[] vertexStart = new int[ nTracks + 1 ];
+		final int[] edgeStart = new int[ nTracks + 1 ];
+		for ( int i = 0; i < nVertices; i++ )
+		{
+			if ( vertexTrack[ i ] >= 0 )
+			{
+				vertexStart[ vertexTrack[ i ] + 1 ]++;
+			}
+		}
+		final int[] edgeTrack = new int[ nEdges ];
+		for ( int k = 0; k < nEdges; k++ )
+		{
+			edgeTrack[ k ] = vertexTrack[ edgeSource[ k ] ];
+			edgeStart[ edgeTrack[ k ] + 1 ]++;
+		}
+		for ( int t = 0; t < nTracks; t++ )
+		{
+			vertexStart[ t + 1 ] += vertexStart[ t ];
+			edgeStart[ t + 1 ] += edgeStart[ t ];
+		}
+		final int[] trackVertices = new int[ vertexStart[ nTracks ] ];
+		final int[] trackEdges = new int[ nEdges ];
+		final int[] vFill = Arrays.copyOf( vertexStart, nTracks );
+		final int[] eFill = Arrays.copyOf( edgeStart, nTracks );
+		for ( int i = 0; i < nVertices; i++ )
+		{
+			if ( vertexTrack[ i ] >= 0 )
+			{
+				trackVertices[ vFill[ vertexTrack[ i ] ]++ ] = i;
+			}
+		}
+		for ( int k = 0; k < nEdges; k++ )
+		{
+			trackEdges[ eFill[ edgeTrack[ k ] ]++ ] = k;
+		}
+
+		/*
+		 * Build the sets and ID maps concurrently. Tasks 0 and 1 fill the
+		 * vertex and edge ID maps, the next ones build the sets of one track.
+		 */
+
+		@SuppressWarnings( "unchecked" )
+		final Set< T >[] vertexSets = new Set[ nTracks ];
+		@SuppressWarnings( "unchecked" )
+		final Set< DefaultWeightedEdge >[] edgeSets = new Set[ nTracks ];
+		final Map< T, Integer > vmap = new HashMap< T, Integer >( 2 * trackVertices.length );
+		final Map< DefaultWeightedEdge, Integer > emap = new HashMap< DefaultWeightedEdge, Integer >( 2 * nEdges );
+		final AtomicInteger nextTask = new AtomicInteger( 0 );
+		final Runnable worker = new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				int task;
+				while ( ( task = nextTask.getAndIncrement() ) < nTracks + 2 )
+				{
+					if ( task == 0 )
+					{
+						for ( final int i : trackVertices )
+						{
+							vmap.put( vertices.get( i ), trackIDList.get( vertexTrack[ i ] ) );
+						}
+					}
+					else if ( task == 1 )
+					{
+						for ( int k = 0; k < nEdges; k++ )
+						{
+							emap.put( edges.get( k ), trackIDList.get( edgeTrack[ k ] ) );
+						}
+					}
+					else
+					{
+						final int t = task - 2;
+						final Set< T > vs = new HashSet< T >( 2 * ( vertexStart[ t + 1 ] - vertexStart[ t ] ) );
+						for ( int j = vertexStart[ t ]; j < vertexStart[ t + 1 ]; j++ )
+						{
+							vs.add( vertices.get( trackVertices[ j ] ) );
+						}
+						vertexSets[ t ] = vs;
+						final Set< DefaultWeightedEdge > es = new HashSet< DefaultWeightedEdge >( 2 * ( edgeStart[ t + 1 ] - edgeStart[ t ] ) );
+						for ( int j = edgeStart[ t ]; j < edgeStart[ t + 1 ]; j++ )
+						{
+							es.add( edges.get( trackEdges[ j ] ) );
+						}
+						edgeSets[ t ] = es;
+					}
+				}
+			}
+		};
+
+		final int numThreads = nEdges < MIN_EDGES_PER_THREAD ? 1 : Math.min( Runtime.getRuntime().availableProcessors(), nTracks + 2 );
+		if ( numThreads <= 1 )
+		{
+			worker.run();
+		}
+		else
+		{
+			final Thread[] threads = SimpleMultiThreading.newThreads( numThreads );
+			for ( int i = 0; i < threads.length; i++ )
+			{
+				threads[ i ] = new Thread( worker, "TrackModel init thread " + i );
+			}
+			SimpleMultiThreading.startAndJoin( threads );
+		}
+
+		vertexToID = vmap;
+		edgeToID = emap;
+		for ( int t = 0; t < nTracks; t++ )
+		{
+			final Integer id = trackIDList.get( t );
+			connectedVertexSets.put( id, vertexSets[ t ] );
+			connectedEdgeSets.put( id, edgeSets[ t ] );
+			visibility.put( id, DEFAULT_VISIBILITY );
+			names.put( id, nameGenerator.next() );
+		}
+		rebuildSortedTrackIDs();
+	}
+
+	/**
+	 * Returns the root of the specified element in a union-find forest, and
+	 * halves the path to it.
+	 */
+	private static final int find( final int[] parent, int i )
+	{
+		while ( parent[ i ] != i )
+		{
+			parent[ i ] = parent[ parent[ i ] ];
+			i = parent[ i ];
+		}
+		return i;
+	}
+
+	/**
+	 * Registers the name and visibility of a new track.
+	 */
+	private void addTrack( final Integer id, final String name, final Boolean visible )
+	{
+		names.put( id, name );
+		visibility.put( id, visible );
+		sortedTrackIDs.add( id );
+		if ( visible )
 		{
-			final BreadthFirstIterator< T, DefaultWeightedEdge > i = new BreadthFirstIterator< T, DefaultWeightedEdge >( graph, null );
-			i.addTraversalListener( new MyTraversalListener() );
+			sortedVisibleTrackIDs.add( id );
+		}
+		trackIDsView = null;
+		visibleTrackIDsView = null;
+	}
+
+	/**
+	 * Forgets the name and visibility of a track.
+	 */
+	private void removeTrack( final Integer id )
+	{
+		sortedTrackIDs.remove( id );
+		sortedVisibleTrackIDs.remove( id );
+		names.remove( id );
+		visibility.remove( id );
+		trackIDsView = null;
+		visibleTrackIDsView = null;
+	}
 
-			while ( i.hasNext() )
+	/**
+	 * Rebuilds the sorted track IDs from the {@link #names} and
+	 * {@link #visibility} maps.
+	 */
+	private void rebuildSortedTrackIDs()
+	{
+		sortedTrackIDs.clear();
+		sortedVisibleTrackIDs.clear();
+		sortedTrackIDs.addAll( names.keySet() );
+		for ( final Integer id : sortedTrackIDs )
+		{
+			if ( Boolean.TRUE.equals( visibility.get( id ) ) )
 			{
-				i.next();
+				sortedVisibleTrackIDs.add( id );
 			}
 		}
+		trackIDsView = null;
+		visibleTrackIDsView = null;
 	}
 
 	/*
@@ -763,77 +1103,6 @@ public class TrackModel< T extends TrackableObject< T >>
 	 * Inner Classes
 	 */
 
-	private class MyTraversalListener implements TraversalListener< T, DefaultWeightedEdge >
-	{
-		private Set< T > currentConnectedVertexSet;
-
-		private Set< DefaultWeightedEdge > currentConnectedEdgeSet;
-
-		private Integer ID;
-
-		/**
-		 * Called when after traversing a connected set. Stores it, gives it
-		 * default visibility, and a default name. Discard sets made of 1
-		 * vertices or 0 edges.
-		 */
-		@Override
-		public void connectedComponentFinished( final ConnectedComponentTraversalEvent event )
-		{
-			if ( currentConnectedVertexSet.size() <= 1 || currentConnectedEdgeSet.size() == 0 )
-			{
-				// Forget them
-				for ( final DefaultWeightedEdge e : currentConnectedEdgeSet )
-				{
-					edgeToID.remove( e );
-				}
-				for ( final T v : currentConnectedVertexSet )
-				{
-					vertexToID.remove( v );
-				}
-				return;
-			}
-			// Adds them
-			connectedVertexSets.put( ID, currentConnectedVertexSet );
-			connectedEdgeSets.put( ID, currentConnectedEdgeSet );
-			visibility.put( ID, DEFAULT_VISIBILITY );
-			names.put( ID, nameGenerator.next() );
-		}
-
-		/**
-		 * @see TraversalListenerAdapter#connectedComponentStarted(ConnectedComponentTraversalEvent)
-		 */
-		@Override
-		public void connectedComponentStarted( final ConnectedComponentTraversalEvent e )
-		{
-			currentConnectedVertexSet = new HashSet< T >();
-			currentConnectedEdgeSet = new HashSet< DefaultWeightedEdge >();
-			ID = IDcounter++;
-		}
-
-		/**
-		 * @see TraversalListenerAdapter#vertexTraversed(VertexTraversalEvent)
-		 */
-		@Override
-		public void vertexTraversed( final VertexTraversalEvent< T > event )
-		{
-			final T v = event.getVertex();
-			currentConnectedVertexSet.add( v );
-			vertexToID.put( v, ID );
-		}
-
-		@Override
-		public void edgeTraversed( final EdgeTraversalEvent< T, DefaultWeightedEdge > event )
-		{
-			final DefaultWeightedEdge e = event.getEdge();
-			currentConnectedEdgeSet.add( e );
-			edgeToID.put( e, ID );
-		}
-
-		@Override
-		public void vertexFinished( final VertexTraversalEvent< T > e )
-		{}
-	}
-
 	/**
 	 * This listener class is made to deal with complex changes in the track
 	 * graph.
@@ -867,6 +1136,17 @@ public class TrackModel< T extends TrackableObject< T >>
 	 * another call. They are used to build the {@link TrackModel#edgesAdded}
 	 * and {@link TrackModel#edgesRemoved} fields, that will be used to notify
 	 * listeners of the model.
+	 * </ul>
+	 * A link between two tracks merges the smaller one into the larger one,
+	 * and a link removal that splits a track re-attributes its smaller part.
+	 * Both cost time proportional to the size of the smaller track or part,
+	 * plus, for the removal of a link that does not split its track, the size
+	 * of the parts explored before they meet. Over a sequence of link
+	 * additions only, or of link removals only, each vertex changes track
+	 * O(log n) times, so the cost is amortized logarithmic per vertex. When
+	 * additions and removals alternate, for instance when a link between two
+	 * large halves of a track is removed and added back repeatedly, each
+	 * operation can cost the size of the smaller half.
 	 *
 	 * @author Jean-Yves Tinevez <jeanyves.tinevez@gmail.com> Aug 12, 2011
 	 *
@@ -899,8 +1179,7 @@ public class TrackModel< T extends TrackableObject< T >>
 				{
 					connectedEdgeSets.remove( id );
 					connectedVertexSets.remove( id );
-					names.remove( id );
-					visibility.remove( id );
+					removeTrack( id );
 				}
 			}
 		}
@@ -947,55 +1226,44 @@ public class TrackModel< T extends TrackableObject< T >>
 				{
 					// They come from different sets.
 
-					// Edges:
-					final Set< DefaultWeightedEdge > ses = connectedEdgeSets.get( sid );
-					final Set< DefaultWeightedEdge > tes = connectedEdgeSets.get( tid );
-					final HashSet< DefaultWeightedEdge > nes = new HashSet< DefaultWeightedEdge >( ses.size() + tes.size() + 1 );
-					nes.addAll( ses );
-					nes.addAll( tes );
-					nes.add( e );
-
-					// Vertices:
+					/*
+					 * The largest set (in vertices) keeps its id, the source
+					 * set winning ties. The smaller set is merged into it in
+					 * place, so only its vertices and edges change id.
+					 */
 					final Set< T > svs = connectedVertexSets.get( sid );
 					final Set< T > tvs = connectedVertexSets.get( tid );
-					final HashSet< T > nvs = new HashSet< T >( ses.size() + tes.size() );
-					nvs.addAll( svs );
-					nvs.addAll( tvs );
-
-					Integer nid, rid;
-					if ( nvs.size() > tvs.size() )
+					final Integer nid, rid;
+					if ( tvs.size() > svs.size() )
+					{
+						nid = tid;
+						rid = sid;
+					}
+					else
 					{
 						nid = sid;
 						rid = tid;
-						for ( final T v : tvs )
-						{
-							// Vertices of target set change id
-							vertexToID.put( v, nid );
-						}
-						for ( final DefaultWeightedEdge te : tes )
-						{
-							edgeToID.put( te, nid );
-						}
 					}
-					else
+
+					// Vertices:
+					final Set< T > nvs = connectedVertexSets.get( nid );
+					final Set< T > rvs = connectedVertexSets.remove( rid );
+					for ( final T v : rvs )
 					{
-						nid = tid;
-						rid = sid;
-						for ( final T v : svs )
-						{
-							// Vertices of source set change id
-							vertexToID.put( v, nid );
-						}
-						for ( final DefaultWeightedEdge se : ses )
-						{
-							edgeToID.put( se, nid );
-						}
+						vertexToID.put( v, nid );
 					}
+					nvs.addAll( rvs );
+
+					// Edges:
+					final Set< DefaultWeightedEdge > nes = connectedEdgeSets.get( nid );
+					final Set< DefaultWeightedEdge > res = connectedEdgeSets.remove( rid );
+					for ( final DefaultWeightedEdge re : res )
+					{
+						edgeToID.put( re, nid );
+					}
+					nes.addAll( res );
+					nes.add( e );
 					edgeToID.put( e, nid );
-					connectedVertexSets.put( nid, nvs );
-					connectedVertexSets.remove( rid );
-					connectedEdgeSets.put( nid, nes );
-					connectedEdgeSets.remove( rid );
 
 					// Transaction: we signal that the large id is to be
 					// updated, and forget about the small one
@@ -1005,11 +1273,11 @@ public class TrackModel< T extends TrackableObject< T >>
 					// Visibility: if at least one is visible, the new set is
 					// made visible.
 					final Boolean targetVisibility = visibility.get( sid ) || visibility.get( tid );
-					visibility.put( nid, targetVisibility );
-					visibility.remove( rid );
+					removeTrack( rid );
+					setVisibility( nid, targetVisibility );
 
 					// Name: the new set gets the name of the largest one.
-					names.remove( rid ); // 'nid' already has the right name.
+					// 'nid' already has the right name.
 				}
 
 			}
@@ -1031,10 +1299,8 @@ public class TrackModel< T extends TrackableObject< T >>
 				vertexToID.put( tv, nid );
 				edgeToID.put( e, nid );
 
-				// Give it visibility
-				visibility.put( nid, Boolean.TRUE );
-				// and a default name.
-				names.put( nid, nameGenerator.next() );
+				// Give it visibility and a default name.
+				addTrack( nid, nameGenerator.next(), Boolean.TRUE );
 				// Transaction: we mark the new track as updated
 				tracksUpdated.add( nid );
 
@@ -1100,8 +1366,7 @@ public class TrackModel< T extends TrackableObject< T >>
 			{
 				// The set is empty, remove it from the map.
 				connectedEdgeSets.remove( id );
-				names.remove( id );
-				visibility.remove( id );
+				removeTrack( id );
 				/* We need to remove also the vertices */
 				final Set< T > vertexSet = connectedVertexSets.get( id );
 				// Forget the vertices were in a set
@@ -1122,161 +1387,153 @@ public class TrackModel< T extends TrackableObject< T >>
 			}
 			else
 			{
-				// So there are some edges remaining in the set.
-				// Look at the connected component of its source and target.
-				// Source
-				final HashSet< T > sourceVCS = new HashSet< T >();
-				final HashSet< DefaultWeightedEdge > sourceECS = new HashSet< DefaultWeightedEdge >();
-				{
-					final T source = graph.getEdgeSource( e );
-					// Get its connected set
-					final BreadthFirstIterator< T, DefaultWeightedEdge > i = new BreadthFirstIterator< T, DefaultWeightedEdge >( graph, source );
-					while ( i.hasNext() )
-					{
-						final T sv = i.next();
-						sourceVCS.add( sv );
-						sourceECS.addAll( graph.edgesOf( sv ) );
-					}
-				}
-				// Target
-				final HashSet< T > targetVCS = new HashSet< T >();
-				final HashSet< DefaultWeightedEdge > targetECS = new HashSet< DefaultWeightedEdge >();
+				/*
+				 * So there are some edges remaining in the set. Explore the
+				 * connected components of the source and of the target in
+				 * lockstep, one vertex at a time, until they meet or one of
+				 * them is exhausted. Only the smaller part is fully explored
+				 * and re-attributed, so removing edges from a large track does
+				 * not cost a traversal of the whole track.
+				 */
+
+				final ComponentSearch sourceSearch = new ComponentSearch( graph.getEdgeSource( e ) );
+				final ComponentSearch targetSearch = new ComponentSearch( graph.getEdgeTarget( e ) );
+				boolean met = false;
+				while ( !sourceSearch.isExhausted() && !targetSearch.isExhausted() )
 				{
-					final T target = graph.getEdgeTarget( e );
-					// Get its connected set
-					final BreadthFirstIterator< T, DefaultWeightedEdge > i = new BreadthFirstIterator< T, DefaultWeightedEdge >( graph, target );
-					while ( i.hasNext() )
+					if ( sourceSearch.step( targetSearch ) || targetSearch.step( sourceSearch ) )
 					{
-						final T sv = i.next();
-						targetVCS.add( sv );
-						targetECS.addAll( graph.edgesOf( sv ) );
+						met = true;
+						break;
 					}
 				}
 
 				/*
-				 * If the two connected components are the same, it means that
-				 * the edge was an "internal" edge: Because there is another
-				 * path that connect its source and target, removing it did NOT
-				 * split the track in 2. We therefore need not to re-attribute
-				 * it.
+				 * If the two connected components meet, it means that the edge
+				 * was an "internal" edge: Because there is another path that
+				 * connect its source and target, removing it did NOT split the
+				 * track in 2. We therefore need not to re-attribute it.
 				 */
-				if ( targetVCS.equals( sourceVCS ) )
+				if ( met )
 				{
 					tracksUpdated.add( id );
-					connectedEdgeSets.get( id ).remove( e );
 					return;
 				}
 
 				/*
-				 * Re-attribute the found connected sets to the model. The
-				 * largest one (in vertices) gets the original id, the other
-				 * gets a new id. As for names: the largest one keeps its name,
-				 * the small one gets a new name.
+				 * One part is exhausted. Explore the other one until it is
+				 * exhausted too, or known to be larger. The largest one (in
+				 * vertices) keeps the original id, the source part winning
+				 * ties. The other gets a new id. As for names: the largest one
+				 * keeps its name, the small one gets a new name.
 				 */
 
-				if ( targetVCS.size() > sourceVCS.size() )
+				final boolean targetIsLarger;
+				if ( sourceSearch.isExhausted() )
 				{
+					while ( !targetSearch.isExhausted() && targetSearch.size() <= sourceSearch.size() )
+					{
+						targetSearch.step( null );
+					}
+					targetIsLarger = targetSearch.size() > sourceSearch.size();
+				}
+				else
+				{
+					while ( !sourceSearch.isExhausted() && sourceSearch.size() <= targetSearch.size() )
+					{
+						sourceSearch.step( null );
+					}
+					targetIsLarger = sourceSearch.isExhausted() && targetSearch.size() > sourceSearch.size();
+				}
+				final ComponentSearch small = targetIsLarger ? sourceSearch : targetSearch;
 
-					connectedEdgeSets.put( id, targetECS );
-					connectedVertexSets.put( id, targetVCS ); // they already
-																// have the
-																// right id in
-																// #vertexToId
-					tracksUpdated.add( id ); // old track has changed
+				// The large part keeps the original sets, minus the small part.
+				connectedVertexSets.get( id ).removeAll( small.vertices );
+				set.removeAll( small.edges );
+				tracksUpdated.add( id ); // old track has changed
 
-					if ( sourceECS.size() > 0 )
+				if ( small.edges.size() > 0 )
+				{
+					// the smaller part is still a track
+					final int newid = IDcounter++;
+					connectedEdgeSets.put( newid, small.edges );
+					for ( final DefaultWeightedEdge te : small.edges )
 					{
-						// the smaller part is still a track
-						final int newid = IDcounter++;
-						connectedEdgeSets.put( newid, sourceECS ); // otherwise
-																	// forget it
-						for ( final DefaultWeightedEdge te : sourceECS )
-						{
-							edgeToID.put( te, newid );
-						}
-						connectedVertexSets.put( newid, sourceVCS );
-						for ( final T tv : sourceVCS )
-						{
-							vertexToID.put( tv, newid );
-						}
-						final Boolean targetVisibility = visibility.get( id );
-						visibility.put( newid, targetVisibility );
-						names.put( newid, nameGenerator.next() );
-						// Transaction: both children tracks are marked for
-						// update.
-						tracksUpdated.add( newid );
-
+						edgeToID.put( te, newid );
 					}
-					else
+					connectedVertexSets.put( newid, small.vertices );
+					for ( final T tv : small.vertices )
 					{
-						/*
-						 * Nothing remains from the smallest part. The remaining
-						 * solitary vertex has no right to be called a track.
-						 */
-						final T solitary = sourceVCS.iterator().next();
-						vertexToID.remove( solitary );
+						vertexToID.put( tv, newid );
 					}
-
+					final Boolean targetVisibility = visibility.get( id );
+					addTrack( newid, nameGenerator.next(), targetVisibility );
+					// Transaction: both children tracks are marked for
+					// update.
+					tracksUpdated.add( newid );
 				}
 				else
 				{
+					/*
+					 * Nothing remains from the smallest part. The remaining
+					 * solitary vertex has no right to be called a track.
+					 */
+					final T solitary = small.vertices.iterator().next();
+					vertexToID.remove( solitary );
+				}
+			}
+		}
 
-					if ( sourceECS.size() > 0 )
-					{
-						// There are still some pieces left. It is worth noting
-						// it.
-						connectedEdgeSets.put( id, sourceECS );
-						connectedVertexSets.put( id, sourceVCS );
-						tracksUpdated.add( id );
+	}
 
-						if ( targetECS.size() > 0 )
-						{
-							// the small part is still a track
-							final int newid = IDcounter++;
-							connectedEdgeSets.put( newid, targetECS );
-							for ( final DefaultWeightedEdge te : targetECS )
-							{
-								edgeToID.put( te, newid );
-							}
-							connectedVertexSets.put( newid, targetVCS );
-							for ( final T v : targetVCS )
-							{
-								vertexToID.put( v, newid );
-							}
-							final Boolean targetVisibility = visibility.get( id );
-							visibility.put( newid, targetVisibility );
-							names.put( newid, nameGenerator.next() );
-							// Transaction: both children tracks are marked for
-							// update.
-							tracksUpdated.add( newid );
-						}
-						else
-						{
-							/*
-							 * Nothing remains from the smallest part. The
-							 * remaining solitary vertex has no right to be
-							 * called a track.
-							 */
-							final T solitary = targetVCS.iterator().next();
-							vertexToID.remove( solitary );
-						}
+	/**
+	 * A breadth-first exploration of the connected component of a vertex in
+	 * the {@link #graph}, that can be advanced one vertex at a time. It
+	 * collects the vertices reached and the edges of the vertices expanded.
+	 */
+	private class ComponentSearch
+	{
+		private final HashSet< T > vertices = new HashSet< T >();
 
-					}
-					else
-					{
-						// Nothing remains (maybe a solitary vertex) -> forget
-						// about it all.
-						connectedEdgeSets.remove( id );
-						connectedVertexSets.remove( id );
-						names.remove( id );
-						visibility.remove( id );
-						tracksUpdated.remove( id );
-					}
+		private final HashSet< DefaultWeightedEdge > edges = new HashSet< DefaultWeightedEdge >();
+
+		private final ArrayDeque< T > queue = new ArrayDeque< T >();
+
+		private ComponentSearch( final T start )
+		{
+			vertices.add( start );
+			queue.add( start );
+		}
 
+		private boolean isExhausted()
+		{
+			return queue.isEmpty();
+		}
+
+		private int size()
+		{
+			return vertices.size();
+		}
+
+		/**
+		 * Expands the next vertex in the queue. Returns <code>true</code> if
+		 * it reached a vertex already reached by the other search, if any.
+		 */
+		private boolean step( final ComponentSearch other )
+		{
+			final T v = queue.poll();
+			for ( final DefaultWeightedEdge edge : graph.edgesOf( v ) )
+			{
+				edges.add( edge );
+				final T w = Graphs.getOppositeVertex( graph, edge, v );
+				if ( vertices.add( w ) )
+				{
+					if ( null != other && other.vertices.contains( w ) ) { return true; }
+					queue.add( w );
 				}
 			}
+			return false;
 		}
-
 	}
 
 	private static class DefaultNameGenerator implements Iterator< String >
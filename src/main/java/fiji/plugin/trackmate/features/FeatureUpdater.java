@@ -0,0 +1,403 @@
+package fiji.plugin.trackmate.features;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.jgrapht.graph.DefaultWeightedEdge;
+
+import fiji.plugin.trackmate.Model;
+import fiji.plugin.trackmate.ModelChangeEvent;
+import fiji.plugin.trackmate.ModelChangeListener;
+import fiji.plugin.trackmate.TrackModel;
+import fiji.plugin.trackmate.features.edges.EdgeAnalyzer;
+import fiji.plugin.trackmate.features.track.TrackAnalyzer;
+import fiji.plugin.trackmate.tracking.TrackableObject;
+
+/**
+ * Keeps the edge and track features of a {@link Model} up to date as it is
+ * edited.
+ * <p>
+ * Once registered as a {@link ModelChangeListener} of the model, this class
+ * inspects each {@link ModelChangeEvent#MODEL_MODIFIED} event to find the
+ * edges and the tracks it touched:
+ * <ul>
+ * <li>the edges added or modified, and the edges of the spots modified or
+ * moved;
+ * <li>the tracks listed in {@link ModelChangeEvent#getTrackUpdated()}, and the
+ * tracks of the edges and spots above.
+ * </ul>
+ * Local analyzers, as told by {@link EdgeAnalyzer#isLocal()} and
+ * {@link TrackAnalyzer#isLocal()}, are run right away on these edges and
+ * tracks only. Non-local edge analyzers are run on all the edges of the
+ * touched tracks, and non-local track analyzers on all the visible tracks, as
+ * the javadoc of these interfaces prescribes. Because they are much more
+ * expensive, their work is accumulated and run once, after a delay without
+ * new modifications. A {@link ModelChangeEvent#TRACKS_COMPUTED} event marks
+ * everything dirty.
+ * <p>
+ * Analyzers for manual features are never run.
+ * <p>
+ * The delayed runs are made on a dedicated thread, holding the model monitor.
+ * They can be forced with {@link #flush()}. With a delay of 0, non-local
+ * analyzers are run right away, like the local ones.
+ * <p>
+ * Events are processed holding the model monitor too. Without an event
+ * dispatcher, the model already holds it when it notifies its listeners.
+ * With a {@link fiji.plugin.trackmate.ModelChangeDispatcher}, events are
+ * delivered on another thread, concurrently with the editors, and the model
+ * may have changed since the event was fired: edges and tracks removed since
+ * are skipped.
+ *
+ * @param <T>
+ *            the type of objects in the model.
+ */
+public class FeatureUpdater< T extends TrackableObject< T >> implements ModelChangeListener< T >
+{
+
+	private final Model< T > model;
+
+	private final List< EdgeAnalyzer< T >> localEdgeAnalyzers = new ArrayList< EdgeAnalyzer< T >>();
+
+	private final List< EdgeAnalyzer< T >> globalEdgeAnalyzers = new ArrayList< EdgeAnalyzer< T >>();
+
+	private final List< TrackAnalyzer< T >> localTrackAnalyzers = new ArrayList< TrackAnalyzer< T >>();
+
+	private final List< TrackAnalyzer< T >> globalTrackAnalyzers = new ArrayList< TrackAnalyzer< T >>();
+
+	private final long delay;
+
+	private final TimeUnit unit;
+
+	private final ScheduledExecutorService executor;
+
+	/*
+	 * Delayed work. Guarded by this instance.
+	 */
+
+	/** The tracks whose edges the non-local edge analyzers must process. */
+	private Set< Integer > pendingTracks = new HashSet< Integer >();
+
+	/** Whether the non-local track analyzers must run. */
+	private boolean pendingTrackAnalysis = false;
+
+	private ScheduledFuture< ? > scheduledPass;
+
+	/*
+	 * CONSTRUCTOR
+	 */
+
+	/**
+	 * Creates a feature updater for the specified model. It must then be
+	 * registered as a listener of the model.
+	 *
+	 * @param model
+	 *            the model whose features to update.
+	 * @param edgeAnalyzers
+	 *            the analyzers for edge features.
+	 * @param trackAnalyzers
+	 *            the analyzers for track features.
+	 * @param delay
+	 *            the time without modification to wait before running the
+	 *            non-local analyzers.
+	 * @param unit
+	 *            the unit of the delay.
+	 */
+	public FeatureUpdater( final Model< T > model, final Collection< ? extends EdgeAnalyzer< T >> edgeAnalyzers, final Collection< ? extends TrackAnalyzer< T >> trackAnalyzers, final long delay, final TimeUnit unit )
+	{
+		this.model = model;
+		this.delay = delay;
+		this.unit = unit;
+		for ( final EdgeAnalyzer< T > analyzer : edgeAnalyzers )
+		{
+			if ( analyzer.isManualFeature() )
+			{
+				continue;
+			}
+			if ( analyzer.isLocal() )
+			{
+				localEdgeAnalyzers.add( analyzer );
+			}
+			else
+			{
+				globalEdgeAnalyzers.add( analyzer );
+			}
+		}
+		for ( final TrackAnalyzer< T > analyzer : trackAnalyzers )
+		{
+			if ( analyzer.isManualFeature() )
+			{
+				continue;
+			}
+			if ( analyzer.isLocal() )
+			{
+				localTrackAnalyzers.add( analyzer );
+			}
+			else
+			{
+				globalTrackAnalyzers.add( analyzer );
+			}
+		}
+
+		if ( delay > 0 && ( !globalEdgeAnalyzers.isEmpty() || !globalTrackAnalyzers.isEmpty() ) )
+		{
+			executor = Executors.newSingleThreadScheduledExecutor( new ThreadFactory()
+			{
+				@Override
+				public Thread newThread( final Runnable r )
+				{
+					final Thread thread = new Thread( r, "FeatureUpdater" );
+					thread.setDaemon( true );
+					return thread;
+				}
+			} );
+		}
+		else
+		{
+			executor = null;
+		}
+	}
+
+	/*
+	 * METHODS
+	 */
+
+	/**
+	 * Runs all the analyzers on all the edges and tracks of the model, in the
+	 * calling thread.
+	 */
+	public void computeAll()
+	{
+		synchronized ( model )
+		{
+			final TrackModel< T > trackModel = model.getTrackModel();
+			final Set< Integer > trackIDs = trackModel.unsortedTrackIDs( false );
+			runEdgeAnalyzers( localEdgeAnalyzers, trackModel.edgeSet() );
+			runEdgeAnalyzers( globalEdgeAnalyzers, trackModel.edgeSet() );
+			runTrackAnalyzers( localTrackAnalyzers, trackIDs );
+			runTrackAnalyzers( globalTrackAnalyzers, trackModel.trackIDs( true ) );
+		}
+	}
+
+	/**
+	 * Runs the pending non-local analyzers now, in the calling thread.
+	 */
+	public void flush()
+	{
+		synchronized ( model )
+		{
+			runPendingPass();
+		}
+	}
+
+	/**
+	 * Runs the pending non-local analyzers, then stops the thread running them.
+	 * This updater must not receive events after this call.
+	 */
+	public void shutdown()
+	{
+		if ( null != executor )
+		{
+			executor.shutdownNow();
+		}
+		flush();
+	}
+
+	@Override
+	public void modelChanged( final ModelChangeEvent< T > event )
+	{
+		synchronized ( model )
+		{
+			switch ( event.getEventID() )
+			{
+			case ModelChangeEvent.MODEL_MODIFIED:
+				updateDirty( event );
+				break;
+
+			case ModelChangeEvent.TRACKS_COMPUTED:
+				updateAll();
+				break;
+
+			default:
+				break;
+			}
+		}
+	}
+
+	/*
+	 * PRIVATE METHODS
+	 */
+
+	private void updateDirty( final ModelChangeEvent< T > event )
+	{
+		final TrackModel< T > trackModel = model.getTrackModel();
+		final Set< DefaultWeightedEdge > dirtyEdges = new HashSet< DefaultWeightedEdge >();
+		final Set< Integer > dirtyTracks = new HashSet< Integer >();
+
+		for ( final DefaultWeightedEdge edge : event.getEdges() )
+		{
+			final Integer flag = event.getEdgeFlag( edge );
+			if ( null != flag && flag.intValue() == ModelChangeEvent.FLAG_EDGE_REMOVED )
+			{
+				continue;
+			}
+			final Integer trackID = trackModel.trackIDOf( edge );
+			if ( null == trackID )
+			{
+				// Removed since.
+				continue;
+			}
+			dirtyEdges.add( edge );
+			dirtyTracks.add( trackID );
+		}
+
+		for ( final T spot : event.getSpots() )
+		{
+			final Integer flag = event.getSpotFlag( spot );
+			if ( null == flag || ( flag.intValue() != ModelChangeEvent.FLAG_SPOT_MODIFIED && flag.intValue() != ModelChangeEvent.FLAG_SPOT_FRAME_CHANGED ) )
+			{
+				continue;
+			}
+			final Integer trackID = trackModel.trackIDOf( spot );
+			if ( null == trackID )
+			{
+				continue;
+			}
+			dirtyEdges.addAll( trackModel.edgesOf( spot ) );
+			dirtyTracks.add( trackID );
+		}
+
+		final Set< Integer > updated = event.getTrackUpdated();
+		if ( null != updated )
+		{
+			for ( final Integer trackID : updated )
+			{
+				// Tracks merged or deleted since have no edges.
+				if ( null != trackModel.trackEdges( trackID ) )
+				{
+					dirtyTracks.add( trackID );
+				}
+			}
+		}
+
+		if ( dirtyEdges.isEmpty() && dirtyTracks.isEmpty() ) { return; }
+
+		runEdgeAnalyzers( localEdgeAnalyzers, dirtyEdges );
+		runTrackAnalyzers( localTrackAnalyzers, dirtyTracks );
+		schedule( dirtyTracks );
+	}
+
+	private void updateAll()
+	{
+		final TrackModel< T > trackModel = model.getTrackModel();
+		runEdgeAnalyzers( localEdgeAnalyzers, trackModel.edgeSet() );
+		runTrackAnalyzers( localTrackAnalyzers, trackModel.unsortedTrackIDs( false ) );
+		schedule( trackModel.unsortedTrackIDs( false ) );
+	}
+
+	/**
+	 * Adds work for the non-local analyzers, and runs it now or after the
+	 * delay.
+	 */
+	private void schedule( final Collection< Integer > dirtyTracks )
+	{
+		if ( globalEdgeAnalyzers.isEmpty() && globalTrackAnalyzers.isEmpty() ) { return; }
+
+		synchronized ( this )
+		{
+			if ( !globalEdgeAnalyzers.isEmpty() )
+			{
+				pendingTracks.addAll( dirtyTracks );
+			}
+			pendingTrackAnalysis = !globalTrackAnalyzers.isEmpty();
+
+			if ( null != executor && !executor.isShutdown() )
+			{
+				// Debounce: restart the delay.
+				if ( null != scheduledPass )
+				{
+					scheduledPass.cancel( false );
+				}
+				scheduledPass = executor.schedule( new Runnable()
+				{
+					@Override
+					public void run()
+					{
+						synchronized ( model )
+						{
+							runPendingPass();
+						}
+					}
+				}, delay, unit );
+				return;
+			}
+		}
+		runPendingPass();
+	}
+
+	/**
+	 * Runs the non-local analyzers on the work accumulated so far. Must be
+	 * called holding the model monitor, or from a model listener.
+	 */
+	private void runPendingPass()
+	{
+		final Set< Integer > tracks;
+		final boolean trackAnalysis;
+		synchronized ( this )
+		{
+			if ( null != scheduledPass )
+			{
+				scheduledPass.cancel( false );
+				scheduledPass = null;
+			}
+			tracks = pendingTracks;
+			trackAnalysis = pendingTrackAnalysis;
+			pendingTracks = new HashSet< Integer >();
+			pendingTrackAnalysis = false;
+		}
+
+		final TrackModel< T > trackModel = model.getTrackModel();
+		if ( !tracks.isEmpty() )
+		{
+			final Set< DefaultWeightedEdge > edges = new HashSet< DefaultWeightedEdge >();
+			for ( final Integer trackID : tracks )
+			{
+				final Set< DefaultWeightedEdge > trackEdges = trackModel.trackEdges( trackID );
+				if ( null != trackEdges )
+				{
+					edges.addAll( trackEdges );
+				}
+			}
+			runEdgeAnalyzers( globalEdgeAnalyzers, edges );
+		}
+		if ( trackAnalysis )
+		{
+			runTrackAnalyzers( globalTrackAnalyzers, trackModel.trackIDs( true ) );
+		}
+	}
+
+	private void runEdgeAnalyzers( final List< EdgeAnalyzer< T >> analyzers, final Collection< DefaultWeightedEdge > edges )
+	{
+		if ( edges.isEmpty() ) { return; }
+		for ( final EdgeAnalyzer< T > analyzer : analyzers )
+		{
+			analyzer.process( edges, model );
+		}
+	}
+
+	private void runTrackAnalyzers( final List< TrackAnalyzer< T >> analyzers, final Collection< Integer > trackIDs )
+	{
+		if ( trackIDs.isEmpty() ) { return; }
+		for ( final TrackAnalyzer< T > analyzer : analyzers )
+		{
+			analyzer.process( trackIDs, model );
+		}
+	}
+}
@@ -1,6 +1,7 @@
 package fiji.plugin.trackmate.tracking;
 
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import net.imglib2.AbstractRealLocalizable;
 
@@ -10,12 +11,37 @@ public abstract class AbstractTrackableObject< T extends AbstractTrackableObject
 
 	public static AtomicInteger IDcounter = new AtomicInteger( -1 );
 
+	/**
+	 * Counts the visibility changes of the objects of the
+	 * {@link DefaultTOCollection} this object was last added to, so that its
+	 * spatial indices over visible objects can tell that they are stale.
+	 * <code>null</code> if this object was never added to one.
+	 */
+	private volatile AtomicLong visibilityModCount;
+
 	/** A user-supplied name for this object. */
 	protected String name;
 
 	protected final int id;
 
-	private final int frame;
+	/*
+	 * Privileged values are stored in primitive fields, so that hot loops
+	 * (cost functions, spatial indices, analyzers) do not have to go through a
+	 * feature map lookup and unboxing. The position itself is stored in the
+	 * position array of the super class.
+	 */
+
+	/** The frame this object belongs to. */
+	protected int frame;
+
+	/** The radius of this object, in image units. */
+	protected double radius = Double.NaN;
+
+	/** The quality of this object. */
+	protected double quality = Double.NaN;
+
+	/** The visibility of this object. */
+	protected boolean visible = false;
 
 	public AbstractTrackableObject( final double[] position, final int id,
 			final int frame )
@@ -121,6 +147,59 @@ public abstract class AbstractTrackableObject< T extends AbstractTrackableObject
 		return frame;
 	}
 
+	@Override
+	public void setFrame( final int frame )
+	{
+		this.frame = frame;
+	}
+
+	@Override
+	public double radius()
+	{
+		return radius;
+	}
+
+	/**
+	 * @return the quality of this object.
+	 */
+	public double quality()
+	{
+		return quality;
+	}
+
+	@Override
+	public boolean isVisible()
+	{
+		return visible;
+	}
+
+	@Override
+	public void setVisible( final boolean visibility )
+	{
+		if ( visible != visibility )
+		{
+			visible = visibility;
+			final AtomicLong counter = visibilityModCount;
+			if ( null != counter )
+			{
+				counter.incrementAndGet();
+			}
+		}
+	}
+
+	/**
+	 * Sets the counter to increment when the visibility of this object
+	 * changes. Called by the {@link DefaultTOCollection} this object is added
+	 * to.
+	 *
+	 * @param counter
+	 *            the visibility modification count of the collection.
+	 */
+	void setVisibilityModCount( final AtomicLong counter )
+	{
+		this.visibilityModCount = counter;
+	}
+
 	@Override
 	public int compareTo( final T o )
 	{
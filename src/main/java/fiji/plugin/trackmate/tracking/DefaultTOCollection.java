@@ -9,13 +9,18 @@ import java.util.Map;
 import java.util.NavigableSet;
 import java.util.Set;
 import java.util.SortedMap;
-import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentSkipListMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
+import net.imglib2.KDTree;
 import net.imglib2.algorithm.MultiThreaded;
+import net.imglib2.neighborsearch.KNearestNeighborSearchOnKDTree;
+import net.imglib2.neighborsearch.NearestNeighborSearchOnKDTree;
+import net.imglib2.neighborsearch.RadiusNeighborSearchOnKDTree;
 import fiji.plugin.trackmate.FeatureFilter;
 import fiji.plugin.trackmate.Spot;
 import fiji.plugin.trackmate.SpotCollection;
@@ -60,6 +65,41 @@ public class DefaultTOCollection< T extends TrackableObject< T >>
 
 	protected int numThreads;
 
+	/**
+	 * The index of the content by ID, built on the first search and then
+	 * maintained by {@link #add(TrackableObject, Integer)},
+	 * {@link #remove(TrackableObject, Integer)}, {@link #put(int, Collection)}
+	 * and {@link #clear()}. <code>null</code> when not built. Guarded by
+	 * {@link #indexLock}.
+	 */
+	private IntObjectMap< T > idIndex;
+
+	private final Object indexLock = new Object();
+
+	/**
+	 * The spatial index of the content of each frame, built on the first
+	 * spatial query on the frame, and discarded when the frame content
+	 * changes.
+	 */
+	private final ConcurrentHashMap< Integer, FrameTree< T >> allTrees = new ConcurrentHashMap< Integer, FrameTree< T >>();
+
+	/**
+	 * The spatial index of the visible content of each frame, discarded when
+	 * the frame content changes, and rebuilt when the visibility of objects
+	 * changed since it was built.
+	 */
+	private final ConcurrentHashMap< Integer, FrameTree< T >> visibleTrees = new ConcurrentHashMap< Integer, FrameTree< T >>();
+
+	private final Object treeLock = new Object();
+
+	/**
+	 * Counts the visibility changes of the objects of this collection. It is
+	 * incremented by the {@link AbstractTrackableObject}s of this collection
+	 * when their visibility changes, and by this class when it changes the
+	 * visibility of other objects.
+	 */
+	private final AtomicLong visibilityModCount = new AtomicLong();
+
 	/*
 	 * CONSTRUCTORS
 	 */
@@ -80,6 +120,16 @@ public class DefaultTOCollection< T extends TrackableObject< T >>
 	 * Retrieves and returns the {@link Spot} object in this collection with the
 	 * specified ID. Returns <code>null</code> if the spot cannot be found. All
 	 * spots, visible or not, are searched for.
+	 * <p>
+	 * Spots are looked up in an index by ID, built on the first call and
+	 * maintained by the methods of this class, so that this method runs in
+	 * constant time when the spot is found. A miss costs a count over the
+	 * frames. The index is rebuilt when it returns a spot that is not in the
+	 * collection anymore, or when it misses a spot while its size differs from
+	 * the number of spots, so that spots added or removed through the views of
+	 * this collection, such as the frame content returned by
+	 * {@link #iterable(int, boolean)}, are found. A spot added through a view
+	 * while another is removed the same way, however, may not be found.
 	 *
 	 * @param ID
 	 *            the ID to look for.
@@ -89,16 +139,33 @@ public class DefaultTOCollection< T extends TrackableObject< T >>
 	@Override
 	public T search( final int ID )
 	{
-		T obj = null;
-		for ( final T s : iterable( false ) )
+		synchronized ( indexLock )
+		{
+			return lookup( ID );
+		}
+	}
+
+	/**
+	 * Retrieves the objects of this collection with the specified IDs.
+	 *
+	 * @param IDs
+	 *            the IDs to look for.
+	 * @return a new list, with the object for each ID, in the same order, or
+	 *         <code>null</code> for the IDs that cannot be found.
+	 * @see #search(int)
+	 */
+	@Override
+	public List< T > searchAll( final int[] IDs )
+	{
+		final List< T > objects = new ArrayList< T >( IDs.length );
+		synchronized ( indexLock )
 		{
-			if ( s.ID() == ID )
+			for ( final int ID : IDs )
 			{
-				obj = s;
-				break;
+				objects.add( lookup( ID ) );
 			}
 		}
-		return obj;
+		return objects;
 	}
 
 	@Override
@@ -136,6 +203,15 @@ public class DefaultTOCollection< T extends TrackableObject< T >>
 		objects.add( object );
 		object.setFrame( frame );
 		object.setVisible( true );
+		watchVisibility( object );
+		invalidateSpatialIndex( frame );
+		synchronized ( indexLock )
+		{
+			if ( null != idIndex )
+			{
+				idIndex.put( object.ID(), object );
+			}
+		}
 	}
 
 	/**
@@ -150,7 +226,16 @@ public class DefaultTOCollection< T extends TrackableObject< T >>
 	{
 		final Set< T > objects = content.get( frame );
 		if ( null == objects ) { return false; }
-		return objects.remove( object );
+		final boolean removed = objects.remove( object );
+		if ( removed )
+		{
+			invalidateSpatialIndex( frame );
+			synchronized ( indexLock )
+			{
+				unindex( object );
+			}
+		}
+		return removed;
 	}
 
 	/**
@@ -162,6 +247,7 @@ public class DefaultTOCollection< T extends TrackableObject< T >>
 	@Override
 	public void setVisible( final boolean visible )
 	{
+		invalidateVisibleSpatialIndex();
 		final Collection< Integer > frames = content.keySet();
 
 		final ExecutorService executors = Executors
@@ -180,6 +266,7 @@ public class DefaultTOCollection< T extends TrackableObject< T >>
 					{
 						object.setVisible( visible );
 					}
+					visibilityModCount.incrementAndGet();
 
 				}
 			};
@@ -207,6 +294,9 @@ public class DefaultTOCollection< T extends TrackableObject< T >>
 	 * Returns the closest {@link Spot} to the given location (encoded as a
 	 * Spot), contained in the frame <code>frame</code>. If the frame has no
 	 * spot, return <code>null</code>.
+	 * <p>
+	 * The search uses the spatial index of the frame, built on the first
+	 * query, and runs in logarithmic time.
 	 *
 	 * @param location
 	 *            the location to search for.
@@ -222,27 +312,15 @@ public class DefaultTOCollection< T extends TrackableObject< T >>
 	public final T getClosestObject( final T location, final int frame,
 			final boolean visibleObjectsOnly )
 	{
-		final Set< T > objects = content.get( frame );
-		if ( null == objects )
-			return null;
-		double d2;
-		double minDist = Double.POSITIVE_INFINITY;
-		T target = null;
-		for ( final T s : objects )
+		FrameTree< T > tree = getFrameTree( frame, visibleObjectsOnly );
+		if ( null == tree ) { return null; }
+		T target = tree.closest( location );
+		if ( visibleObjectsOnly && !target.isVisible() )
 		{
-
-			if ( visibleObjectsOnly && ( !s.isVisible() ) )
-			{
-				continue;
-			}
-
-			d2 = TrackableObjectUtils.squareDistanceTo( s, location );
-			if ( d2 < minDist )
-			{
-				minDist = d2;
-				target = s;
-			}
-
+			// Hidden by an object that does not count visibility changes.
+			tree = rebuildVisibleFrameTree( frame );
+			if ( null == tree ) { return null; }
+			target = tree.closest( location );
 		}
 		return target;
 	}
@@ -252,6 +330,9 @@ public class DefaultTOCollection< T extends TrackableObject< T >>
 	 * contained in the frame <code>frame</code>. A spot is returned <b>only</b>
 	 * if there exists a spot such that the given location is within the spot
 	 * radius. Otherwise <code>null</code> is returned.
+	 * <p>
+	 * The search uses the spatial index of the frame, and only inspects the
+	 * spots closer than the largest radius in the frame.
 	 *
 	 * @param location
 	 *            the location to search for.
@@ -268,33 +349,16 @@ public class DefaultTOCollection< T extends TrackableObject< T >>
 	public final T getObjectAt( final T location, final int frame,
 			final boolean visibleObjectsOnly )
 	{
-		final Set< T > objects = content.get( frame );
-		if ( null == objects || objects.isEmpty() ) { return null; }
-
-		final TreeMap< Double, T > distanceToObject = new TreeMap< Double, T >();
-		double d2;
-		for ( final T s : objects )
+		FrameTree< T > tree = getFrameTree( frame, visibleObjectsOnly );
+		if ( null == tree ) { return null; }
+		T target = tree.objectAt( location );
+		if ( visibleObjectsOnly && null != target && !target.isVisible() )
 		{
-
-			if ( visibleObjectsOnly && ( !s.isVisible() ) )
-			{
-				continue;
-			}
-
-			d2 = TrackableObjectUtils.squareDistanceTo( s, location );
-			if ( d2 < s.radius() * s.radius() )
-			{
-				distanceToObject.put( d2, s );
-			}
-		}
-		if ( distanceToObject.isEmpty() )
-		{
-			return null;
-		}
-		else
-		{
-			return distanceToObject.firstEntry().getValue();
+			tree = rebuildVisibleFrameTree( frame );
+			if ( null == tree ) { return null; }
+			target = tree.objectAt( location );
 		}
+		return target;
 	}
 
 	/**
@@ -302,7 +366,8 @@ public class DefaultTOCollection< T extends TrackableObject< T >>
 	 * (encoded as a Spot), contained in the frame <code>frame</code>. If the
 	 * number of spots in the frame is exhausted, a shorter list is returned.
 	 * <p>
-	 * The list is ordered by increasing distance to the given location.
+	 * The list is ordered by increasing distance to the given location. Spots
+	 * at the same distance are all returned.
 	 *
 	 * @param location
 	 *            the location to search for.
@@ -318,32 +383,82 @@ public class DefaultTOCollection< T extends TrackableObject< T >>
 	 */
 	@Override
 	public final List< T > getNClosestObjects( final T location, final int frame,
-			int n, final boolean visibleObjectsOnly )
+			final int n, final boolean visibleObjectsOnly )
 	{
-		final Set< T > objects = content.get( frame );
-		final TreeMap< Double, T > distanceToObject = new TreeMap< Double, T >();
-
-		double d2;
-		for ( final T s : objects )
+		FrameTree< T > tree = getFrameTree( frame, visibleObjectsOnly );
+		if ( null == tree || n <= 0 ) { return new ArrayList< T >( 0 ); }
+		List< T > selected = tree.nClosest( location, n );
+		if ( visibleObjectsOnly )
 		{
-
-			if ( visibleObjectsOnly && ( !s.isVisible() ) )
+			for ( final T object : selected )
 			{
-				continue;
+				if ( !object.isVisible() )
+				{
+					tree = rebuildVisibleFrameTree( frame );
+					if ( null == tree ) { return new ArrayList< T >( 0 ); }
+					selected = tree.nClosest( location, n );
+					break;
+				}
 			}
+		}
+		return selected;
+	}
 
-			d2 = TrackableObjectUtils.squareDistanceTo( s, location );
-			distanceToObject.put( d2, s );
+	/**
+	 * Discards the spatial index of the specified frame, so that it is rebuilt
+	 * on the next spatial query. The methods of this class call it when they
+	 * change the content of a frame. It must be called after moving the
+	 * objects of a frame directly.
+	 * <p>
+	 * The {@link AbstractTrackableObject}s of this collection count their
+	 * visibility changes in this collection, including the ones made directly
+	 * with {@link AbstractTrackableObject#setVisible(boolean)}, and the indices
+	 * of the visible objects are then rebuilt on the next query. An object
+	 * counts in the last collection it was added to. For other implementations
+	 * of {@link TrackableObject}, and for objects added through the views
+	 * this class returns, this method must also be called after changing the
+	 * visibility of objects directly: the queries only detect it when they
+	 * would return an object that is hidden now.
+	 *
+	 * @param frame
+	 *            the frame whose index to discard.
+	 */
+	@Override
+	public void invalidateSpatialIndex( final int frame )
+	{
+		synchronized ( treeLock )
+		{
+			allTrees.remove( frame );
+			visibleTrees.remove( frame );
 		}
+	}
 
-		final List< T > selectedSpots = new ArrayList< T >( n );
-		final Iterator< Double > it = distanceToObject.keySet().iterator();
-		while ( n > 0 && it.hasNext() )
+	/**
+	 * Discards the spatial indices of the visible content of all frames.
+	 * Subclasses must call it when they change the visibility of objects.
+	 */
+	protected void invalidateVisibleSpatialIndex()
+	{
+		synchronized ( treeLock )
 		{
-			selectedSpots.add( distanceToObject.get( it.next() ) );
-			n--;
+			visibleTrees.clear();
+		}
+	}
+
+	/**
+	 * Makes the visibility changes of the specified object count in this
+	 * collection, if it is an {@link AbstractTrackableObject}. Subclasses must
+	 * call it for the objects they put in {@link #content} directly.
+	 *
+	 * @param object
+	 *            the object added to this collection.
+	 */
+	protected void watchVisibility( final T object )
+	{
+		if ( object instanceof AbstractTrackableObject )
+		{
+			( ( AbstractTrackableObject< ? > ) object ).setVisibilityModCount( visibilityModCount );
 		}
-		return selectedSpots;
 	}
 
 	/**
@@ -535,8 +650,27 @@ public class DefaultTOCollection< T extends TrackableObject< T >>
 		{
 			object.setFrame( frame );
 			object.setVisible( false );
+			watchVisibility( object );
+		}
+		final Set< T > previous = content.put( frame, value );
+		invalidateSpatialIndex( frame );
+		synchronized ( indexLock )
+		{
+			if ( null != idIndex )
+			{
+				if ( null != previous )
+				{
+					for ( final T object : previous )
+					{
+						unindex( object );
+					}
+				}
+				for ( final T object : value )
+				{
+					idIndex.put( object.ID(), object );
+				}
+			}
 		}
-		content.put( frame, value );
 	}
 
 	/**
@@ -593,6 +727,15 @@ public class DefaultTOCollection< T extends TrackableObject< T >>
 	public void clear()
 	{
 		content.clear();
+		synchronized ( treeLock )
+		{
+			allTrees.clear();
+			visibleTrees.clear();
+		}
+		synchronized ( indexLock )
+		{
+			idIndex = null;
+		}
 	}
 
 	/*
@@ -617,10 +760,202 @@ public class DefaultTOCollection< T extends TrackableObject< T >>
 		return numThreads;
 	}
 
+	/*
+	 * PRIVATE METHODS
+	 */
+
+	/**
+	 * Returns the spatial index of the specified frame, building it if
+	 * needed, or <code>null</code> if the frame has no object to search.
+	 */
+	private FrameTree< T > getFrameTree( final int frame, final boolean visibleObjectsOnly )
+	{
+		final ConcurrentHashMap< Integer, FrameTree< T >> trees = visibleObjectsOnly ? visibleTrees : allTrees;
+		FrameTree< T > tree = trees.get( frame );
+		if ( null == tree || visibleObjectsOnly && tree.isVisibilityStale( visibilityModCount.get() ) )
+		{
+			synchronized ( treeLock )
+			{
+				tree = trees.get( frame );
+				if ( null == tree || visibleObjectsOnly && tree.isVisibilityStale( visibilityModCount.get() ) )
+				{
+					tree = buildFrameTree( frame, visibleObjectsOnly );
+					trees.put( frame, tree );
+				}
+			}
+		}
+		return tree.isEmpty() ? null : tree;
+	}
+
+	private FrameTree< T > rebuildVisibleFrameTree( final int frame )
+	{
+		synchronized ( treeLock )
+		{
+			visibleTrees.remove( frame );
+		}
+		return getFrameTree( frame, true );
+	}
+
+	private FrameTree< T > buildFrameTree( final int frame, final boolean visibleObjectsOnly )
+	{
+		// Read before the visibility, so that changes made meanwhile are seen.
+		final long modCount = visibilityModCount.get();
+		final Set< T > objects = content.get( frame );
+		final List< T > indexed = new ArrayList< T >( null == objects ? 0 : objects.size() );
+		if ( null != objects )
+		{
+			for ( final T object : objects )
+			{
+				if ( !visibleObjectsOnly || object.isVisible() )
+				{
+					indexed.add( object );
+				}
+			}
+		}
+		return new FrameTree< T >( indexed, modCount );
+	}
+
+	/**
+	 * Looks up an object in the ID index, building it if needed. Must be
+	 * called holding {@link #indexLock}.
+	 */
+	private T lookup( final int ID )
+	{
+		if ( null == idIndex )
+		{
+			buildIndex();
+		}
+		final T obj = idIndex.get( ID );
+		if ( null == obj )
+		{
+			/*
+			 * Objects added through the views this class returns are not
+			 * indexed. Detect it by comparing the number of objects, which
+			 * misses an addition balanced by a removal.
+			 */
+			if ( idIndex.size() == getNObjects( false ) ) { return null; }
+			buildIndex();
+			return idIndex.get( ID );
+		}
+		final Set< T > objects = content.get( obj.frame() );
+		if ( null != objects && objects.contains( obj ) ) { return obj; }
+
+		/*
+		 * The content was modified without going through the methods of this
+		 * class, for instance through the views it returns. Start over.
+		 */
+		buildIndex();
+		return idIndex.get( ID );
+	}
+
+	private void buildIndex()
+	{
+		final IntObjectMap< T > index = new IntObjectMap< T >( getNObjects( false ) );
+		for ( final Set< T > objects : content.values() )
+		{
+			for ( final T obj : objects )
+			{
+				index.put( obj.ID(), obj );
+			}
+		}
+		idIndex = index;
+	}
+
+	/**
+	 * Removes an object from the ID index, if it is the one indexed for its
+	 * ID. Must be called holding {@link #indexLock}.
+	 */
+	private void unindex( final T object )
+	{
+		if ( null != idIndex && idIndex.get( object.ID() ) == object )
+		{
+			idIndex.remove( object.ID() );
+		}
+	}
+
 	/*
 	 * PRIVATE CLASSES
 	 */
 
+	/**
+	 * A {@link KDTree} over the objects of a frame, with the largest radius
+	 * among them, ignoring NaN radii, and the visibility modification count of
+	 * the collection when it was built. Immutable; searches create their own
+	 * search objects, so that a tree can be searched concurrently.
+	 */
+	private static final class FrameTree< T extends TrackableObject< T >>
+	{
+
+		private final KDTree< T > tree;
+
+		private final int size;
+
+		private final double maxRadius;
+
+		private final long visibilityModCount;
+
+		public FrameTree( final List< T > objects, final long visibilityModCount )
+		{
+			this.size = objects.size();
+			this.visibilityModCount = visibilityModCount;
+			double max = 0d;
+			for ( final T object : objects )
+			{
+				// Objects without a radius cannot be found by objectAt().
+				final double r = object.radius();
+				if ( !Double.isNaN( r ) )
+				{
+					max = Math.max( max, r );
+				}
+			}
+			this.maxRadius = max;
+			this.tree = size == 0 ? null : new KDTree< T >( objects, objects );
+		}
+
+		public boolean isEmpty()
+		{
+			return size == 0;
+		}
+
+		public boolean isVisibilityStale( final long currentVisibilityModCount )
+		{
+			return visibilityModCount != currentVisibilityModCount;
+		}
+
+		public T closest( final T location )
+		{
+			final NearestNeighborSearchOnKDTree< T > search = new NearestNeighborSearchOnKDTree< T >( tree );
+			search.search( location );
+			return search.getSampler().get();
+		}
+
+		public List< T > nClosest( final T location, final int n )
+		{
+			final int k = Math.min( n, size );
+			final KNearestNeighborSearchOnKDTree< T > search = new KNearestNeighborSearchOnKDTree< T >( tree, k );
+			search.search( location );
+			final List< T > selected = new ArrayList< T >( k );
+			for ( int i = 0; i < k; i++ )
+			{
+				selected.add( search.getSampler( i ).get() );
+			}
+			return selected;
+		}
+
+		public T objectAt( final T location )
+		{
+			final RadiusNeighborSearchOnKDTree< T > search = new RadiusNeighborSearchOnKDTree< T >( tree );
+			search.search( location, maxRadius, true );
+			for ( int i = 0; i < search.numNeighbors(); i++ )
+			{
+				final T object = search.getSampler( i ).get();
+				final double r = object.radius();
+				if ( search.getSquareDistance( i ) < r * r ) { return object; }
+			}
+			return null;
+		}
+	}
+
 	private class AllObjectsIterator implements Iterator< T >
 	{
 
@@ -859,6 +1194,7 @@ public class DefaultTOCollection< T extends TrackableObject< T >>
 	{
 		final DefaultTOCollection< T > ns = new DefaultTOCollection< T >();
 		ns.setNumThreads( numThreads );
+		invalidateVisibleSpatialIndex();
 
 		final Collection< Integer > frames = content.keySet();
 		final ExecutorService executors = Executors
@@ -880,6 +1216,7 @@ public class DefaultTOCollection< T extends TrackableObject< T >>
 						{
 							nfc.add( object );
 							object.setVisible( false );
+							ns.watchVisibility( object );
 						}
 					}
 					ns.content.put( frame, nfc );
@@ -0,0 +1,203 @@
+package fiji.plugin.trackmate.tracking;
+
+import java.util.Arrays;
+
+/**
+ * A map from primitive <code>int</code> keys to objects, using open
+ * addressing with linear probing in two parallel arrays.
+ * <p>
+ * Unlike a <code>HashMap&lt;Integer, V&gt;</code>, it does not box its keys
+ * nor allocate an entry per mapping. Removals shift the following entries of
+ * the probe sequence back, so that no tombstone is left behind. Values cannot
+ * be <code>null</code>.
+ * <p>
+ * This class is not thread-safe.
+ *
+ * @param <V>
+ *            the type of the values.
+ */
+class IntObjectMap< V >
+{
+
+	private static final int MIN_CAPACITY = 16;
+
+	private int[] keys;
+
+	/**
+	 * The values. <code>null</code> marks an empty slot.
+	 */
+	private Object[] values;
+
+	private int size = 0;
+
+	/** Capacity - 1, capacity being a power of 2. */
+	private int mask;
+
+	IntObjectMap()
+	{
+		this( MIN_CAPACITY );
+	}
+
+	/**
+	 * Creates a map that can hold the specified number of mappings without
+	 * growing.
+	 */
+	IntObjectMap( final int expectedSize )
+	{
+		allocate( capacityFor( expectedSize ) );
+	}
+
+	/**
+	 * Returns the value mapped to the specified key, or <code>null</code>.
+	 */
+	@SuppressWarnings( "unchecked" )
+	V get( final int key )
+	{
+		int i = slot( key );
+		while ( null != values[ i ] )
+		{
+			if ( keys[ i ] == key ) { return ( V ) values[ i ]; }
+			i = ( i + 1 ) & mask;
+		}
+		return null;
+	}
+
+	/**
+	 * Maps the specified value to the specified key, and returns the value
+	 * previously mapped to it, or <code>null</code>.
+	 */
+	@SuppressWarnings( "unchecked" )
+	V put( final int key, final V value )
+	{
+		if ( null == value ) { throw new IllegalArgumentException( "Null values are not supported." ); }
+		int i = slot( key );
+		while ( null != values[ i ] )
+		{
+			if ( keys[ i ] == key )
+			{
+				final V previous = ( V ) values[ i ];
+				values[ i ] = value;
+				return previous;
+			}
+			i = ( i + 1 ) & mask;
+		}
+		keys[ i ] = key;
+		values[ i ] = value;
+		// Keep the load factor under 1/2.
+		if ( ++size > ( mask + 1 ) / 2 )
+		{
+			rehash( 2 * ( mask + 1 ) );
+		}
+		return null;
+	}
+
+	/**
+	 * Removes the mapping of the specified key, and returns its value, or
+	 * <code>null</code> if there was none.
+	 */
+	@SuppressWarnings( "unchecked" )
+	V remove( final int key )
+	{
+		int i = slot( key );
+		while ( null != values[ i ] )
+		{
+			if ( keys[ i ] == key )
+			{
+				final V previous = ( V ) values[ i ];
+				shiftBack( i );
+				size--;
+				return previous;
+			}
+			i = ( i + 1 ) & mask;
+		}
+		return null;
+	}
+
+	int size()
+	{
+		return size;
+	}
+
+	void clear()
+	{
+		Arrays.fill( values, null );
+		size = 0;
+	}
+
+	/*
+	 * PRIVATE METHODS
+	 */
+
+	/**
+	 * Empties the specified slot, and moves back the following entries of the
+	 * cluster that can no longer be reached from their home slot.
+	 */
+	private void shiftBack( int gap )
+	{
+		int i = gap;
+		while ( true )
+		{
+			i = ( i + 1 ) & mask;
+			if ( null == values[ i ] )
+			{
+				break;
+			}
+			final int home = slot( keys[ i ] );
+			// Can the entry at i move to the gap? Only if its home is not
+			// cyclically within (gap, i].
+			final boolean movable = gap <= i ? ( home <= gap || home > i ) : ( home <= gap && home > i );
+			if ( movable )
+			{
+				keys[ gap ] = keys[ i ];
+				values[ gap ] = values[ i ];
+				gap = i;
+			}
+		}
+		values[ gap ] = null;
+	}
+
+	private int slot( final int key )
+	{
+		// Fibonacci hashing, to spread sequential IDs.
+		final int h = key * 0x9E3779B9;
+		return ( h ^ ( h >>> 16 ) ) & mask;
+	}
+
+	private void rehash( final int capacity )
+	{
+		final int[] oldKeys = keys;
+		final Object[] oldValues = values;
+		allocate( capacity );
+		for ( int j = 0; j < oldValues.length; j++ )
+		{
+			if ( null == oldValues[ j ] )
+			{
+				continue;
+			}
+			int i = slot( oldKeys[ j ] );
+			while ( null != values[ i ] )
+			{
+				i = ( i + 1 ) & mask;
+			}
+			keys[ i ] = oldKeys[ j ];
+			values[ i ] = oldValues[ j ];
+		}
+	}
+
+	private void allocate( final int capacity )
+	{
+		keys = new int[ capacity ];
+		values = new Object[ capacity ];
+		mask = capacity - 1;
+	}
+
+	private static int capacityFor( final int expectedSize )
+	{
+		int capacity = MIN_CAPACITY;
+		while ( capacity < 2 * expectedSize )
+		{
+			capacity <<= 1;
+		}
+		return capacity;
+	}
+}
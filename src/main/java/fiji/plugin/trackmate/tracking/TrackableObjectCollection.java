@@ -13,6 +13,8 @@ public interface TrackableObjectCollection< T extends TrackableObject< T >>
 	 */
 	public T search( int ID );
 
+	public List< T > searchAll( int[] IDs );
+
 	@Override
 	public String toString();
 
@@ -28,6 +30,8 @@ public interface TrackableObjectCollection< T extends TrackableObject< T >>
 
 	public List< T > getNClosestObjects( T trackableObject, int frame, int n, boolean visibleObjectsOnly );
 
+	public void invalidateSpatialIndex( int frame );
+
 	public int getNObjects( boolean visibleObjectsOnly );
 
 	public int getNObjects( int frame, boolean visibleObjectsOnly );
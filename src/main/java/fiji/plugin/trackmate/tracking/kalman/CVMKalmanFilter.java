@@ -1,10 +1,16 @@
 package fiji.plugin.trackmate.tracking.kalman;
 
-import Jama.Matrix;
-
 /**
  * A Kalman filter that deals with a single particle motion in 3D with a
  * constant velocity vector.
+ * <p>
+ * The state <code>x, y, z, vx, vy, vz</code> and its 6×6 covariance matrix are
+ * stored in flat <code>double[]</code> arrays and updated in place. The
+ * evolution matrix <code>A = [ I I ; 0 I ]</code> and the measurement matrix
+ * <code>H = [ I 0 ]</code> are never built: their block structure is written
+ * out in the prediction and update steps, and the 3×3 innovation covariance is
+ * inverted in closed form. Apart from {@link #predict()}, which returns a new
+ * array, the steps of the filter do not allocate.
  *
  * @author Jean-Yves Tinevez - 2014
  *
@@ -13,39 +19,44 @@ public class CVMKalmanFilter
 {
 
 	/**
-	 * The evolution matrix, or state transition matrix. In our case, it is the
-	 * matrix that links position evolution and velocity through
-	 * <code><b>x</b>(k+1) = <b>x</b>(k) + <b>v</b> × dt</code>. We assume
-	 * <code><b>v</b></code> is constant and measured in unit of frames, so
-	 * <code>dt = 1</code>.
+	 * The <i>a posteriori</i> error covariance matrix, measure the accuracy of
+	 * the state estimate. 6×6, row-major.
 	 */
-	private final Matrix A;
+	private final double[] P = new double[ 36 ];
 
 	/**
-	 * The <i>a posteriori</i> error covariance matrix, measure the accuracy of
-	 * the state estimate.
+	 * Variance of the process noise on position. The process covariance matrix
+	 * is diagonal; it determines how noisy the process is.
 	 */
-	private Matrix P;
+	private final double qPosition;
 
 	/**
-	 * Covariance matrix of the process noise. Determine how noisy the process
-	 * is.
+	 * Variance of the process noise on velocity.
 	 */
-	private final Matrix Q;
+	private final double qVelocity;
 
 	/**
-	 * Covariance matrix of the observation noise. Determine how noisy our
-	 * measurements are.
+	 * Variance of the observation noise. The observation covariance matrix is
+	 * diagonal; it determines how noisy our measurements are.
 	 */
-	private final Matrix R;
+	private final double r;
 
 	/** Current state. */
-	private Matrix X;
-
-	private final Matrix H;
+	private final double[] X = new double[ 6 ];
 
 	/** Prediction. */
-	private Matrix Xp;
+	private final double[] Xp = new double[ 6 ];
+
+	/**
+	 * Kalman gain, 6×3, row-major. Only used during the update step.
+	 */
+	private final double[] K = new double[ 18 ];
+
+	/**
+	 * Inverse of the innovation covariance, 3×3, row-major. Only used during
+	 * the update step.
+	 */
+	private final double[] Sinv = new double[ 9 ];
 
 	/**
 	 * Number of occlusions (no measurements) that happened so far.
@@ -83,30 +94,19 @@ public class CVMKalmanFilter
 	public CVMKalmanFilter( final double[] X0, final double initStateCovariance, final double positionProcessStd, final double velocityProcessStd, final double positionMeasurementStd )
 	{
 		// Initial state
-		X = new Matrix( X0, 6 );
+		System.arraycopy( X0, 0, X, 0, 6 );
 
-		// Evolution matrix
-		A = Matrix.identity( 6, 6 );
-		for ( int i = 0; i < 3; i++ )
+		// State covariance
+		for ( int i = 0; i < 6; i++ )
 		{
-			A.set( i, 3 + i, 1 );
+			P[ 7 * i ] = initStateCovariance;
 		}
 
-		// Measurement matrix
-		H = Matrix.identity( 3, 6 );
-
-		// State covariance
-		P = Matrix.identity( 6, 6 ).times( initStateCovariance );
-
 		// Process covariance
-		Q = Matrix.identity( 6, 6 );
-		for ( int i = 0; i < 3; i++ )
-		{
-			Q.set( i, i, positionProcessStd * positionProcessStd );
-			Q.set( 3 + i, 3 + i, velocityProcessStd * velocityProcessStd );
-		}
+		qPosition = positionProcessStd * positionProcessStd;
+		qVelocity = velocityProcessStd * velocityProcessStd;
 
-		R = Matrix.identity( 3, 3 ).times( positionMeasurementStd * positionMeasurementStd );
+		r = positionMeasurementStd * positionMeasurementStd;
 	}
 
 	/**
@@ -120,9 +120,24 @@ public class CVMKalmanFilter
 	 */
 	public double[] predict()
 	{
-		Xp = A.times( X );
-		P = A.times( P.times( A.transpose() ) ).plus( Q );
-		return Xp.getColumnPackedCopy();
+		final double[] prediction = new double[ 6 ];
+		predict( prediction );
+		return prediction;
+	}
+
+	/**
+	 * Runs the prediction step of the Kalman filter and stores the state
+	 * predicted by the evolution process in the specified array.
+	 *
+	 * @param prediction
+	 *            a <code>double[]</code> of at least 6 elements, that will
+	 *            receive the predicted state: <code>x, y, z, vx, vy, vz</code>
+	 *            with velocity in <code>length/frame</code> units.
+	 */
+	public void predict( final double[] prediction )
+	{
+		predict( X, Xp, P, 0, qPosition, qVelocity );
+		System.arraycopy( Xp, 0, prediction, 0, 6 );
 	}
 
 	/**
@@ -142,18 +157,11 @@ public class CVMKalmanFilter
 		{
 			// Occlusion.
 			nOcclusion++;
-			X = Xp;
-		}
-		else
-		{
-			final Matrix XM = new Matrix( Xm, 3 );
-			final Matrix TEMP = H.times( P.times( H.transpose() ) ).plus( R );
-			final Matrix K = P.times( H.transpose() ).times( TEMP.inverse() );
-			// State
-			X = Xp.plus( K.times( XM.minus( H.times( Xp ) ) ) );
-			// Covariance
-			P = ( Matrix.identity( 6, 6 ).minus( K.times( H ) ) ).times( P );
+			System.arraycopy( Xp, 0, X, 0, 6 );
+			return;
 		}
+		invertInnovationCovariance( P, 0, r, Sinv, 0 );
+		update( X, Xp, P, 0, Xm[ 0 ], Xm[ 1 ], Xm[ 2 ], Sinv, 0, K );
 	}
 
 	/**
@@ -164,7 +172,7 @@ public class CVMKalmanFilter
 	 */
 	public double getPositionError()
 	{
-		return Math.sqrt( ( P.get( 0, 0 ) + P.get( 1, 1 ) + P.get( 2, 2 ) ) / 3d );
+		return Math.sqrt( ( P[ 0 ] + P[ 7 ] + P[ 14 ] ) / 3d );
 	}
 
 	/**
@@ -176,7 +184,7 @@ public class CVMKalmanFilter
 	 */
 	public double getVelocityError()
 	{
-		return Math.sqrt( ( P.get( 3, 3 ) + P.get( 4, 4 ) + P.get( 5, 5 ) ) / 3d );
+		return Math.sqrt( ( P[ 21 ] + P[ 28 ] + P[ 35 ] ) / 3d );
 	}
 
 	/**
@@ -189,4 +197,172 @@ public class CVMKalmanFilter
 	{
 		return nOcclusion;
 	}
+
+	/**
+	 * Copies the current state of this filter in the specified array.
+	 *
+	 * @param state
+	 *            a <code>double[]</code> of at least 6 elements, that will
+	 *            receive the state <code>x, y, z, vx, vy, vz</code>.
+	 */
+	public void getState( final double[] state )
+	{
+		System.arraycopy( X, 0, state, 0, 6 );
+	}
+
+	/**
+	 * Copies the current state covariance matrix of this filter in the
+	 * specified array.
+	 *
+	 * @param covariance
+	 *            a <code>double[]</code> of at least 36 elements, that will
+	 *            receive the 6×6 covariance matrix, row-major.
+	 */
+	public void getCovariance( final double[] covariance )
+	{
+		System.arraycopy( P, 0, covariance, 0, 36 );
+	}
+
+	/*
+	 * STATIC METHODS
+	 *
+	 * They work on filters stored in flat arrays, at a given index: the state
+	 * and prediction of the filter at index i are stored from 6 * i, its
+	 * covariance from 36 * i and the inverse of its innovation covariance from
+	 * 9 * i. They are shared by this class and by KalmanFilterBank.
+	 */
+
+	/**
+	 * Runs the prediction step of the filter at the specified index.
+	 */
+	static void predict( final double[] X, final double[] Xp, final double[] P, final int index, final double qPosition, final double qVelocity )
+	{
+		// Xp = A X
+		final int x = 6 * index;
+		for ( int i = 0; i < 3; i++ )
+		{
+			Xp[ x + i ] = X[ x + i ] + X[ x + 3 + i ];
+			Xp[ x + 3 + i ] = X[ x + 3 + i ];
+		}
+
+		/*
+		 * P = A P A' + Q. Right-multiplying by A' adds the column j+3 to the
+		 * column j, for j < 3. Left-multiplying by A adds the row i+3 to the
+		 * row i, for i < 3.
+		 */
+		final int p = 36 * index;
+		for ( int i = 0; i < 6; i++ )
+		{
+			final int row = p + 6 * i;
+			for ( int j = 0; j < 3; j++ )
+			{
+				P[ row + j ] += P[ row + j + 3 ];
+			}
+		}
+		for ( int i = 0; i < 3; i++ )
+		{
+			final int row = p + 6 * i;
+			for ( int j = 0; j < 6; j++ )
+			{
+				P[ row + j ] += P[ row + 18 + j ];
+			}
+		}
+		for ( int i = 0; i < 3; i++ )
+		{
+			P[ p + 7 * i ] += qPosition;
+			P[ p + 7 * ( i + 3 ) ] += qVelocity;
+		}
+	}
+
+	/**
+	 * Computes the inverse of the innovation covariance of the filter at the
+	 * specified index, after its prediction step, and stores it at
+	 * <code>9 * index</code> in the specified array.
+	 * <p>
+	 * The innovation covariance <code>S = H P H' + R</code> is the top-left
+	 * block of P plus R. It is inverted in closed form, through its adjugate.
+	 *
+	 * @return an upper bound of the largest eigenvalue of S, from the
+	 *         Gershgorin circle theorem.
+	 */
+	static double invertInnovationCovariance( final double[] P, final int index, final double r, final double[] Sinv, final int sinvIndex )
+	{
+		final int p = 36 * index;
+		final int s = 9 * sinvIndex;
+		final double s00 = P[ p ] + r, s01 = P[ p + 1 ], s02 = P[ p + 2 ];
+		final double s10 = P[ p + 6 ], s11 = P[ p + 7 ] + r, s12 = P[ p + 8 ];
+		final double s20 = P[ p + 12 ], s21 = P[ p + 13 ], s22 = P[ p + 14 ] + r;
+		final double c00 = s11 * s22 - s12 * s21;
+		final double c01 = s12 * s20 - s10 * s22;
+		final double c02 = s10 * s21 - s11 * s20;
+		final double invDet = 1d / ( s00 * c00 + s01 * c01 + s02 * c02 );
+		Sinv[ s ] = c00 * invDet;
+		Sinv[ s + 1 ] = ( s02 * s21 - s01 * s22 ) * invDet;
+		Sinv[ s + 2 ] = ( s01 * s12 - s02 * s11 ) * invDet;
+		Sinv[ s + 3 ] = c01 * invDet;
+		Sinv[ s + 4 ] = ( s00 * s22 - s02 * s20 ) * invDet;
+		Sinv[ s + 5 ] = ( s02 * s10 - s00 * s12 ) * invDet;
+		Sinv[ s + 6 ] = c02 * invDet;
+		Sinv[ s + 7 ] = ( s01 * s20 - s00 * s21 ) * invDet;
+		Sinv[ s + 8 ] = ( s00 * s11 - s01 * s10 ) * invDet;
+
+		final double l0 = s00 + Math.abs( s01 ) + Math.abs( s02 );
+		final double l1 = s11 + Math.abs( s10 ) + Math.abs( s12 );
+		final double l2 = s22 + Math.abs( s20 ) + Math.abs( s21 );
+		return Math.max( l0, Math.max( l1, l2 ) );
+	}
+
+	/**
+	 * Runs the update step of the filter at the specified index, with the
+	 * specified measured position.
+	 *
+	 * @param Sinv
+	 *            the array containing the inverse of the innovation covariance
+	 *            of the filter at <code>9 * sinvIndex</code>, as computed by
+	 *            {@link #invertInnovationCovariance(double[], int, double, double[], int)}
+	 *            after the prediction step.
+	 * @param K
+	 *            a work array of at least 18 elements.
+	 */
+	static void update( final double[] X, final double[] Xp, final double[] P, final int index, final double mx, final double my, final double mz, final double[] Sinv, final int sinvIndex, final double[] K )
+	{
+		final int x = 6 * index;
+		final int p = 36 * index;
+		final int s = 9 * sinvIndex;
+		final double i00 = Sinv[ s ], i01 = Sinv[ s + 1 ], i02 = Sinv[ s + 2 ];
+		final double i10 = Sinv[ s + 3 ], i11 = Sinv[ s + 4 ], i12 = Sinv[ s + 5 ];
+		final double i20 = Sinv[ s + 6 ], i21 = Sinv[ s + 7 ], i22 = Sinv[ s + 8 ];
+
+		// K = P H' S^-1, P H' being the first 3 columns of P.
+		for ( int i = 0; i < 6; i++ )
+		{
+			final double p0 = P[ p + 6 * i ], p1 = P[ p + 6 * i + 1 ], p2 = P[ p + 6 * i + 2 ];
+			K[ 3 * i ] = p0 * i00 + p1 * i10 + p2 * i20;
+			K[ 3 * i + 1 ] = p0 * i01 + p1 * i11 + p2 * i21;
+			K[ 3 * i + 2 ] = p0 * i02 + p1 * i12 + p2 * i22;
+		}
+
+		// X = Xp + K ( Xm - H Xp )
+		final double e0 = mx - Xp[ x ];
+		final double e1 = my - Xp[ x + 1 ];
+		final double e2 = mz - Xp[ x + 2 ];
+		for ( int i = 0; i < 6; i++ )
+		{
+			X[ x + i ] = Xp[ x + i ] + ( K[ 3 * i ] * e0 + K[ 3 * i + 1 ] * e1 + K[ 3 * i + 2 ] * e2 );
+		}
+
+		/*
+		 * P = ( I - K H ) P, that is, each row i of P minus K(i,:) times the
+		 * first 3 rows of P. Done column by column, so that the first 3 rows
+		 * can be overwritten once their old values are read.
+		 */
+		for ( int j = 0; j < 6; j++ )
+		{
+			final double t0 = P[ p + j ], t1 = P[ p + 6 + j ], t2 = P[ p + 12 + j ];
+			for ( int i = 0; i < 6; i++ )
+			{
+				P[ p + 6 * i + j ] -= K[ 3 * i ] * t0 + K[ 3 * i + 1 ] * t1 + K[ 3 * i + 2 ] * t2;
+			}
+		}
+	}
 }
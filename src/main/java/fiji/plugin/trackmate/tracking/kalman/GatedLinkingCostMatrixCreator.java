@@ -0,0 +1,205 @@
+package fiji.plugin.trackmate.tracking.kalman;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+
+import net.imglib2.KDTree;
+import net.imglib2.RealPoint;
+import net.imglib2.neighborsearch.RadiusNeighborSearchOnKDTree;
+import fiji.plugin.trackmate.tracking.TrackableObject;
+import fiji.plugin.trackmate.tracking.sparselap.costfunction.CostFunction;
+import fiji.plugin.trackmate.tracking.sparselap.costmatrix.ResizableDoubleArray;
+
+/**
+ * The cost matrix creator that links the predictions of the filters of a
+ * {@link KalmanFilterBank} to measurements. Sources are the indices of the
+ * filters in the bank.
+ * <p>
+ * A measurement is a candidate for a filter if both:
+ * <ul>
+ * <li>its square distance to the predicted position is strictly below the
+ * square of the maximal search radius;
+ * <li>its square Mahalanobis distance to the predicted position, with respect
+ * to the innovation covariance of the filter, is strictly below the gate.
+ * </ul>
+ * The second condition defines an ellipsoid that is small for the filters that
+ * are confident in their prediction. The measurements are stored in a
+ * {@link KDTree}, and only the ones found within the radius of the ball that
+ * bounds both the sphere and the ellipsoid are tested. With an infinite gate,
+ * the generated cost matrix is identical to the one of the brute-force
+ * {@link ParallelLinkingCostMatrixCreator}.
+ * <p>
+ * The cost of a candidate is either its square distance or its square
+ * Mahalanobis distance to the prediction. The bank must not be modified while
+ * the cost matrix is created.
+ *
+ * @param <T>
+ *            the type of the measurements.
+ */
+class GatedLinkingCostMatrixCreator< T extends TrackableObject< T >> extends ParallelLinkingCostMatrixCreator< Integer, T >
+{
+
+	private final KalmanFilterBank< ? > bank;
+
+	private final double gate;
+
+	private KDTree< Integer > tree;
+
+	/**
+	 * @param sources
+	 *            the indices of the filters in the bank.
+	 * @param targets
+	 *            the measurements.
+	 * @param bank
+	 *            the bank, after its prediction step.
+	 * @param maxSearchRadius
+	 *            the maximal distance between a prediction and a measurement.
+	 * @param gate
+	 *            the maximal square Mahalanobis distance between a prediction
+	 *            and a measurement. Can be infinite.
+	 * @param mahalanobisCost
+	 *            if <code>true</code>, the cost of a link is the square
+	 *            Mahalanobis distance. Otherwise, it is the square distance.
+	 * @param executor
+	 *            the executor to run the tasks on, or <code>null</code>.
+	 * @param nChunks
+	 *            the number of chunks to split the sources in.
+	 */
+	public GatedLinkingCostMatrixCreator( final Iterable< Integer > sources, final Iterable< T > targets, final KalmanFilterBank< ? > bank, final double maxSearchRadius, final double gate, final boolean mahalanobisCost, final double alternativeCostFactor, final double percentile, final ExecutorService executor, final int nChunks )
+	{
+		super( sources, targets, mahalanobisCost ? new MahalanobisCostFunction< T >( bank ) : new SquareDistanceCostFunction< T >( bank ), maxSearchRadius * maxSearchRadius, alternativeCostFactor, percentile, executor, nChunks );
+		this.bank = bank;
+		this.gate = gate;
+	}
+
+	@Override
+	protected void prepare( final List< T > targetList )
+	{
+		final List< Integer > targetIndices = new ArrayList< Integer >( targetList.size() );
+		for ( int i = 0; i < targetList.size(); i++ )
+		{
+			targetIndices.add( Integer.valueOf( i ) );
+		}
+		tree = new KDTree< Integer >( targetIndices, targetList );
+	}
+
+	/**
+	 * Collects the candidate measurements via a radius search around each
+	 * prediction. For each prediction, they are visited in the order of the
+	 * target iterable.
+	 */
+	@Override
+	protected void collectCandidates( final List< Integer > chunk, final List< T > targetList, final List< Integer > accSources, final List< T > accTargets, final ResizableDoubleArray costs )
+	{
+		final RadiusNeighborSearchOnKDTree< Integer > search = new RadiusNeighborSearchOnKDTree< Integer >( tree );
+		final RealPoint prediction = new RealPoint( 3 );
+		int[] found = new int[ 16 ];
+		for ( final Integer source : chunk )
+		{
+			final int index = source.intValue();
+			final double x = bank.getPrediction( index, 0 );
+			final double y = bank.getPrediction( index, 1 );
+			final double z = bank.getPrediction( index, 2 );
+			prediction.setPosition( x, 0 );
+			prediction.setPosition( y, 1 );
+			prediction.setPosition( z, 2 );
+
+			/*
+			 * Enlarge the search radius by one ulp, so that rounding errors on
+			 * the square root cannot make us miss a measurement right at the
+			 * threshold. Measurements found but out of the gate are rejected
+			 * below anyway.
+			 */
+			final double gateRadius2 = gate < Double.POSITIVE_INFINITY ? gate * bank.getMaxInnovationVariance( index ) : Double.POSITIVE_INFINITY;
+			final double radius = Math.nextUp( Math.sqrt( Math.min( costThreshold, gateRadius2 ) ) );
+			search.search( prediction, radius, false );
+			final int nNeighbors = search.numNeighbors();
+			if ( nNeighbors == 0 )
+			{
+				continue;
+			}
+
+			if ( found.length < nNeighbors )
+			{
+				found = new int[ nNeighbors ];
+			}
+			for ( int i = 0; i < nNeighbors; i++ )
+			{
+				found[ i ] = search.getSampler( i ).get().intValue();
+			}
+			Arrays.sort( found, 0, nNeighbors );
+
+			for ( int i = 0; i < nNeighbors; i++ )
+			{
+				final T target = targetList.get( found[ i ] );
+				final double tx = target.getDoublePosition( 0 );
+				final double ty = target.getDoublePosition( 1 );
+				final double tz = target.getDoublePosition( 2 );
+				final double dx = x - tx;
+				final double dy = y - ty;
+				final double dz = z - tz;
+				if ( dx * dx + dy * dy + dz * dz + Double.MIN_NORMAL >= costThreshold )
+				{
+					continue;
+				}
+				if ( gate < Double.POSITIVE_INFINITY && bank.getSquareMahalanobisDistance( index, tx, ty, tz ) >= gate )
+				{
+					continue;
+				}
+				accSources.add( source );
+				accTargets.add( target );
+				costs.add( costFunction.linkingCost( source, target ) );
+			}
+		}
+	}
+
+	/**
+	 * Cost function that returns the square distance between the prediction of
+	 * a filter and a measurement.
+	 */
+	private static final class SquareDistanceCostFunction< T extends TrackableObject< T >> implements CostFunction< Integer, T >
+	{
+
+		private final KalmanFilterBank< ? > bank;
+
+		public SquareDistanceCostFunction( final KalmanFilterBank< ? > bank )
+		{
+			this.bank = bank;
+		}
+
+		@Override
+		public double linkingCost( final Integer source, final T target )
+		{
+			final int index = source.intValue();
+			final double dx = bank.getPrediction( index, 0 ) - target.getDoublePosition( 0 );
+			final double dy = bank.getPrediction( index, 1 ) - target.getDoublePosition( 1 );
+			final double dz = bank.getPrediction( index, 2 ) - target.getDoublePosition( 2 );
+			return dx * dx + dy * dy + dz * dz + Double.MIN_NORMAL;
+			// So that it's never 0
+		}
+	}
+
+	/**
+	 * Cost function that returns the square Mahalanobis distance between the
+	 * prediction of a filter and a measurement.
+	 */
+	private static final class MahalanobisCostFunction< T extends TrackableObject< T >> implements CostFunction< Integer, T >
+	{
+
+		private final KalmanFilterBank< ? > bank;
+
+		public MahalanobisCostFunction( final KalmanFilterBank< ? > bank )
+		{
+			this.bank = bank;
+		}
+
+		@Override
+		public double linkingCost( final Integer source, final T target )
+		{
+			return bank.getSquareMahalanobisDistance( source.intValue(), target.getDoublePosition( 0 ), target.getDoublePosition( 1 ), target.getDoublePosition( 2 ) ) + Double.MIN_NORMAL;
+			// So that it's never 0
+		}
+	}
+}
@@ -0,0 +1,302 @@
+package fiji.plugin.trackmate.tracking.kalman;
+
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * A bank of constant-velocity Kalman filters, that all share the same noise
+ * parameters, stored as a structure of arrays.
+ * <p>
+ * The state, prediction and covariance of all the filters are stored in three
+ * contiguous <code>double[]</code> arrays, and the filters are addressed by
+ * their <code>int</code> index in the bank. Each filter carries a payload, for
+ * instance the last object it was linked to. The filters are predicted all at
+ * once, and the filters that did not receive a measurement are marked in a
+ * bitset. The prediction step also inverts the innovation covariance of each
+ * filter, which is used by the update step and to gate the measurements that
+ * can be linked to the filter. Filters that die leave a hole; holes are removed by
+ * {@link #compact()}, which preserves the order of the live filters but changes
+ * their indices.
+ * <p>
+ * The filter math is the one of {@link CVMKalmanFilter}. This class is not
+ * thread-safe, except for {@link #predict(int, int)} on disjoint ranges.
+ *
+ * @param <V>
+ *            the type of the payload.
+ */
+class KalmanFilterBank< V >
+{
+
+	private static final int INITIAL_CAPACITY = 64;
+
+	private final double qPosition;
+
+	private final double qVelocity;
+
+	private final double r;
+
+	private double[] X = new double[ 6 * INITIAL_CAPACITY ];
+
+	private double[] Xp = new double[ 6 * INITIAL_CAPACITY ];
+
+	private double[] P = new double[ 36 * INITIAL_CAPACITY ];
+
+	/** Inverses of the innovation covariances, 3×3 each. */
+	private double[] Sinv = new double[ 9 * INITIAL_CAPACITY ];
+
+	/** Upper bounds of the largest eigenvalue of the innovation covariances. */
+	private double[] sMax = new double[ INITIAL_CAPACITY ];
+
+	private int[] nOcclusions = new int[ INITIAL_CAPACITY ];
+
+	private Object[] payloads = new Object[ INITIAL_CAPACITY ];
+
+	/** The indices of the live filters. */
+	private final BitSet alive = new BitSet();
+
+	/** The filters whose last update had no measurement. */
+	private final BitSet occluded = new BitSet();
+
+	/** Work array for the Kalman gain. */
+	private final double[] K = new double[ 18 ];
+
+	/** The number of indices used, dead filters included. */
+	private int size = 0;
+
+	private int nAlive = 0;
+
+	/**
+	 * Creates an empty bank.
+	 *
+	 * @see CVMKalmanFilter#CVMKalmanFilter(double[], double, double, double,
+	 *      double)
+	 */
+	KalmanFilterBank( final double positionProcessStd, final double velocityProcessStd, final double positionMeasurementStd )
+	{
+		this.qPosition = positionProcessStd * positionProcessStd;
+		this.qVelocity = velocityProcessStd * velocityProcessStd;
+		this.r = positionMeasurementStd * positionMeasurementStd;
+	}
+
+	/**
+	 * Adds a new filter with the specified initial state and returns its
+	 * index.
+	 */
+	int add( final double[] X0, final double initStateCovariance, final V payload )
+	{
+		if ( size == payloads.length )
+		{
+			grow();
+		}
+		final int index = size++;
+		System.arraycopy( X0, 0, X, 6 * index, 6 );
+		final int p = 36 * index;
+		Arrays.fill( P, p, p + 36, 0d );
+		for ( int i = 0; i < 6; i++ )
+		{
+			P[ p + 7 * i ] = initStateCovariance;
+		}
+		nOcclusions[ index ] = 0;
+		payloads[ index ] = payload;
+		alive.set( index );
+		occluded.clear( index );
+		nAlive++;
+		return index;
+	}
+
+	/**
+	 * Runs the prediction step of all the live filters.
+	 */
+	void predict()
+	{
+		predict( 0, size );
+	}
+
+	/**
+	 * Runs the prediction step of the live filters whose index is in the
+	 * specified range. Disjoint ranges can be predicted concurrently.
+	 */
+	void predict( final int from, final int to )
+	{
+		for ( int i = alive.nextSetBit( from ); i >= 0 && i < to; i = alive.nextSetBit( i + 1 ) )
+		{
+			CVMKalmanFilter.predict( X, Xp, P, i, qPosition, qVelocity );
+			sMax[ i ] = CVMKalmanFilter.invertInnovationCovariance( P, i, r, Sinv, i );
+		}
+	}
+
+	/**
+	 * Returns the predicted position of a filter along the specified
+	 * dimension (0 to 2).
+	 */
+	double getPrediction( final int index, final int d )
+	{
+		return Xp[ 6 * index + d ];
+	}
+
+	/**
+	 * Returns the square Mahalanobis distance between the predicted position
+	 * of a filter and the specified position, with respect to the innovation
+	 * covariance of the filter. Only valid after the prediction step.
+	 */
+	double getSquareMahalanobisDistance( final int index, final double x, final double y, final double z )
+	{
+		final int p = 6 * index;
+		final int s = 9 * index;
+		final double e0 = x - Xp[ p ];
+		final double e1 = y - Xp[ p + 1 ];
+		final double e2 = z - Xp[ p + 2 ];
+		return e0 * ( Sinv[ s ] * e0 + Sinv[ s + 1 ] * e1 + Sinv[ s + 2 ] * e2 )
+				+ e1 * ( Sinv[ s + 3 ] * e0 + Sinv[ s + 4 ] * e1 + Sinv[ s + 5 ] * e2 )
+				+ e2 * ( Sinv[ s + 6 ] * e0 + Sinv[ s + 7 ] * e1 + Sinv[ s + 8 ] * e2 );
+	}
+
+	/**
+	 * Returns an upper bound of the largest eigenvalue of the innovation
+	 * covariance of a filter. All the positions within a square Mahalanobis
+	 * distance <code>g</code> of the prediction are within a Euclidean
+	 * distance <code>sqrt( g * bound )</code> of it. Only valid after the
+	 * prediction step.
+	 */
+	double getMaxInnovationVariance( final int index )
+	{
+		return sMax[ index ];
+	}
+
+	/**
+	 * Runs the update step of a filter with the specified measured position.
+	 * Only valid after the prediction step.
+	 */
+	void update( final int index, final double x, final double y, final double z )
+	{
+		CVMKalmanFilter.update( X, Xp, P, index, x, y, z, Sinv, index, K );
+		occluded.clear( index );
+	}
+
+	/**
+	 * Runs the update step of a filter that received no measurement: its state
+	 * becomes its prediction.
+	 */
+	void occlude( final int index )
+	{
+		System.arraycopy( Xp, 6 * index, X, 6 * index, 6 );
+		nOcclusions[ index ]++;
+		occluded.set( index );
+	}
+
+	/**
+	 * Returns the number of occlusions of a filter since its creation.
+	 */
+	int getNOcclusion( final int index )
+	{
+		return nOcclusions[ index ];
+	}
+
+	@SuppressWarnings( "unchecked" )
+	V getPayload( final int index )
+	{
+		return ( V ) payloads[ index ];
+	}
+
+	void setPayload( final int index, final V payload )
+	{
+		payloads[ index ] = payload;
+	}
+
+	/**
+	 * Removes a filter from the live ones. Its index stays unused until the
+	 * next {@link #compact()}.
+	 */
+	void kill( final int index )
+	{
+		if ( !alive.get( index ) ) { return; }
+		alive.clear( index );
+		occluded.clear( index );
+		payloads[ index ] = null;
+		nAlive--;
+	}
+
+	boolean isAlive( final int index )
+	{
+		return alive.get( index );
+	}
+
+	/**
+	 * Returns <code>true</code> if the last update of the filter had no
+	 * measurement.
+	 */
+	boolean isOccluded( final int index )
+	{
+		return occluded.get( index );
+	}
+
+	/**
+	 * Returns the indices of the live filters. The returned bitset is the one
+	 * of this bank and must not be modified.
+	 */
+	BitSet alive()
+	{
+		return alive;
+	}
+
+	/**
+	 * Returns the number of indices in use, dead filters included. Live
+	 * filters have an index lower than this.
+	 */
+	int size()
+	{
+		return size;
+	}
+
+	int nAlive()
+	{
+		return nAlive;
+	}
+
+	/**
+	 * Moves the live filters to the lowest indices, preserving their order,
+	 * if at least half of the indices in use are dead filters.
+	 *
+	 * @return <code>true</code> if the filters were moved, which changes their
+	 *         indices.
+	 */
+	boolean compact()
+	{
+		if ( size - nAlive < Math.max( INITIAL_CAPACITY, nAlive ) ) { return false; }
+
+		int target = 0;
+		for ( int i = alive.nextSetBit( 0 ); i >= 0; i = alive.nextSetBit( i + 1 ) )
+		{
+			if ( i != target )
+			{
+				System.arraycopy( X, 6 * i, X, 6 * target, 6 );
+				System.arraycopy( Xp, 6 * i, Xp, 6 * target, 6 );
+				System.arraycopy( P, 36 * i, P, 36 * target, 36 );
+				System.arraycopy( Sinv, 9 * i, Sinv, 9 * target, 9 );
+				sMax[ target ] = sMax[ i ];
+				nOcclusions[ target ] = nOcclusions[ i ];
+				payloads[ target ] = payloads[ i ];
+				occluded.set( target, occluded.get( i ) );
+			}
+			target++;
+		}
+		Arrays.fill( payloads, target, size, null );
+		alive.clear();
+		alive.set( 0, target );
+		occluded.clear( target, size );
+		size = target;
+		return true;
+	}
+
+	private void grow()
+	{
+		final int capacity = 2 * payloads.length;
+		X = Arrays.copyOf( X, 6 * capacity );
+		Xp = Arrays.copyOf( Xp, 6 * capacity );
+		P = Arrays.copyOf( P, 36 * capacity );
+		Sinv = Arrays.copyOf( Sinv, 9 * capacity );
+		sMax = Arrays.copyOf( sMax, capacity );
+		nOcclusions = Arrays.copyOf( nOcclusions, capacity );
+		payloads = Arrays.copyOf( payloads, capacity );
+	}
+}
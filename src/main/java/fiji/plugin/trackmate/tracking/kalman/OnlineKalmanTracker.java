@@ -0,0 +1,648 @@
+package fiji.plugin.trackmate.tracking.kalman;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import net.imglib2.algorithm.MultiThreaded;
+import fiji.plugin.trackmate.Logger;
+import fiji.plugin.trackmate.TrackmateConstants;
+import fiji.plugin.trackmate.tracking.TrackableObject;
+import fiji.plugin.trackmate.tracking.sparselap.costfunction.CostFunction;
+import fiji.plugin.trackmate.tracking.sparselap.costfunction.SquareDistCostFunction;
+import fiji.plugin.trackmate.tracking.sparselap.costmatrix.JaqamanLinkingCostMatrixCreator;
+import fiji.plugin.trackmate.tracking.sparselap.linker.JaqamanLinker;
+import fiji.plugin.trackmate.tracking.sparselap.linker.LAPJV;
+
+/**
+ * A Kalman tracker that consumes the frames one after the other, as they are
+ * acquired, and returns the links created for each frame.
+ * <p>
+ * The tracking is the one of {@link KalmanTracker}: the objects of a frame are
+ * first linked to the predictions of the active Kalman filters (KFs), then the
+ * objects left are linked to the orphan objects of the previous frame, each of
+ * these links nucleating a new KF. Only the active KFs and the orphans of the
+ * previous frame are kept in memory. A KF dies when it missed more than
+ * <code>maxFrameGap</code> frames in total since it was nucleated: as in
+ * {@link KalmanTracker}, a measurement does not reset the count of missed
+ * frames.
+ * <p>
+ * A {@link TrackSink} can be set to receive the tracks finished: the objects
+ * of a KF, from the one that nucleated it to the last one it was linked to,
+ * when it dies. The objects of a track are kept in memory as long as its KF
+ * is active, and only if a sink is set.
+ * <p>
+ * The KF parameters are derived from the search radius and from the mean
+ * radius of the objects of the first non-empty frame after the first frame.
+ *
+ * @param <T>
+ *            the type of objects to track.
+ */
+public class OnlineKalmanTracker< T extends TrackableObject< T >> implements MultiThreaded
+{
+
+	private static final double ALTERNATIVE_COST_FACTOR = 1.05d;
+
+	private static final double PERCENTILE = 1d;
+
+	private static final String BASE_ERROR_MSG = "[KalmanTracker] ";
+
+	/**
+	 * The minimal number of KFs predicted by a task, below which predicting
+	 * them in parallel costs more than it saves.
+	 */
+	private static final int MIN_PREDICTION_CHUNK_SIZE = 1024;
+
+	private final double maxSearchRadius;
+
+	private final int maxFrameGap;
+
+	private final double maxInitialCost;
+
+	private final CostFunction< T, T > nucleatingCostFunction = new SquareDistCostFunction< T >();
+
+	// LAP solvers, reused from one frame to the next.
+	private final LAPJV linkingSolver = new LAPJV();
+
+	private final LAPJV nucleatingSolver = new LAPJV();
+
+	private double gate = Double.POSITIVE_INFINITY;
+
+	private boolean mahalanobisCost = false;
+
+	private int numThreads;
+
+	private ExecutorService executor;
+
+	private TrackSink< T > sink;
+
+	private String errorMessage;
+
+	/*
+	 * TRACKING STATE
+	 */
+
+	/**
+	 * The bank that contains the currently active KFs, with the objects linked
+	 * to each one. Created with the second frame.
+	 */
+	private KalmanFilterBank< List< T >> bank;
+
+	/** The KF indices, boxed once and reused from one frame to the next. */
+	private Integer[] indices = new Integer[ 0 ];
+
+	/**
+	 * Objects in the previous frame that were not part of a link. Is
+	 * <code>null</code> before the first frame.
+	 */
+	private Collection< T > previousOrphans;
+
+	private int lastFrame;
+
+	/*
+	 * CONSTRUCTOR
+	 */
+
+	/**
+	 * Creates a new online tracker.
+	 *
+	 * @param maxSearchRadius
+	 *            the maximal distance between the prediction of a KF and the
+	 *            objects it can be linked to.
+	 * @param maxFrameGap
+	 *            the maximal number of frames a KF can miss, in total since it
+	 *            was nucleated, before it dies.
+	 * @param initialSearchRadius
+	 *            the maximal distance between two orphan objects linked to
+	 *            nucleate a KF.
+	 */
+	public OnlineKalmanTracker( final double maxSearchRadius, final int maxFrameGap, final double initialSearchRadius )
+	{
+		this.maxSearchRadius = maxSearchRadius;
+		this.maxFrameGap = maxFrameGap;
+		this.maxInitialCost = initialSearchRadius * initialSearchRadius;
+		setNumThreads();
+	}
+
+	/*
+	 * METHODS
+	 */
+
+	/**
+	 * Tracks the objects of a new frame.
+	 * <p>
+	 * The frames must be given in increasing order. Once KFs were nucleated,
+	 * frames skipped are processed as empty frames: the KFs miss them. Before
+	 * that, the objects of this frame are directly linked to the ones of the
+	 * previous frame given.
+	 *
+	 * @param frame
+	 *            the frame, greater than the frame of the previous call.
+	 * @param detections
+	 *            the objects of the frame.
+	 * @return the links created from the objects of previous frames to the
+	 *         objects of this frame, or <code>null</code> if an error
+	 *         occurred. The error message can then be retrieved with
+	 *         {@link #getErrorMessage()}.
+	 * @throws IllegalArgumentException
+	 *             if the frame is not greater than the frame of the previous
+	 *             call.
+	 */
+	public List< Link< T >> acceptFrame( final int frame, final Collection< T > detections )
+	{
+		if ( null != previousOrphans && frame <= lastFrame ) { throw new IllegalArgumentException( "Frame " + frame + " was given after frame " + lastFrame + "." ); }
+
+		final boolean ownExecutor = null == executor && numThreads > 1 && null != previousOrphans;
+		if ( ownExecutor )
+		{
+			executor = Executors.newFixedThreadPool( numThreads );
+		}
+		try
+		{
+			if ( null != bank )
+			{
+				final List< T > empty = Collections.emptyList();
+				for ( int f = lastFrame + 1; f < frame; f++ )
+				{
+					if ( null == processFrame( f, empty ) ) { return null; }
+				}
+			}
+			return processFrame( frame, new ArrayList< T >( detections ) );
+		}
+		finally
+		{
+			if ( ownExecutor )
+			{
+				executor.shutdownNow();
+				executor = null;
+			}
+		}
+	}
+
+	/**
+	 * Ends the tracking: sends the tracks of all the active KFs to the sink,
+	 * if any, and forgets them. The next frame given to this tracker starts
+	 * new tracks.
+	 */
+	public void finish()
+	{
+		if ( null != bank )
+		{
+			final BitSet alive = bank.alive();
+			for ( int kf = alive.nextSetBit( 0 ); kf >= 0; kf = alive.nextSetBit( kf + 1 ) )
+			{
+				trackFinished( kf );
+			}
+		}
+		bank = null;
+		previousOrphans = null;
+	}
+
+	/**
+	 * Sets the sink that receives the finished tracks. Must be set before the
+	 * first frame.
+	 *
+	 * @param sink
+	 *            the sink, or <code>null</code> to not collect tracks.
+	 */
+	public void setTrackSink( final TrackSink< T > sink )
+	{
+		this.sink = sink;
+	}
+
+	/**
+	 * Sets the gate of the KFs.
+	 *
+	 * @see KalmanTracker#setGate(double)
+	 */
+	public void setGate( final double gate )
+	{
+		this.gate = gate;
+	}
+
+	public double getGate()
+	{
+		return gate;
+	}
+
+	/**
+	 * Sets whether the cost of linking an object to a KF is the square
+	 * Mahalanobis distance rather than the square distance.
+	 *
+	 * @see KalmanTracker#setMahalanobisCost(boolean)
+	 */
+	public void setMahalanobisCost( final boolean mahalanobisCost )
+	{
+		this.mahalanobisCost = mahalanobisCost;
+	}
+
+	public boolean isMahalanobisCost()
+	{
+		return mahalanobisCost;
+	}
+
+	public String getErrorMessage()
+	{
+		return errorMessage;
+	}
+
+	@Override
+	public void setNumThreads()
+	{
+		this.numThreads = Runtime.getRuntime().availableProcessors();
+	}
+
+	@Override
+	public void setNumThreads( final int numThreads )
+	{
+		this.numThreads = numThreads;
+	}
+
+	@Override
+	public int getNumThreads()
+	{
+		return numThreads;
+	}
+
+	/**
+	 * Sets the executor to run the parallel steps on, instead of creating one
+	 * for each frame. It is not shut down by this tracker.
+	 */
+	void setExecutor( final ExecutorService executor )
+	{
+		this.executor = executor;
+	}
+
+	/*
+	 * PRIVATE METHODS
+	 */
+
+	private List< Link< T >> processFrame( final int frame, final List< T > measurements )
+	{
+		final List< Link< T >> links = new ArrayList< Link< T >>();
+		if ( null == previousOrphans )
+		{
+			// First frame: nothing to link to yet.
+			previousOrphans = measurements;
+			lastFrame = frame;
+			return links;
+		}
+		if ( null == bank )
+		{
+			if ( measurements.isEmpty() )
+			{
+				// Cannot estimate the KF variances yet.
+				previousOrphans = measurements;
+				lastFrame = frame;
+				return links;
+			}
+			bank = createBank( measurements );
+		}
+
+		// Predict for all Kalman filters, and use them as linking sources.
+		if ( !predict() )
+		{
+			errorMessage = BASE_ERROR_MSG + "Error predicting KFs in frame " + frame +
+					": " + errorMessage;
+			return null;
+		}
+		if ( indices.length < bank.size() )
+		{
+			final Integer[] newIndices = new Integer[ Math.max( bank.size(), 2 * indices.length ) ];
+			System.arraycopy( indices, 0, newIndices, 0, indices.length );
+			for ( int i = indices.length; i < newIndices.length; i++ )
+			{
+				newIndices[ i ] = Integer.valueOf( i );
+			}
+			indices = newIndices;
+		}
+		final List< Integer > predictions = new ArrayList< Integer >( bank.nAlive() );
+		final BitSet alive = bank.alive();
+		for ( int i = alive.nextSetBit( 0 ); i >= 0; i = alive.nextSetBit( i + 1 ) )
+		{
+			predictions.add( indices[ i ] );
+		}
+
+		// The KF for which we could not find a measurement in the target
+		// frame. Is updated later.
+		final BitSet childlessKFs = ( BitSet ) alive.clone();
+
+		// Objects in the current frame that are not part of a new link (no
+		// parent).
+		final Collection< T > orphans = new HashSet< T >( measurements );
+
+		// Find the global (in space) optimum for associating a prediction
+		// to a measurement.
+
+		if ( !predictions.isEmpty() && !measurements.isEmpty() )
+		{
+			// Only link measurements to predictions if we have predictions.
+
+			final JaqamanLinkingCostMatrixCreator< Integer, T > crm =
+					new GatedLinkingCostMatrixCreator< T >( predictions, measurements, bank,
+							maxSearchRadius, gate, mahalanobisCost, ALTERNATIVE_COST_FACTOR,
+							PERCENTILE, executor, 4 * numThreads );
+			final JaqamanLinker< Integer, T > linker =
+					new JaqamanLinker< Integer, T >( crm, linkingSolver,
+							Logger.VOID_LOGGER );
+			linker.setNumThreads( numThreads );
+			if ( !linker.checkInput() || !linker.process() )
+			{
+				errorMessage =
+						BASE_ERROR_MSG + "Error linking candidates in frame " + frame +
+								": " + linker.getErrorMessage();
+				return null;
+			}
+			final Map< Integer, T > agnts = linker.getResult();
+			final Map< Integer, Double > costs = linker.getAssignmentCosts();
+
+			// Deal with found links.
+			for ( final Integer index : agnts.keySet() )
+			{
+				final int kf = index.intValue();
+
+				// Create links for found match.
+				final List< T > track = bank.getPayload( kf );
+				final T source = track.get( track.size() - 1 );
+				final T target = agnts.get( index );
+				links.add( new Link< T >( source, target, costs.get( index ) ) );
+
+				// Update Kalman filter
+				bank.update( kf, target.getDoublePosition( 0 ),
+						target.getDoublePosition( 1 ), target.getDoublePosition( 2 ) );
+
+				// Update Kalman track.
+				if ( null == sink )
+				{
+					track.set( 0, target );
+				}
+				else
+				{
+					track.add( target );
+				}
+
+				// Remove from orphan set
+				orphans.remove( target );
+
+				// Remove from childless KF set
+				childlessKFs.clear( kf );
+			}
+		}
+
+		/*
+		 * Deal with orphans from the previous frame. (We deal with orphans
+		 * from previous frame only now because we want to link in priority
+		 * target objects to predictions. Nucleating new KF from nearest
+		 * neighbor only comes second.
+		 */
+		if ( !previousOrphans.isEmpty() && !orphans.isEmpty() )
+		{
+			/*
+			 * We now deal with orphans of the previous frame. We try to find
+			 * them a target from the list of objects that are not already part
+			 * of a link created via KF. That is: the orphans of this frame.
+			 */
+
+			final JaqamanLinkingCostMatrixCreator< T, T > ic =
+					createCostMatrixCreator( previousOrphans, orphans,
+							nucleatingCostFunction, maxInitialCost );
+			final JaqamanLinker< T, T > newLinker =
+					new JaqamanLinker< T, T >( ic, nucleatingSolver, Logger.VOID_LOGGER );
+			newLinker.setNumThreads( numThreads );
+			if ( !newLinker.checkInput() || !newLinker.process() )
+			{
+				errorMessage =
+						BASE_ERROR_MSG + "Error linking objects from frame " + ( frame - 1 ) +
+								" to frame " + frame + ": " + newLinker.getErrorMessage();
+				return null;
+			}
+			final Map< T, T > newAssignments = newLinker.getResult();
+			final Map< T, Double > assignmentCosts = newLinker.getAssignmentCosts();
+
+			// Build links and new KFs from these links.
+			for ( final T source : newAssignments.keySet() )
+			{
+				final T target = newAssignments.get( source );
+
+				// Remove from orphan collection.
+				orphans.remove( target );
+
+				// Derive initial state and create Kalman filter. We trust the
+				// initial state a lot. Store it with its track.
+				final double[] XP = estimateInitialState( source, target );
+				final List< T > track = new ArrayList< T >( null == sink ? 1 : 16 );
+				if ( null != sink )
+				{
+					track.add( source );
+				}
+				track.add( target );
+				bank.add( XP, Double.MIN_NORMAL, track );
+
+				links.add( new Link< T >( source, target, assignmentCosts.get( source ) ) );
+			}
+		}
+		previousOrphans = orphans;
+
+		// Deal with childless KFs.
+		for ( int kf = childlessKFs.nextSetBit( 0 ); kf >= 0; kf = childlessKFs.nextSetBit( kf + 1 ) )
+		{
+			// Echo we missed a measurement
+			bank.occlude( kf );
+
+			// We can bridge a limited number of gaps. If too much, we die.
+			// If not, we will use predicted state next time.
+			if ( bank.getNOcclusion( kf ) > maxFrameGap )
+			{
+				trackFinished( kf );
+				bank.kill( kf );
+			}
+		}
+		// Reclaim the room of dead KFs, once in a while.
+		bank.compact();
+
+		lastFrame = frame;
+		return links;
+	}
+
+	/**
+	 * Creates the KF bank, estimating the KF variances from the specified
+	 * objects.
+	 */
+	private KalmanFilterBank< List< T >> createBank( final Collection< T > measurements )
+	{
+		/*
+		 * The search radius is used to derive an estimate of the noise that
+		 * affects position and velocity. The two are linked: if we need a large
+		 * search radius, then the fluoctuations over predicted states are
+		 * large.
+		 */
+		final double positionProcessStd = maxSearchRadius / 3d;
+		final double velocityProcessStd = maxSearchRadius / 3d;
+		/*
+		 * We assume the detector did a good job and that positions measured are
+		 * accurate up to a fraction of the object radius
+		 */
+		double meanRadius = 0d;
+		for ( final T object : measurements )
+		{
+			meanRadius += object.getFeature( TrackmateConstants.RADIUS ).doubleValue();
+		}
+		meanRadius /= measurements.size();
+		final double positionMeasurementStd = meanRadius / 10d;
+
+		return new KalmanFilterBank< List< T >>( positionProcessStd, velocityProcessStd, positionMeasurementStd );
+	}
+
+	private void trackFinished( final int kf )
+	{
+		if ( null != sink )
+		{
+			sink.trackFinished( bank.getPayload( kf ) );
+		}
+	}
+
+	/**
+	 * Runs the prediction step of all the KFs of the bank, by chunks of
+	 * indices on the executor if there are enough of them.
+	 */
+	private boolean predict()
+	{
+		final int size = bank.size();
+		final int chunkSize = Math.max( MIN_PREDICTION_CHUNK_SIZE, ( size + numThreads - 1 ) / numThreads );
+		if ( null == executor || size <= chunkSize )
+		{
+			bank.predict();
+			return true;
+		}
+
+		final List< Callable< Void >> tasks = new ArrayList< Callable< Void >>();
+		for ( int from = 0; from < size; from += chunkSize )
+		{
+			final int chunkStart = from;
+			final int chunkEnd = Math.min( size, from + chunkSize );
+			tasks.add( new Callable< Void >()
+			{
+				@Override
+				public Void call()
+				{
+					bank.predict( chunkStart, chunkEnd );
+					return null;
+				}
+			} );
+		}
+		try
+		{
+			for ( final Future< Void > future : executor.invokeAll( tasks ) )
+			{
+				future.get();
+			}
+			return true;
+		}
+		catch ( final InterruptedException e )
+		{
+			errorMessage = e.getMessage();
+			return false;
+		}
+		catch ( final ExecutionException e )
+		{
+			errorMessage = "" + e.getCause();
+			return false;
+		}
+	}
+
+	/**
+	 * Returns a cost matrix creator that evaluates the cost function for all
+	 * source-target pairs, on the executor if there is one.
+	 */
+	private < K extends Comparable< K >, J extends Comparable< J >> JaqamanLinkingCostMatrixCreator< K, J > createCostMatrixCreator( final Iterable< K > sources, final Iterable< J > targets, final CostFunction< K, J > costFunction, final double maxCost )
+	{
+		if ( null == executor ) { return new JaqamanLinkingCostMatrixCreator< K, J >( sources, targets, costFunction, maxCost, ALTERNATIVE_COST_FACTOR, PERCENTILE ); }
+		return new ParallelLinkingCostMatrixCreator< K, J >( sources, targets, costFunction, maxCost, ALTERNATIVE_COST_FACTOR, PERCENTILE, executor, 4 * numThreads );
+	}
+
+	private static final double[] estimateInitialState( final TrackableObject< ? > first, final TrackableObject< ? > second )
+	{
+		final double[] xp =
+				new double[] { second.getDoublePosition( 0 ), second.getDoublePosition( 1 ),
+						second.getDoublePosition( 2 ),
+						second.getDoublePosition( 0 ) - first.getDoublePosition( 0 ),
+						second.getDoublePosition( 1 ) - first.getDoublePosition( 1 ),
+						second.getDoublePosition( 2 ) - first.getDoublePosition( 2 ) };
+		return xp;
+	}
+
+	/*
+	 * INNER CLASSES
+	 */
+
+	/**
+	 * A link created by the tracker, from an object of a previous frame to an
+	 * object of the current frame.
+	 */
+	public static final class Link< T >
+	{
+
+		private final T source;
+
+		private final T target;
+
+		private final double cost;
+
+		public Link( final T source, final T target, final double cost )
+		{
+			this.source = source;
+			this.target = target;
+			this.cost = cost;
+		}
+
+		public T getSource()
+		{
+			return source;
+		}
+
+		public T getTarget()
+		{
+			return target;
+		}
+
+		/**
+		 * Returns the cost of the link, as used to solve the linking problem.
+		 */
+		public double getCost()
+		{
+			return cost;
+		}
+
+		@Override
+		public String toString()
+		{
+			return source + " -> " + target + " (" + cost + ")";
+		}
+	}
+
+	/**
+	 * Receives the tracks finished by an {@link OnlineKalmanTracker}.
+	 */
+	public static interface TrackSink< T >
+	{
+
+		/**
+		 * Called when a track is finished, from the thread that gave the
+		 * frame to the tracker.
+		 *
+		 * @param track
+		 *            the objects of the track, in frame order, each one linked
+		 *            to the next.
+		 */
+		public void trackFinished( List< T > track );
+	}
+}
@@ -0,0 +1,189 @@
+package fiji.plugin.trackmate.tracking.kalman;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import fiji.plugin.trackmate.tracking.sparselap.costfunction.CostFunction;
+import fiji.plugin.trackmate.tracking.sparselap.costmatrix.JaqamanLinkingCostMatrixCreator;
+import fiji.plugin.trackmate.tracking.sparselap.costmatrix.ResizableDoubleArray;
+
+/**
+ * A {@link JaqamanLinkingCostMatrixCreator} that evaluates the cost function
+ * for all source-target pairs on several threads.
+ * <p>
+ * The sources are split in contiguous chunks, and the candidates of each chunk
+ * are collected in their own buffers by a task of the specified executor. The
+ * buffers are then concatenated in the order of the chunks, so that the
+ * generated cost matrix is identical to the one of the single-threaded
+ * {@link JaqamanLinkingCostMatrixCreator}. The cost function must therefore be
+ * safe to call from several threads.
+ * <p>
+ * Subclasses can restrict the pairs evaluated for a chunk by overriding
+ * {@link #collectCandidates(List, List, List, List, ResizableDoubleArray)}.
+ *
+ * @param <K>
+ *            the type of the sources.
+ * @param <J>
+ *            the type of the targets.
+ */
+class ParallelLinkingCostMatrixCreator< K extends Comparable< K >, J extends Comparable< J >> extends JaqamanLinkingCostMatrixCreator< K, J >
+{
+
+	private final ExecutorService executor;
+
+	private final int nChunks;
+
+	/**
+	 * @param executor
+	 *            the executor to run the tasks on, or <code>null</code> to
+	 *            collect the candidates in the calling thread. It is not shut
+	 *            down by this instance.
+	 * @param nChunks
+	 *            the number of chunks to split the sources in.
+	 */
+	public ParallelLinkingCostMatrixCreator( final Iterable< K > sources, final Iterable< J > targets, final CostFunction< K, J > costFunction, final double costThreshold, final double alternativeCostFactor, final double percentile, final ExecutorService executor, final int nChunks )
+	{
+		super( sources, targets, costFunction, costThreshold, alternativeCostFactor, percentile );
+		this.executor = executor;
+		this.nChunks = Math.max( 1, nChunks );
+	}
+
+	@Override
+	protected void collectCandidates( final List< K > accSources, final List< J > accTargets, final ResizableDoubleArray costs )
+	{
+		final List< K > sourceList = new ArrayList< K >();
+		for ( final K source : sources )
+		{
+			sourceList.add( source );
+		}
+		final List< J > targetList = new ArrayList< J >();
+		for ( final J target : targets )
+		{
+			targetList.add( target );
+		}
+
+		prepare( targetList );
+		if ( null == executor )
+		{
+			collectCandidates( sourceList, targetList, accSources, accTargets, costs );
+			return;
+		}
+
+		final int nSources = sourceList.size();
+		final int chunkSize = Math.max( 1, ( nSources + nChunks - 1 ) / nChunks );
+		final List< Future< Candidates >> futures = new ArrayList< Future< Candidates >>();
+		for ( int from = 0; from < nSources; from += chunkSize )
+		{
+			final List< K > chunk = sourceList.subList( from, Math.min( nSources, from + chunkSize ) );
+			futures.add( executor.submit( new Callable< Candidates >()
+			{
+				@Override
+				public Candidates call()
+				{
+					final Candidates candidates = new Candidates();
+					collectCandidates( chunk, targetList, candidates.sources, candidates.targets, candidates.costs );
+					return candidates;
+				}
+			} ) );
+		}
+
+		/*
+		 * Merge the chunk buffers, in the order the chunks were submitted, so
+		 * that the output does not depend on thread scheduling.
+		 */
+
+		try
+		{
+			for ( final Future< Candidates > future : futures )
+			{
+				final Candidates candidates = future.get();
+				accSources.addAll( candidates.sources );
+				accTargets.addAll( candidates.targets );
+				costs.ensureCapacity( costs.size + candidates.costs.size );
+				System.arraycopy( candidates.costs.data, 0, costs.data, costs.size, candidates.costs.size );
+				costs.size += candidates.costs.size;
+			}
+		}
+		catch ( final InterruptedException e )
+		{
+			cancel( futures );
+			Thread.currentThread().interrupt();
+			throw new RuntimeException( "Interrupted while computing linking costs.", e );
+		}
+		catch ( final ExecutionException e )
+		{
+			cancel( futures );
+			throw new RuntimeException( "Error while computing linking costs.", e.getCause() );
+		}
+	}
+
+	/**
+	 * Called once with all the targets, before the candidates are collected.
+	 * This implementation does nothing.
+	 *
+	 * @param targetList
+	 *            the targets, in the order of the target iterable.
+	 */
+	protected void prepare( final List< J > targetList )
+	{}
+
+	/**
+	 * Collects the source-target pairs of a chunk of sources whose linking
+	 * cost is strictly below the cost threshold, in the order of the sources,
+	 * then of the targets. May be called concurrently for different chunks.
+	 * <p>
+	 * This implementation evaluates the cost function for every possible pair.
+	 *
+	 * @param chunk
+	 *            the sources of the chunk.
+	 * @param targetList
+	 *            all the targets, in the order of the target iterable.
+	 * @param accSources
+	 *            the list to add the accepted sources to.
+	 * @param accTargets
+	 *            the list to add the accepted targets to.
+	 * @param costs
+	 *            the array to add the accepted costs to.
+	 */
+	protected void collectCandidates( final List< K > chunk, final List< J > targetList, final List< K > accSources, final List< J > accTargets, final ResizableDoubleArray costs )
+	{
+		for ( final K source : chunk )
+		{
+			for ( final J target : targetList )
+			{
+				final double cost = costFunction.linkingCost( source, target );
+				if ( cost < costThreshold )
+				{
+					accSources.add( source );
+					accTargets.add( target );
+					costs.add( cost );
+				}
+			}
+		}
+	}
+
+	private static void cancel( final List< ? extends Future< ? >> futures )
+	{
+		for ( final Future< ? > future : futures )
+		{
+			future.cancel( true );
+		}
+	}
+
+	/**
+	 * The candidates collected for a chunk of sources.
+	 */
+	private final class Candidates
+	{
+
+		private final List< K > sources = new ArrayList< K >();
+
+		private final List< J > targets = new ArrayList< J >();
+
+		private final ResizableDoubleArray costs = new ResizableDoubleArray();
+	}
+}
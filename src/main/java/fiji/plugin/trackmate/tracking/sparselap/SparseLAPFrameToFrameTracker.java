@@ -8,11 +8,16 @@ import static fiji.plugin.trackmate.util.TMUtils.checkMapKeys;
 import static fiji.plugin.trackmate.util.TMUtils.checkParameter;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import net.imglib2.algorithm.MultiThreadedBenchmarkAlgorithm;
 import net.imglib2.multithreading.SimpleMultiThreading;
@@ -27,8 +32,12 @@ import fiji.plugin.trackmate.tracking.Tracker;
 import fiji.plugin.trackmate.tracking.sparselap.costfunction.CostFunction;
 import fiji.plugin.trackmate.tracking.sparselap.costfunction.FeaturePenaltyCostFunction;
 import fiji.plugin.trackmate.tracking.sparselap.costfunction.SquareDistCostFunction;
+import fiji.plugin.trackmate.tracking.sparselap.costmatrix.CostMatrixCreator;
 import fiji.plugin.trackmate.tracking.sparselap.costmatrix.JaqamanLinkingCostMatrixCreator;
+import fiji.plugin.trackmate.tracking.sparselap.costmatrix.KDTreeLinkingCostMatrixCreator;
 import fiji.plugin.trackmate.tracking.sparselap.linker.JaqamanLinker;
+import fiji.plugin.trackmate.tracking.sparselap.linker.LAPJV;
+import fiji.plugin.trackmate.tracking.sparselap.linker.SparseCostMatrix;
 
 public class SparseLAPFrameToFrameTracker< T extends TrackableObject< T >> extends
 		MultiThreadedBenchmarkAlgorithm implements Tracker< T >
@@ -43,6 +52,14 @@ public class SparseLAPFrameToFrameTracker< T extends TrackableObject< T >> exten
 
 	private final Map< String, Object > settings;
 
+	private boolean useSpatialIndex = true;
+
+	private boolean warmStart = false;
+
+	private int queueCapacity = 0;
+
+	private List< StageCounter > stageCounters;
+
 	/*
 	 * CONSTRUCTOR
 	 */
@@ -138,13 +155,18 @@ public class SparseLAPFrameToFrameTracker< T extends TrackableObject< T >> exten
 		final Map< String, Double > featurePenalties = ( Map< String, Double > ) settings
 				.get( KEY_LINKING_FEATURE_PENALTIES );
 		final CostFunction< T, T > costFunction;
+		final boolean spatialIndex;
 		if ( null == featurePenalties || featurePenalties.isEmpty() )
 		{
 			costFunction = new SquareDistCostFunction< T >();
+			spatialIndex = useSpatialIndex;
 		}
 		else
 		{
 			costFunction = new FeaturePenaltyCostFunction< T >( featurePenalties );
+			// Penalties can be below 1 for negative feature values, so a cost
+			// can be below the square distance: the radius search is not exact.
+			spatialIndex = false;
 		}
 		final Double maxDist = ( Double ) settings.get( KEY_LINKING_MAX_DISTANCE );
 		final double costThreshold = maxDist * maxDist;
@@ -155,111 +177,325 @@ public class SparseLAPFrameToFrameTracker< T extends TrackableObject< T >> exten
 		graph = new SimpleWeightedGraph< T, DefaultWeightedEdge >(
 				DefaultWeightedEdge.class );
 
-		// Prepare threads
-		final Thread[] threads = SimpleMultiThreading.newThreads( numThreads );
+		final Stages stages = new Stages( costFunction, costThreshold, alternativeCostFactor, spatialIndex );
+		stageCounters = Collections.unmodifiableList( Arrays.asList( stages.extractCounter, stages.buildCounter, stages.solveCounter, stages.writeCounter ) );
 
-		// Prepare the thread array
-		final AtomicInteger ai = new AtomicInteger( 0 );
-		final AtomicInteger progress = new AtomicInteger( 0 );
-		final AtomicBoolean ok = new AtomicBoolean( true );
-		for ( int ithread = 0; ithread < threads.length; ithread++ )
+		logger.setStatus( "Frame to frame linking..." );
+		if ( numThreads > 1 )
 		{
-			threads[ ithread ] = new Thread( BASE_ERROR_MESSAGE + " thread "
-					+ ( 1 + ithread ) + "/" + threads.length )
+			processPipeline( framePairs, stages );
+		}
+		else
+		{
+			processSequentially( framePairs, stages );
+		}
+		logger.setProgress( 1d );
+		logger.setStatus( "" );
+
+		final long end = System.currentTimeMillis();
+		processingTime = end - start;
+
+		return stages.ok.get();
+	}
+
+	/**
+	 * Processes the frame pairs one after the other, in the calling thread.
+	 */
+	private void processSequentially( final List< int[] > framePairs, final Stages stages )
+	{
+		final LAPJV solver = new LAPJV();
+		solver.setWarmStart( warmStart );
+		List< T > previous = null;
+		int previousFrame = -1;
+		int done = 0;
+		for ( final int[] framePair : framePairs )
+		{
+			if ( !stages.ok.get() )
 			{
-				@Override
-				public void run()
+				break;
+			}
+			final FramePair< T > pair = stages.extractPair( framePair[ 0 ], framePair[ 1 ], previous, previousFrame );
+			if ( null == pair )
+			{
+				break;
+			}
+			previous = pair.targets;
+			previousFrame = pair.frame1;
+			stages.build( pair );
+			stages.solve( pair, solver );
+			stages.write( pair );
+			done++;
+			logger.setProgress( ( double ) done / framePairs.size() );
+		}
+	}
+
+	/**
+	 * Processes the frame pairs in a pipeline: 1 thread extracts the spot
+	 * lists, builders create the cost matrices, solvers solve them, and a
+	 * single writer adds the links to the graph. Stages are connected by
+	 * bounded queues, and each stage stops after the end marker of the
+	 * previous one. After an error, including an exception thrown while
+	 * processing a frame pair, stages keep draining their input without
+	 * processing it, and always forward the end markers, so that no thread
+	 * stays blocked on a queue.
+	 */
+	private void processPipeline( final List< int[] > framePairs, final Stages stages )
+	{
+		final AtomicBoolean ok = stages.ok;
+		final int nBuilders = Math.max( 1, numThreads / 2 );
+		final int nSolvers = Math.max( 1, numThreads - nBuilders );
+		final int capacity = Math.max( 2, queueCapacity > 0 ? queueCapacity : 2 * numThreads );
+		final BlockingQueue< FramePair< T > > toBuild = new ArrayBlockingQueue< FramePair< T > >( capacity );
+		final BlockingQueue< FramePair< T > > toSolve = new ArrayBlockingQueue< FramePair< T > >( capacity );
+		final BlockingQueue< FramePair< T > > toWrite = new ArrayBlockingQueue< FramePair< T > >( capacity );
+		final FramePair< T > endMarker = new FramePair< T >( -1, -1, null, null );
+
+		final AtomicInteger buildersLeft = new AtomicInteger( nBuilders );
+		final AtomicInteger solversLeft = new AtomicInteger( nSolvers );
+		final Thread[] threads = new Thread[ 2 + nBuilders + nSolvers ];
+		int ithread = 0;
+
+		threads[ ithread++ ] = new Thread( BASE_ERROR_MESSAGE + " extraction thread" )
+		{
+			@Override
+			public void run()
+			{
+				try
 				{
-					for ( int i = ai.getAndIncrement(); i < framePairs.size(); i = ai
-							.getAndIncrement() )
+					// Lists are read-only, so the targets of a pair can be the
+					// sources of the next one.
+					List< T > previous = null;
+					int previousFrame = -1;
+					for ( final int[] framePair : framePairs )
 					{
 						if ( !ok.get() )
 						{
 							break;
 						}
-
-						// Get frame pairs
-						final int frame0 = framePairs.get( i )[ 0 ];
-						final int frame1 = framePairs.get( i )[ 1 ];
-
-						// Get spots - we have to create a list from each
-						// content.
-						final List< T > sources = new ArrayList< T >(
-								spots.getNObjects( frame0, true ) );
-						for ( final Iterator< T > iterator = spots.iterator(
-								frame0, true ); iterator.hasNext(); )
+						final FramePair< T > pair = stages.extractPair( framePair[ 0 ], framePair[ 1 ], previous, previousFrame );
+						if ( null == pair )
 						{
-							sources.add( iterator.next() );
+							break;
 						}
+						previous = pair.targets;
+						previousFrame = pair.frame1;
+						toBuild.put( pair );
+					}
+				}
+				catch ( final InterruptedException e )
+				{
+					fail( ok, BASE_ERROR_MESSAGE + "Interrupted: " + e.getMessage() );
+				}
+				catch ( final RuntimeException e )
+				{
+					fail( ok, BASE_ERROR_MESSAGE + e );
+				}
+				finally
+				{
+					forward( toBuild, endMarker, nBuilders, ok );
+				}
+			}
+		};
 
-						final List< T > targets = new ArrayList< T >(
-								spots.getNObjects( frame1, true ) );
-						for ( final Iterator< T > iterator = spots.iterator(
-								frame1, true ); iterator.hasNext(); )
+		for ( int i = 0; i < nBuilders; i++ )
+		{
+			threads[ ithread++ ] = new Thread( BASE_ERROR_MESSAGE + " cost matrix thread " + ( 1 + i ) + "/" + nBuilders )
+			{
+				@Override
+				public void run()
+				{
+					try
+					{
+						for ( FramePair< T > pair = toBuild.take(); pair != endMarker; pair = toBuild.take() )
 						{
-							targets.add( iterator.next() );
+							stages.build( pair );
+							toSolve.put( pair );
 						}
-
-						if ( sources.isEmpty() || targets.isEmpty() )
+					}
+					catch ( final InterruptedException e )
+					{
+						fail( ok, BASE_ERROR_MESSAGE + "Interrupted: " + e.getMessage() );
+					}
+					catch ( final RuntimeException e )
+					{
+						fail( ok, BASE_ERROR_MESSAGE + e );
+					}
+					finally
+					{
+						if ( buildersLeft.decrementAndGet() == 0 )
 						{
-							continue;
+							forward( toSolve, endMarker, nSolvers, ok );
 						}
+					}
+				}
+			};
+		}
 
-						/*
-						 * Run the linker.
-						 */
-
-						final JaqamanLinkingCostMatrixCreator< T, T > creator = new JaqamanLinkingCostMatrixCreator< T, T >(
-								sources, targets, costFunction, costThreshold,
-								alternativeCostFactor, 1d );
-						final JaqamanLinker< T, T > linker = new JaqamanLinker< T, T >(
-								creator );
-						if ( !linker.checkInput() || !linker.process() )
+		for ( int i = 0; i < nSolvers; i++ )
+		{
+			threads[ ithread++ ] = new Thread( BASE_ERROR_MESSAGE + " solver thread " + ( 1 + i ) + "/" + nSolvers )
+			{
+				@Override
+				public void run()
+				{
+					// One solver per thread, reused over its frame pairs.
+					final LAPJV solver = new LAPJV();
+					solver.setWarmStart( warmStart );
+					try
+					{
+						for ( FramePair< T > pair = toSolve.take(); pair != endMarker; pair = toSolve.take() )
 						{
-							errorMessage = "At frame " + frame0 + " to "
-									+ frame1 + ": " + linker.getErrorMessage();
-							ok.set( false );
-							return;
+							stages.solve( pair, solver );
+							toWrite.put( pair );
 						}
-
-						/*
-						 * Update graph.
-						 */
-
-						synchronized ( graph )
+					}
+					catch ( final InterruptedException e )
+					{
+						fail( ok, BASE_ERROR_MESSAGE + "Interrupted: " + e.getMessage() );
+					}
+					catch ( final RuntimeException e )
+					{
+						fail( ok, BASE_ERROR_MESSAGE + e );
+					}
+					finally
+					{
+						if ( solversLeft.decrementAndGet() == 0 )
 						{
-							final Map< T, Double > costs = linker
-									.getAssignmentCosts();
-							final Map< T, T > assignment = linker.getResult();
-							for ( final T source : assignment.keySet() )
-							{
-								final double cost = costs.get( source );
-								final T target = assignment.get( source );
-								graph.addVertex( source );
-								graph.addVertex( target );
-								final DefaultWeightedEdge edge = graph.addEdge(
-										source, target );
-								graph.setEdgeWeight( edge, cost );
-							}
+							forward( toWrite, endMarker, 1, ok );
 						}
-
-						logger.setProgress( progress.incrementAndGet()
-								/ framePairs.size() );
-
 					}
 				}
 			};
 		}
 
-		logger.setStatus( "Frame to frame linking..." );
+		threads[ ithread++ ] = new Thread( BASE_ERROR_MESSAGE + " graph thread" )
+		{
+			@Override
+			public void run()
+			{
+				try
+				{
+					int done = 0;
+					for ( FramePair< T > pair = toWrite.take(); pair != endMarker; pair = toWrite.take() )
+					{
+						stages.write( pair );
+						done++;
+						logger.setProgress( ( double ) done / framePairs.size() );
+					}
+				}
+				catch ( final InterruptedException e )
+				{
+					fail( ok, BASE_ERROR_MESSAGE + "Interrupted: " + e.getMessage() );
+				}
+				catch ( final RuntimeException e )
+				{
+					fail( ok, BASE_ERROR_MESSAGE + e );
+				}
+			}
+		};
+
 		SimpleMultiThreading.startAndJoin( threads );
-		logger.setProgress( 1d );
-		logger.setStatus( "" );
+	}
 
-		final long end = System.currentTimeMillis();
-		processingTime = end - start;
+	/**
+	 * Puts the specified number of end markers in a queue. Called even after
+	 * an error, so that the threads of the next stage terminate.
+	 */
+	private void forward( final BlockingQueue< FramePair< T > > queue, final FramePair< T > endMarker, final int n, final AtomicBoolean ok )
+	{
+		try
+		{
+			for ( int i = 0; i < n; i++ )
+			{
+				queue.put( endMarker );
+			}
+		}
+		catch ( final InterruptedException e )
+		{
+			fail( ok, BASE_ERROR_MESSAGE + "Interrupted: " + e.getMessage() );
+		}
+	}
+
+	/**
+	 * Returns the spots of the specified frame, as a new list.
+	 */
+	private List< T > extract( final int frame )
+	{
+		final List< T > list = new ArrayList< T >( spots.getNObjects( frame, true ) );
+		for ( final Iterator< T > iterator = spots.iterator( frame, true ); iterator.hasNext(); )
+		{
+			list.add( iterator.next() );
+		}
+		return list;
+	}
+
+	/**
+	 * Records the first error, and stops the pipeline.
+	 */
+	private synchronized void fail( final AtomicBoolean ok, final String message )
+	{
+		if ( ok.getAndSet( false ) )
+		{
+			errorMessage = message;
+		}
+	}
+
+	/**
+	 * Returns the counters of the pipeline stages of the last call to
+	 * {@link #process()}, in pipeline order: spot list extraction, cost
+	 * matrix creation, LAP solving and graph insertion.
+	 *
+	 * @return the stage counters, or <code>null</code> if the tracker was not
+	 *         run.
+	 */
+	public List< StageCounter > getStageCounters()
+	{
+		return stageCounters;
+	}
 
-		return ok.get();
+	/**
+	 * Sets the capacity of the queues between pipeline stages. It bounds the
+	 * number of frame pairs held in memory between two stages.
+	 *
+	 * @param queueCapacity
+	 *            the queue capacity, at least 2, or 0 to use twice the number
+	 *            of threads.
+	 */
+	public void setQueueCapacity( final int queueCapacity )
+	{
+		this.queueCapacity = queueCapacity;
+	}
+
+	/**
+	 * Sets whether linking candidates are searched for with a spatial index
+	 * over the targets of each frame pair, or by evaluating the cost of all
+	 * possible source-target pairs. Both give the same results. The spatial
+	 * index is used by default, but only when no feature penalties are set:
+	 * with feature penalties, a linking cost can be smaller than the square
+	 * distance, and the spatial index could miss valid candidates.
+	 *
+	 * @param useSpatialIndex
+	 *            if <code>true</code>, a {@link KDTreeLinkingCostMatrixCreator}
+	 *            is used. Otherwise a brute-force
+	 *            {@link JaqamanLinkingCostMatrixCreator} is used.
+	 */
+	public void setUseSpatialIndex( final boolean useSpatialIndex )
+	{
+		this.useSpatialIndex = useSpatialIndex;
+	}
+
+	/**
+	 * Sets whether the LAP solver of each thread starts from the column prices
+	 * of the previous frame pair it solved. This does not change the links
+	 * found, only the time needed to find them. Off by default.
+	 *
+	 * @param warmStart
+	 *            whether to warm-start the LAP solvers.
+	 * @see LAPJV#setWarmStart(boolean)
+	 */
+	public void setWarmStart( final boolean warmStart )
+	{
+		this.warmStart = warmStart;
 	}
 
 	@Override
@@ -293,4 +529,329 @@ public class SparseLAPFrameToFrameTracker< T extends TrackableObject< T >> exten
 
 		return ok;
 	}
+
+	/**
+	 * Counts the frame pairs processed by a pipeline stage, and the time
+	 * spent processing them, summed over the threads of the stage. Time spent
+	 * waiting on the queues is not counted.
+	 */
+	public static final class StageCounter
+	{
+		private final String name;
+
+		private final AtomicInteger count = new AtomicInteger( 0 );
+
+		private final AtomicLong busyTime = new AtomicLong( 0 );
+
+		private StageCounter( final String name )
+		{
+			this.name = name;
+		}
+
+		private void add( final long nanos )
+		{
+			count.incrementAndGet();
+			busyTime.addAndGet( nanos );
+		}
+
+		/**
+		 * Returns the name of the stage.
+		 *
+		 * @return the name.
+		 */
+		public String getName()
+		{
+			return name;
+		}
+
+		/**
+		 * Returns the number of frame pairs processed by the stage. Empty
+		 * frame pairs and pairs skipped after an error are not counted.
+		 *
+		 * @return the number of frame pairs.
+		 */
+		public int getCount()
+		{
+			return count.get();
+		}
+
+		/**
+		 * Returns the processing time of the stage, summed over its threads.
+		 *
+		 * @return the processing time, in milliseconds.
+		 */
+		public double getBusyTime()
+		{
+			return busyTime.get() / 1e6;
+		}
+
+		/**
+		 * Returns the throughput of a single thread of the stage.
+		 *
+		 * @return the number of frame pairs processed per second of
+		 *         processing time.
+		 */
+		public double getThroughput()
+		{
+			final long nanos = busyTime.get();
+			return nanos == 0 ? 0 : count.get() / ( nanos / 1e9 );
+		}
+
+		@Override
+		public String toString()
+		{
+			return String.format( "%s: %d frame pairs in %.1f ms, %.1f pairs/s", name, getCount(), getBusyTime(), getThroughput() );
+		}
+	}
+
+	/**
+	 * The processing of a frame pair by each stage, shared by the sequential
+	 * and the pipelined processing. An exception thrown while processing a
+	 * frame pair is recorded as the error, and the next frame pairs are
+	 * skipped.
+	 */
+	private final class Stages
+	{
+		private final AtomicBoolean ok = new AtomicBoolean( true );
+
+		private final StageCounter extractCounter = new StageCounter( "Spot list extraction" );
+
+		private final StageCounter buildCounter = new StageCounter( "Cost matrix creation" );
+
+		private final StageCounter solveCounter = new StageCounter( "LAP solving" );
+
+		private final StageCounter writeCounter = new StageCounter( "Graph insertion" );
+
+		private final CostFunction< T, T > costFunction;
+
+		private final double costThreshold;
+
+		private final double alternativeCostFactor;
+
+		private final boolean spatialIndex;
+
+		private Stages( final CostFunction< T, T > costFunction, final double costThreshold, final double alternativeCostFactor, final boolean spatialIndex )
+		{
+			this.costFunction = costFunction;
+			this.costThreshold = costThreshold;
+			this.alternativeCostFactor = alternativeCostFactor;
+			this.spatialIndex = spatialIndex;
+		}
+
+		/**
+		 * Returns the frame pair with its spot lists, reusing the previous
+		 * targets as sources if they are of the same frame, or
+		 * <code>null</code> after an error.
+		 */
+		private FramePair< T > extractPair( final int frame0, final int frame1, final List< T > previous, final int previousFrame )
+		{
+			try
+			{
+				final long t0 = System.nanoTime();
+				final List< T > sources = ( null != previous && previousFrame == frame0 ) ? previous : extract( frame0 );
+				final List< T > targets = extract( frame1 );
+				extractCounter.add( System.nanoTime() - t0 );
+				return new FramePair< T >( frame0, frame1, sources, targets );
+			}
+			catch ( final RuntimeException e )
+			{
+				fail( ok, "At frame " + frame0 + " to " + frame1 + ": " + e );
+				return null;
+			}
+		}
+
+		private void build( final FramePair< T > pair )
+		{
+			if ( !ok.get() || pair.sources.isEmpty() || pair.targets.isEmpty() )
+			{
+				return;
+			}
+			try
+			{
+				final long t0 = System.nanoTime();
+				final JaqamanLinkingCostMatrixCreator< T, T > creator;
+				if ( spatialIndex )
+				{
+					creator = new KDTreeLinkingCostMatrixCreator< T, T >(
+							pair.sources, pair.targets, costFunction, costThreshold,
+							alternativeCostFactor, 1d );
+				}
+				else
+				{
+					creator = new JaqamanLinkingCostMatrixCreator< T, T >(
+							pair.sources, pair.targets, costFunction, costThreshold,
+							alternativeCostFactor, 1d );
+				}
+				if ( !creator.checkInput() || !creator.process() )
+				{
+					fail( ok, "At frame " + pair.frame0 + " to " + pair.frame1 + ": " + creator.getErrorMessage() );
+				}
+				pair.creator = creator;
+				buildCounter.add( System.nanoTime() - t0 );
+			}
+			catch ( final RuntimeException e )
+			{
+				fail( ok, "At frame " + pair.frame0 + " to " + pair.frame1 + ": " + e );
+			}
+		}
+
+		private void solve( final FramePair< T > pair, final LAPJV solver )
+		{
+			if ( !ok.get() || null == pair.creator )
+			{
+				// Release the cost matrix early.
+				pair.creator = null;
+				return;
+			}
+			try
+			{
+				final long t0 = System.nanoTime();
+				final JaqamanLinker< T, T > linker = new JaqamanLinker< T, T >(
+						new PrecomputedCostMatrix< T >( pair.creator ), solver, Logger.VOID_LOGGER );
+				// Frame pairs are the unit of parallelism.
+				linker.setNumThreads( 1 );
+				if ( !linker.checkInput() || !linker.process() )
+				{
+					fail( ok, "At frame " + pair.frame0 + " to " + pair.frame1 + ": " + linker.getErrorMessage() );
+				}
+				else
+				{
+					pair.assignment = linker.getResult();
+					pair.costs = linker.getAssignmentCosts();
+				}
+				solveCounter.add( System.nanoTime() - t0 );
+			}
+			catch ( final RuntimeException e )
+			{
+				fail( ok, "At frame " + pair.frame0 + " to " + pair.frame1 + ": " + e );
+			}
+			finally
+			{
+				pair.creator = null;
+			}
+		}
+
+		private void write( final FramePair< T > pair )
+		{
+			if ( !ok.get() || null == pair.assignment )
+			{
+				return;
+			}
+			try
+			{
+				final long t0 = System.nanoTime();
+				for ( final T source : pair.assignment.keySet() )
+				{
+					final double cost = pair.costs.get( source );
+					final T target = pair.assignment.get( source );
+					graph.addVertex( source );
+					graph.addVertex( target );
+					final DefaultWeightedEdge edge = graph.addEdge( source, target );
+					graph.setEdgeWeight( edge, cost );
+				}
+				writeCounter.add( System.nanoTime() - t0 );
+			}
+			catch ( final RuntimeException e )
+			{
+				fail( ok, "At frame " + pair.frame0 + " to " + pair.frame1 + ": " + e );
+			}
+		}
+	}
+
+	/**
+	 * A frame pair going through the pipeline, with the results of each
+	 * stage.
+	 */
+	private static final class FramePair< T extends Comparable< T >>
+	{
+		private final int frame0;
+
+		private final int frame1;
+
+		private final List< T > sources;
+
+		private final List< T > targets;
+
+		private JaqamanLinkingCostMatrixCreator< T, T > creator;
+
+		private Map< T, T > assignment;
+
+		private Map< T, Double > costs;
+
+		private FramePair( final int frame0, final int frame1, final List< T > sources, final List< T > targets )
+		{
+			this.frame0 = frame0;
+			this.frame1 = frame1;
+			this.sources = sources;
+			this.targets = targets;
+		}
+	}
+
+	/**
+	 * Exposes a cost matrix creator that was already processed, so that the
+	 * linker does not process it again.
+	 */
+	private static final class PrecomputedCostMatrix< T extends Comparable< T >> implements CostMatrixCreator< T, T >
+	{
+		private final CostMatrixCreator< T, T > creator;
+
+		private PrecomputedCostMatrix( final CostMatrixCreator< T, T > creator )
+		{
+			this.creator = creator;
+		}
+
+		@Override
+		public boolean checkInput()
+		{
+			return true;
+		}
+
+		@Override
+		public boolean process()
+		{
+			return true;
+		}
+
+		@Override
+		public SparseCostMatrix getResult()
+		{
+			return creator.getResult();
+		}
+
+		@Override
+		public String getErrorMessage()
+		{
+			return creator.getErrorMessage();
+		}
+
+		@Override
+		public long getProcessingTime()
+		{
+			return creator.getProcessingTime();
+		}
+
+		@Override
+		public List< T > getSourceList()
+		{
+			return creator.getSourceList();
+		}
+
+		@Override
+		public List< T > getTargetList()
+		{
+			return creator.getTargetList();
+		}
+
+		@Override
+		public double getAlternativeCostForSource( final T source )
+		{
+			return creator.getAlternativeCostForSource( source );
+		}
+
+		@Override
+		public double getAlternativeCostForTarget( final T target )
+		{
+			return creator.getAlternativeCostForTarget( target );
+		}
+	}
 }
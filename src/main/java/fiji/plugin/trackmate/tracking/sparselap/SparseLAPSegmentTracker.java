@@ -130,6 +130,7 @@ public class SparseLAPSegmentTracker< T extends TrackableObject< T >> implements
 		final SlaveLogger jlLogger = new SlaveLogger( logger, 0, 0.9 );
 		final JaqamanLinker< T, T > linker =
 				new JaqamanLinker< T, T >( costMatrixCreator, jlLogger );
+		linker.setNumThreads( numThreads );
 		if ( !linker.checkInput() || !linker.process() )
 		{
 			errorMessage = linker.getErrorMessage();
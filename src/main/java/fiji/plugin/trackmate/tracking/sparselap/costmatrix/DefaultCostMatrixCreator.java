@@ -2,7 +2,7 @@ package fiji.plugin.trackmate.tracking.sparselap.costmatrix;
 
 import java.util.ArrayList;
 import java.util.Collections;
-import java.util.HashSet;
+import java.util.HashMap;
 import java.util.List;
 
 import net.imglib2.util.Util;
@@ -98,67 +98,57 @@ public class DefaultCostMatrixCreator< K extends Comparable< K >, J extends Comp
 	@Override
 	public boolean process()
 	{
-		uniqueRows = new ArrayList< K >( new HashSet< K >( rows ) );
-		Collections.sort( uniqueRows );
-		uniqueCols = new ArrayList< J >( new HashSet< J >( cols ) );
-		Collections.sort( uniqueCols );
+		final long start = System.currentTimeMillis();
 
-		final List< Assignment > assignments = new ArrayList< Assignment >( costs.length );
-		for ( int i = 0; i < costs.length; i++ )
+		/*
+		 * Assign each unique row and column object its index in the sorted
+		 * lists, then translate the object lists in index arrays.
+		 */
+
+		final HashMap< K, Integer > rowIndices = new HashMap< K, Integer >();
+		for ( final K rowObj : rows )
 		{
-			final K rowObj = rows.get( i );
-			final J colObj = cols.get( i );
-			final int r = Collections.binarySearch( uniqueRows, rowObj );
-			final int c = Collections.binarySearch( uniqueCols, colObj );
-			assignments.add( new Assignment( r, c, costs[ i ] ) );
+			rowIndices.put( rowObj, null );
 		}
-		Collections.sort( assignments );
-
-		// Test we do not have duplicates.
-		Assignment previousAssgn = assignments.get( 0 );
-		for ( int i = 1; i < assignments.size(); i++ )
+		uniqueRows = new ArrayList< K >( rowIndices.keySet() );
+		Collections.sort( uniqueRows );
+		for ( int r = 0; r < uniqueRows.size(); r++ )
 		{
-			final Assignment assgn = assignments.get( i );
-			if ( assgn.equals( previousAssgn ) )
-			{
-				errorMessage = BASE_ERROR_MESSAGE + "Found duplicate assignment at index: " + assgn + ".";
-				return false;
-			}
-			previousAssgn = assgn;
+			rowIndices.put( uniqueRows.get( r ), Integer.valueOf( r ) );
 		}
 
-		final int nRows = uniqueRows.size();
-		final int nCols = uniqueCols.size();
-		final int[] kk = new int[ costs.length ];
-		final int[] number = new int[ nRows ];
-		final double[] cc = new double[ costs.length ];
-
-		Assignment a = assignments.get( 0 );
-		kk[ 0 ] = a.c;
-		cc[ 0 ] = a.cost;
-		int currentRow = a.r;
-		int nOfEl = 0;
-		for ( int i = 1; i < assignments.size(); i++ )
+		final HashMap< J, Integer > colIndices = new HashMap< J, Integer >();
+		for ( final J colObj : cols )
 		{
-			a = assignments.get( i );
-
-			kk[ i ] = a.c;
-			cc[ i ] = a.cost;
-			nOfEl++;
+			colIndices.put( colObj, null );
+		}
+		uniqueCols = new ArrayList< J >( colIndices.keySet() );
+		Collections.sort( uniqueCols );
+		for ( int c = 0; c < uniqueCols.size(); c++ )
+		{
+			colIndices.put( uniqueCols.get( c ), Integer.valueOf( c ) );
+		}
 
-			if ( a.r != currentRow )
-			{
-				number[ currentRow ] = nOfEl;
-				nOfEl = 0;
-				currentRow = a.r;
-			}
+		final int[] r = new int[ costs.length ];
+		final int[] c = new int[ costs.length ];
+		for ( int i = 0; i < costs.length; i++ )
+		{
+			r[ i ] = rowIndices.get( rows.get( i ) ).intValue();
+			c[ i ] = colIndices.get( cols.get( i ) ).intValue();
 		}
-		number[ currentRow ] = nOfEl + 1;
 
-		scm = new SparseCostMatrix( cc, kk, number, nCols );
+		final SparseCostMatrixBuilder builder = new SparseCostMatrixBuilder( r, c, costs, uniqueRows.size(), uniqueCols.size() );
+		if ( !builder.checkInput() || !builder.process() )
+		{
+			errorMessage = BASE_ERROR_MESSAGE + builder.getErrorMessage();
+			return false;
+		}
+		scm = builder.getResult();
 
 		alternativeCost = computeAlternativeCosts();
 
+		final long end = System.currentTimeMillis();
+		processingTime = end - start;
 		return true;
 	}
 
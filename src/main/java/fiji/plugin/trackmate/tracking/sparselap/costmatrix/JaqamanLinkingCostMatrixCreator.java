@@ -22,11 +22,11 @@ public class JaqamanLinkingCostMatrixCreator< K extends Comparable< K >, J exten
 
 	private static final String BASE_ERROR_MSG = "[JaqamanLinkingCostMatrixCreator] ";
 
-	private final Iterable< K > sources;
+	protected final Iterable< K > sources;
 
-	private final Iterable< J > targets;
+	protected final Iterable< J > targets;
 
-	private final CostFunction< K, J > costFunction;
+	protected final CostFunction< K, J > costFunction;
 
 	private SparseCostMatrix scm;
 
@@ -34,7 +34,7 @@ public class JaqamanLinkingCostMatrixCreator< K extends Comparable< K >, J exten
 
 	private String errorMessage;
 
-	private final double costThreshold;
+	protected final double costThreshold;
 
 	private List< K > sourceList;
 
@@ -80,21 +80,7 @@ public class JaqamanLinkingCostMatrixCreator< K extends Comparable< K >, J exten
 		final List< K > accSources = new ArrayList< K >();
 		final List< J > accTargets = new ArrayList< J >();
 		final ResizableDoubleArray costs = new ResizableDoubleArray();
-
-		for ( final K source : sources )
-		{
-			for ( final J target : targets )
-			{
-
-				final double cost = costFunction.linkingCost( source, target );
-				if ( cost < costThreshold )
-				{
-					accSources.add( source );
-					accTargets.add( target );
-					costs.add( cost );
-				}
-			}
-		}
+		collectCandidates( accSources, accTargets, costs );
 		costs.trimToSize();
 
 		/*
@@ -133,6 +119,38 @@ public class JaqamanLinkingCostMatrixCreator< K extends Comparable< K >, J exten
 		return true;
 	}
 
+	/**
+	 * Collects all the source-target pairs whose linking cost is strictly
+	 * below the cost threshold, in the order of the sources, then of the
+	 * targets.
+	 * <p>
+	 * This implementation evaluates the cost function for every possible pair.
+	 *
+	 * @param accSources
+	 *            the list to add the accepted sources to.
+	 * @param accTargets
+	 *            the list to add the accepted targets to.
+	 * @param costs
+	 *            the array to add the accepted costs to.
+	 */
+	protected void collectCandidates( final List< K > accSources, final List< J > accTargets, final ResizableDoubleArray costs )
+	{
+		for ( final K source : sources )
+		{
+			for ( final J target : targets )
+			{
+
+				final double cost = costFunction.linkingCost( source, target );
+				if ( cost < costThreshold )
+				{
+					accSources.add( source );
+					accTargets.add( target );
+					costs.add( cost );
+				}
+			}
+		}
+	}
+
 	@Override
 	public String getErrorMessage()
 	{
@@ -20,16 +20,17 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
-import java.util.concurrent.TimeUnit;
+import java.util.concurrent.Future;
 
 import net.imglib2.algorithm.MultiThreaded;
 
 import org.jgrapht.UndirectedGraph;
 import org.jgrapht.graph.DefaultWeightedEdge;
 
-import fiji.plugin.trackmate.TrackmateConstants;
 import fiji.plugin.trackmate.tracking.TrackableObject;
 import fiji.plugin.trackmate.tracking.sparselap.costfunction.CostFunction;
 import fiji.plugin.trackmate.tracking.sparselap.costfunction.FeaturePenaltyCostFunction;
@@ -50,6 +51,14 @@ import fiji.plugin.trackmate.tracking.sparselap.linker.SparseCostMatrix;
  * non-infinite costs.
  * <li>Costs are based on square distance +/- feature penalties.
  * </ul>
+ * <p>
+ * Candidate targets are indexed by frame then by space, using
+ * {@link SpatioTemporalIndex}s. The radius search requires the cost function to
+ * never return a cost smaller than the square distance between source and
+ * target, which is the case for the square distance alone, but not with
+ * feature penalties: a penalty can be smaller than 1 when feature values are
+ * negative. Linking steps that use feature penalties therefore only search
+ * candidates by frame, and evaluate the cost of all of them.
  *
  * @author Jean-Yves Tinevez - 2014
  */
@@ -131,6 +140,7 @@ public class JaqamanSegmentCostMatrixCreator< T extends TrackableObject< T >>
 		final double gcMaxDistance =
 				( Double ) settings.get( KEY_GAP_CLOSING_MAX_DISTANCE );
 		final double gcCostThreshold = gcMaxDistance * gcMaxDistance;
+		final boolean gcSpatialSearch = isSpatialSearchExact( gcFeaturePenalties );
 		final boolean allowGapClosing =
 				( Boolean ) settings.get( KEY_ALLOW_GAP_CLOSING );
 
@@ -143,6 +153,7 @@ public class JaqamanSegmentCostMatrixCreator< T extends TrackableObject< T >>
 		final double mMaxDistance = ( Double ) settings.get(
 				KEY_MERGING_MAX_DISTANCE );
 		final double mCostThreshold = mMaxDistance * mMaxDistance;
+		final boolean mSpatialSearch = isSpatialSearchExact( mFeaturePenalties );
 		final boolean allowMerging =
 				( Boolean ) settings.get( KEY_ALLOW_TRACK_MERGING );
 
@@ -157,6 +168,7 @@ public class JaqamanSegmentCostMatrixCreator< T extends TrackableObject< T >>
 		final double sMaxDistance =
 				( Double ) settings.get( KEY_SPLITTING_MAX_DISTANCE );
 		final double sCostThreshold = sMaxDistance * sMaxDistance;
+		final boolean sSpatialSearch = isSpatialSearchExact( sFeaturePenalties );
 
 		// Alternative cost
 		final double alternativeCostFactor =
@@ -203,174 +215,235 @@ public class JaqamanSegmentCostMatrixCreator< T extends TrackableObject< T >>
 			allMiddles = Collections.emptyList();
 		}
 
-		final Object lock = new Object();
+		/*
+		 * Index the candidate targets by frame, then by space, so that each
+		 * source only visits targets that can pass the frame and distance
+		 * gates. Steps with feature penalties only use the frame gate.
+		 */
+		final SpatioTemporalIndex< T > startIndex =
+				new SpatioTemporalIndex< T >( segmentStarts );
+		final SpatioTemporalIndex< T > middleIndex;
+		if ( allowMerging )
+		{
+			middleIndex = new SpatioTemporalIndex< T >( allMiddles );
+		}
+		else
+		{
+			middleIndex = null;
+		}
 
 		/*
-		 * Sources and targets.
+		 * Candidates are collected by chunks of sources, each chunk in its own
+		 * primitive buffers, so that threads never wait on each other. Sources
+		 * are identified by their index in the concatenation of segment ends
+		 * and middle points, and targets by their index in the concatenation
+		 * of segment starts and middle points.
 		 */
-		final ArrayList< T > sources = new ArrayList< T >();
-		final ArrayList< T > targets = new ArrayList< T >();
-		// Corresponding costs.
-		final ResizableDoubleArray linkCosts = new ResizableDoubleArray();
+		final int nEnds = segmentEnds.size();
+		final int nStarts = segmentStarts.size();
+
+		final ExecutorService executor = Executors.newFixedThreadPool( numThreads );
+		final List< Future< CandidateLinks >> futures =
+				new ArrayList< Future< CandidateLinks >>();
 
 		/*
 		 * A. We iterate over all segment ends, targeting 1st the segment starts
 		 * (gap-closing) then the segment middles (merging).
 		 */
 
-		final ExecutorService executorGCM =
-				Executors.newFixedThreadPool( numThreads );
-		for ( final T source : segmentEnds )
+		final int gcmChunkSize = chunkSize( nEnds );
+		for ( int from = 0; from < nEnds; from += gcmChunkSize )
 		{
-			executorGCM.submit( new Runnable()
+			final int chunkStart = from;
+			final int chunkEnd = Math.min( nEnds, from + gcmChunkSize );
+			futures.add( executor.submit( new Callable< CandidateLinks >()
 			{
 
 				@Override
-				public void run()
+				public CandidateLinks call()
 				{
-					final int sourceFrame =
-							source.getFeature( TrackmateConstants.FRAME ).intValue();
+					final CandidateLinks links = new CandidateLinks();
+					final ResizableIntArray candidates = new ResizableIntArray();
+					for ( int is = chunkStart; is < chunkEnd; is++ )
+					{
+						final T source = segmentEnds.get( is );
+						final int sourceFrame = source.frame();
 
-					/*
-					 * Iterate over segment starts - GAP-CLOSING.
-					 */
+						/*
+						 * Iterate over segment starts - GAP-CLOSING.
+						 */
 
-					if ( allowGapClosing )
-					{
-						for ( final T target : segmentStarts )
+						if ( allowGapClosing )
 						{
-							// Check frame interval, must be within user
+							// Frame interval must be within user
 							// specification.
-							final int targetFrame =
-									target.getFeature( TrackmateConstants.FRAME ).intValue();
-							final int tdiff = targetFrame - sourceFrame;
-							if ( tdiff < 1 || tdiff > maxFrameInterval )
+							candidates.size = 0;
+							if ( gcSpatialSearch )
 							{
-								continue;
+								startIndex.search( source, sourceFrame + 1,
+										sourceFrame + maxFrameInterval, gcCostThreshold,
+										candidates );
 							}
-
-							// Check max distance
-							final double cost = gcCostFunction.linkingCost( source, target );
-							if ( cost > gcCostThreshold )
+							else
 							{
-								continue;
+								startIndex.search( sourceFrame + 1,
+										sourceFrame + maxFrameInterval, candidates );
 							}
-
-							synchronized ( lock )
+							for ( int i = 0; i < candidates.size; i++ )
 							{
-								sources.add( source );
-								targets.add( target );
-								linkCosts.add( cost );
+								final int it = candidates.data[ i ];
+								final T target = startIndex.get( it );
+
+								// Check max distance
+								final double cost = gcCostFunction.linkingCost( source, target );
+								if ( cost > gcCostThreshold )
+								{
+									continue;
+								}
+								links.add( is, it, cost );
 							}
 						}
-					}
 
-					/*
-					 * Iterate over middle points - MERGING.
-					 */
+						/*
+						 * Iterate over middle points - MERGING.
+						 */
 
-					if ( allowMerging )
-					{
-						for ( final T target : allMiddles )
+						if ( allowMerging )
 						{
-							// Check frame interval, must be 1.
-							final int targetFrame =
-									target.getFeature( TrackmateConstants.FRAME ).intValue();
-							final int tdiff = targetFrame - sourceFrame;
-							if ( tdiff != 1 )
+							// Frame interval must be 1.
+							candidates.size = 0;
+							if ( mSpatialSearch )
 							{
-								continue;
+								middleIndex.search( source, sourceFrame + 1,
+										sourceFrame + 1, mCostThreshold, candidates );
 							}
-
-							// Check max distance
-							final double cost = mCostFunction.linkingCost( source, target );
-							if ( cost > mCostThreshold )
+							else
 							{
-								continue;
+								middleIndex.search( sourceFrame + 1,
+										sourceFrame + 1, candidates );
 							}
-
-							synchronized ( lock )
+							for ( int i = 0; i < candidates.size; i++ )
 							{
-								sources.add( source );
-								targets.add( target );
-								linkCosts.add( cost );
+								final int it = candidates.data[ i ];
+								final T target = middleIndex.get( it );
+
+								// Check max distance
+								final double cost = mCostFunction.linkingCost( source, target );
+								if ( cost > mCostThreshold )
+								{
+									continue;
+								}
+								links.add( is, nStarts + it, cost );
 							}
 						}
 					}
+					return links;
 				}
-			} );
-		}
-		executorGCM.shutdown();
-		try
-		{
-			executorGCM.awaitTermination( 1, TimeUnit.DAYS );
-		}
-		catch ( final InterruptedException e )
-		{
-			errorMessage = BASE_ERROR_MESSAGE + e.getMessage();
-			return false;
+			} ) );
 		}
 
 		/*
-		 * Iterate over middle points targeting segment starts - SPLITTING
+		 * B. Iterate over middle points targeting segment starts - SPLITTING
 		 */
+
 		if ( allowSplitting )
 		{
-			final ExecutorService executorS =
-					Executors.newFixedThreadPool( numThreads );
-			for ( final T source : allMiddles )
+			final int nMiddles = allMiddles.size();
+			final int sChunkSize = chunkSize( nMiddles );
+			for ( int from = 0; from < nMiddles; from += sChunkSize )
 			{
-
-				executorS.submit( new Runnable()
+				final int chunkStart = from;
+				final int chunkEnd = Math.min( nMiddles, from + sChunkSize );
+				futures.add( executor.submit( new Callable< CandidateLinks >()
 				{
 
 					@Override
-					public void run()
+					public CandidateLinks call()
 					{
-						final int sourceFrame =
-								source.getFeature( TrackmateConstants.FRAME ).intValue();
-						for ( final T target : segmentStarts )
+						final CandidateLinks links = new CandidateLinks();
+						final ResizableIntArray candidates = new ResizableIntArray();
+						for ( int is = chunkStart; is < chunkEnd; is++ )
 						{
-							// Check frame interval, must be 1.
-							final int targetFrame =
-									target.getFeature( TrackmateConstants.FRAME ).intValue();
-							final int tdiff = targetFrame - sourceFrame;
+							final T source = allMiddles.get( is );
+							final int sourceFrame = source.frame();
 
-							if ( tdiff != 1 )
+							// Frame interval must be 1.
+							candidates.size = 0;
+							if ( sSpatialSearch )
 							{
-								continue;
+								startIndex.search( source, sourceFrame + 1, sourceFrame + 1,
+										sCostThreshold, candidates );
 							}
-
-							// Check max distance
-							final double cost = sCostFunction.linkingCost( source, target );
-							if ( cost > sCostThreshold )
+							else
 							{
-								continue;
+								startIndex.search( sourceFrame + 1, sourceFrame + 1,
+										candidates );
 							}
-							synchronized ( lock )
+							for ( int i = 0; i < candidates.size; i++ )
 							{
-								sources.add( source );
-								targets.add( target );
-								linkCosts.add( cost );
+								final int it = candidates.data[ i ];
+								final T target = startIndex.get( it );
+
+								// Check max distance
+								final double cost = sCostFunction.linkingCost( source, target );
+								if ( cost > sCostThreshold )
+								{
+									continue;
+								}
+								links.add( nEnds + is, it, cost );
 							}
 						}
+						return links;
 					}
-				} );
-
+				} ) );
 			}
+		}
+		executor.shutdown();
 
-			executorS.shutdown();
-			try
+		/*
+		 * Merge the chunk buffers, in the order the chunks were submitted, so
+		 * that the output does not depend on thread scheduling.
+		 */
+
+		final List< CandidateLinks > allLinks =
+				new ArrayList< CandidateLinks >( futures.size() );
+		int nLinks = 0;
+		try
+		{
+			for ( final Future< CandidateLinks > future : futures )
 			{
-				executorS.awaitTermination( 1, TimeUnit.DAYS );
+				final CandidateLinks links = future.get();
+				allLinks.add( links );
+				nLinks += links.costs.size;
 			}
-			catch ( final InterruptedException e )
+		}
+		catch ( final InterruptedException e )
+		{
+			executor.shutdownNow();
+			errorMessage = BASE_ERROR_MESSAGE + e.getMessage();
+			return false;
+		}
+		catch ( final ExecutionException e )
+		{
+			executor.shutdownNow();
+			errorMessage = BASE_ERROR_MESSAGE + e.getMessage();
+			return false;
+		}
+
+		final ArrayList< T > sources = new ArrayList< T >( nLinks );
+		final ArrayList< T > targets = new ArrayList< T >( nLinks );
+		final ResizableDoubleArray linkCosts = new ResizableDoubleArray( nLinks );
+		for ( final CandidateLinks links : allLinks )
+		{
+			for ( int k = 0; k < links.costs.size; k++ )
 			{
-				errorMessage = BASE_ERROR_MESSAGE + e.getMessage();
+				final int is = links.sources.data[ k ];
+				final int it = links.targets.data[ k ];
+				sources.add( is < nEnds ? segmentEnds.get( is ) : allMiddles.get( is - nEnds ) );
+				targets.add( it < nStarts ? segmentStarts.get( it ) : allMiddles.get( it - nStarts ) );
+				linkCosts.add( links.costs.data[ k ] );
 			}
-
 		}
-		linkCosts.trimToSize();
 
 		/*
 		 * Build a sparse cost matrix from this. If the accepted costs are not
@@ -429,6 +502,16 @@ public class JaqamanSegmentCostMatrixCreator< T extends TrackableObject< T >>
 		return costFunction;
 	}
 
+	/**
+	 * Returns whether the cost function built for the specified feature
+	 * penalties never returns a cost smaller than the square distance, so that
+	 * candidates can be searched for within the cost threshold only.
+	 */
+	private static boolean isSpatialSearchExact( final Map< String, Double > featurePenalties )
+	{
+		return null == featurePenalties || featurePenalties.isEmpty();
+	}
+
 	@Override
 	public SparseCostMatrix getResult()
 	{
@@ -531,6 +614,16 @@ public class JaqamanSegmentCostMatrixCreator< T extends TrackableObject< T >>
 		return ok;
 	}
 
+	/**
+	 * Returns the number of sources to process in each task, so that there are
+	 * a few tasks per thread to balance the load.
+	 */
+	private int chunkSize( final int nSources )
+	{
+		final int nChunks = Math.max( 1, 4 * numThreads );
+		return Math.max( 1, ( nSources + nChunks - 1 ) / nChunks );
+	}
+
 	@Override
 	public void setNumThreads()
 	{
@@ -549,4 +642,23 @@ public class JaqamanSegmentCostMatrixCreator< T extends TrackableObject< T >>
 		return numThreads;
 	}
 
+	/**
+	 * Primitive buffers for the candidate links found by a single task.
+	 */
+	private static final class CandidateLinks
+	{
+
+		private final ResizableIntArray sources = new ResizableIntArray();
+
+		private final ResizableIntArray targets = new ResizableIntArray();
+
+		private final ResizableDoubleArray costs = new ResizableDoubleArray();
+
+		private void add( final int source, final int target, final double cost )
+		{
+			sources.add( source );
+			targets.add( target );
+			costs.add( cost );
+		}
+	}
 }
@@ -0,0 +1,101 @@
+package fiji.plugin.trackmate.tracking.sparselap.costmatrix;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import net.imglib2.KDTree;
+import net.imglib2.RealLocalizable;
+import net.imglib2.neighborsearch.RadiusNeighborSearchOnKDTree;
+import fiji.plugin.trackmate.tracking.sparselap.costfunction.CostFunction;
+
+/**
+ * A {@link JaqamanLinkingCostMatrixCreator} that does not evaluate the cost
+ * function for all source-target pairs. The targets are stored in a
+ * {@link KDTree}, and only the targets found within a radius of
+ * <code>sqrt(costThreshold)</code> of each source are evaluated.
+ * <p>
+ * This is only valid for cost functions that never return a cost smaller than
+ * the square distance between the source and the target, such as the square
+ * distance itself. This is not the case of the
+ * {@link fiji.plugin.trackmate.tracking.sparselap.costfunction.FeaturePenaltyCostFunction}:
+ * its penalty can be smaller than 1 when feature values are negative. For the
+ * valid cost functions, the generated cost matrix is identical to the one
+ * generated by the brute-force {@link JaqamanLinkingCostMatrixCreator}. The
+ * sources must have at least as many dimensions as the targets.
+ *
+ * @param <K>
+ *            the type of the sources.
+ * @param <J>
+ *            the type of the targets.
+ */
+public class KDTreeLinkingCostMatrixCreator< K extends Comparable< K > & RealLocalizable, J extends Comparable< J > & RealLocalizable > extends JaqamanLinkingCostMatrixCreator< K, J >
+{
+
+	public KDTreeLinkingCostMatrixCreator( final Iterable< K > sources, final Iterable< J > targets, final CostFunction< K, J > costFunction, final double costThreshold, final double alternativeCostFactor, final double percentile )
+	{
+		super( sources, targets, costFunction, costThreshold, alternativeCostFactor, percentile );
+	}
+
+	/**
+	 * Collects the candidate pairs via a radius search in a {@link KDTree}
+	 * built over the targets. For each source, the candidate targets are
+	 * visited in the order of the target iterable, so that the accepted pairs
+	 * come in the same order that for the brute-force search.
+	 */
+	@Override
+	protected void collectCandidates( final List< K > accSources, final List< J > accTargets, final ResizableDoubleArray costs )
+	{
+		final List< J > targetList = new ArrayList< J >();
+		final List< Integer > targetIndices = new ArrayList< Integer >();
+		for ( final J target : targets )
+		{
+			targetIndices.add( Integer.valueOf( targetList.size() ) );
+			targetList.add( target );
+		}
+
+		final KDTree< Integer > tree = new KDTree< Integer >( targetIndices, targetList );
+		final RadiusNeighborSearchOnKDTree< Integer > search = new RadiusNeighborSearchOnKDTree< Integer >( tree );
+
+		/*
+		 * Enlarge the search radius by one ulp, so that rounding errors on the
+		 * square root cannot make us miss a target right at the threshold.
+		 * Targets that are found but are too far are rejected by the cost test
+		 * below anyway.
+		 */
+		final double radius = Math.nextUp( Math.sqrt( costThreshold ) );
+
+		int[] found = new int[ 16 ];
+		for ( final K source : sources )
+		{
+			search.search( source, radius, false );
+			final int nNeighbors = search.numNeighbors();
+			if ( nNeighbors == 0 )
+			{
+				continue;
+			}
+
+			if ( found.length < nNeighbors )
+			{
+				found = new int[ nNeighbors ];
+			}
+			for ( int i = 0; i < nNeighbors; i++ )
+			{
+				found[ i ] = search.getSampler( i ).get().intValue();
+			}
+			Arrays.sort( found, 0, nNeighbors );
+
+			for ( int i = 0; i < nNeighbors; i++ )
+			{
+				final J target = targetList.get( found[ i ] );
+				final double cost = costFunction.linkingCost( source, target );
+				if ( cost < costThreshold )
+				{
+					accSources.add( source );
+					accTargets.add( target );
+					costs.add( cost );
+				}
+			}
+		}
+	}
+}
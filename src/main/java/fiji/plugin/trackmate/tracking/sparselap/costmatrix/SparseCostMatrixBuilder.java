@@ -0,0 +1,189 @@
+package fiji.plugin.trackmate.tracking.sparselap.costmatrix;
+
+import net.imglib2.algorithm.Benchmark;
+import net.imglib2.algorithm.OutputAlgorithm;
+import fiji.plugin.trackmate.tracking.sparselap.linker.SparseCostMatrix;
+
+/**
+ * Builds a {@link SparseCostMatrix} from 3 parallel arrays containing the row
+ * index, the column index and the cost of each non-infinite element, given in
+ * any order.
+ * <p>
+ * The elements are arranged row by row, then column by column, with two
+ * stable counting sort passes (first on the column, then on the row). This
+ * takes a time linear in the number of elements plus the number of rows and
+ * columns, and does not allocate any object per element. Two elements with
+ * the same row and column are reported as an error.
+ */
+public class SparseCostMatrixBuilder implements Benchmark, OutputAlgorithm< SparseCostMatrix >
+{
+
+	private static final String BASE_ERROR_MESSAGE = "[SparseCostMatrixBuilder] ";
+
+	private final int[] rows;
+
+	private final int[] cols;
+
+	private final double[] costs;
+
+	private final int nRows;
+
+	private final int nCols;
+
+	private SparseCostMatrix scm;
+
+	private String errorMessage;
+
+	private long processingTime;
+
+	/**
+	 * Creates a builder for a sparse cost matrix.
+	 *
+	 * @param rows
+	 *            the row index of each element, from <code>0</code> to
+	 *            <code>nRows - 1</code>.
+	 * @param cols
+	 *            the column index of each element, from <code>0</code> to
+	 *            <code>nCols - 1</code>.
+	 * @param costs
+	 *            the cost of each element.
+	 * @param nRows
+	 *            the number of rows in the matrix.
+	 * @param nCols
+	 *            the number of columns in the matrix.
+	 */
+	public SparseCostMatrixBuilder( final int[] rows, final int[] cols, final double[] costs, final int nRows, final int nCols )
+	{
+		this.rows = rows;
+		this.cols = cols;
+		this.costs = costs;
+		this.nRows = nRows;
+		this.nCols = nCols;
+	}
+
+	@Override
+	public boolean checkInput()
+	{
+		if ( null == rows || null == cols || null == costs )
+		{
+			errorMessage = BASE_ERROR_MESSAGE + "The row, column and cost arrays must not be null.";
+			return false;
+		}
+		if ( rows.length != costs.length || cols.length != costs.length )
+		{
+			errorMessage = BASE_ERROR_MESSAGE + "Row, column and cost arrays do not have the same number of elements. Found " + rows.length + ", " + cols.length + " and " + costs.length + ".";
+			return false;
+		}
+		if ( nRows < 0 || nCols < 0 )
+		{
+			errorMessage = BASE_ERROR_MESSAGE + "The number of rows and columns must not be negative. Found " + nRows + " and " + nCols + ".";
+			return false;
+		}
+		return true;
+	}
+
+	@Override
+	public boolean process()
+	{
+		final long start = System.currentTimeMillis();
+		final int n = costs.length;
+
+		/*
+		 * 1st pass: order the elements by column.
+		 */
+
+		final int[] colStart = new int[ nCols + 1 ];
+		for ( int i = 0; i < n; i++ )
+		{
+			final int c = cols[ i ];
+			if ( c < 0 || c >= nCols )
+			{
+				errorMessage = BASE_ERROR_MESSAGE + "Column index at position " + i + " is out of bounds: " + c + ".";
+				return false;
+			}
+			colStart[ c + 1 ]++;
+		}
+		for ( int c = 0; c < nCols; c++ )
+		{
+			colStart[ c + 1 ] += colStart[ c ];
+		}
+		final int[] byCol = new int[ n ];
+		for ( int i = 0; i < n; i++ )
+		{
+			byCol[ colStart[ cols[ i ] ]++ ] = i;
+		}
+
+		/*
+		 * 2nd pass: order them by row. Since this pass is stable, the columns
+		 * end up sorted within each row.
+		 */
+
+		final int[] number = new int[ nRows ];
+		for ( int i = 0; i < n; i++ )
+		{
+			final int r = rows[ i ];
+			if ( r < 0 || r >= nRows )
+			{
+				errorMessage = BASE_ERROR_MESSAGE + "Row index at position " + i + " is out of bounds: " + r + ".";
+				return false;
+			}
+			number[ r ]++;
+		}
+		final int[] rowStart = new int[ nRows ];
+		for ( int r = 1; r < nRows; r++ )
+		{
+			rowStart[ r ] = rowStart[ r - 1 ] + number[ r - 1 ];
+		}
+		final int[] kk = new int[ n ];
+		final double[] cc = new double[ n ];
+		for ( int j = 0; j < n; j++ )
+		{
+			final int i = byCol[ j ];
+			final int index = rowStart[ rows[ i ] ]++;
+			kk[ index ] = cols[ i ];
+			cc[ index ] = costs[ i ];
+		}
+
+		/*
+		 * Test we do not have duplicates. They are now adjacent within a row.
+		 */
+
+		int index = 0;
+		for ( int r = 0; r < nRows; r++ )
+		{
+			for ( int k = 1; k < number[ r ]; k++ )
+			{
+				if ( kk[ index + k ] == kk[ index + k - 1 ] )
+				{
+					errorMessage = BASE_ERROR_MESSAGE + "Found duplicate assignment at row " + r + " and column " + kk[ index + k ] + ".";
+					return false;
+				}
+			}
+			index += number[ r ];
+		}
+
+		scm = new SparseCostMatrix( cc, kk, number, nCols );
+
+		final long end = System.currentTimeMillis();
+		processingTime = end - start;
+		return true;
+	}
+
+	@Override
+	public SparseCostMatrix getResult()
+	{
+		return scm;
+	}
+
+	@Override
+	public String getErrorMessage()
+	{
+		return errorMessage;
+	}
+
+	@Override
+	public long getProcessingTime()
+	{
+		return processingTime;
+	}
+}
@@ -0,0 +1,177 @@
+package fiji.plugin.trackmate.tracking.sparselap.costmatrix;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import net.imglib2.KDTree;
+import net.imglib2.neighborsearch.RadiusNeighborSearchOnKDTree;
+import fiji.plugin.trackmate.tracking.TrackableObject;
+
+/**
+ * An index over a list of {@link TrackableObject}s, that can quickly return
+ * the objects that belong to a range of frames and lie within a given distance
+ * of a reference object.
+ * <p>
+ * Objects are first grouped by frame, then each frame content is stored in a
+ * {@link KDTree}. Searches return the index of the objects in the list the
+ * index was built from, so that callers can iterate over candidates in a
+ * deterministic order.
+ * <p>
+ * The index is immutable after construction, and can be searched from several
+ * threads concurrently.
+ *
+ * @param <T>
+ *            the type of objects to index.
+ */
+public class SpatioTemporalIndex< T extends TrackableObject< T >>
+{
+
+	private final List< T > objects;
+
+	private final TreeMap< Integer, KDTree< Integer >> trees;
+
+	private final TreeMap< Integer, int[] > indices;
+
+	/**
+	 * Builds an index over the specified objects.
+	 *
+	 * @param objects
+	 *            the objects to index. The list must not be modified while the
+	 *            index is in use.
+	 */
+	public SpatioTemporalIndex( final List< T > objects )
+	{
+		this.objects = objects;
+
+		final TreeMap< Integer, List< Integer >> indicesPerFrame = new TreeMap< Integer, List< Integer >>();
+		final TreeMap< Integer, List< T >> objectsPerFrame = new TreeMap< Integer, List< T >>();
+		for ( int i = 0; i < objects.size(); i++ )
+		{
+			final T object = objects.get( i );
+			final Integer frame = Integer.valueOf( object.frame() );
+			List< Integer > indices = indicesPerFrame.get( frame );
+			List< T > frameObjects = objectsPerFrame.get( frame );
+			if ( null == indices )
+			{
+				indices = new ArrayList< Integer >();
+				indicesPerFrame.put( frame, indices );
+				frameObjects = new ArrayList< T >();
+				objectsPerFrame.put( frame, frameObjects );
+			}
+			indices.add( Integer.valueOf( i ) );
+			frameObjects.add( object );
+		}
+
+		this.trees = new TreeMap< Integer, KDTree< Integer >>();
+		this.indices = new TreeMap< Integer, int[] >();
+		for ( final Integer frame : indicesPerFrame.keySet() )
+		{
+			final List< Integer > frameIndices = indicesPerFrame.get( frame );
+			trees.put( frame, new KDTree< Integer >( frameIndices, objectsPerFrame.get( frame ) ) );
+			final int[] array = new int[ frameIndices.size() ];
+			for ( int i = 0; i < array.length; i++ )
+			{
+				array[ i ] = frameIndices.get( i ).intValue();
+			}
+			indices.put( frame, array );
+		}
+	}
+
+	/**
+	 * Returns the object at the specified index in the list this index was
+	 * built from.
+	 *
+	 * @param index
+	 *            the index of the object.
+	 * @return the object.
+	 */
+	public T get( final int index )
+	{
+		return objects.get( index );
+	}
+
+	/**
+	 * Finds all the objects whose frame is between <code>minFrame</code> and
+	 * <code>maxFrame</code> (inclusive), and that are at a square distance
+	 * smaller than or equal to <code>maxSquareDistance</code> from the
+	 * specified reference. Objects a bit further away might also be returned,
+	 * so callers must still check distances or costs.
+	 * <p>
+	 * The indices of the objects found are appended to the specified array,
+	 * sorted in ascending order.
+	 *
+	 * @param reference
+	 *            the reference object to search around.
+	 * @param minFrame
+	 *            the smallest frame to search in.
+	 * @param maxFrame
+	 *            the largest frame to search in.
+	 * @param maxSquareDistance
+	 *            the maximal square distance to the reference.
+	 * @param result
+	 *            the array to append the indices of the found objects to.
+	 */
+	public void search( final T reference, final int minFrame, final int maxFrame, final double maxSquareDistance, final ResizableIntArray result )
+	{
+		if ( minFrame > maxFrame )
+		{
+			return;
+		}
+
+		/*
+		 * Enlarge the search radius by one ulp, so that rounding errors on the
+		 * square root cannot make us miss an object right at the threshold.
+		 */
+		final double radius = Math.nextUp( Math.sqrt( maxSquareDistance ) );
+
+		final int from = result.size;
+		for ( final Map.Entry< Integer, KDTree< Integer >> entry : trees.subMap( minFrame, true, maxFrame, true ).entrySet() )
+		{
+			final RadiusNeighborSearchOnKDTree< Integer > search = new RadiusNeighborSearchOnKDTree< Integer >( entry.getValue() );
+			search.search( reference, radius, false );
+			final int nNeighbors = search.numNeighbors();
+			result.ensureCapacity( result.size + nNeighbors );
+			for ( int i = 0; i < nNeighbors; i++ )
+			{
+				result.data[ result.size++ ] = search.getSampler( i ).get().intValue();
+			}
+		}
+		Arrays.sort( result.data, from, result.size );
+	}
+
+	/**
+	 * Finds all the objects whose frame is between <code>minFrame</code> and
+	 * <code>maxFrame</code> (inclusive), wherever they are. This is for cost
+	 * functions that can return a cost smaller than the square distance, for
+	 * which a radius search could miss valid candidates.
+	 * <p>
+	 * The indices of the objects found are appended to the specified array,
+	 * sorted in ascending order.
+	 *
+	 * @param minFrame
+	 *            the smallest frame to search in.
+	 * @param maxFrame
+	 *            the largest frame to search in.
+	 * @param result
+	 *            the array to append the indices of the found objects to.
+	 */
+	public void search( final int minFrame, final int maxFrame, final ResizableIntArray result )
+	{
+		if ( minFrame > maxFrame )
+		{
+			return;
+		}
+
+		final int from = result.size;
+		for ( final int[] frameIndices : indices.subMap( minFrame, true, maxFrame, true ).values() )
+		{
+			result.ensureCapacity( result.size + frameIndices.length );
+			System.arraycopy( frameIndices, 0, result.data, result.size, frameIndices.length );
+			result.size += frameIndices.length;
+		}
+		Arrays.sort( result.data, from, result.size );
+	}
+}
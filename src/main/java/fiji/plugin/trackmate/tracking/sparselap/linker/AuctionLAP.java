@@ -0,0 +1,563 @@
+package fiji.plugin.trackmate.tracking.sparselap.linker;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import net.imglib2.algorithm.MultiThreaded;
+
+/**
+ * Solves square linear assignment problems given as a
+ * {@link SparseCostMatrix} with the forward/reverse auction algorithm of
+ * Bertsekas, with epsilon-scaling.
+ * <p>
+ * Rows bid for columns in forward rounds, and columns bid for rows in reverse
+ * rounds, switching direction each time the number of assignments increases.
+ * Rounds where many bidders are unassigned are run in the Jacobi fashion: all
+ * the bids are computed in parallel against the same prices, then each item
+ * goes to its highest bidder. Smaller rounds are run sequentially, in the
+ * Gauss-Seidel fashion.
+ * <p>
+ * The result is optimal up to <code>n &times; epsilon</code>, where
+ * <code>n</code> is the number of rows and <code>epsilon</code> the final
+ * epsilon of the scaling. By default, the final epsilon is small enough for
+ * the total cost to be within <code>1e-4</code> times the cost range of the
+ * optimum. When all the costs are integers, it is also smaller than
+ * <code>1/n</code>, which makes the solution exact.
+ *
+ * @see <code>Bertsekas &amp; Castañón. Parallel synchronous and asynchronous
+ *      implementations of the auction algorithm. Parallel Computing (1991)
+ *      vol. 17 pp. 707-732</code>
+ */
+public class AuctionLAP implements LAPSolver, MultiThreaded
+{
+
+	private static final String BASE_ERROR_MESSAGE = "[AuctionLAP] ";
+
+	/**
+	 * The factor by which epsilon is divided between two scaling phases.
+	 */
+	private static final double THETA = 5d;
+
+	/**
+	 * The minimal number of bidders in a round for it to be run in parallel.
+	 */
+	private static final int PARALLEL_THRESHOLD = 512;
+
+	private SparseCostMatrix cm;
+
+	private int[] output;
+
+	private String errorMessage;
+
+	private long processingTime;
+
+	private int numThreads;
+
+	private double finalEpsilon = Double.NaN;
+
+	/**
+	 * Instantiates a new auction solver for the specified square sparse cost
+	 * matrix.
+	 *
+	 * @param cm
+	 *            the cost matrix of the linear assignment problem to solve.
+	 */
+	public AuctionLAP( final SparseCostMatrix cm )
+	{
+		this.cm = cm;
+		setNumThreads();
+	}
+
+	/**
+	 * Instantiates a new auction solver with no cost matrix. The cost matrix
+	 * must be set with {@link #setCostMatrix(SparseCostMatrix)} before
+	 * solving.
+	 */
+	public AuctionLAP()
+	{
+		this( null );
+	}
+
+	@Override
+	public void setCostMatrix( final SparseCostMatrix cm )
+	{
+		this.cm = cm;
+		this.output = null;
+	}
+
+	/**
+	 * Returns a new solver with the same final epsilon and number of threads,
+	 * and no cost matrix.
+	 */
+	@Override
+	public AuctionLAP newInstance()
+	{
+		final AuctionLAP solver = new AuctionLAP();
+		solver.setNumThreads( numThreads );
+		solver.setFinalEpsilon( finalEpsilon );
+		return solver;
+	}
+
+	/**
+	 * Sets the epsilon of the last scaling phase. The total cost of the
+	 * solution is within <code>n &times; epsilon</code> of the optimum.
+	 *
+	 * @param finalEpsilon
+	 *            the final epsilon, strictly positive, or {@link Double#NaN}
+	 *            to derive it from the cost range of each problem, and from
+	 *            its size when the costs are integers.
+	 */
+	public void setFinalEpsilon( final double finalEpsilon )
+	{
+		this.finalEpsilon = finalEpsilon;
+	}
+
+	@Override
+	public boolean checkInput()
+	{
+		if ( null == cm )
+		{
+			errorMessage = BASE_ERROR_MESSAGE + "The cost matrix is null.";
+			return false;
+		}
+		if ( cm.nRows != cm.nCols )
+		{
+			errorMessage = BASE_ERROR_MESSAGE + "This solver requires a square cost matrix. Found " + cm.nRows + " rows and " + cm.nCols + " columns.";
+			return false;
+		}
+		if ( finalEpsilon <= 0 )
+		{
+			errorMessage = BASE_ERROR_MESSAGE + "The final epsilon must be strictly positive. Found " + finalEpsilon + ".";
+			return false;
+		}
+		for ( final double c : cm.cc )
+		{
+			if ( Double.isNaN( c ) || Double.isInfinite( c ) )
+			{
+				errorMessage = BASE_ERROR_MESSAGE + "This solver only accepts finite costs. Found " + c + ".";
+				return false;
+			}
+		}
+		return true;
+	}
+
+	@Override
+	public boolean process()
+	{
+		final long start = System.currentTimeMillis();
+		final int n = cm.nRows;
+		if ( n == 0 )
+		{
+			output = new int[ 0 ];
+			processingTime = System.currentTimeMillis() - start;
+			return true;
+		}
+
+		double minCost = Double.POSITIVE_INFINITY;
+		double maxCost = Double.NEGATIVE_INFINITY;
+		boolean integerCosts = true;
+		for ( final double c : cm.cc )
+		{
+			minCost = Math.min( minCost, c );
+			maxCost = Math.max( maxCost, c );
+			integerCosts = integerCosts && c == Math.rint( c );
+		}
+		double range = maxCost - minCost;
+		if ( !( range > 0 ) )
+		{
+			range = Math.max( 1d, Math.abs( maxCost ) );
+		}
+		final double epsFinal;
+		if ( Double.isNaN( finalEpsilon ) )
+		{
+			/*
+			 * With integer costs, a total cost within n * epsilon < 1 of the
+			 * optimum is the optimum.
+			 */
+			final double eps = range / ( 1e4 * ( n + 1 ) );
+			epsFinal = integerCosts ? Math.min( eps, 1d / ( n + 1 ) ) : eps;
+		}
+		else
+		{
+			epsFinal = finalEpsilon;
+		}
+
+		final Side rows = new Side( cm, n );
+		final Side cols = new Side( cm.transpose(), n );
+		final Bids bids = new Bids( n );
+		/*
+		 * In a problem with a complete assignment, prices stay within a few
+		 * times n cost ranges. Beyond that, we are bidding for ever.
+		 */
+		final double bound = 4d * ( n + 1 ) * ( 2 * range + Math.abs( minCost ) + Math.abs( maxCost ) );
+
+		final ExecutorService executor = ( numThreads > 1 && n >= PARALLEL_THRESHOLD ) ? Executors.newFixedThreadPool( numThreads ) : null;
+		try
+		{
+			double eps = Math.max( epsFinal, range / THETA );
+			while ( true )
+			{
+				/*
+				 * New phase: start from an empty assignment, and row profits
+				 * that satisfy complementary slackness with the current column
+				 * prices.
+				 */
+
+				rows.reset();
+				cols.reset();
+				for ( int i = 0; i < n; i++ )
+				{
+					double best = Double.POSITIVE_INFINITY;
+					for ( int k = cm.start[ i ]; k < cm.start[ i ] + cm.number[ i ]; k++ )
+					{
+						best = Math.min( best, cm.cc[ k ] + cols.value[ cm.kk[ k ] ] );
+					}
+					rows.value[ i ] = -best;
+				}
+
+				while ( rows.nFree > 0 )
+				{
+					// Forward until the number of assignments increases.
+					int before = rows.nFree;
+					while ( rows.nFree == before )
+					{
+						if ( !round( rows, cols, bids, eps, range, bound, executor ) ) { return false; }
+					}
+					if ( rows.nFree == 0 )
+					{
+						break;
+					}
+
+					// Then reverse until it increases again.
+					before = cols.nFree;
+					while ( cols.nFree == before )
+					{
+						if ( !round( cols, rows, bids, eps, range, bound, executor ) ) { return false; }
+					}
+				}
+
+				if ( eps <= epsFinal )
+				{
+					break;
+				}
+				eps = Math.max( epsFinal, eps / THETA );
+			}
+		}
+		finally
+		{
+			if ( null != executor )
+			{
+				executor.shutdown();
+			}
+		}
+
+		output = new int[ n ];
+		System.arraycopy( rows.match, 0, output, 0, n );
+
+		final long end = System.currentTimeMillis();
+		processingTime = end - start;
+		return true;
+	}
+
+	/**
+	 * Runs one round where all the bidders unassigned at the beginning of the
+	 * round bid once.
+	 */
+	private boolean round( final Side bidders, final Side items, final Bids bids, final double eps, final double range, final double bound, final ExecutorService executor )
+	{
+		final int nActive = bidders.nFree;
+		System.arraycopy( bidders.free, 0, bids.active, 0, nActive );
+
+		if ( null == executor || nActive < PARALLEL_THRESHOLD )
+		{
+			/*
+			 * Gauss-Seidel: each bid is placed against the prices updated by
+			 * the previous ones.
+			 */
+
+			for ( int a = 0; a < nActive; a++ )
+			{
+				bid( bidders, items, bids, a, eps, range );
+				final int item = bids.item[ a ];
+				if ( Math.abs( bids.price[ a ] ) > bound )
+				{
+					errorMessage = BASE_ERROR_MESSAGE + "The cost matrix does not admit a complete assignment.";
+					return false;
+				}
+				assign( bidders, items, bids.active[ a ], item, bids.price[ a ], bids.value[ a ] );
+			}
+			return true;
+		}
+
+		/*
+		 * Jacobi: all bids are computed in parallel against the same prices,
+		 * then each item goes to its highest bidder.
+		 */
+
+		final int nTasks = Math.min( numThreads, ( nActive + PARALLEL_THRESHOLD / 4 - 1 ) / ( PARALLEL_THRESHOLD / 4 ) );
+		final int chunkSize = ( nActive + nTasks - 1 ) / nTasks;
+		final List< Callable< Void > > tasks = new ArrayList< Callable< Void > >( nTasks );
+		for ( int from = 0; from < nActive; from += chunkSize )
+		{
+			final int chunkStart = from;
+			final int chunkEnd = Math.min( nActive, from + chunkSize );
+			tasks.add( new Callable< Void >()
+			{
+				@Override
+				public Void call()
+				{
+					for ( int a = chunkStart; a < chunkEnd; a++ )
+					{
+						bid( bidders, items, bids, a, eps, range );
+					}
+					return null;
+				}
+			} );
+		}
+		try
+		{
+			for ( final Future< Void > future : executor.invokeAll( tasks ) )
+			{
+				future.get();
+			}
+		}
+		catch ( final InterruptedException e )
+		{
+			errorMessage = BASE_ERROR_MESSAGE + "Interrupted while computing bids: " + e.getMessage();
+			return false;
+		}
+		catch ( final ExecutionException e )
+		{
+			errorMessage = BASE_ERROR_MESSAGE + "Error while computing bids: " + e.getCause();
+			return false;
+		}
+
+		for ( int a = 0; a < nActive; a++ )
+		{
+			final int item = bids.item[ a ];
+			final int w = bids.winner[ item ];
+			if ( w < 0 || bids.price[ a ] > bids.price[ w ] )
+			{
+				bids.winner[ item ] = a;
+			}
+		}
+		for ( int a = 0; a < nActive; a++ )
+		{
+			final int item = bids.item[ a ];
+			if ( bids.winner[ item ] == a )
+			{
+				if ( Math.abs( bids.price[ a ] ) > bound )
+				{
+					errorMessage = BASE_ERROR_MESSAGE + "The cost matrix does not admit a complete assignment.";
+					return false;
+				}
+				assign( bidders, items, bids.active[ a ], item, bids.price[ a ], bids.value[ a ] );
+			}
+			else
+			{
+				// Losers stay unassigned, with a profit still satisfying
+				// complementary slackness since prices only went up.
+				bidders.value[ bids.active[ a ] ] = bids.value[ a ];
+			}
+		}
+		for ( int a = 0; a < nActive; a++ )
+		{
+			bids.winner[ bids.item[ a ] ] = -1;
+		}
+		return true;
+	}
+
+	/**
+	 * Computes the bid of the active bidder at index <code>a</code>: the best
+	 * item, the price it offers and the value the bidder will be left with.
+	 */
+	private static final void bid( final Side bidders, final Side items, final Bids bids, final int a, final double eps, final double range )
+	{
+		final SparseCostMatrix m = bidders.m;
+		final int b = bids.active[ a ];
+		double best = Double.POSITIVE_INFINITY;
+		double second = Double.POSITIVE_INFINITY;
+		int bestItem = -1;
+		double bestCost = 0;
+		for ( int k = m.start[ b ]; k < m.start[ b ] + m.number[ b ]; k++ )
+		{
+			final double c = m.cc[ k ];
+			final double val = c + items.value[ m.kk[ k ] ];
+			if ( val < best )
+			{
+				second = best;
+				best = val;
+				bestItem = m.kk[ k ];
+				bestCost = c;
+			}
+			else if ( val < second )
+			{
+				second = val;
+			}
+		}
+		if ( second == Double.POSITIVE_INFINITY )
+		{
+			// Single candidate: any price increase keeps slackness.
+			second = best + range;
+		}
+
+		final double oldPrice = items.value[ bestItem ];
+		double price = second - bestCost + eps;
+		if ( price <= oldPrice )
+		{
+			// Rounding must not prevent prices from going up.
+			price = Math.nextUp( oldPrice );
+		}
+		bids.item[ a ] = bestItem;
+		bids.price[ a ] = price;
+		bids.value[ a ] = -bestCost - price;
+	}
+
+	/**
+	 * Assigns the item to the bidder, and frees its previous owner.
+	 */
+	private static final void assign( final Side bidders, final Side items, final int bidder, final int item, final double price, final double value )
+	{
+		items.value[ item ] = price;
+		bidders.value[ bidder ] = value;
+		final int previous = items.match[ item ];
+		if ( previous >= 0 )
+		{
+			bidders.match[ previous ] = -1;
+			bidders.addFree( previous );
+		}
+		else
+		{
+			items.removeFree( item );
+		}
+		items.match[ item ] = bidder;
+		bidders.match[ bidder ] = item;
+		bidders.removeFree( bidder );
+	}
+
+	@Override
+	public int[] getResult()
+	{
+		return output;
+	}
+
+	@Override
+	public String getErrorMessage()
+	{
+		return errorMessage;
+	}
+
+	@Override
+	public long getProcessingTime()
+	{
+		return processingTime;
+	}
+
+	@Override
+	public void setNumThreads()
+	{
+		this.numThreads = Runtime.getRuntime().availableProcessors();
+	}
+
+	@Override
+	public void setNumThreads( final int numThreads )
+	{
+		this.numThreads = numThreads;
+	}
+
+	@Override
+	public int getNumThreads()
+	{
+		return numThreads;
+	}
+
+	/**
+	 * One side of the bipartite problem: the rows, or the columns. Stores the
+	 * costs seen from this side, the dual variable of each element (profit for
+	 * rows, price for columns), its current match and the set of unassigned
+	 * elements.
+	 */
+	private static final class Side
+	{
+		private final SparseCostMatrix m;
+
+		private final double[] value;
+
+		private final int[] match;
+
+		private final int[] free;
+
+		private final int[] freePos;
+
+		private int nFree;
+
+		private Side( final SparseCostMatrix m, final int n )
+		{
+			this.m = m;
+			this.value = new double[ n ];
+			this.match = new int[ n ];
+			this.free = new int[ n ];
+			this.freePos = new int[ n ];
+		}
+
+		private void reset()
+		{
+			for ( int i = 0; i < match.length; i++ )
+			{
+				match[ i ] = -1;
+				free[ i ] = i;
+				freePos[ i ] = i;
+			}
+			nFree = match.length;
+		}
+
+		private void addFree( final int i )
+		{
+			freePos[ i ] = nFree;
+			free[ nFree++ ] = i;
+		}
+
+		private void removeFree( final int i )
+		{
+			final int pos = freePos[ i ];
+			final int last = free[ --nFree ];
+			free[ pos ] = last;
+			freePos[ last ] = pos;
+		}
+	}
+
+	/**
+	 * Buffers for the bids of a round.
+	 */
+	private static final class Bids
+	{
+		private final int[] active;
+
+		private final int[] item;
+
+		private final double[] price;
+
+		private final double[] value;
+
+		/**
+		 * Index in {@link #active} of the highest bidder for each item, or -1.
+		 */
+		private final int[] winner;
+
+		private Bids( final int n )
+		{
+			this.active = new int[ n ];
+			this.item = new int[ n ];
+			this.price = new double[ n ];
+			this.value = new double[ n ];
+			this.winner = new int[ n ];
+			Arrays.fill( winner, -1 );
+		}
+	}
+}
@@ -0,0 +1,262 @@
+package fiji.plugin.trackmate.tracking.sparselap.linker;
+
+import java.util.Arrays;
+
+/**
+ * The connected components of the bipartite graph defined by a sparse cost
+ * matrix, where a row and a column are connected if the matrix has a
+ * non-infinite cost for them.
+ * <p>
+ * In the full LAP cost matrix of Jaqaman <i>et al.</i> built by
+ * {@link JaqamanBlockMatrix}, the alternative cost of a row and of a column,
+ * and the bottom-right elements of a link, stay within the component of the
+ * row and the column of the top-left quadrant. So the full LAP is the
+ * direct sum of the LAPs built from each component of the top-left quadrant
+ * alone, and can be solved component by component without changing the
+ * optimum.
+ * <p>
+ * Components are numbered in the order of their first row, and the rows and
+ * columns of a component are listed in ascending order. Each column without
+ * any element makes a component without rows, numbered after all the
+ * components with rows, in the order of the columns.
+ */
+public class CostMatrixComponents
+{
+
+	private final SparseCostMatrix cm;
+
+	private final int nComponents;
+
+	/**
+	 * The first index in {@link #rows} of each component, plus the total
+	 * number of rows.
+	 */
+	private final int[] rowStart;
+
+	/**
+	 * The rows of the matrix, grouped by component.
+	 */
+	private final int[] rows;
+
+	/**
+	 * The first index in {@link #cols} of each component, plus the total
+	 * number of columns.
+	 */
+	private final int[] colStart;
+
+	/**
+	 * The columns of the matrix, grouped by component.
+	 */
+	private final int[] cols;
+
+	/**
+	 * The index of each column within its component.
+	 */
+	private final int[] localCol;
+
+	/**
+	 * Computes the connected components of the specified matrix.
+	 *
+	 * @param cm
+	 *            the sparse cost matrix.
+	 */
+	public CostMatrixComponents( final SparseCostMatrix cm )
+	{
+		this.cm = cm;
+		final int nRows = cm.nRows;
+		final int nCols = cm.nCols;
+
+		/*
+		 * Union-find over rows (0 to nRows - 1) and columns (nRows to nRows +
+		 * nCols - 1).
+		 */
+
+		final int[] parent = new int[ nRows + nCols ];
+		for ( int i = 0; i < parent.length; i++ )
+		{
+			parent[ i ] = i;
+		}
+		for ( int i = 0; i < nRows; i++ )
+		{
+			for ( int k = cm.start[ i ]; k < cm.start[ i ] + cm.number[ i ]; k++ )
+			{
+				final int a = find( parent, i );
+				final int b = find( parent, nRows + cm.kk[ k ] );
+				if ( a != b )
+				{
+					// Keep the smallest index as root, which is always a row.
+					if ( a < b )
+					{
+						parent[ b ] = a;
+					}
+					else
+					{
+						parent[ a ] = b;
+					}
+				}
+			}
+		}
+
+		/*
+		 * Label components in the order of their first row. A column with at
+		 * least one element has a row as root. A column without any element
+		 * is its own root, and makes a component on its own, labeled after
+		 * the components with rows.
+		 */
+
+		final int[] label = new int[ nRows ];
+		int n = 0;
+		for ( int i = 0; i < nRows; i++ )
+		{
+			final int root = find( parent, i );
+			label[ i ] = ( root == i ) ? n++ : label[ root ];
+		}
+		final int[] colLabel = new int[ nCols ];
+		for ( int j = 0; j < nCols; j++ )
+		{
+			final int root = find( parent, nRows + j );
+			colLabel[ j ] = ( root == nRows + j ) ? n++ : label[ root ];
+		}
+		this.nComponents = n;
+
+		this.rowStart = new int[ n + 1 ];
+		for ( int i = 0; i < nRows; i++ )
+		{
+			rowStart[ label[ i ] + 1 ]++;
+		}
+		this.colStart = new int[ n + 1 ];
+		for ( int j = 0; j < nCols; j++ )
+		{
+			colStart[ colLabel[ j ] + 1 ]++;
+		}
+		for ( int c = 0; c < n; c++ )
+		{
+			rowStart[ c + 1 ] += rowStart[ c ];
+			colStart[ c + 1 ] += colStart[ c ];
+		}
+
+		this.rows = new int[ nRows ];
+		final int[] next = Arrays.copyOf( rowStart, n );
+		for ( int i = 0; i < nRows; i++ )
+		{
+			rows[ next[ label[ i ] ]++ ] = i;
+		}
+		this.cols = new int[ nCols ];
+		this.localCol = new int[ nCols ];
+		System.arraycopy( colStart, 0, next, 0, n );
+		for ( int j = 0; j < nCols; j++ )
+		{
+			final int c = colLabel[ j ];
+			localCol[ j ] = next[ c ] - colStart[ c ];
+			cols[ next[ c ]++ ] = j;
+		}
+	}
+
+	private static final int find( final int[] parent, int i )
+	{
+		while ( parent[ i ] != i )
+		{
+			// Path halving.
+			parent[ i ] = parent[ parent[ i ] ];
+			i = parent[ i ];
+		}
+		return i;
+	}
+
+	/**
+	 * Returns the number of connected components.
+	 *
+	 * @return the number of components.
+	 */
+	public int getNComponents()
+	{
+		return nComponents;
+	}
+
+	/**
+	 * Returns the number of rows in the specified component.
+	 *
+	 * @param component
+	 *            the component index.
+	 * @return the number of rows.
+	 */
+	public int getNRows( final int component )
+	{
+		return rowStart[ component + 1 ] - rowStart[ component ];
+	}
+
+	/**
+	 * Returns the number of columns in the specified component.
+	 *
+	 * @param component
+	 *            the component index.
+	 * @return the number of columns.
+	 */
+	public int getNCols( final int component )
+	{
+		return colStart[ component + 1 ] - colStart[ component ];
+	}
+
+	/**
+	 * Returns the index in the whole matrix of a row of a component.
+	 *
+	 * @param component
+	 *            the component index.
+	 * @param i
+	 *            the row index within the component.
+	 * @return the row index in the whole matrix.
+	 */
+	public int getRow( final int component, final int i )
+	{
+		return rows[ rowStart[ component ] + i ];
+	}
+
+	/**
+	 * Returns the index in the whole matrix of a column of a component.
+	 *
+	 * @param component
+	 *            the component index.
+	 * @param j
+	 *            the column index within the component.
+	 * @return the column index in the whole matrix.
+	 */
+	public int getCol( final int component, final int j )
+	{
+		return cols[ colStart[ component ] + j ];
+	}
+
+	/**
+	 * Returns the sub-matrix made of the rows and columns of the specified
+	 * component, in the same order as in the whole matrix.
+	 *
+	 * @param component
+	 *            the component index.
+	 * @return a new sparse cost matrix.
+	 */
+	public SparseCostMatrix getSubMatrix( final int component )
+	{
+		final int nRows = getNRows( component );
+		final int[] number = new int[ nRows ];
+		int cardinality = 0;
+		for ( int i = 0; i < nRows; i++ )
+		{
+			number[ i ] = cm.number[ getRow( component, i ) ];
+			cardinality += number[ i ];
+		}
+
+		final double[] cc = new double[ cardinality ];
+		final int[] kk = new int[ cardinality ];
+		int index = 0;
+		for ( int i = 0; i < nRows; i++ )
+		{
+			final int row = getRow( component, i );
+			System.arraycopy( cm.cc, cm.start[ row ], cc, index, number[ i ] );
+			for ( int k = cm.start[ row ]; k < cm.start[ row ] + number[ i ]; k++ )
+			{
+				// Local indices keep the ascending order of columns.
+				kk[ index++ ] = localCol[ cm.kk[ k ] ];
+			}
+		}
+		return new SparseCostMatrix( cc, kk, number, getNCols( component ) );
+	}
+}
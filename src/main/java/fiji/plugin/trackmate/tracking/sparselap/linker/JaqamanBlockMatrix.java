@@ -0,0 +1,131 @@
+package fiji.plugin.trackmate.tracking.sparselap.linker;
+
+/**
+ * Assembles the full LAP cost matrix of Jaqaman <i>et al.</i>, Nature Methods,
+ * <b>2008</b> (Figure 1b) from its top-left quadrant:
+ *
+ * <pre>
+ * -----------
+ * | TL | TR |
+ * -----------
+ * | BL | BR |
+ * -----------
+ * </pre>
+ *
+ * where <code>TL</code> is the linking cost matrix, <code>TR</code> and
+ * <code>BL</code> are diagonal matrices of alternative costs for the sources
+ * and the targets respectively, and <code>BR</code> has the sparsity pattern
+ * of the transpose of <code>TL</code>, filled with a single value.
+ * <p>
+ * The result is written directly in the arrays of a single
+ * {@link SparseCostMatrix}, without building the intermediate blocks and
+ * their concatenations. This is equivalent to
+ * <code>( tl.hcat( tr ) ).vcat( bl.hcat( br ) )</code>, but the peak memory
+ * is barely more than the size of the final matrix.
+ */
+public class JaqamanBlockMatrix
+{
+
+	private JaqamanBlockMatrix()
+	{}
+
+	/**
+	 * Returns the full LAP cost matrix built from the specified top-left
+	 * quadrant.
+	 *
+	 * @param tl
+	 *            the top-left quadrant, the cost matrix for linking sources
+	 *            (rows) to targets (columns).
+	 * @param sourceAlternativeCosts
+	 *            the alternative costs for sources not to be linked, one per
+	 *            row of <code>tl</code>. They are written on the diagonal of
+	 *            the top-right quadrant.
+	 * @param targetAlternativeCosts
+	 *            the alternative costs for targets not to be linked, one per
+	 *            column of <code>tl</code>. They are written on the diagonal
+	 *            of the bottom-left quadrant.
+	 * @param bottomRightCost
+	 *            the value to use for all the elements of the bottom-right
+	 *            quadrant.
+	 * @return a new sparse matrix, with <code>nRows + nCols</code> rows and
+	 *         columns.
+	 * @throws IllegalArgumentException
+	 *             if the alternative cost arrays do not match the size of
+	 *             <code>tl</code>.
+	 */
+	public static final SparseCostMatrix assemble( final SparseCostMatrix tl, final double[] sourceAlternativeCosts, final double[] targetAlternativeCosts, final double bottomRightCost )
+	{
+		final int nRows = tl.nRows;
+		final int nCols = tl.nCols;
+		final int cardinality = tl.cardinality;
+		if ( sourceAlternativeCosts.length != nRows ) { throw new IllegalArgumentException( "Expected " + nRows + " source alternative costs, found " + sourceAlternativeCosts.length + "." ); }
+		if ( targetAlternativeCosts.length != nCols ) { throw new IllegalArgumentException( "Expected " + nCols + " target alternative costs, found " + targetAlternativeCosts.length + "." ); }
+
+		final int size = nRows + nCols;
+		final double[] cc = new double[ 2 * cardinality + nRows + nCols ];
+		final int[] kk = new int[ cc.length ];
+		final int[] number = new int[ size ];
+
+		/*
+		 * Top rows: TL then TR. TR columns come after all TL columns, so they
+		 * stay sorted.
+		 */
+
+		int index = 0;
+		int tlIndex = 0;
+		for ( int i = 0; i < nRows; i++ )
+		{
+			final int n = tl.number[ i ];
+			System.arraycopy( tl.kk, tlIndex, kk, index, n );
+			System.arraycopy( tl.cc, tlIndex, cc, index, n );
+			tlIndex += n;
+			index += n;
+
+			kk[ index ] = nCols + i;
+			cc[ index ] = sourceAlternativeCosts[ i ];
+			index++;
+
+			number[ i ] = n + 1;
+		}
+
+		/*
+		 * Bottom rows: BL then BR. Row nRows + j has the BL diagonal element
+		 * at column j, then one element for each TL row with an element in
+		 * column j.
+		 */
+
+		for ( int k = 0; k < cardinality; k++ )
+		{
+			number[ nRows + tl.kk[ k ] ]++;
+		}
+		final int[] next = new int[ nCols ];
+		for ( int j = 0; j < nCols; j++ )
+		{
+			// Count the BL element.
+			number[ nRows + j ]++;
+			next[ j ] = index;
+			index += number[ nRows + j ];
+		}
+
+		for ( int j = 0; j < nCols; j++ )
+		{
+			kk[ next[ j ] ] = j;
+			cc[ next[ j ] ] = targetAlternativeCosts[ j ];
+			next[ j ]++;
+		}
+		tlIndex = 0;
+		for ( int i = 0; i < nRows; i++ )
+		{
+			for ( int k = tlIndex; k < tlIndex + tl.number[ i ]; k++ )
+			{
+				final int j = tl.kk[ k ];
+				kk[ next[ j ] ] = nCols + i;
+				cc[ next[ j ] ] = bottomRightCost;
+				next[ j ]++;
+			}
+			tlIndex += tl.number[ i ];
+		}
+
+		return new SparseCostMatrix( cc, kk, number, size );
+	}
+}
@@ -1,13 +1,22 @@
 package fiji.plugin.trackmate.tracking.sparselap.linker;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import net.imglib2.algorithm.BenchmarkAlgorithm;
+import net.imglib2.algorithm.MultiThreaded;
 import net.imglib2.algorithm.OutputAlgorithm;
 import net.imglib2.util.Util;
 import fiji.plugin.trackmate.Logger;
@@ -17,6 +26,12 @@ import fiji.plugin.trackmate.tracking.sparselap.costmatrix.CostMatrixCreator;
 /**
  * Links two lists of objects based on the LAP framework described in Jaqaman
  * <i>et al.</i>, Nature Methods, <b>2008</b>.
+ * <p>
+ * Sources and targets far apart never share a candidate link, so the cost
+ * matrix is usually made of many independent blocks. The linker splits it in
+ * its connected components (see {@link CostMatrixComponents}) and solves
+ * them separately, in parallel, which yields the same optimum as solving the
+ * whole matrix at once.
  *
  * @author Jean-Yves Tinevez - 2014
  *
@@ -25,8 +40,10 @@ import fiji.plugin.trackmate.tracking.sparselap.costmatrix.CostMatrixCreator;
  * @param <J>
  *            the type of the target objects to link.
  */
-public class JaqamanLinker< K extends Comparable< K >, J extends Comparable< J > > extends BenchmarkAlgorithm implements OutputAlgorithm< Map< K, J > >
+public class JaqamanLinker< K extends Comparable< K >, J extends Comparable< J > > extends BenchmarkAlgorithm implements OutputAlgorithm< Map< K, J > >, MultiThreaded
 {
+	private static final String BASE_ERROR_MESSAGE = "[JaqamanLinker] ";
+
 	private Map< K, J > assignments;
 
 	private Map< K, Double > costs;
@@ -35,6 +52,10 @@ public class JaqamanLinker< K extends Comparable< K >, J extends Comparable< J >
 
 	private final Logger logger;
 
+	private final LAPSolver solver;
+
+	private int numThreads;
+
 	/**
 	 * Creates a new linker for the two specified object lists.
 	 *
@@ -53,9 +74,33 @@ public class JaqamanLinker< K extends Comparable< K >, J extends Comparable< J >
 	 * @see {Jaqaman <i>et al.</i>, Nature Methods, <b>2008</b>, Figure 1b.}
 	 */
 	public JaqamanLinker( final CostMatrixCreator< K, J > costMatrixCreator, final Logger logger )
+	{
+		this( costMatrixCreator, null, logger );
+	}
+
+	/**
+	 * Creates a new linker that solves its LAP with the specified solver
+	 * instance, instead of a new {@link LAPJV}. This allows selecting the
+	 * solver, for instance {@link AuctionLAP}, and reusing a solver, its work
+	 * buffers and possibly its column prices over several linkers.
+	 *
+	 * @param costMatrixCreator
+	 *            the creator of the top-left quadrant of the LAP cost matrix.
+	 * @param solver
+	 *            the solver to use. If <code>null</code>, a new
+	 *            {@link LAPJV} is instantiated when processing. A solver must
+	 *            not be shared by linkers running concurrently. When
+	 *            components are solved in parallel, the other threads use new
+	 *            instances of it.
+	 * @param logger
+	 *            a logger to report progress.
+	 */
+	public JaqamanLinker( final CostMatrixCreator< K, J > costMatrixCreator, final LAPSolver solver, final Logger logger )
 	{
 		this.costMatrixCreator = costMatrixCreator;
+		this.solver = solver;
 		this.logger = logger;
+		setNumThreads();
 	}
 
 	public JaqamanLinker( final CostMatrixCreator< K, J > costMatrixCreator )
@@ -138,33 +183,19 @@ public class JaqamanLinker< K extends Comparable< K >, J extends Comparable< J >
 		final int nRows = tl.getNRows();
 
 		/*
-		 * Top right
+		 * Top right and bottom left diagonals.
 		 */
 
-		final double[] cctr = new double[ nRows ];
-		final int[] kktr = new int[ nRows ];
+		final double[] sourceAlternativeCosts = new double[ nRows ];
 		for ( int i = 0; i < nRows; i++ )
 		{
-			kktr[ i ] = i;
-			cctr[ i ] = costMatrixCreator.getAlternativeCostForSource( matrixRows.get( i ) );
+			sourceAlternativeCosts[ i ] = costMatrixCreator.getAlternativeCostForSource( matrixRows.get( i ) );
 		}
-		final int[] numbertr = new int[ nRows ];
-		Arrays.fill( numbertr, 1 );
-		final SparseCostMatrix tr = new SparseCostMatrix( cctr, kktr, numbertr, nRows );
-
-		/*
-		 * Bottom left
-		 */
-		final double[] ccbl = new double[ nCols ];
-		final int[] kkbl = new int[ nCols ];
-		for ( int i = 0; i < kkbl.length; i++ )
+		final double[] targetAlternativeCosts = new double[ nCols ];
+		for ( int j = 0; j < nCols; j++ )
 		{
-			kkbl[ i ] = i;
-			ccbl[ i ] = costMatrixCreator.getAlternativeCostForTarget( matrixCols.get( i ) );
+			targetAlternativeCosts[ j ] = costMatrixCreator.getAlternativeCostForTarget( matrixCols.get( j ) );
 		}
-		final int[] numberbl = new int[ nCols ];
-		Arrays.fill( numberbl, 1 );
-		final SparseCostMatrix bl = new SparseCostMatrix( ccbl, kkbl, numberbl, nCols );
 
 		/*
 		 * Bottom right.
@@ -172,41 +203,42 @@ public class JaqamanLinker< K extends Comparable< K >, J extends Comparable< J >
 		 * Alt. cost is the overall min of alternative costs. This deviate or
 		 * extend a bit the u-track code.
 		 */
-		final double minCost = Math.min( Util.min( ccbl ), Util.min( cctr ) );
-		final SparseCostMatrix br = tl.transpose();
-		br.fillWith( minCost );
+		final double minCost = Math.min( Util.min( targetAlternativeCosts ), Util.min( sourceAlternativeCosts ) );
 
 		/*
-		 * Stitch them together
+		 * Split the problem in independent components, and solve them.
 		 */
-		final SparseCostMatrix full = ( tl.hcat( tr ) ).vcat( bl.hcat( br ) );
-		logger.setProgress( 0.6 );
 
-		/*
-		 * Solve the full cost matrix.
-		 */
 		logger.setStatus( "Solving the cost matrix..." );
-		final LAPJV solver = new LAPJV( full );
-		if ( !solver.checkInput() || !solver.process() )
+		final int[] rowAssignment = new int[ nRows ];
+		final double[] rowCost = new double[ nRows ];
+		final CostMatrixComponents components = new CostMatrixComponents( tl );
+		logger.setProgress( 0.6 );
+		final boolean solved;
+		if ( components.getNComponents() < 2 )
+		{
+			solved = solveAll( tl, sourceAlternativeCosts, targetAlternativeCosts, minCost, rowAssignment, rowCost );
+		}
+		else
+		{
+			solved = solveComponents( components, sourceAlternativeCosts, targetAlternativeCosts, minCost, rowAssignment, rowCost );
+		}
+		if ( !solved )
 		{
-			errorMessage = solver.getErrorMessage();
 			return false;
 		}
 
-		final int[] assgn = solver.getResult();
 		assignments = new HashMap< K, J >();
 		costs = new HashMap< K, Double >();
-		for ( int i = 0; i < assgn.length; i++ )
+		for ( int i = 0; i < nRows; i++ )
 		{
-			final int j = assgn[ i ];
-			if ( i < matrixRows.size() && j < matrixCols.size() )
+			final int j = rowAssignment[ i ];
+			if ( j >= 0 )
 			{
 				final K source = matrixRows.get( i );
 				final J target = matrixCols.get( j );
 				assignments.put( source, target );
-
-				final double cost = full.get( i, j, Double.POSITIVE_INFINITY );
-				costs.put( source, Double.valueOf( cost ) );
+				costs.put( source, Double.valueOf( rowCost[ i ] ) );
 			}
 		}
 
@@ -218,6 +250,199 @@ public class JaqamanLinker< K extends Comparable< K >, J extends Comparable< J >
 		return true;
 	}
 
+	/**
+	 * Solves the full LAP in one go. Fills the column assigned to each row of
+	 * the top-left quadrant, or -1 if it is not linked, and the cost of the
+	 * link.
+	 */
+	private boolean solveAll( final SparseCostMatrix tl, final double[] sourceAlternativeCosts, final double[] targetAlternativeCosts, final double bottomRightCost, final int[] rowAssignment, final double[] rowCost )
+	{
+		final LAPSolver solver = ( null == this.solver ) ? new LAPJV() : this.solver;
+		final String error = solve( solver, tl, sourceAlternativeCosts, targetAlternativeCosts, bottomRightCost, rowAssignment, rowCost );
+		if ( null != error )
+		{
+			errorMessage = error;
+			return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Solves the LAP of each connected component of the top-left quadrant
+	 * separately, using up to {@link #numThreads} threads. Components are
+	 * processed by decreasing size, so that the largest ones do not end up
+	 * last on a single thread. Each thread reuses its own solver.
+	 */
+	private boolean solveComponents( final CostMatrixComponents components, final double[] sourceAlternativeCosts, final double[] targetAlternativeCosts, final double bottomRightCost, final int[] rowAssignment, final double[] rowCost )
+	{
+		final int nComponents = components.getNComponents();
+		final Integer[] order = new Integer[ nComponents ];
+		for ( int c = 0; c < nComponents; c++ )
+		{
+			order[ c ] = Integer.valueOf( c );
+		}
+		Arrays.sort( order, new Comparator< Integer >()
+		{
+			@Override
+			public int compare( final Integer o1, final Integer o2 )
+			{
+				final int s1 = components.getNRows( o1.intValue() ) + components.getNCols( o1.intValue() );
+				final int s2 = components.getNRows( o2.intValue() ) + components.getNCols( o2.intValue() );
+				return s2 - s1;
+			}
+		} );
+
+		final AtomicInteger ai = new AtomicInteger( 0 );
+		final int nTasks = Math.max( 1, Math.min( numThreads, nComponents ) );
+		final List< Callable< String > > tasks = new ArrayList< Callable< String > >( nTasks );
+		for ( int t = 0; t < nTasks; t++ )
+		{
+			final LAPSolver taskSolver;
+			if ( null == this.solver )
+			{
+				taskSolver = new LAPJV();
+			}
+			else
+			{
+				taskSolver = ( t == 0 ) ? this.solver : this.solver.newInstance();
+			}
+			tasks.add( new Callable< String >()
+			{
+				@Override
+				public String call()
+				{
+					for ( int k = ai.getAndIncrement(); k < nComponents; k = ai.getAndIncrement() )
+					{
+						final int c = order[ k ].intValue();
+						final int nr = components.getNRows( c );
+						final int nc = components.getNCols( c );
+						final double[] sac = new double[ nr ];
+						for ( int i = 0; i < nr; i++ )
+						{
+							sac[ i ] = sourceAlternativeCosts[ components.getRow( c, i ) ];
+						}
+						final double[] tac = new double[ nc ];
+						for ( int j = 0; j < nc; j++ )
+						{
+							tac[ j ] = targetAlternativeCosts[ components.getCol( c, j ) ];
+						}
+
+						final int[] localAssignment = new int[ nr ];
+						final double[] localCost = new double[ nr ];
+						final String error = solve( taskSolver, components.getSubMatrix( c ), sac, tac, bottomRightCost, localAssignment, localCost );
+						if ( null != error )
+						{
+							return error;
+						}
+
+						// Rows of distinct components never overlap.
+						for ( int i = 0; i < nr; i++ )
+						{
+							final int row = components.getRow( c, i );
+							rowAssignment[ row ] = localAssignment[ i ] < 0 ? -1 : components.getCol( c, localAssignment[ i ] );
+							rowCost[ row ] = localCost[ i ];
+						}
+					}
+					return null;
+				}
+			} );
+		}
+
+		if ( nTasks == 1 )
+		{
+			try
+			{
+				final String error = tasks.get( 0 ).call();
+				if ( null != error )
+				{
+					errorMessage = error;
+					return false;
+				}
+				return true;
+			}
+			catch ( final Exception e )
+			{
+				errorMessage = BASE_ERROR_MESSAGE + e.getMessage();
+				return false;
+			}
+		}
+
+		final ExecutorService executor = Executors.newFixedThreadPool( nTasks );
+		try
+		{
+			for ( final Future< String > future : executor.invokeAll( tasks ) )
+			{
+				final String error = future.get();
+				if ( null != error )
+				{
+					errorMessage = error;
+					return false;
+				}
+			}
+			return true;
+		}
+		catch ( final InterruptedException e )
+		{
+			errorMessage = BASE_ERROR_MESSAGE + "Interrupted while solving the components: " + e.getMessage();
+			return false;
+		}
+		catch ( final ExecutionException e )
+		{
+			errorMessage = BASE_ERROR_MESSAGE + "Error while solving the components: " + e.getCause();
+			return false;
+		}
+		finally
+		{
+			executor.shutdown();
+		}
+	}
+
+	/**
+	 * Builds the full LAP from the specified top-left quadrant and
+	 * alternative costs, and solves it with the specified solver. Returns an
+	 * error message, or <code>null</code> if the problem was solved.
+	 */
+	private static String solve( final LAPSolver solver, final SparseCostMatrix tl, final double[] sourceAlternativeCosts, final double[] targetAlternativeCosts, final double bottomRightCost, final int[] rowAssignment, final double[] rowCost )
+	{
+		final SparseCostMatrix full = JaqamanBlockMatrix.assemble( tl, sourceAlternativeCosts, targetAlternativeCosts, bottomRightCost );
+		solver.setCostMatrix( full );
+		if ( !solver.checkInput() || !solver.process() ) { return solver.getErrorMessage(); }
+
+		final int[] assgn = solver.getResult();
+		for ( int i = 0; i < tl.nRows; i++ )
+		{
+			final int j = assgn[ i ];
+			if ( j < tl.nCols )
+			{
+				rowAssignment[ i ] = j;
+				rowCost[ i ] = full.get( i, j, Double.POSITIVE_INFINITY );
+			}
+			else
+			{
+				rowAssignment[ i ] = -1;
+			}
+		}
+		return null;
+	}
+
+	@Override
+	public void setNumThreads()
+	{
+		this.numThreads = Runtime.getRuntime().availableProcessors();
+	}
+
+	@Override
+	public void setNumThreads( final int numThreads )
+	{
+		this.numThreads = numThreads;
+	}
+
+	@Override
+	public int getNumThreads()
+	{
+		return numThreads;
+	}
+
 	public String resultToString()
 	{
 		if ( null == assignments ) { return "Not solved yet. Process the algorithm prior to calling this method."; }
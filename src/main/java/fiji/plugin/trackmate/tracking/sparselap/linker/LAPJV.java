@@ -6,8 +6,6 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
 
-import net.imglib2.algorithm.Benchmark;
-import net.imglib2.algorithm.OutputAlgorithm;
 import net.imglib2.util.Util;
 
 /**
@@ -40,7 +38,7 @@ import net.imglib2.util.Util;
  * @author Johannes Schindelin
  * @see http://www.sciencedirect.com/science/article/pii/030505489600010X#
  */
-public class LAPJV implements OutputAlgorithm< int[] >, Benchmark
+public class LAPJV implements LAPSolver
 {
 
 	private static final String BASE_ERROR_MESSAGE = "[JonkerVolgenantSparseAlgorithm] ";
@@ -51,7 +49,35 @@ public class LAPJV implements OutputAlgorithm< int[] >, Benchmark
 
 	private long processingTime;
 
-	private final SparseCostMatrix cm;
+	private SparseCostMatrix cm;
+
+	/*
+	 * Work buffers, kept between calls to process() and grown as needed.
+	 */
+
+	private int[] x = new int[ 0 ];
+
+	private int[] y = new int[ 0 ];
+
+	private double[] v = new double[ 0 ];
+
+	private int[] col = new int[ 0 ];
+
+	private int[] free = new int[ 0 ];
+
+	private double[] d = new double[ 0 ];
+
+	private int[] pred = new int[ 0 ];
+
+	/**
+	 * Number of column prices in {@link #v} left by the last solve, or
+	 * <code>-1</code> if there was none.
+	 */
+	private int nPrices = -1;
+
+	private boolean warmStart = false;
+
+	private double[] initialPrices;
 
 	/**
 	 * Instantiates a new Jonker-Volgenant algorithm for the specified sparse
@@ -65,26 +91,162 @@ public class LAPJV implements OutputAlgorithm< int[] >, Benchmark
 		this.cm = cm;
 	}
 
+	/**
+	 * Instantiates a new Jonker-Volgenant algorithm with no cost matrix. The
+	 * cost matrix must be set with {@link #setCostMatrix(SparseCostMatrix)}
+	 * before solving.
+	 * <p>
+	 * The same instance can be used to solve successive problems. Its work
+	 * buffers are kept between solves and only grow when a larger problem is
+	 * met. An instance must not be used by several threads at once.
+	 */
+	public LAPJV()
+	{
+		this( null );
+	}
+
+	/**
+	 * Sets the cost matrix of the next problem to solve.
+	 *
+	 * @param cm
+	 *            the cost matrix.
+	 */
+	@Override
+	public void setCostMatrix( final SparseCostMatrix cm )
+	{
+		this.cm = cm;
+		this.output = null;
+	}
+
+	/**
+	 * Returns a new solver with the same warm start setting, and no cost
+	 * matrix nor column prices.
+	 */
+	@Override
+	public LAPJV newInstance()
+	{
+		final LAPJV solver = new LAPJV();
+		solver.setWarmStart( warmStart );
+		return solver;
+	}
+
+	/**
+	 * Sets whether each solve starts from the column prices found by the
+	 * previous solve of this instance, instead of the column reduction of the
+	 * new cost matrix. Prices are reused column index by column index; columns
+	 * beyond the ones of the previous problem start from their column
+	 * reduction value.
+	 * <p>
+	 * This does not change the optimality of the solution, only the amount of
+	 * work needed to reach it. It pays off when successive problems are
+	 * similar, column for column.
+	 *
+	 * @param warmStart
+	 *            whether to warm-start solves.
+	 */
+	public void setWarmStart( final boolean warmStart )
+	{
+		this.warmStart = warmStart;
+	}
+
+	/**
+	 * Sets the column prices to start the next solve from, instead of the
+	 * column reduction of the cost matrix. They are used for the next call to
+	 * {@link #process()} only, and take precedence over the warm start. Missing
+	 * or non-finite prices are replaced by the column reduction value.
+	 *
+	 * @param prices
+	 *            the column prices, indexed by column. Can be
+	 *            <code>null</code>.
+	 * @see #getColumnPrices()
+	 */
+	public void setColumnPrices( final double[] prices )
+	{
+		this.initialPrices = prices;
+	}
+
+	/**
+	 * Returns a copy of the column prices (dual variables) found by the last
+	 * solve.
+	 *
+	 * @return a new <code>double[]</code> array, with one element per column,
+	 *         or <code>null</code> if nothing was solved yet.
+	 */
+	public double[] getColumnPrices()
+	{
+		if ( nPrices < 0 ) { return null; }
+		return Arrays.copyOf( v, nPrices );
+	}
+
 	@Override
 	public boolean process()
 	{
 		final long start = System.currentTimeMillis();
 
-		final int[] x = new int[ cm.nRows ];
-		final int[] y = new int[ cm.nCols ];
-		final double[] v = new double[ cm.nCols ];
-
-		final int[] col = new int[ cm.nCols ];
-		for ( int j = 0; j < col.length; j++ )
+		final int nRows = cm.nRows;
+		final int nCols = cm.nCols;
+		ensureCapacity( nRows, nCols );
+		Arrays.fill( x, 0, nRows, 0 );
+		Arrays.fill( y, 0, nCols, 0 );
+		for ( int j = 0; j < nCols; j++ )
 		{
 			col[ j ] = j;
 		}
 
+		final int f;
+		if ( null != initialPrices || ( warmStart && nPrices > 0 ) )
+		{
+			seedPrices();
+			initialPrices = null;
+
+			/*
+			 * Starting from arbitrary prices, we cannot keep the column
+			 * reduction assignments: all rows start free.
+			 */
+
+			for ( int i = 0; i < nRows; i++ )
+			{
+				free[ i ] = i;
+			}
+			f = nRows;
+		}
+		else
+		{
+			f = reduce();
+		}
+
+		if ( f > 0 )
+		{
+			augment( f );
+		}
+		nPrices = nCols;
+
+		/*
+		 * Terminate and prepare outputs.
+		 */
+
+		this.output = new int[ nRows ];
+		for ( int i = 0; i < nRows; i++ )
+		{
+			output[ i ] = x[ i ] - 1;
+		}
+
+		final long end = System.currentTimeMillis();
+		processingTime = end - start;
+		return true;
+	}
+
+	/**
+	 * Column reduction and reduction transfer. Returns the number of free
+	 * rows, stored in the {@link #free} array.
+	 */
+	private int reduce()
+	{
 		/*
 		 * Column reduction
 		 */
 
-		Arrays.fill( v, Double.MAX_VALUE );
+		Arrays.fill( v, 0, cm.nCols, Double.MAX_VALUE );
 		for ( int i = 0; i < cm.nRows; i++ )
 		{
 			for ( int k = cm.start[ i ]; k < cm.start[ i ] + cm.number[ i ]; k++ )
@@ -120,7 +282,6 @@ public class LAPJV implements OutputAlgorithm< int[] >, Benchmark
 		 */
 
 		int f = 0;
-		final int[] free = new int[ cm.nRows ];
 		for ( int i = 0; i < cm.nRows; i++ )
 		{
 			if ( x[ i ] == 0 )
@@ -153,9 +314,72 @@ public class LAPJV implements OutputAlgorithm< int[] >, Benchmark
 				v[ j1 ] -= min;
 			}
 		}
+		return f;
+	}
+
+	/**
+	 * Writes the initial column prices in {@link #v}, from the specified
+	 * prices or from the previous solve. Prices are clamped between the column
+	 * minimal cost minus the cost range, and the column minimal cost, which
+	 * is where the prices of a cold start stay.
+	 */
+	private void seedPrices()
+	{
+		final int nCols = cm.nCols;
+		final int nSeeded;
+		if ( null != initialPrices )
+		{
+			nSeeded = Math.min( nCols, initialPrices.length );
+			System.arraycopy( initialPrices, 0, v, 0, nSeeded );
+		}
+		else
+		{
+			nSeeded = Math.min( nCols, nPrices );
+		}
+
+		// Column minimal costs, in d.
+		Arrays.fill( d, 0, nCols, Double.MAX_VALUE );
+		double minCost = Double.MAX_VALUE;
+		double maxCost = -Double.MAX_VALUE;
+		for ( int k = 0; k < cm.cardinality; k++ )
+		{
+			final int j = cm.kk[ k ];
+			final double c = cm.cc[ k ];
+			if ( c < d[ j ] )
+			{
+				d[ j ] = c;
+			}
+			if ( c < minCost )
+			{
+				minCost = c;
+			}
+			if ( c > maxCost )
+			{
+				maxCost = c;
+			}
+		}
+		final double range = maxCost - minCost + 1;
 
-		if ( f == 0 ) { return true; }
+		for ( int j = 0; j < nCols; j++ )
+		{
+			final double price = v[ j ];
+			if ( j >= nSeeded || Double.isNaN( price ) || price > d[ j ] )
+			{
+				v[ j ] = d[ j ];
+			}
+			else if ( price < d[ j ] - range )
+			{
+				v[ j ] = d[ j ] - range;
+			}
+		}
+	}
 
+	/**
+	 * Augmenting row reduction then augmentation, for the free rows stored in
+	 * the first <code>f</code> elements of {@link #free}.
+	 */
+	private void augment( int f )
+	{
 		/*
 		 * Augmenting row reduction.
 		 */
@@ -225,14 +449,12 @@ public class LAPJV implements OutputAlgorithm< int[] >, Benchmark
 		 */
 
 		final int f0 = f;
-		final double[] d = new double[ cm.nCols ];
-		final int[] pred = new int[ cm.nCols ];
 		for ( f = 0; f < f0; f++ )
 		{
 			final int i1 = free[ f ];
 			int low = 0, up = 0;
 			// initialize d- and pred-array
-			Arrays.fill( d, Double.MAX_VALUE );
+			Arrays.fill( d, 0, cm.nCols, Double.MAX_VALUE );
 			for ( int k = cm.start[ i1 ]; k < cm.start[ i1 ] + cm.number[ i1 ]; k++ )
 			{
 				final int j = cm.kk[ k ];
@@ -335,20 +557,27 @@ public class LAPJV implements OutputAlgorithm< int[] >, Benchmark
 			}
 			while ( i1 != i );
 		}
+	}
 
-		/*
-		 * Terminate and prepare outputs.
-		 */
-
-		this.output = new int[ x.length ];
-		for ( int i = 0; i < x.length; i++ )
+	/**
+	 * Grows the work buffers so that they can hold a problem of the specified
+	 * size. The column prices of the previous solve are preserved.
+	 */
+	private void ensureCapacity( final int nRows, final int nCols )
+	{
+		if ( x.length < nRows )
 		{
-			output[ i ] = x[ i ] - 1;
+			x = new int[ nRows ];
+			free = new int[ nRows ];
+		}
+		if ( y.length < nCols )
+		{
+			y = new int[ nCols ];
+			v = Arrays.copyOf( v, nCols );
+			col = new int[ nCols ];
+			d = new double[ nCols ];
+			pred = new int[ nCols ];
 		}
-
-		final long end = System.currentTimeMillis();
-		processingTime = end - start;
-		return true;
 	}
 
 	/*
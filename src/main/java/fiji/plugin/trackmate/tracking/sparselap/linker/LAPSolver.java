@@ -0,0 +1,34 @@
+package fiji.plugin.trackmate.tracking.sparselap.linker;
+
+import net.imglib2.algorithm.Benchmark;
+import net.imglib2.algorithm.OutputAlgorithm;
+
+/**
+ * Interface for solvers of linear assignment problems (LAP) defined by a
+ * {@link SparseCostMatrix}.
+ * <p>
+ * The result is given as row assignments: the row <code>i</code> is assigned
+ * to the column <code>getResult()[i]</code>. A solver instance can be used
+ * for successive problems, but not by several threads at once.
+ */
+public interface LAPSolver extends OutputAlgorithm< int[] >, Benchmark
+{
+
+	/**
+	 * Sets the cost matrix of the next problem to solve.
+	 *
+	 * @param cm
+	 *            the cost matrix.
+	 */
+	public void setCostMatrix( SparseCostMatrix cm );
+
+	/**
+	 * Returns a new solver of the same kind and with the same settings as
+	 * this one, and no cost matrix. It can be used to solve other problems
+	 * concurrently with this solver.
+	 *
+	 * @return a new solver.
+	 */
+	public LAPSolver newInstance();
+
+}
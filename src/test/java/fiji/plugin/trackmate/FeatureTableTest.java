@@ -0,0 +1,103 @@
+package fiji.plugin.trackmate;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+public class FeatureTableTest
+{
+
+	@Test
+	public void testPutAndGet()
+	{
+		final FeatureTable< String > table = new FeatureTable< String >();
+		for ( int i = 0; i < 100; i++ )
+		{
+			table.put( "o" + i, "A", i );
+			if ( i % 2 == 0 )
+			{
+				table.put( "o" + i, "B", -i );
+			}
+		}
+		assertEquals( 100, table.size() );
+		assertEquals( 7d, table.get( "o7", "A" ).doubleValue(), 0d );
+		assertEquals( -8d, table.get( "o8", "B" ).doubleValue(), 0d );
+		assertNull( table.get( "o7", "B" ) );
+		assertNull( table.get( "o7", "C" ) );
+		assertNull( table.get( "unknown", "A" ) );
+
+		final double[] values = new double[ 100 ];
+		final List< String > keys = new ArrayList< String >();
+		for ( int i = 0; i < values.length; i++ )
+		{
+			keys.add( "o" + i );
+		}
+		table.values( "A", keys, values, 0 );
+		for ( int i = 0; i < values.length; i++ )
+		{
+			assertEquals( i, values[ i ], 0d );
+		}
+
+		final double[] target = new double[ 4 ];
+		final int end = table.values( "B", Arrays.asList( "o2", "o3", "unknown" ), target, 1 );
+		assertEquals( 4, end );
+		assertArrayEquals( new double[] { 0d, -2d, Double.NaN, Double.NaN }, target, 0d );
+	}
+
+	@Test
+	public void testRemove()
+	{
+		final FeatureTable< Integer > table = new FeatureTable< Integer >();
+		for ( int i = 0; i < 50; i++ )
+		{
+			table.put( Integer.valueOf( i ), "A", i );
+		}
+		for ( int i = 0; i < 50; i += 5 )
+		{
+			table.remove( Integer.valueOf( i ) );
+		}
+		assertEquals( 40, table.size() );
+		assertNull( table.get( Integer.valueOf( 5 ), "A" ) );
+		assertEquals( 6d, table.get( Integer.valueOf( 6 ), "A" ).doubleValue(), 0d );
+
+		// Removed ordinals are reused, and do not carry old values.
+		table.put( Integer.valueOf( 100 ), "B", 1d );
+		assertEquals( 41, table.size() );
+		assertNull( table.get( Integer.valueOf( 100 ), "A" ) );
+
+		final Map< Integer, Map< String, Double >> map = table.toMap();
+		assertEquals( 41, map.size() );
+		assertEquals( 1, map.get( Integer.valueOf( 100 ) ).size() );
+		assertEquals( 3d, map.get( Integer.valueOf( 3 ) ).get( "A" ).doubleValue(), 0d );
+	}
+
+	@Test
+	public void testStoredNaN()
+	{
+		final FeatureTable< String > table = new FeatureTable< String >();
+		table.put( "a", "A", Double.NaN );
+		table.put( "b", "B", 2d );
+		assertTrue( table.get( "a", "A" ).isNaN() );
+		assertNull( table.get( "b", "A" ) );
+
+		final Map< String, Map< String, Double >> map = table.toMap();
+		assertEquals( 1, map.get( "a" ).size() );
+		assertTrue( map.get( "a" ).get( "A" ).isNaN() );
+		assertFalse( map.get( "b" ).containsKey( "A" ) );
+
+		// A removed NaN does not come back with the recycled ordinal.
+		table.remove( "a" );
+		table.put( "c", "B", 3d );
+		assertNull( table.get( "c", "A" ) );
+		assertFalse( table.toMap().get( "c" ).containsKey( "A" ) );
+	}
+}
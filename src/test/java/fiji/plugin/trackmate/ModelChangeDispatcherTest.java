@@ -0,0 +1,204 @@
+package fiji.plugin.trackmate;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.jgrapht.graph.DefaultWeightedEdge;
+import org.junit.Test;
+
+public class ModelChangeDispatcherTest
+{
+
+	private static final int N_SPOTS = 10;
+
+	@Test
+	public void testSynchronousByDefault()
+	{
+		final Model< Spot > model = new Model< Spot >();
+		final EventRecorder recorder = new EventRecorder();
+		model.addModelChangeListener( recorder );
+
+		for ( int i = 0; i < N_SPOTS; i++ )
+		{
+			model.beginUpdate();
+			try
+			{
+				model.addSpotTo( new Spot( i, 0d, 0d, 1d, -1d ), i );
+			}
+			finally
+			{
+				model.endUpdate();
+			}
+			// Delivered before endUpdate() returns.
+			assertEquals( i + 1, recorder.events.size() );
+		}
+		for ( final Thread thread : recorder.threads )
+		{
+			assertSame( Thread.currentThread(), thread );
+		}
+	}
+
+	@Test
+	public void testCoalescing() throws InterruptedException
+	{
+		final Model< Spot > model = new Model< Spot >();
+		final EventRecorder recorder = new EventRecorder();
+		model.addModelChangeListener( recorder );
+		/*
+		 * The window is long enough that the burst is only delivered when it
+		 * fills the queue.
+		 */
+		final int nEvents = 2 * N_SPOTS + 2;
+		final ModelChangeDispatcher< Spot > dispatcher = new ModelChangeDispatcher< Spot >( model, 1, TimeUnit.MINUTES, nEvents );
+		model.setEventDispatcher( dispatcher );
+
+		final List< Spot > spots = new ArrayList< Spot >( N_SPOTS );
+		for ( int i = 0; i < N_SPOTS; i++ )
+		{
+			final Spot spot = new Spot( i, 0d, 0d, 1d, -1d );
+			spots.add( spot );
+			model.beginUpdate();
+			try
+			{
+				model.addSpotTo( spot, i );
+			}
+			finally
+			{
+				model.endUpdate();
+			}
+		}
+		for ( int i = 0; i < N_SPOTS; i++ )
+		{
+			model.beginUpdate();
+			try
+			{
+				model.updateFeatures( spots.get( i ) );
+			}
+			finally
+			{
+				model.endUpdate();
+			}
+		}
+		final Spot removed = spots.get( 0 );
+		model.beginUpdate();
+		DefaultWeightedEdge edge;
+		try
+		{
+			model.removeSpot( removed );
+			edge = model.addEdge( spots.get( 1 ), spots.get( 2 ), 1d );
+		}
+		finally
+		{
+			model.endUpdate();
+		}
+		model.beginUpdate();
+		try
+		{
+			model.setEdgeWeight( edge, 2d );
+		}
+		finally
+		{
+			model.endUpdate();
+		}
+		dispatcher.flush();
+
+		assertEquals( 1, recorder.events.size() );
+		assertNotSame( Thread.currentThread(), recorder.threads.get( 0 ) );
+
+		final ModelChangeEvent< Spot > event = recorder.events.get( 0 );
+		assertEquals( ModelChangeEvent.MODEL_MODIFIED, event.getEventID() );
+		assertEquals( N_SPOTS, event.getSpots().size() );
+		assertEquals( ModelChangeEvent.FLAG_SPOT_REMOVED, event.getSpotFlag( removed ).intValue() );
+		for ( int i = 1; i < N_SPOTS; i++ )
+		{
+			// Added then modified is still added.
+			assertEquals( ModelChangeEvent.FLAG_SPOT_ADDED, event.getSpotFlag( spots.get( i ) ).intValue() );
+		}
+		assertEquals( 1, event.getEdges().size() );
+		assertEquals( ModelChangeEvent.FLAG_EDGE_ADDED, event.getEdgeFlag( edge ).intValue() );
+		assertTrue( event.getTrackUpdated().contains( model.getTrackModel().trackIDOf( edge ) ) );
+
+		dispatcher.shutdown();
+	}
+
+	@Test
+	public void testListenerEdits() throws InterruptedException
+	{
+		final Model< Spot > model = new Model< Spot >();
+		final ModelChangeDispatcher< Spot > dispatcher = new ModelChangeDispatcher< Spot >( model, 0, TimeUnit.MILLISECONDS, 1 );
+		model.setEventDispatcher( dispatcher );
+		// Adds a spot in the next frame for each spot added in frame 0.
+		model.addModelChangeListener( new ModelChangeListener< Spot >()
+		{
+			@Override
+			public void modelChanged( final ModelChangeEvent< Spot > event )
+			{
+				for ( final Spot spot : event.getSpots() )
+				{
+					if ( spot.frame() != 0 || event.getSpotFlag( spot ).intValue() != ModelChangeEvent.FLAG_SPOT_ADDED )
+					{
+						continue;
+					}
+					model.beginUpdate();
+					try
+					{
+						model.addSpotTo( new Spot( spot.getDoublePosition( 0 ), 0d, 0d, 1d, -1d ), 1 );
+					}
+					finally
+					{
+						model.endUpdate();
+					}
+				}
+			}
+		} );
+
+		final Thread editor = new Thread( "Editor" )
+		{
+			@Override
+			public void run()
+			{
+				for ( int i = 0; i < 10 * N_SPOTS; i++ )
+				{
+					model.beginUpdate();
+					try
+					{
+						model.addSpotTo( new Spot( i, 0d, 0d, 1d, -1d ), 0 );
+					}
+					finally
+					{
+						model.endUpdate();
+					}
+				}
+			}
+		};
+		editor.setDaemon( true );
+		editor.start();
+		editor.join( 10000 );
+		assertFalse( "The editor deadlocked with the listener.", editor.isAlive() );
+		dispatcher.shutdown();
+		assertEquals( 10 * N_SPOTS, model.getSpots().getNObjects( 0, false ) );
+		assertEquals( 10 * N_SPOTS, model.getSpots().getNObjects( 1, false ) );
+	}
+
+	private static class EventRecorder implements ModelChangeListener< Spot >
+	{
+		private final List< ModelChangeEvent< Spot >> events = Collections.synchronizedList( new ArrayList< ModelChangeEvent< Spot >>() );
+
+		private final List< Thread > threads = Collections.synchronizedList( new ArrayList< Thread >() );
+
+		@Override
+		public void modelChanged( final ModelChangeEvent< Spot > event )
+		{
+			events.add( event );
+			threads.add( Thread.currentThread() );
+		}
+	}
+}
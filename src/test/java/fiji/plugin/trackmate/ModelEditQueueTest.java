@@ -0,0 +1,270 @@
+package fiji.plugin.trackmate;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.jgrapht.graph.DefaultWeightedEdge;
+import org.junit.Test;
+
+public class ModelEditQueueTest
+{
+
+	private static final int N_EDITORS = 4;
+
+	private static final int N_BATCHES = 200;
+
+	@Test
+	public void testConcurrentEditors() throws Exception
+	{
+		final Model< Spot > model = new Model< Spot >();
+		final AtomicInteger nEvents = new AtomicInteger( 0 );
+		model.addModelChangeListener( new ModelChangeListener< Spot >()
+		{
+			@Override
+			public void modelChanged( final ModelChangeEvent< Spot > event )
+			{
+				nEvents.incrementAndGet();
+			}
+		} );
+		final ModelEditQueue< Spot > queue = new ModelEditQueue< Spot >( model, 16, 8 );
+
+		/*
+		 * Each batch adds 2 linked spots. Readers must never see a spot
+		 * without its link.
+		 */
+		final AtomicInteger inconsistencies = new AtomicInteger( 0 );
+		final Thread[] editors = new Thread[ N_EDITORS ];
+		for ( int i = 0; i < editors.length; i++ )
+		{
+			editors[ i ] = new Thread( "Editor " + i )
+			{
+				@Override
+				public void run()
+				{
+					try
+					{
+						for ( int b = 0; b < N_BATCHES; b++ )
+						{
+							final Spot s1 = new Spot( b, 0d, 0d, 1d, -1d );
+							final Spot s2 = new Spot( b, 1d, 0d, 1d, -1d );
+							queue.submit( new ModelEdit< Spot >()
+									.addSpotTo( s1, 0 )
+									.addSpotTo( s2, 1 )
+									.addEdge( s1, s2, 1d ) );
+
+							final boolean consistent = queue.read( new Callable< Boolean >()
+							{
+								@Override
+								public Boolean call()
+								{
+									return model.getSpots().getNObjects( false ) == 2 * model.getTrackModel().edgeSet().size();
+								}
+							} ).booleanValue();
+							if ( !consistent )
+							{
+								inconsistencies.incrementAndGet();
+							}
+						}
+					}
+					catch ( final Exception e )
+					{
+						e.printStackTrace();
+						inconsistencies.incrementAndGet();
+					}
+				}
+			};
+			editors[ i ].start();
+		}
+		for ( final Thread editor : editors )
+		{
+			editor.join();
+		}
+		queue.shutdown();
+
+		assertEquals( 0, inconsistencies.get() );
+		assertEquals( 2 * N_EDITORS * N_BATCHES, model.getSpots().getNObjects( false ) );
+		assertEquals( N_EDITORS * N_BATCHES, model.getTrackModel().nTracks( false ) );
+		assertTrue( nEvents.get() > 0 );
+		assertTrue( nEvents.get() <= N_EDITORS * N_BATCHES );
+	}
+
+	@Test
+	public void testResultsAndErrors() throws Exception
+	{
+		final Model< Spot > model = new Model< Spot >();
+		final ModelEditQueue< Spot > queue = new ModelEditQueue< Spot >( model );
+
+		final Spot s1 = new Spot( 0d, 0d, 0d, 1d, -1d );
+		final Spot s2 = new Spot( 1d, 0d, 0d, 1d, -1d );
+		final ModelEdit< Spot > edit = new ModelEdit< Spot >()
+				.addSpotTo( s1, 0 )
+				.addSpotTo( s2, 1 )
+				.addEdge( s1, s2, 3d );
+		assertEquals( 3, edit.size() );
+		final ModelEdit< Spot > applied = queue.submit( edit ).get();
+		final DefaultWeightedEdge edge = ( DefaultWeightedEdge ) applied.getResult( 2 );
+		assertNotNull( edge );
+		assertEquals( 3d, model.getTrackModel().getEdgeWeight( edge ), 0d );
+
+		// A failure is reported through the future, and the queue keeps
+		// working.
+		final Future< ModelEdit< Spot >> failed = queue.submit( new ModelEdit< Spot >().moveSpotFrom( s1, null, 1 ) );
+		try
+		{
+			failed.get();
+			assertFalse( "An exception should have been thrown.", true );
+		}
+		catch ( final ExecutionException e )
+		{
+			// Expected.
+		}
+
+		final List< Future< ModelEdit< Spot >>> futures = new ArrayList< Future< ModelEdit< Spot >>>();
+		futures.add( queue.submit( new ModelEdit< Spot >().removeEdge( edge ) ) );
+		futures.add( queue.submit( new ModelEdit< Spot >().removeSpot( s2 ) ) );
+		for ( final Future< ModelEdit< Spot >> future : futures )
+		{
+			future.get();
+		}
+		queue.shutdown();
+		assertEquals( 1, model.getSpots().getNObjects( false ) );
+		assertEquals( 0, model.getTrackModel().nTracks( false ) );
+	}
+
+	@Test
+	public void testListenerEdits() throws Exception
+	{
+		final Model< Spot > model = new Model< Spot >();
+		final ModelEditQueue< Spot > queue = new ModelEditQueue< Spot >( model, 1, 1 );
+		final AtomicInteger nEvents = new AtomicInteger( 0 );
+		final List< Future< ModelEdit< Spot >>> chained = new ArrayList< Future< ModelEdit< Spot >>>();
+		model.addModelChangeListener( new ModelChangeListener< Spot >()
+		{
+			@Override
+			public void modelChanged( final ModelChangeEvent< Spot > event )
+			{
+				if ( nEvents.incrementAndGet() > 1 )
+				{
+					return;
+				}
+				// More batches than the queue can hold.
+				try
+				{
+					for ( int i = 0; i < 5; i++ )
+					{
+						chained.add( queue.submit( new ModelEdit< Spot >().addSpotTo( new Spot( i, 1d, 0d, 1d, -1d ), 1 ) ) );
+					}
+				}
+				catch ( final InterruptedException e )
+				{
+					throw new RuntimeException( e );
+				}
+			}
+		} );
+
+		final AtomicInteger nEventsSeen = new AtomicInteger( -1 );
+		final Thread editor = new Thread( "Editor" )
+		{
+			@Override
+			public void run()
+			{
+				try
+				{
+					queue.submit( new ModelEdit< Spot >().addSpotTo( new Spot( 0d, 0d, 0d, 1d, -1d ), 0 ) ).get();
+					nEventsSeen.set( nEvents.get() );
+					queue.shutdown();
+				}
+				catch ( final Exception e )
+				{
+					e.printStackTrace();
+				}
+			}
+		};
+		editor.setDaemon( true );
+		editor.start();
+		editor.join( 10000 );
+		assertFalse( "The writer deadlocked.", editor.isAlive() );
+		// The listeners were notified before the future completed.
+		assertTrue( nEventsSeen.get() >= 1 );
+		assertEquals( 5, chained.size() );
+		for ( final Future< ModelEdit< Spot >> future : chained )
+		{
+			assertTrue( future.isDone() );
+			future.get();
+		}
+		assertEquals( 6, model.getSpots().getNObjects( false ) );
+	}
+
+	@Test
+	public void testDispatcherListenerReads() throws Exception
+	{
+		final Model< Spot > model = new Model< Spot >();
+		final ModelChangeDispatcher< Spot > dispatcher = new ModelChangeDispatcher< Spot >( model, 0, TimeUnit.MILLISECONDS, 1 );
+		model.setEventDispatcher( dispatcher );
+		final ModelEditQueue< Spot > queue = new ModelEditQueue< Spot >( model, 4, 1 );
+		final AtomicInteger nReads = new AtomicInteger( 0 );
+		model.addModelChangeListener( new ModelChangeListener< Spot >()
+		{
+			@Override
+			public void modelChanged( final ModelChangeEvent< Spot > event )
+			{
+				try
+				{
+					// Slow listener: let events pile up in the dispatcher.
+					Thread.sleep( 20 );
+					queue.read( new Callable< Integer >()
+					{
+						@Override
+						public Integer call()
+						{
+							return Integer.valueOf( model.getSpots().getNObjects( false ) );
+						}
+					} );
+					nReads.incrementAndGet();
+				}
+				catch ( final Exception e )
+				{
+					throw new RuntimeException( e );
+				}
+			}
+		} );
+
+		final Thread editor = new Thread( "Editor" )
+		{
+			@Override
+			public void run()
+			{
+				try
+				{
+					for ( int i = 0; i < 20; i++ )
+					{
+						queue.submit( new ModelEdit< Spot >().addSpotTo( new Spot( i, 0d, 0d, 1d, -1d ), 0 ) );
+					}
+					queue.shutdown();
+					dispatcher.flush();
+				}
+				catch ( final Exception e )
+				{
+					e.printStackTrace();
+				}
+			}
+		};
+		editor.setDaemon( true );
+		editor.start();
+		editor.join( 10000 );
+		assertFalse( "The writer deadlocked with the dispatcher.", editor.isAlive() );
+		dispatcher.shutdown();
+		assertEquals( 20, model.getSpots().getNObjects( false ) );
+		assertTrue( nReads.get() > 0 );
+	}
+}
@@ -1,9 +1,12 @@
 package fiji.plugin.trackmate;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.Set;
@@ -605,4 +608,71 @@ public class ModelTest
 		}
 
 	}
+
+	/**
+	 * Edge feature values are returned in track order, with NaN for the edges
+	 * of the model without value, even when as many edges outside the model
+	 * have values.
+	 */
+	@Test
+	public void testEdgeFeatureValues()
+	{
+		final String feature = "F";
+		final Model< Spot > model = new Model< Spot >();
+		final FeatureModel< Spot > fm = model.getFeatureModel();
+		fm.declareEdgeFeatures( Collections.singleton( feature ), Collections.singletonMap( feature, "F" ), Collections.singletonMap( feature, "F" ), Collections.singletonMap( feature, Dimension.NONE ), Collections.singletonMap( feature, Boolean.FALSE ) );
+
+		model.beginUpdate();
+		try
+		{
+			for ( int i = 0; i < 2; i++ )
+			{
+				Spot previous = null;
+				for ( int j = 0; j < 4; j++ )
+				{
+					final Spot spot = new Spot( 0d, 0d, 0d, 1d, -1d );
+					model.addSpotTo( spot, j );
+					if ( null != previous )
+					{
+						model.addEdge( previous, spot, 1 );
+					}
+					previous = spot;
+				}
+			}
+		}
+		finally
+		{
+			model.endUpdate();
+		}
+
+		// Values for all the edges but one, and for an edge of another model.
+		DefaultWeightedEdge missing = null;
+		double val = 0;
+		for ( final Integer trackID : model.getTrackModel().trackIDs( false ) )
+		{
+			for ( final DefaultWeightedEdge edge : model.getTrackModel().trackEdges( trackID ) )
+			{
+				if ( null == missing )
+				{
+					missing = edge;
+					continue;
+				}
+				fm.putEdgeFeature( edge, feature, Double.valueOf( val++ ) );
+			}
+		}
+		fm.putEdgeFeature( new DefaultWeightedEdge(), feature, Double.valueOf( -1d ) );
+		assertNull( fm.getEdgeFeature( missing, feature ) );
+
+		final double[] expected = new double[ model.getTrackModel().edgeSet().size() ];
+		int index = 0;
+		for ( final Integer trackID : model.getTrackModel().trackIDs( false ) )
+		{
+			for ( final DefaultWeightedEdge edge : model.getTrackModel().trackEdges( trackID ) )
+			{
+				final Double value = fm.getEdgeFeature( edge, feature );
+				expected[ index++ ] = null == value ? Double.NaN : value.doubleValue();
+			}
+		}
+		assertArrayEquals( expected, fm.getEdgeFeatureValues( feature, false ), 0d );
+	}
 }
@@ -6,9 +6,11 @@ import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
@@ -198,6 +200,70 @@ public class SpotCollectionTest
 		assertEquals( 3 * 5, sc.getNObjects( true ) );
 	}
 
+	@Test
+	public void testFeatureTable()
+	{
+		final FeatureFilter filter1 = new FeatureFilter( TrackmateConstants.QUALITY, 20d, false );
+		final FeatureFilter filter2 = new FeatureFilter( TrackmateConstants.FRAME, 41d, true );
+		final List< FeatureFilter > filters = Arrays.asList( new FeatureFilter[] { filter1, filter2 } );
+
+		// Reference, without table.
+		sc.filter( filters );
+		final int nVisible = sc.getNObjects( true );
+		final double[] expected = sc.collectValues( TrackmateConstants.POSITION_X, true );
+		assertEquals( nVisible, expected.length );
+
+		final SpotFeatureTable table = sc.buildFeatureTable( Arrays.asList( new String[] { TrackmateConstants.QUALITY, TrackmateConstants.FRAME, TrackmateConstants.POSITION_X } ) );
+		assertEquals( N_SPOTS * N_FRAMES, table.getNRows() );
+		assertTrue( table == sc.getFeatureTable() );
+
+		sc.setVisible( false );
+		sc.filter( filters );
+		assertEquals( nVisible, sc.getNObjects( true ) );
+		assertArrayEquals( expected, sc.collectValues( TrackmateConstants.POSITION_X, true ), 0d );
+
+		// Single filter.
+		sc.filter( filter1 );
+		assertEquals( 21 * N_FRAMES, sc.getNObjects( true ) );
+
+		// Filtering does not make the table stale.
+		assertTrue( table == sc.getFeatureTable() );
+
+		// Neither do creating or changing spots that are not in the table.
+		final Spot outsider = new Spot( 0d, 0d, 0d, 1d, -1d );
+		outsider.putFeature( TrackmateConstants.QUALITY, Double.valueOf( 1000d ) );
+		outsider.setFrame( 3 );
+		assertFalse( table.isStale() );
+		assertTrue( table == sc.getFeatureTable() );
+
+		// Discarded when a feature changes.
+		final Spot spot = sc.iterator( false ).next();
+		spot.putFeature( TrackmateConstants.QUALITY, Double.valueOf( 1000d ) );
+		spot.putFeature( TrackmateConstants.POSITION_X, Double.valueOf( Double.NaN ) );
+		assertTrue( table.isStale() );
+		assertEquals( N_SPOTS * N_FRAMES - 1, sc.collectValues( TrackmateConstants.POSITION_X, false ).length );
+		assertNull( sc.getFeatureTable() );
+		sc.filter( filter1 );
+		assertFalse( spot.isVisible() );
+
+		// Discarded when the content changes.
+		sc.buildFeatureTable( Arrays.asList( new String[] { TrackmateConstants.QUALITY } ) );
+		assertNotNull( sc.getFeatureTable() );
+		sc.add( new Spot( 0d, 0d, 0d, 1d, -1d ), 0 );
+		assertNull( sc.getFeatureTable() );
+
+		// Visibility is not tracked.
+		try
+		{
+			sc.buildFeatureTable( Arrays.asList( new String[] { TrackmateConstants.VISIBILITY } ) );
+			fail( "The visibility was stored in a feature table." );
+		}
+		catch ( final IllegalArgumentException e )
+		{
+			// Expected.
+		}
+	}
+
 	@Test
 	public void testGetClosestSpot()
 	{
@@ -297,6 +363,82 @@ public class SpotCollectionTest
 		}
 	}
 
+	@Test
+	public void testGetNClosestSpotsWithTies()
+	{
+		final int frame = 1000;
+		final Spot a = new Spot( -1d, 0d, 0d, 1d, -1d );
+		final Spot b = new Spot( 1d, 0d, 0d, 1d, -1d );
+		final Spot c = new Spot( 0d, 2d, 0d, 1d, -1d );
+		sc.add( a, frame );
+		sc.add( b, frame );
+		sc.add( c, frame );
+		final Spot location = new Spot( 0d, 0d, 0d, 1d, -1d );
+
+		// a and b are at the same distance: none of them must be lost.
+		final List< Spot > closest = sc.getNClosestObjects( location, frame, 3, false );
+		assertEquals( 3, closest.size() );
+		assertEquals( new HashSet< Spot >( Arrays.asList( a, b ) ), new HashSet< Spot >( closest.subList( 0, 2 ) ) );
+		assertEquals( c, closest.get( 2 ) );
+		assertEquals( 3, sc.getNClosestObjects( location, frame, 10, false ).size() );
+		assertTrue( sc.getNClosestObjects( location, 1001, 10, false ).isEmpty() );
+	}
+
+	@Test
+	public void testSpatialIndexFollowsChanges()
+	{
+		final int frame = frames.get( 0 );
+		final Spot location = new Spot( -10d, -10d, -10d, 1d, -1d );
+		final Spot closest = sc.getClosestObject( location, frame, false );
+		assertEquals( 0d, closest.getDoublePosition( 0 ), 0d );
+
+		// Added spot.
+		final Spot added = new Spot( -9d, -9d, -9d, 2d, -1d );
+		sc.add( added, frame );
+		assertEquals( added, sc.getClosestObject( location, frame, false ) );
+		assertEquals( added, sc.getObjectAt( new Spot( -9.5d, -9d, -9d, 1d, -1d ), frame, false ) );
+
+		// Visibility changed by the collection.
+		sc.filter( new FeatureFilter( TrackmateConstants.QUALITY, 50d, true ) );
+		assertEquals( 50d, sc.getClosestObject( location, frame, true ).getFeature( TrackmateConstants.QUALITY ), 0d );
+
+		// Visibility changed directly on the spot.
+		final Spot hidden = sc.getClosestObject( location, frame, true );
+		hidden.setVisible( false );
+		assertEquals( 51d, sc.getClosestObject( location, frame, true ).getFeature( TrackmateConstants.QUALITY ), 0d );
+		added.setVisible( true );
+		assertEquals( added, sc.getClosestObject( location, frame, true ) );
+		assertEquals( added, sc.getObjectAt( new Spot( -9.5d, -9d, -9d, 1d, -1d ), frame, true ) );
+		assertEquals( added, sc.getNClosestObjects( location, frame, 1, true ).get( 0 ) );
+		added.putFeature( TrackmateConstants.VISIBILITY, TrackmateConstants.ZERO );
+		assertEquals( 51d, sc.getClosestObject( location, frame, true ).getFeature( TrackmateConstants.QUALITY ), 0d );
+		hidden.setVisible( true );
+		assertEquals( hidden, sc.getClosestObject( location, frame, true ) );
+
+		// Removed spot.
+		sc.remove( added, frame );
+		assertEquals( closest, sc.getClosestObject( location, frame, false ) );
+		assertNull( sc.getObjectAt( new Spot( -9.5d, -9d, -9d, 1d, -1d ), frame, false ) );
+
+		// Spots moved to a cropped collection count their changes there.
+		sc.setVisible( true );
+		final DefaultSpotCollection cropped = sc.crop();
+		assertNull( cropped.getClosestObject( location, frame, true ) );
+		closest.setVisible( true );
+		assertEquals( closest, cropped.getClosestObject( location, frame, true ) );
+	}
+
+	@Test
+	public void testObjectAtWithNaNRadius()
+	{
+		final int frame = frames.get( 0 );
+		final Spot spot = new Spot( -9d, -9d, -9d, 2d, -1d );
+		sc.add( spot, frame );
+		sc.add( new Spot( -50d, -50d, -50d, Double.NaN, -1d ), frame );
+		assertEquals( spot, sc.getObjectAt( new Spot( -9.5d, -9d, -9d, 1d, -1d ), frame, false ) );
+		assertEquals( spot, sc.getObjectAt( new Spot( -9.5d, -9d, -9d, 1d, -1d ), frame, true ) );
+	}
+
 	@Test
 	public void testGetNSpots()
 	{
@@ -457,6 +599,44 @@ public class SpotCollectionTest
 		}
 	}
 
+	@Test
+	public void testSearch()
+	{
+		final List< Spot > spots = new ArrayList< Spot >();
+		for ( final Spot spot : sc.iterable( false ) )
+		{
+			spots.add( spot );
+		}
+		for ( final Spot spot : spots )
+		{
+			assertEquals( spot, sc.search( spot.ID() ) );
+		}
+
+		// Index must follow modifications.
+		final Spot removed = spots.get( 0 );
+		sc.remove( removed, removed.frame() );
+		assertNull( sc.search( removed.ID() ) );
+		final Spot added = new Spot( 0d, 0d, 0d, 1d, -1d );
+		sc.add( added, 1000 );
+		assertEquals( added, sc.search( added.ID() ) );
+		final Spot replaced = sc.iterator( frames.get( 1 ), false ).next();
+		final Spot putSpot = new Spot( 0d, 0d, 0d, 1d, -1d );
+		sc.put( frames.get( 1 ), Arrays.asList( putSpot ) );
+		assertNull( sc.search( replaced.ID() ) );
+		assertEquals( putSpot, sc.search( putSpot.ID() ) );
+
+		// Added through a view.
+		final Spot viaView = new Spot( 0d, 0d, 0d, 1d, -1d );
+		( ( Collection< Spot > ) sc.iterable( frames.get( 2 ), false ) ).add( viaView );
+		assertEquals( viaView, sc.search( viaView.ID() ) );
+
+		final int[] IDs = new int[] { added.ID(), removed.ID(), putSpot.ID() };
+		assertEquals( Arrays.asList( added, null, putSpot ), sc.searchAll( IDs ) );
+
+		sc.clear();
+		assertNull( sc.search( added.ID() ) );
+	}
+
 	@Test
 	public void testFirstKey()
 	{
@@ -0,0 +1,82 @@
+package fiji.plugin.trackmate;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class SpotTest
+{
+
+	@Test
+	public void testPrimitiveFieldsFollowFeatures()
+	{
+		final Spot spot = new Spot( 1d, 2d, 3d, 4d, 5d );
+		assertEquals( 1d, spot.getDoublePosition( 0 ), Double.MIN_VALUE );
+		assertEquals( 2d, spot.getDoublePosition( 1 ), Double.MIN_VALUE );
+		assertEquals( 3d, spot.getDoublePosition( 2 ), Double.MIN_VALUE );
+		assertEquals( 4d, spot.radius(), Double.MIN_VALUE );
+		assertEquals( 5d, spot.quality(), Double.MIN_VALUE );
+
+		spot.putFeature( TrackmateConstants.POSITION_X, 10d );
+		spot.putFeature( TrackmateConstants.POSITION_Y, 20d );
+		spot.putFeature( TrackmateConstants.POSITION_Z, 30d );
+		spot.putFeature( TrackmateConstants.RADIUS, 40d );
+		spot.putFeature( TrackmateConstants.QUALITY, 50d );
+		spot.putFeature( TrackmateConstants.FRAME, 7d );
+		spot.putFeature( TrackmateConstants.VISIBILITY, TrackmateConstants.ONE );
+
+		assertEquals( 10d, spot.getDoublePosition( 0 ), Double.MIN_VALUE );
+		assertEquals( 20d, spot.getDoublePosition( 1 ), Double.MIN_VALUE );
+		assertEquals( 30d, spot.getDoublePosition( 2 ), Double.MIN_VALUE );
+		assertEquals( 40d, spot.radius(), Double.MIN_VALUE );
+		assertEquals( 50d, spot.quality(), Double.MIN_VALUE );
+		assertEquals( 7, spot.frame() );
+		assertTrue( spot.isVisible() );
+
+		spot.putFeature( TrackmateConstants.VISIBILITY, TrackmateConstants.ZERO );
+		assertFalse( spot.isVisible() );
+	}
+
+	@Test
+	public void testFeaturesFollowSetters()
+	{
+		final Spot spot = new Spot( 1d, 2d, 3d, 4d, 5d );
+
+		spot.setFrame( 12 );
+		assertEquals( 12, spot.frame() );
+		assertEquals( 12d, spot.getFeature( TrackmateConstants.FRAME ), Double.MIN_VALUE );
+
+		spot.setVisible( true );
+		assertTrue( spot.isVisible() );
+		assertEquals( TrackmateConstants.ONE, spot.getFeature( TrackmateConstants.VISIBILITY ) );
+
+		spot.setVisible( false );
+		assertFalse( spot.isVisible() );
+		assertEquals( TrackmateConstants.ZERO, spot.getFeature( TrackmateConstants.VISIBILITY ) );
+	}
+
+	@Test
+	public void testCopy()
+	{
+		final Spot spot = new Spot( 1d, 2d, 3d, 4d, 5d, "Source" );
+		final Spot copy = new Spot( spot );
+		for ( int d = 0; d < 3; d++ )
+		{
+			assertEquals( spot.getDoublePosition( d ), copy.getDoublePosition( d ), Double.MIN_VALUE );
+		}
+		assertEquals( spot.radius(), copy.radius(), Double.MIN_VALUE );
+		assertEquals( spot.quality(), copy.quality(), Double.MIN_VALUE );
+		assertEquals( spot.getName(), copy.getName() );
+	}
+
+	@Test
+	public void testIDConstructor()
+	{
+		final int ID = 123456;
+		final Spot spot = new Spot( ID );
+		assertEquals( ID, spot.ID() );
+	}
+
+}
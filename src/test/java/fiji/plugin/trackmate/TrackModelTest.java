@@ -1,17 +1,24 @@
 package fiji.plugin.trackmate;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Random;
 import java.util.Set;
 
 import org.jgrapht.graph.DefaultWeightedEdge;
+import org.jgrapht.graph.SimpleWeightedGraph;
 import org.junit.Test;
 
+import fiji.plugin.trackmate.util.AlphanumComparator;
+
 public class TrackModelTest
 {
 
@@ -253,4 +260,341 @@ public class TrackModelTest
 		assertTrue( model.isVisible( id ) );
 	}
 
+	@Test
+	public void testLargestPartKeepsID()
+	{
+		final TrackModel< Spot > model = new TrackModel< Spot >();
+		final List< Spot > spots = new ArrayList< Spot >();
+		final List< DefaultWeightedEdge > edges = new ArrayList< DefaultWeightedEdge >();
+		for ( int j = 0; j < 4 * DEPTH; j++ )
+		{
+			final Spot spot = new Spot( 0d, 0d, 0d, 1d, -1d );
+			model.addSpot( spot );
+			if ( !spots.isEmpty() )
+			{
+				edges.add( model.addEdge( spots.get( spots.size() - 1 ), spot, 1 ) );
+			}
+			spots.add( spot );
+		}
+		final Integer id = model.trackIDOf( spots.get( 0 ) );
+		final String name = model.name( id );
+
+		// Cut close to the end: the head keeps the ID and the name.
+		model.removeEdge( edges.get( edges.size() - 3 ) );
+		assertEquals( 2, model.nTracks( false ) );
+		assertEquals( id, model.trackIDOf( spots.get( 0 ) ) );
+		assertEquals( name, model.name( id ) );
+		assertEquals( 4 * DEPTH - 3, model.trackSpots( id ).size() );
+		final Integer tailID = model.trackIDOf( spots.get( spots.size() - 1 ) );
+		assertFalse( id.equals( tailID ) );
+		assertEquals( 3, model.trackSpots( tailID ).size() );
+
+		// Cut close to the start: the tail keeps the ID.
+		model.removeEdge( edges.get( 1 ) );
+		assertEquals( 3, model.nTracks( false ) );
+		assertEquals( id, model.trackIDOf( spots.get( 2 ) ) );
+		assertFalse( id.equals( model.trackIDOf( spots.get( 0 ) ) ) );
+
+		// Cut the last edge of a 2-spots track: the solitary spots are
+		// no longer in a track.
+		model.removeEdge( edges.get( 0 ) );
+		assertEquals( 2, model.nTracks( false ) );
+		assertNull( model.trackIDOf( spots.get( 0 ) ) );
+		assertNull( model.trackIDOf( spots.get( 1 ) ) );
+	}
+
+	@Test
+	public void testLargestTrackKeepsIDOnMerge()
+	{
+		final TrackModel< Spot > model = new TrackModel< Spot >();
+		final List< Spot > spots = new ArrayList< Spot >();
+		for ( int j = 0; j < 2 + DEPTH; j++ )
+		{
+			final Spot spot = new Spot( 0d, 0d, 0d, 1d, -1d );
+			model.addSpot( spot );
+			// A 2-spots track, then a DEPTH-spots track.
+			if ( j != 0 && j != 2 )
+			{
+				model.addEdge( spots.get( j - 1 ), spot, 1 );
+			}
+			spots.add( spot );
+		}
+		final Integer smallID = model.trackIDOf( spots.get( 0 ) );
+		final Integer largeID = model.trackIDOf( spots.get( 2 ) );
+		final String largeName = model.name( largeID );
+		assertEquals( 2, model.nTracks( false ) );
+
+		// The small track is the source of the link, the large one keeps its
+		// ID and its name.
+		model.addEdge( spots.get( 1 ), spots.get( spots.size() - 1 ), 1 );
+		assertEquals( 1, model.nTracks( false ) );
+		for ( final Spot spot : spots )
+		{
+			assertEquals( largeID, model.trackIDOf( spot ) );
+		}
+		assertEquals( largeName, model.name( largeID ) );
+		assertFalse( model.trackIDs( false ).contains( smallID ) );
+		assertEquals( 2 + DEPTH, model.trackSpots( largeID ).size() );
+		assertEquals( 2 + DEPTH - 1, model.trackEdges( largeID ).size() );
+		assertTracksAreComponents( model, spots );
+	}
+
+	/**
+	 * Adds edges at random between solitary spots and tracks, then removes
+	 * them, and checks after each change that the tracks are the connected
+	 * components of the graph.
+	 */
+	@Test
+	public void testRandomEdgeAdditions()
+	{
+		final Random ran = new Random( 6l );
+		final TrackModel< Spot > model = new TrackModel< Spot >();
+		final List< Spot > spots = new ArrayList< Spot >();
+		for ( int i = 0; i < 150; i++ )
+		{
+			final Spot spot = new Spot( 0d, 0d, 0d, 1d, -1d );
+			model.addSpot( spot );
+			spots.add( spot );
+		}
+		final List< DefaultWeightedEdge > edges = new ArrayList< DefaultWeightedEdge >();
+		for ( int i = 0; i < 200; i++ )
+		{
+			final Spot source = spots.get( ran.nextInt( spots.size() ) );
+			final Spot target = spots.get( ran.nextInt( spots.size() ) );
+			if ( source != target && !model.containsEdge( source, target ) )
+			{
+				edges.add( model.addEdge( source, target, 1 ) );
+				assertTracksAreComponents( model, spots );
+			}
+		}
+		while ( !edges.isEmpty() )
+		{
+			model.removeEdge( edges.remove( ran.nextInt( edges.size() ) ) );
+			if ( ran.nextDouble() < 0.3 )
+			{
+				final Spot source = spots.get( ran.nextInt( spots.size() ) );
+				final Spot target = spots.get( ran.nextInt( spots.size() ) );
+				if ( source != target && !model.containsEdge( source, target ) )
+				{
+					edges.add( model.addEdge( source, target, 1 ) );
+				}
+			}
+			assertTracksAreComponents( model, spots );
+		}
+		assertEquals( 0, model.nTracks( false ) );
+	}
+
+	/**
+	 * Removes edges at random from a graph made of trees with some cycles, and
+	 * checks after each removal that the tracks are the connected components
+	 * of the graph.
+	 */
+	@Test
+	public void testRandomEdgeRemovals()
+	{
+		final Random ran = new Random( 5l );
+		final TrackModel< Spot > model = new TrackModel< Spot >();
+		final List< Spot > spots = new ArrayList< Spot >();
+		final List< DefaultWeightedEdge > edges = new ArrayList< DefaultWeightedEdge >();
+		for ( int i = 0; i < 200; i++ )
+		{
+			final Spot spot = new Spot( 0d, 0d, 0d, 1d, -1d );
+			model.addSpot( spot );
+			if ( !spots.isEmpty() && ran.nextDouble() < 0.95 )
+			{
+				edges.add( model.addEdge( spots.get( ran.nextInt( spots.size() ) ), spot, 1 ) );
+			}
+			spots.add( spot );
+		}
+		for ( int i = 0; i < 40; i++ )
+		{
+			final Spot source = spots.get( ran.nextInt( spots.size() ) );
+			final Spot target = spots.get( ran.nextInt( spots.size() ) );
+			if ( source != target && !model.containsEdge( source, target ) )
+			{
+				edges.add( model.addEdge( source, target, 1 ) );
+			}
+		}
+		assertTracksAreComponents( model, spots );
+
+		while ( !edges.isEmpty() )
+		{
+			model.removeEdge( edges.remove( ran.nextInt( edges.size() ) ) );
+			assertTracksAreComponents( model, spots );
+		}
+		assertEquals( 0, model.nTracks( false ) );
+	}
+
+	@Test
+	public void testSetGraph()
+	{
+		final Random ran = new Random( 7l );
+		final SimpleWeightedGraph< Spot, DefaultWeightedEdge > graph = new SimpleWeightedGraph< Spot, DefaultWeightedEdge >( DefaultWeightedEdge.class );
+		final List< Spot > spots = new ArrayList< Spot >();
+		for ( int i = 0; i < 30000; i++ )
+		{
+			final Spot spot = new Spot( 0d, 0d, 0d, 1d, -1d );
+			graph.addVertex( spot );
+			spots.add( spot );
+		}
+		for ( int i = 0; i < 25000; i++ )
+		{
+			final Spot source = spots.get( ran.nextInt( spots.size() ) );
+			final Spot target = spots.get( ran.nextInt( spots.size() ) );
+			if ( source != target && !graph.containsEdge( source, target ) )
+			{
+				graph.addEdge( source, target );
+			}
+		}
+
+		final TrackModel< Spot > model = new TrackModel< Spot >();
+		model.setGraph( graph );
+		assertTrue( model.edgesAdded.isEmpty() );
+		assertTrue( model.tracksUpdated.isEmpty() );
+		assertTracksAreComponents( model, spots );
+
+		final Set< String > names = new HashSet< String >();
+		for ( final Integer id : model.trackIDs( false ) )
+		{
+			assertTrue( model.isVisible( id ) );
+			assertTrue( names.add( model.name( id ) ) );
+		}
+
+		// The model must keep track of later changes.
+		final Spot spot = new Spot( 0d, 0d, 0d, 1d, -1d );
+		model.addSpot( spot );
+		model.addEdge( spots.get( 0 ), spot, 1 );
+		spots.add( spot );
+		assertTracksAreComponents( model, spots );
+	}
+
+	@Test
+	public void testSortedTrackIDs()
+	{
+		final Random ran = new Random( 9l );
+		final TrackModel< Spot > model = new TrackModel< Spot >();
+		final List< Spot > spots = new ArrayList< Spot >();
+		final List< DefaultWeightedEdge > edges = new ArrayList< DefaultWeightedEdge >();
+		for ( int i = 0; i < 20 * N_TRACKS; i++ )
+		{
+			Spot previous = null;
+			for ( int j = 0; j < DEPTH; j++ )
+			{
+				final Spot spot = new Spot( 0d, 0d, 0d, 1d, -1d );
+				model.addSpot( spot );
+				if ( null != previous )
+				{
+					edges.add( model.addEdge( previous, spot, 1 ) );
+				}
+				spots.add( spot );
+				previous = spot;
+			}
+		}
+		assertSortedTrackIDs( model );
+
+		for ( int i = 0; i < 200; i++ )
+		{
+			final List< Integer > ids = new ArrayList< Integer >( model.unsortedTrackIDs( false ) );
+			final Integer id = ids.get( ran.nextInt( ids.size() ) );
+			switch ( ran.nextInt( 4 ) )
+			{
+			case 0:
+				model.setName( id, "Track_" + ran.nextInt( 50 ) );
+				break;
+			case 1:
+				model.setVisibility( id, !model.isVisible( id ) );
+				break;
+			case 2:
+			{
+				// Merge
+				final Spot source = spots.get( ran.nextInt( spots.size() ) );
+				final Spot target = spots.get( ran.nextInt( spots.size() ) );
+				if ( source != target && !model.containsEdge( source, target ) )
+				{
+					edges.add( model.addEdge( source, target, 1 ) );
+				}
+				break;
+			}
+			default:
+				// Split
+				model.removeEdge( edges.remove( ran.nextInt( edges.size() ) ) );
+				break;
+			}
+			assertSortedTrackIDs( model );
+		}
+	}
+
+	private static void assertSortedTrackIDs( final TrackModel< Spot > model )
+	{
+		final List< Integer > expected = new ArrayList< Integer >( model.unsortedTrackIDs( false ) );
+		Collections.sort( expected, new Comparator< Integer >()
+		{
+			@Override
+			public int compare( final Integer o1, final Integer o2 )
+			{
+				final int c = AlphanumComparator.instance.compare( model.name( o1 ), model.name( o2 ) );
+				return c != 0 ? c : o1.compareTo( o2 );
+			}
+		} );
+		assertEquals( expected, new ArrayList< Integer >( model.trackIDs( false ) ) );
+
+		final List< Integer > expectedVisible = new ArrayList< Integer >();
+		for ( final Integer id : expected )
+		{
+			if ( model.isVisible( id ) )
+			{
+				expectedVisible.add( id );
+			}
+		}
+		assertEquals( expectedVisible, new ArrayList< Integer >( model.trackIDs( true ) ) );
+	}
+
+	private static void assertTracksAreComponents( final TrackModel< Spot > model, final List< Spot > spots )
+	{
+		final Set< Spot > visited = new HashSet< Spot >();
+		int nComponents = 0;
+		for ( final Spot start : spots )
+		{
+			if ( !visited.add( start ) )
+			{
+				continue;
+			}
+			// Collect the connected component of the spot.
+			final Set< Spot > component = new HashSet< Spot >();
+			final Set< DefaultWeightedEdge > componentEdges = new HashSet< DefaultWeightedEdge >();
+			final List< Spot > queue = new ArrayList< Spot >();
+			queue.add( start );
+			component.add( start );
+			while ( !queue.isEmpty() )
+			{
+				final Spot spot = queue.remove( queue.size() - 1 );
+				for ( final DefaultWeightedEdge edge : model.edgesOf( spot ) )
+				{
+					componentEdges.add( edge );
+					final Spot other = model.getEdgeSource( edge ) == spot ? model.getEdgeTarget( edge ) : model.getEdgeSource( edge );
+					if ( component.add( other ) )
+					{
+						visited.add( other );
+						queue.add( other );
+					}
+				}
+			}
+
+			final Integer id = model.trackIDOf( start );
+			if ( componentEdges.isEmpty() )
+			{
+				assertNull( id );
+				continue;
+			}
+			nComponents++;
+			assertEquals( component, model.trackSpots( id ) );
+			assertEquals( componentEdges, model.trackEdges( id ) );
+			for ( final DefaultWeightedEdge edge : componentEdges )
+			{
+				assertEquals( id, model.trackIDOf( edge ) );
+			}
+		}
+		assertEquals( nComponents, model.nTracks( false ) );
+	}
+
 }
@@ -0,0 +1,215 @@
+package fiji.plugin.trackmate.features;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.jgrapht.graph.DefaultWeightedEdge;
+import org.junit.Before;
+import org.junit.Test;
+
+import fiji.plugin.trackmate.Model;
+import fiji.plugin.trackmate.Spot;
+import fiji.plugin.trackmate.TrackmateConstants;
+import fiji.plugin.trackmate.features.edges.EdgeAnalyzer;
+import fiji.plugin.trackmate.features.edges.EdgeTargetAnalyzer;
+import fiji.plugin.trackmate.features.track.TrackAnalyzer;
+import fiji.plugin.trackmate.features.track.TrackDurationAnalyzer;
+import fiji.plugin.trackmate.features.track.TrackIndexAnalyzer;
+
+public class FeatureUpdaterTest
+{
+
+	private static final int N_TRACKS = 1000;
+
+	private static final int DEPTH = 5;
+
+	private Model< Spot > model;
+
+	private List< Spot > lastSpots;
+
+	private CountingEdgeAnalyzer edgeAnalyzer;
+
+	private CountingDurationAnalyzer durationAnalyzer;
+
+	private CountingIndexAnalyzer indexAnalyzer;
+
+	@Before
+	public void setUp()
+	{
+		model = new Model< Spot >();
+		lastSpots = new ArrayList< Spot >( N_TRACKS );
+		model.beginUpdate();
+		try
+		{
+			for ( int i = 0; i < N_TRACKS; i++ )
+			{
+				Spot previous = null;
+				for ( int j = 0; j < DEPTH; j++ )
+				{
+					final Spot spot = new Spot( i, j, 0d, 1d, -1d );
+					spot.putFeature( TrackmateConstants.POSITION_T, Double.valueOf( j ) );
+					model.addSpotTo( spot, j );
+					if ( null != previous )
+					{
+						model.addEdge( previous, spot, 1 );
+					}
+					previous = spot;
+				}
+				lastSpots.add( previous );
+			}
+		}
+		finally
+		{
+			model.endUpdate();
+		}
+
+		edgeAnalyzer = new CountingEdgeAnalyzer();
+		durationAnalyzer = new CountingDurationAnalyzer();
+		indexAnalyzer = new CountingIndexAnalyzer();
+	}
+
+	@Test
+	public void testOnlyTouchedTrackIsRecomputed()
+	{
+		final FeatureUpdater< Spot > updater = createUpdater( 0 );
+		updater.computeAll();
+		assertEquals( N_TRACKS * ( DEPTH - 1 ), edgeAnalyzer.processed.size() );
+		assertEquals( N_TRACKS, durationAnalyzer.processed.size() );
+		edgeAnalyzer.processed.clear();
+		durationAnalyzer.processed.clear();
+
+		// Extend one track.
+		final Spot target = lastSpots.get( 0 );
+		final Integer trackID = model.getTrackModel().trackIDOf( target );
+		final Spot spot = new Spot( 0d, DEPTH, 0d, 1d, -1d );
+		spot.putFeature( TrackmateConstants.POSITION_T, Double.valueOf( DEPTH ) );
+		model.addModelChangeListener( updater );
+		DefaultWeightedEdge edge;
+		model.beginUpdate();
+		try
+		{
+			model.addSpotTo( spot, DEPTH );
+			edge = model.addEdge( target, spot, 1 );
+		}
+		finally
+		{
+			model.endUpdate();
+		}
+
+		assertEquals( Collections.singletonList( edge ), edgeAnalyzer.processed );
+		assertEquals( Collections.singletonList( trackID ), durationAnalyzer.processed );
+		assertEquals( DEPTH, model.getFeatureModel().getTrackFeature( trackID, TrackDurationAnalyzer.TRACK_DURATION ).doubleValue(), 0d );
+		assertEquals( 1, model.getFeatureModel().getEdgeFeature( edge, EdgeTargetAnalyzer.EDGE_COST ).doubleValue(), 0d );
+		// Not delayed.
+		assertEquals( 2, indexAnalyzer.nCalls );
+	}
+
+	@Test
+	public void testModifiedSpot()
+	{
+		final FeatureUpdater< Spot > updater = createUpdater( 0 );
+		model.addModelChangeListener( updater );
+
+		final Spot spot = lastSpots.get( 1 );
+		final Integer trackID = model.getTrackModel().trackIDOf( spot );
+		model.beginUpdate();
+		try
+		{
+			model.updateFeatures( spot );
+		}
+		finally
+		{
+			model.endUpdate();
+		}
+
+		assertEquals( new HashSet< DefaultWeightedEdge >( model.getTrackModel().edgesOf( spot ) ), new HashSet< DefaultWeightedEdge >( edgeAnalyzer.processed ) );
+		assertEquals( Collections.singletonList( trackID ), durationAnalyzer.processed );
+	}
+
+	@Test
+	public void testNonLocalAnalyzersAreDebounced()
+	{
+		// Long enough to never expire during the test.
+		final FeatureUpdater< Spot > updater = createUpdater( 1000 );
+		model.addModelChangeListener( updater );
+
+		for ( int i = 0; i < 10; i++ )
+		{
+			model.beginUpdate();
+			try
+			{
+				model.setEdgeWeight( model.getTrackModel().edgesOf( lastSpots.get( i ) ).iterator().next(), 2 );
+			}
+			finally
+			{
+				model.endUpdate();
+			}
+		}
+		assertEquals( 10, durationAnalyzer.processed.size() );
+		assertEquals( 0, indexAnalyzer.nCalls );
+
+		updater.flush();
+		assertEquals( 1, indexAnalyzer.nCalls );
+		for ( final Integer trackID : model.getTrackModel().trackIDs( true ) )
+		{
+			assertTrue( null != model.getFeatureModel().getTrackFeature( trackID, TrackIndexAnalyzer.TRACK_INDEX ) );
+		}
+
+		updater.flush();
+		assertEquals( 1, indexAnalyzer.nCalls );
+		updater.shutdown();
+	}
+
+	private FeatureUpdater< Spot > createUpdater( final long delay )
+	{
+		final List< EdgeAnalyzer< Spot >> edgeAnalyzers = new ArrayList< EdgeAnalyzer< Spot >>();
+		edgeAnalyzers.add( edgeAnalyzer );
+		final List< TrackAnalyzer< Spot >> trackAnalyzers = new ArrayList< TrackAnalyzer< Spot >>();
+		trackAnalyzers.addAll( Arrays.asList( durationAnalyzer, indexAnalyzer ) );
+		return new FeatureUpdater< Spot >( model, edgeAnalyzers, trackAnalyzers, delay, TimeUnit.SECONDS );
+	}
+
+	private static class CountingEdgeAnalyzer extends EdgeTargetAnalyzer< Spot >
+	{
+		private final List< DefaultWeightedEdge > processed = new ArrayList< DefaultWeightedEdge >();
+
+		@Override
+		public void process( final Collection< DefaultWeightedEdge > edges, final Model< Spot > model )
+		{
+			processed.addAll( edges );
+			super.process( edges, model );
+		}
+	}
+
+	private static class CountingDurationAnalyzer extends TrackDurationAnalyzer< Spot >
+	{
+		private final List< Integer > processed = new ArrayList< Integer >();
+
+		@Override
+		public void process( final Collection< Integer > trackIDs, final Model< Spot > model )
+		{
+			processed.addAll( trackIDs );
+			super.process( trackIDs, model );
+		}
+	}
+
+	private static class CountingIndexAnalyzer extends TrackIndexAnalyzer< Spot >
+	{
+		private int nCalls = 0;
+
+		@Override
+		public void process( final Collection< Integer > trackIDs, final Model< Spot > model )
+		{
+			nCalls++;
+			super.process( trackIDs, model );
+		}
+	}
+}
@@ -0,0 +1,78 @@
+package fiji.plugin.trackmate.tracking;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class IntObjectMapTest
+{
+
+	@Test
+	public void testPutGetRemove()
+	{
+		final IntObjectMap< String > map = new IntObjectMap< String >();
+		for ( int i = 0; i < 1000; i++ )
+		{
+			assertNull( map.put( i, "v" + i ) );
+		}
+		assertEquals( 1000, map.size() );
+		assertEquals( "v7", map.get( 7 ) );
+		assertEquals( "v7", map.put( 7, "w7" ) );
+		assertEquals( "w7", map.get( 7 ) );
+		assertNull( map.get( 1000 ) );
+		assertNull( map.get( -1 ) );
+
+		for ( int i = 0; i < 1000; i += 2 )
+		{
+			map.remove( i );
+		}
+		assertEquals( 500, map.size() );
+		for ( int i = 0; i < 1000; i++ )
+		{
+			if ( i % 2 == 0 )
+			{
+				assertNull( map.get( i ) );
+			}
+			else
+			{
+				assertEquals( i == 7 ? "w7" : "v" + i, map.get( i ) );
+			}
+		}
+
+		map.clear();
+		assertEquals( 0, map.size() );
+		assertNull( map.get( 1 ) );
+	}
+
+	@Test
+	public void testRandomOperations()
+	{
+		final Random ran = new Random( 1l );
+		final IntObjectMap< Integer > map = new IntObjectMap< Integer >();
+		final Map< Integer, Integer > reference = new HashMap< Integer, Integer >();
+		for ( int n = 0; n < 100000; n++ )
+		{
+			// Small key range to force collisions and removals in clusters.
+			final int key = ran.nextInt( 2000 ) - 1000;
+			if ( ran.nextInt( 3 ) == 0 )
+			{
+				assertEquals( reference.remove( key ), map.remove( key ) );
+			}
+			else
+			{
+				final Integer value = Integer.valueOf( n );
+				assertEquals( reference.put( key, value ), map.put( key, value ) );
+			}
+		}
+		assertEquals( reference.size(), map.size() );
+		for ( int key = -1000; key < 1000; key++ )
+		{
+			assertEquals( reference.get( key ), map.get( key ) );
+		}
+	}
+}
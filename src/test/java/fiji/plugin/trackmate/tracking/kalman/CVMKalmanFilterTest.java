@@ -0,0 +1,148 @@
+package fiji.plugin.trackmate.tracking.kalman;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+import Jama.Matrix;
+
+public class CVMKalmanFilterTest
+{
+
+	private static final int N_STEPS = 200;
+
+	private static final double TOLERANCE = 1e-9;
+
+	@Test
+	public void testMatchesMatrixImplementation()
+	{
+		final Random ran = new Random( 1l );
+		for ( int n = 0; n < 20; n++ )
+		{
+			final double[] X0 = new double[ 6 ];
+			for ( int i = 0; i < 6; i++ )
+			{
+				X0[ i ] = 10 * ran.nextGaussian();
+			}
+			final double initStateCovariance = n % 2 == 0 ? Double.MIN_NORMAL : 100 * ran.nextDouble();
+			final double positionProcessStd = ran.nextDouble();
+			final double velocityProcessStd = ran.nextDouble();
+			final double positionMeasurementStd = 0.1 + ran.nextDouble();
+
+			final CVMKalmanFilter kf = new CVMKalmanFilter( X0, initStateCovariance, positionProcessStd, velocityProcessStd, positionMeasurementStd );
+			final MatrixKalmanFilter reference = new MatrixKalmanFilter( X0, initStateCovariance, positionProcessStd, velocityProcessStd, positionMeasurementStd );
+
+			final double[] position = new double[] { X0[ 0 ], X0[ 1 ], X0[ 2 ] };
+			final double[] prediction = new double[ 6 ];
+			for ( int step = 0; step < N_STEPS; step++ )
+			{
+				kf.predict( prediction );
+				assertArrayEquals( reference.predict(), prediction );
+
+				for ( int d = 0; d < 3; d++ )
+				{
+					position[ d ] += X0[ 3 + d ] + ran.nextGaussian();
+				}
+				// Some occlusions.
+				final double[] measurement = ran.nextInt( 5 ) == 0 ? null : position.clone();
+				kf.update( measurement );
+				reference.update( measurement );
+
+				final double[] state = new double[ 6 ];
+				kf.getState( state );
+				assertArrayEquals( reference.X.getColumnPackedCopy(), state );
+				final double[] covariance = new double[ 36 ];
+				kf.getCovariance( covariance );
+				assertArrayEquals( reference.P.getRowPackedCopy(), covariance );
+				assertEquals( reference.getPositionError(), kf.getPositionError(), TOLERANCE * reference.getPositionError() );
+			}
+			assertEquals( reference.nOcclusion, kf.getNOcclusion() );
+		}
+	}
+
+	private static void assertArrayEquals( final double[] expected, final double[] actual )
+	{
+		assertEquals( expected.length, actual.length );
+		double scale = 1d;
+		for ( final double val : expected )
+		{
+			scale = Math.max( scale, Math.abs( val ) );
+		}
+		for ( int i = 0; i < expected.length; i++ )
+		{
+			assertEquals( expected[ i ], actual[ i ], TOLERANCE * scale );
+		}
+	}
+
+	/**
+	 * The general matrix implementation of the filter, as reference.
+	 */
+	private static class MatrixKalmanFilter
+	{
+		private final Matrix A;
+
+		private Matrix P;
+
+		private final Matrix Q;
+
+		private final Matrix R;
+
+		private Matrix X;
+
+		private final Matrix H;
+
+		private Matrix Xp;
+
+		private int nOcclusion;
+
+		public MatrixKalmanFilter( final double[] X0, final double initStateCovariance, final double positionProcessStd, final double velocityProcessStd, final double positionMeasurementStd )
+		{
+			X = new Matrix( X0, 6 );
+			A = Matrix.identity( 6, 6 );
+			for ( int i = 0; i < 3; i++ )
+			{
+				A.set( i, 3 + i, 1 );
+			}
+			H = Matrix.identity( 3, 6 );
+			P = Matrix.identity( 6, 6 ).times( initStateCovariance );
+			Q = Matrix.identity( 6, 6 );
+			for ( int i = 0; i < 3; i++ )
+			{
+				Q.set( i, i, positionProcessStd * positionProcessStd );
+				Q.set( 3 + i, 3 + i, velocityProcessStd * velocityProcessStd );
+			}
+			R = Matrix.identity( 3, 3 ).times( positionMeasurementStd * positionMeasurementStd );
+		}
+
+		public double[] predict()
+		{
+			Xp = A.times( X );
+			P = A.times( P.times( A.transpose() ) ).plus( Q );
+			return Xp.getColumnPackedCopy();
+		}
+
+		public void update( final double[] Xm )
+		{
+			if ( null == Xm )
+			{
+				nOcclusion++;
+				X = Xp;
+			}
+			else
+			{
+				final Matrix XM = new Matrix( Xm, 3 );
+				final Matrix TEMP = H.times( P.times( H.transpose() ) ).plus( R );
+				final Matrix K = P.times( H.transpose() ).times( TEMP.inverse() );
+				X = Xp.plus( K.times( XM.minus( H.times( Xp ) ) ) );
+				P = ( Matrix.identity( 6, 6 ).minus( K.times( H ) ) ).times( P );
+			}
+		}
+
+		public double getPositionError()
+		{
+			return Math.sqrt( ( P.get( 0, 0 ) + P.get( 1, 1 ) + P.get( 2, 2 ) ) / 3d );
+		}
+	}
+}
@@ -0,0 +1,127 @@
+package fiji.plugin.trackmate.tracking.kalman;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.Test;
+
+import fiji.plugin.trackmate.Spot;
+import fiji.plugin.trackmate.tracking.sparselap.costmatrix.ResizableDoubleArray;
+
+public class GatedLinkingCostMatrixCreatorTest
+{
+
+	private static final double MAX_SEARCH_RADIUS = 8d;
+
+	@Test
+	public void testMatchesBruteForce()
+	{
+		final Random ran = new Random( 7l );
+		final KalmanFilterBank< Spot > bank = new KalmanFilterBank< Spot >( 1d, 0.5d, 0.2d );
+		final List< Integer > sources = new ArrayList< Integer >();
+		for ( int i = 0; i < 200; i++ )
+		{
+			final double[] X0 = new double[] { 100 * ran.nextDouble(), 100 * ran.nextDouble(), 0, ran.nextGaussian(), ran.nextGaussian(), 0 };
+			sources.add( Integer.valueOf( bank.add( X0, 10 * ran.nextDouble(), null ) ) );
+		}
+		// Filters of various confidence.
+		for ( int step = 0; step < 3; step++ )
+		{
+			bank.predict();
+			for ( final Integer source : sources )
+			{
+				final int index = source.intValue();
+				if ( ran.nextBoolean() )
+				{
+					bank.update( index, bank.getPrediction( index, 0 ) + ran.nextGaussian(), bank.getPrediction( index, 1 ) + ran.nextGaussian(), 0 );
+				}
+				else
+				{
+					bank.occlude( index );
+				}
+			}
+		}
+		bank.predict();
+
+		final List< Spot > targets = new ArrayList< Spot >();
+		for ( int i = 0; i < 300; i++ )
+		{
+			targets.add( new Spot( 100 * ran.nextDouble(), 100 * ran.nextDouble(), 0, 1, 1, "s" + i ) );
+		}
+
+		final ExecutorService executor = Executors.newFixedThreadPool( 3 );
+		try
+		{
+			int nUngated = -1;
+			for ( final double gate : new double[] { Double.POSITIVE_INFINITY, 13.8, 2 } )
+			{
+				for ( final boolean mahalanobisCost : new boolean[] { false, true } )
+				{
+					final List< Integer > expectedSources = new ArrayList< Integer >();
+					final List< Spot > expectedTargets = new ArrayList< Spot >();
+					final ResizableDoubleArray expectedCosts = new ResizableDoubleArray();
+					for ( final Integer source : sources )
+					{
+						final int index = source.intValue();
+						for ( final Spot target : targets )
+						{
+							final double dx = bank.getPrediction( index, 0 ) - target.getDoublePosition( 0 );
+							final double dy = bank.getPrediction( index, 1 ) - target.getDoublePosition( 1 );
+							final double dz = bank.getPrediction( index, 2 ) - target.getDoublePosition( 2 );
+							final double d2 = dx * dx + dy * dy + dz * dz + Double.MIN_NORMAL;
+							final double m2 = bank.getSquareMahalanobisDistance( index, target.getDoublePosition( 0 ), target.getDoublePosition( 1 ), target.getDoublePosition( 2 ) );
+							if ( d2 < MAX_SEARCH_RADIUS * MAX_SEARCH_RADIUS && m2 < gate )
+							{
+								expectedSources.add( source );
+								expectedTargets.add( target );
+								expectedCosts.add( mahalanobisCost ? m2 + Double.MIN_NORMAL : d2 );
+							}
+						}
+					}
+					assertTrue( expectedCosts.size > 0 );
+					if ( gate == Double.POSITIVE_INFINITY )
+					{
+						nUngated = expectedCosts.size;
+					}
+					else
+					{
+						// The gate prunes candidates.
+						assertTrue( expectedCosts.size < nUngated );
+					}
+
+					for ( final ExecutorService ex : new ExecutorService[] { null, executor } )
+					{
+						final GatedLinkingCostMatrixCreator< Spot > creator = new GatedLinkingCostMatrixCreator< Spot >( sources, targets, bank, MAX_SEARCH_RADIUS, gate, mahalanobisCost, 1.05d, 1d, ex, 7 );
+						final List< Integer > accSources = new ArrayList< Integer >();
+						final List< Spot > accTargets = new ArrayList< Spot >();
+						final ResizableDoubleArray costs = new ResizableDoubleArray();
+						creator.collectCandidates( accSources, accTargets, costs );
+
+						assertEquals( expectedSources, accSources );
+						assertEquals( expectedTargets.size(), accTargets.size() );
+						for ( int i = 0; i < expectedTargets.size(); i++ )
+						{
+							assertSame( expectedTargets.get( i ), accTargets.get( i ) );
+						}
+						assertEquals( expectedCosts.size, costs.size );
+						for ( int i = 0; i < costs.size; i++ )
+						{
+							assertEquals( expectedCosts.data[ i ], costs.data[ i ], 0d );
+						}
+					}
+				}
+			}
+		}
+		finally
+		{
+			executor.shutdown();
+		}
+	}
+}
@@ -0,0 +1,102 @@
+package fiji.plugin.trackmate.tracking.kalman;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class KalmanFilterBankTest
+{
+
+	private static final double POSITION_PROCESS_STD = 0.5;
+
+	private static final double VELOCITY_PROCESS_STD = 0.3;
+
+	private static final double POSITION_MEASUREMENT_STD = 0.2;
+
+	@Test
+	public void testMatchesSingleFilters()
+	{
+		final Random ran = new Random( 2l );
+		final KalmanFilterBank< CVMKalmanFilter > bank = new KalmanFilterBank< CVMKalmanFilter >( POSITION_PROCESS_STD, VELOCITY_PROCESS_STD, POSITION_MEASUREMENT_STD );
+		final List< CVMKalmanFilter > filters = new ArrayList< CVMKalmanFilter >();
+
+		final double[] prediction = new double[ 6 ];
+		for ( int step = 0; step < 100; step++ )
+		{
+			// New filters.
+			for ( int n = 0; n < 10; n++ )
+			{
+				final double[] X0 = new double[ 6 ];
+				for ( int i = 0; i < 6; i++ )
+				{
+					X0[ i ] = 10 * ran.nextGaussian();
+				}
+				final CVMKalmanFilter kf = new CVMKalmanFilter( X0, Double.MIN_NORMAL, POSITION_PROCESS_STD, VELOCITY_PROCESS_STD, POSITION_MEASUREMENT_STD );
+				filters.add( kf );
+				bank.add( X0, Double.MIN_NORMAL, kf );
+			}
+
+			bank.predict();
+			for ( int i = 0; i < bank.size(); i++ )
+			{
+				if ( !bank.isAlive( i ) )
+				{
+					continue;
+				}
+				final CVMKalmanFilter kf = bank.getPayload( i );
+				kf.predict( prediction );
+				for ( int d = 0; d < 3; d++ )
+				{
+					assertEquals( prediction[ d ], bank.getPrediction( i, d ), 0d );
+				}
+
+				// Some occlusions, some deaths.
+				if ( ran.nextInt( 4 ) == 0 )
+				{
+					kf.update( null );
+					bank.occlude( i );
+					assertTrue( bank.isOccluded( i ) );
+					assertEquals( kf.getNOcclusion(), bank.getNOcclusion( i ) );
+					if ( bank.getNOcclusion( i ) > 1 )
+					{
+						bank.kill( i );
+						filters.remove( kf );
+						assertFalse( bank.isAlive( i ) );
+					}
+				}
+				else
+				{
+					final double[] measurement = new double[ 3 ];
+					for ( int d = 0; d < 3; d++ )
+					{
+						measurement[ d ] = prediction[ d ] + ran.nextGaussian();
+					}
+					kf.update( measurement );
+					bank.update( i, measurement[ 0 ], measurement[ 1 ], measurement[ 2 ] );
+					assertFalse( bank.isOccluded( i ) );
+				}
+			}
+
+			assertEquals( filters.size(), bank.nAlive() );
+			bank.compact();
+		}
+
+		// Compaction keeps the filters in order.
+		int j = 0;
+		for ( int i = 0; i < bank.size(); i++ )
+		{
+			if ( bank.isAlive( i ) )
+			{
+				assertSame( filters.get( j++ ), bank.getPayload( i ) );
+			}
+		}
+		assertEquals( filters.size(), j );
+	}
+}
@@ -0,0 +1,95 @@
+package fiji.plugin.trackmate.tracking.kalman;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.jgrapht.graph.DefaultWeightedEdge;
+import org.jgrapht.graph.SimpleWeightedGraph;
+import org.junit.Test;
+
+import fiji.plugin.trackmate.DefaultSpotCollection;
+import fiji.plugin.trackmate.Spot;
+
+public class KalmanTrackerTest
+{
+
+	private static final int N_FRAMES = 4;
+
+	/**
+	 * Enough spots for the KFs to be predicted in parallel.
+	 */
+	private static final int N_SPOTS = 2500;
+
+	private static DefaultSpotCollection createSpots()
+	{
+		final Random ran = new Random( 5l );
+		final double[][] pos = new double[ N_SPOTS ][ 4 ];
+		for ( int i = 0; i < N_SPOTS; i++ )
+		{
+			pos[ i ][ 0 ] = 1000 * ran.nextDouble();
+			pos[ i ][ 1 ] = 1000 * ran.nextDouble();
+			pos[ i ][ 2 ] = ran.nextGaussian();
+			pos[ i ][ 3 ] = ran.nextGaussian();
+		}
+		final DefaultSpotCollection spots = new DefaultSpotCollection();
+		for ( int frame = 0; frame < N_FRAMES; frame++ )
+		{
+			final List< Spot > list = new ArrayList< Spot >();
+			for ( int i = 0; i < N_SPOTS; i++ )
+			{
+				pos[ i ][ 0 ] += pos[ i ][ 2 ] + 0.2 * ran.nextGaussian();
+				pos[ i ][ 1 ] += pos[ i ][ 3 ] + 0.2 * ran.nextGaussian();
+				if ( ran.nextDouble() < 0.1 )
+				{
+					continue;
+				}
+				list.add( new Spot( pos[ i ][ 0 ], pos[ i ][ 1 ], 0, 1, 1, "f" + frame + "_s" + i ) );
+			}
+			spots.put( frame, list );
+		}
+		spots.setVisible( true );
+		return spots;
+	}
+
+	private static List< String > edges( final SimpleWeightedGraph< Spot, DefaultWeightedEdge > graph )
+	{
+		final List< String > edges = new ArrayList< String >();
+		for ( final DefaultWeightedEdge edge : graph.edgeSet() )
+		{
+			edges.add( graph.getEdgeSource( edge ).getName() + " -> " + graph.getEdgeTarget( edge ).getName() + " : " + graph.getEdgeWeight( edge ) );
+		}
+		Collections.sort( edges );
+		return edges;
+	}
+
+	@Test
+	public void testResultsDoNotDependOnThreads()
+	{
+		final DefaultSpotCollection spots = createSpots();
+
+		List< String > expected = null;
+		for ( final int numThreads : new int[] { 1, 2, 5 } )
+		{
+			final KalmanTracker< Spot > tracker = new KalmanTracker< Spot >( spots, 3d, 2, 3d );
+			tracker.setNumThreads( numThreads );
+			assertEquals( numThreads, tracker.getNumThreads() );
+			assertTrue( tracker.getErrorMessage(), tracker.checkInput() && tracker.process() );
+
+			final List< String > actual = edges( tracker.getResult() );
+			assertTrue( actual.size() > 0 );
+			if ( null == expected )
+			{
+				expected = actual;
+			}
+			else
+			{
+				assertEquals( expected, actual );
+			}
+		}
+	}
+}
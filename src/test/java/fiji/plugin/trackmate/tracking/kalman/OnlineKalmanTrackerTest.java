@@ -0,0 +1,274 @@
+package fiji.plugin.trackmate.tracking.kalman;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+
+import org.jgrapht.graph.DefaultWeightedEdge;
+import org.jgrapht.graph.SimpleWeightedGraph;
+import org.junit.Test;
+
+import fiji.plugin.trackmate.DefaultSpotCollection;
+import fiji.plugin.trackmate.Spot;
+
+public class OnlineKalmanTrackerTest
+{
+
+	private static final int N_FRAMES = 30;
+
+	private static final int N_SPOTS = 100;
+
+	/**
+	 * The tracks found by {@link KalmanTracker} before it was based on
+	 * {@link OnlineKalmanTracker}, on the spots of
+	 * {@link #createReferenceSpots()}. Each line lists the spots of a track,
+	 * named <code>particle.frame</code>.
+	 */
+	private static final String[] REFERENCE_TRACKS = new String[] {
+			"0.0 0.1 0.2 0.3 0.4 0.5 0.6 0.7 0.8 0.9 0.10 0.11",
+			"1.2 1.3 1.5 1.6 1.8",
+			"2.0 2.1 2.2 2.4 2.5",
+			"2.8 2.9 2.10 2.11",
+			"3.0 3.1 3.2 3.3 3.4 3.5 3.6 3.7 3.8 3.9 3.11",
+			"4.2 4.3 4.4 4.6 4.7 4.8 4.9 4.10 4.11",
+			"5.0 5.1 5.2 5.3 5.4 5.6 5.7 5.8 5.9 5.10 5.11",
+			"6.3 6.4 6.5 6.6 6.8 6.9 6.10 6.11",
+			"7.1 7.2 7.3 7.4 7.5 7.6 7.7 7.8 7.9 7.10 7.11",
+			"8.0 8.1 8.2 8.3 8.4 8.5 8.6 8.7 8.9 8.11",
+			"9.0 9.1 9.2 9.3 9.4 9.5 9.6 9.7 9.8 9.9 9.10" };
+
+	/** The sum of the link costs found on the same spots. */
+	private static final double REFERENCE_TOTAL_COST = 20.729633078383102;
+
+	private static DefaultSpotCollection createSpots()
+	{
+		final Random ran = new Random( 11l );
+		final double[][] pos = new double[ N_SPOTS ][ 4 ];
+		for ( int i = 0; i < N_SPOTS; i++ )
+		{
+			pos[ i ][ 0 ] = 200 * ran.nextDouble();
+			pos[ i ][ 1 ] = 200 * ran.nextDouble();
+			pos[ i ][ 2 ] = ran.nextGaussian();
+			pos[ i ][ 3 ] = ran.nextGaussian();
+		}
+		final DefaultSpotCollection spots = new DefaultSpotCollection();
+		for ( int frame = 0; frame < N_FRAMES; frame++ )
+		{
+			final List< Spot > list = new ArrayList< Spot >();
+			for ( int i = 0; i < N_SPOTS; i++ )
+			{
+				pos[ i ][ 0 ] += pos[ i ][ 2 ] + 0.2 * ran.nextGaussian();
+				pos[ i ][ 1 ] += pos[ i ][ 3 ] + 0.2 * ran.nextGaussian();
+				if ( ran.nextDouble() < 0.1 )
+				{
+					continue;
+				}
+				list.add( new Spot( pos[ i ][ 0 ], pos[ i ][ 1 ], 0, 1, 1, "f" + frame + "_s" + i ) );
+			}
+			spots.put( frame, list );
+		}
+		spots.setVisible( true );
+		return spots;
+	}
+
+	/**
+	 * 10 particles moving in parallel lanes. The first one is always
+	 * detected, the others are missed in some frames.
+	 */
+	private static DefaultSpotCollection createReferenceSpots()
+	{
+		final Random ran = new Random( 5l );
+		final double[][] pos = new double[ 10 ][ 4 ];
+		for ( int i = 0; i < pos.length; i++ )
+		{
+			pos[ i ][ 0 ] = 12 * i;
+			pos[ i ][ 1 ] = 6 * ran.nextDouble();
+			pos[ i ][ 2 ] = 1 + 0.5 * ran.nextGaussian();
+			pos[ i ][ 3 ] = 0.5 * ran.nextGaussian();
+		}
+		final DefaultSpotCollection spots = new DefaultSpotCollection();
+		for ( int frame = 0; frame < 12; frame++ )
+		{
+			final List< Spot > list = new ArrayList< Spot >();
+			for ( int i = 0; i < pos.length; i++ )
+			{
+				pos[ i ][ 0 ] += pos[ i ][ 2 ] + 0.1 * ran.nextGaussian();
+				pos[ i ][ 1 ] += pos[ i ][ 3 ] + 0.1 * ran.nextGaussian();
+				if ( i > 0 && ran.nextDouble() < 0.2 )
+				{
+					continue;
+				}
+				list.add( new Spot( pos[ i ][ 0 ], pos[ i ][ 1 ], 0, 1, 1, i + "." + frame ) );
+			}
+			spots.put( frame, list );
+		}
+		spots.setVisible( true );
+		return spots;
+	}
+
+	private static List< Spot > frame( final DefaultSpotCollection spots, final int frame )
+	{
+		final List< Spot > list = new ArrayList< Spot >();
+		for ( final Iterator< Spot > it = spots.iterator( frame, true ); it.hasNext(); )
+		{
+			list.add( it.next() );
+		}
+		return list;
+	}
+
+	/**
+	 * {@link KalmanTracker} runs an {@link OnlineKalmanTracker}, so this only
+	 * checks that the links streamed frame by frame and the tracks sent to the
+	 * sink agree with the graph. {@link #testMatchesReference()} checks the
+	 * links themselves.
+	 */
+	@Test
+	public void testMatchesBatchTracker()
+	{
+		final DefaultSpotCollection spots = createSpots();
+
+		final KalmanTracker< Spot > batch = new KalmanTracker< Spot >( spots, 3d, 2, 3d );
+		assertTrue( batch.getErrorMessage(), batch.process() );
+		final SimpleWeightedGraph< Spot, DefaultWeightedEdge > graph = batch.getResult();
+		final List< String > expected = new ArrayList< String >();
+		for ( final DefaultWeightedEdge edge : graph.edgeSet() )
+		{
+			expected.add( graph.getEdgeSource( edge ).getName() + " -> " + graph.getEdgeTarget( edge ).getName() + " : " + graph.getEdgeWeight( edge ) );
+		}
+		Collections.sort( expected );
+
+		final List< List< Spot >> tracks = new ArrayList< List< Spot >>();
+		final OnlineKalmanTracker< Spot > online = new OnlineKalmanTracker< Spot >( 3d, 2, 3d );
+		online.setTrackSink( new OnlineKalmanTracker.TrackSink< Spot >()
+		{
+			@Override
+			public void trackFinished( final List< Spot > track )
+			{
+				tracks.add( track );
+			}
+		} );
+		final List< String > actual = new ArrayList< String >();
+		for ( int frame = 0; frame < N_FRAMES; frame++ )
+		{
+			final List< OnlineKalmanTracker.Link< Spot >> links = online.acceptFrame( frame, frame( spots, frame ) );
+			assertNotNull( online.getErrorMessage(), links );
+			for ( final OnlineKalmanTracker.Link< Spot > link : links )
+			{
+				assertEquals( frame, link.getTarget().frame() );
+				actual.add( link.getSource().getName() + " -> " + link.getTarget().getName() + " : " + link.getCost() );
+			}
+		}
+		Collections.sort( actual );
+		assertTrue( expected.size() > 0 );
+		assertEquals( expected, actual );
+
+		// Tracks finished while streaming, and the ones still active.
+		final int nFinished = tracks.size();
+		assertTrue( nFinished > 0 );
+		online.finish();
+		assertTrue( tracks.size() > nFinished );
+
+		// Each link is in one track.
+		int nLinks = 0;
+		for ( final List< Spot > track : tracks )
+		{
+			for ( int i = 1; i < track.size(); i++ )
+			{
+				assertTrue( graph.containsEdge( track.get( i - 1 ), track.get( i ) ) );
+				nLinks++;
+			}
+		}
+		assertEquals( graph.edgeSet().size(), nLinks );
+	}
+
+	@Test
+	public void testMatchesReference()
+	{
+		final List< String > expected = new ArrayList< String >();
+		for ( final String track : REFERENCE_TRACKS )
+		{
+			final String[] names = track.split( " " );
+			for ( int i = 1; i < names.length; i++ )
+			{
+				expected.add( names[ i - 1 ] + " -> " + names[ i ] );
+			}
+		}
+		Collections.sort( expected );
+
+		final KalmanTracker< Spot > tracker = new KalmanTracker< Spot >( createReferenceSpots(), 3d, 2, 3d );
+		assertTrue( tracker.getErrorMessage(), tracker.process() );
+		final SimpleWeightedGraph< Spot, DefaultWeightedEdge > graph = tracker.getResult();
+		final List< String > actual = new ArrayList< String >();
+		double totalCost = 0d;
+		for ( final DefaultWeightedEdge edge : graph.edgeSet() )
+		{
+			actual.add( graph.getEdgeSource( edge ).getName() + " -> " + graph.getEdgeTarget( edge ).getName() );
+			totalCost += graph.getEdgeWeight( edge );
+		}
+		Collections.sort( actual );
+		assertEquals( expected, actual );
+		assertEquals( REFERENCE_TOTAL_COST, totalCost, 1e-9 );
+	}
+
+	@Test
+	public void testOrphansOfFrameWithoutFilters()
+	{
+		/*
+		 * No filter is nucleated between the first 2 frames, so the third
+		 * frame has none. Its spot must be linked to the orphan of the second
+		 * frame, not the orphan to itself.
+		 */
+		final Spot s0 = new Spot( 0d, 0d, 0d, 1d, 1d, "s0" );
+		final Spot s1 = new Spot( 50d, 0d, 0d, 1d, 1d, "s1" );
+		final Spot s2 = new Spot( 51d, 0d, 0d, 1d, 1d, "s2" );
+		final Spot s3 = new Spot( 52d, 0d, 0d, 1d, 1d, "s3" );
+
+		final OnlineKalmanTracker< Spot > online = new OnlineKalmanTracker< Spot >( 3d, 2, 3d );
+		assertTrue( online.acceptFrame( 0, Arrays.asList( s0 ) ).isEmpty() );
+		assertTrue( online.acceptFrame( 1, Arrays.asList( s1 ) ).isEmpty() );
+		final List< OnlineKalmanTracker.Link< Spot >> links = online.acceptFrame( 2, Arrays.asList( s2 ) );
+		assertEquals( 1, links.size() );
+		assertSame( s1, links.get( 0 ).getSource() );
+		assertSame( s2, links.get( 0 ).getTarget() );
+
+		// The same through the batch tracker.
+		final DefaultSpotCollection spots = new DefaultSpotCollection();
+		spots.put( 0, Arrays.asList( s0 ) );
+		spots.put( 1, Arrays.asList( s1 ) );
+		spots.put( 2, Arrays.asList( s2 ) );
+		spots.put( 3, Arrays.asList( s3 ) );
+		spots.setVisible( true );
+		final KalmanTracker< Spot > batch = new KalmanTracker< Spot >( spots, 3d, 2, 3d );
+		assertTrue( batch.getErrorMessage(), batch.process() );
+		final SimpleWeightedGraph< Spot, DefaultWeightedEdge > graph = batch.getResult();
+		assertEquals( 2, graph.edgeSet().size() );
+		assertTrue( graph.containsEdge( s1, s2 ) );
+		assertTrue( graph.containsEdge( s2, s3 ) );
+	}
+
+	@Test
+	public void testRejectsPastFrames()
+	{
+		final OnlineKalmanTracker< Spot > online = new OnlineKalmanTracker< Spot >( 3d, 2, 3d );
+		final List< Spot > empty = Collections.emptyList();
+		online.acceptFrame( 5, empty );
+		try
+		{
+			online.acceptFrame( 5, empty );
+			fail( "Frame 5 was accepted twice." );
+		}
+		catch ( final IllegalArgumentException e )
+		{
+			// Expected.
+		}
+	}
+}
@@ -0,0 +1,144 @@
+package fiji.plugin.trackmate.tracking.sparselap;
+
+import static fiji.plugin.trackmate.tracking.TrackerKeys.KEY_ALTERNATIVE_LINKING_COST_FACTOR;
+import static fiji.plugin.trackmate.tracking.TrackerKeys.KEY_LINKING_FEATURE_PENALTIES;
+import static fiji.plugin.trackmate.tracking.TrackerKeys.KEY_LINKING_MAX_DISTANCE;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.jgrapht.graph.DefaultWeightedEdge;
+import org.jgrapht.graph.SimpleWeightedGraph;
+import org.junit.Test;
+
+import fiji.plugin.trackmate.DefaultSpotCollection;
+import fiji.plugin.trackmate.Spot;
+
+public class SparseLAPFrameToFrameTrackerTest
+{
+
+	private static final int N_FRAMES = 12;
+
+	private static DefaultSpotCollection createSpots()
+	{
+		final Random ran = new Random( 3l );
+		final int nSpots = 150;
+		final double[][] pos = new double[ nSpots ][ 2 ];
+		for ( int i = 0; i < nSpots; i++ )
+		{
+			pos[ i ][ 0 ] = 200 * ran.nextDouble();
+			pos[ i ][ 1 ] = 200 * ran.nextDouble();
+		}
+		final DefaultSpotCollection spots = new DefaultSpotCollection();
+		for ( int frame = 0; frame < N_FRAMES; frame++ )
+		{
+			final List< Spot > list = new ArrayList< Spot >();
+			for ( int i = 0; i < nSpots; i++ )
+			{
+				pos[ i ][ 0 ] += ran.nextGaussian();
+				pos[ i ][ 1 ] += ran.nextGaussian();
+				if ( ran.nextDouble() < 0.1 )
+				{
+					continue;
+				}
+				list.add( new Spot( pos[ i ][ 0 ], pos[ i ][ 1 ], 0, 1, 1, "f" + frame + "_s" + i ) );
+			}
+			spots.put( frame, list );
+		}
+		spots.setVisible( true );
+		return spots;
+	}
+
+	private static List< String > edges( final SimpleWeightedGraph< Spot, DefaultWeightedEdge > graph )
+	{
+		final List< String > edges = new ArrayList< String >();
+		for ( final DefaultWeightedEdge edge : graph.edgeSet() )
+		{
+			edges.add( graph.getEdgeSource( edge ).getName() + " -> " + graph.getEdgeTarget( edge ).getName() + " : " + graph.getEdgeWeight( edge ) );
+		}
+		Collections.sort( edges );
+		return edges;
+	}
+
+	@Test
+	public void testPipelineDoesNotDependOnThreads()
+	{
+		final DefaultSpotCollection spots = createSpots();
+		final Map< String, Object > settings = new HashMap< String, Object >();
+		settings.put( KEY_LINKING_MAX_DISTANCE, Double.valueOf( 4d ) );
+		settings.put( KEY_ALTERNATIVE_LINKING_COST_FACTOR, Double.valueOf( 1.05d ) );
+
+		List< String > expected = null;
+		for ( final int numThreads : new int[] { 1, 2, 5 } )
+		{
+			final SparseLAPFrameToFrameTracker< Spot > tracker = new SparseLAPFrameToFrameTracker< Spot >( spots, settings );
+			tracker.setNumThreads( numThreads );
+			tracker.setQueueCapacity( 2 );
+			assertTrue( tracker.getErrorMessage(), tracker.checkInput() && tracker.process() );
+
+			final List< String > actual = edges( tracker.getResult() );
+			assertTrue( actual.size() > 0 );
+			if ( null == expected )
+			{
+				expected = actual;
+			}
+			else
+			{
+				assertEquals( expected, actual );
+			}
+
+			assertEquals( 4, tracker.getStageCounters().size() );
+			for ( final SparseLAPFrameToFrameTracker.StageCounter counter : tracker.getStageCounters() )
+			{
+				assertEquals( counter.getName(), N_FRAMES - 1, counter.getCount() );
+			}
+		}
+	}
+
+	/**
+	 * The spots do not have the feature of the penalty map, so the cost
+	 * function throws a {@link NullPointerException}. The tracker must report
+	 * an error instead of blocking.
+	 */
+	@Test
+	public void testCostFunctionException() throws InterruptedException
+	{
+		final DefaultSpotCollection spots = createSpots();
+		final Map< String, Object > settings = new HashMap< String, Object >();
+		settings.put( KEY_LINKING_MAX_DISTANCE, Double.valueOf( 4d ) );
+		settings.put( KEY_ALTERNATIVE_LINKING_COST_FACTOR, Double.valueOf( 1.05d ) );
+		final Map< String, Double > penalties = new HashMap< String, Double >();
+		penalties.put( "MISSING_FEATURE", Double.valueOf( 1d ) );
+		settings.put( KEY_LINKING_FEATURE_PENALTIES, penalties );
+
+		for ( final int numThreads : new int[] { 1, 2, 5 } )
+		{
+			final SparseLAPFrameToFrameTracker< Spot > tracker = new SparseLAPFrameToFrameTracker< Spot >( spots, settings );
+			tracker.setNumThreads( numThreads );
+			tracker.setQueueCapacity( 2 );
+			final boolean[] result = new boolean[] { true };
+			final Thread thread = new Thread()
+			{
+				@Override
+				public void run()
+				{
+					result[ 0 ] = tracker.checkInput() && tracker.process();
+				}
+			};
+			thread.start();
+			thread.join( 10000 );
+			assertFalse( "The tracker is blocked with " + numThreads + " threads.", thread.isAlive() );
+			assertFalse( result[ 0 ] );
+			assertNotNull( tracker.getErrorMessage() );
+			assertTrue( tracker.getErrorMessage(), tracker.getErrorMessage().contains( "NullPointerException" ) );
+		}
+	}
+}
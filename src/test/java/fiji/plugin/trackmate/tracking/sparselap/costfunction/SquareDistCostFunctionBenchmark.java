@@ -0,0 +1,123 @@
+package fiji.plugin.trackmate.tracking.sparselap.costfunction;
+
+import java.util.Random;
+
+import fiji.plugin.trackmate.Spot;
+import fiji.plugin.trackmate.TrackmateConstants;
+
+/**
+ * Compares the time needed to compute {@link SquareDistCostFunction} linking
+ * costs from the primitive position fields of {@link Spot}s against the same
+ * computation done through feature map lookups.
+ */
+public class SquareDistCostFunctionBenchmark
+{
+
+	private static final int N_PAIRS = 1000000;
+
+	private static final int N_SPOTS = 1000;
+
+	private static final int N_REPEATS = 20;
+
+	private static final int N_WARMUP = 5;
+
+	private final Spot[] sources;
+
+	private final Spot[] targets;
+
+	public SquareDistCostFunctionBenchmark()
+	{
+		final Random ran = new Random( 1l );
+		sources = new Spot[ N_SPOTS ];
+		targets = new Spot[ N_SPOTS ];
+		for ( int i = 0; i < N_SPOTS; i++ )
+		{
+			sources[ i ] = new Spot( 100 * ran.nextDouble(), 100 * ran.nextDouble(), 100 * ran.nextDouble(), 1d, 1d );
+			targets[ i ] = new Spot( 100 * ran.nextDouble(), 100 * ran.nextDouble(), 100 * ran.nextDouble(), 1d, 1d );
+		}
+	}
+
+	/**
+	 * The way linking costs were computed when the spot position was stored in
+	 * the feature map only.
+	 */
+	private static final double featureMapSquareDistance( final Spot s1, final Spot s2 )
+	{
+		double sumSquared = 0d;
+		for ( int d = 0; d < s1.numDimensions(); d++ )
+		{
+			final double dx = s1.getFeature( TrackmateConstants.POSITION_FEATURES[ d ] ) - s2.getFeature( TrackmateConstants.POSITION_FEATURES[ d ] );
+			sumSquared += dx * dx;
+		}
+		return ( sumSquared == 0 ) ? Double.MIN_NORMAL : sumSquared;
+	}
+
+	private double runFeatureMap()
+	{
+		double sum = 0;
+		for ( int k = 0; k < N_PAIRS; k++ )
+		{
+			sum += featureMapSquareDistance( sources[ k % N_SPOTS ], targets[ ( k / N_SPOTS ) % N_SPOTS ] );
+		}
+		return sum;
+	}
+
+	private double runPrimitiveFields( final CostFunction< Spot, Spot > costFunction )
+	{
+		double sum = 0;
+		for ( int k = 0; k < N_PAIRS; k++ )
+		{
+			sum += costFunction.linkingCost( sources[ k % N_SPOTS ], targets[ ( k / N_SPOTS ) % N_SPOTS ] );
+		}
+		return sum;
+	}
+
+	public void run()
+	{
+		final SquareDistCostFunction< Spot > costFunction = new SquareDistCostFunction< Spot >();
+
+		// Warm-up and sanity check.
+		double s1 = 0;
+		double s2 = 0;
+		for ( int i = 0; i < N_WARMUP; i++ )
+		{
+			s1 = runFeatureMap();
+			s2 = runPrimitiveFields( costFunction );
+		}
+		if ( s1 != s2 )
+		{
+			System.err.println( "Results differ: " + s1 + " vs " + s2 );
+			return;
+		}
+
+		long start = System.nanoTime();
+		for ( int i = 0; i < N_REPEATS; i++ )
+		{
+			s1 += runFeatureMap();
+		}
+		final long dt1 = System.nanoTime() - start;
+
+		start = System.nanoTime();
+		for ( int i = 0; i < N_REPEATS; i++ )
+		{
+			s2 += runPrimitiveFields( costFunction );
+		}
+		final long dt2 = System.nanoTime() - start;
+
+		System.out.println( "Linking cost over " + N_PAIRS + " spot pairs, " + N_REPEATS + " repetitions." );
+		System.out.println( "TimeFeatureMap(ms)\tTimePrimitiveFields(ms)\tFactor" );
+		System.out.print( String.format( "%.1f", dt1 / 1e6 / N_REPEATS ) );
+		System.out.print( String.format( "\t\t\t%.1f", dt2 / 1e6 / N_REPEATS ) );
+		System.out.println( String.format( "\t\t\t%.2f", ( double ) dt2 / dt1 ) );
+		// Prevent dead-code elimination.
+		if ( s1 != s2 )
+		{
+			System.err.println( "Results differ." );
+		}
+	}
+
+	public static void main( final String[] args )
+	{
+		new SquareDistCostFunctionBenchmark().run();
+	}
+}
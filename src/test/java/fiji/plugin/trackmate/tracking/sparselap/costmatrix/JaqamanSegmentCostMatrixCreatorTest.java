@@ -0,0 +1,197 @@
+package fiji.plugin.trackmate.tracking.sparselap.costmatrix;
+
+import static fiji.plugin.trackmate.tracking.TrackerKeys.KEY_ALLOW_GAP_CLOSING;
+import static fiji.plugin.trackmate.tracking.TrackerKeys.KEY_ALLOW_TRACK_MERGING;
+import static fiji.plugin.trackmate.tracking.TrackerKeys.KEY_ALLOW_TRACK_SPLITTING;
+import static fiji.plugin.trackmate.tracking.TrackerKeys.KEY_BLOCKING_VALUE;
+import static fiji.plugin.trackmate.tracking.TrackerKeys.KEY_GAP_CLOSING_FEATURE_PENALTIES;
+import static fiji.plugin.trackmate.tracking.TrackerKeys.KEY_GAP_CLOSING_MAX_DISTANCE;
+import static fiji.plugin.trackmate.tracking.TrackerKeys.KEY_GAP_CLOSING_MAX_FRAME_GAP;
+import static fiji.plugin.trackmate.tracking.TrackerKeys.KEY_LINKING_FEATURE_PENALTIES;
+import static fiji.plugin.trackmate.tracking.TrackerKeys.KEY_LINKING_MAX_DISTANCE;
+import static fiji.plugin.trackmate.tracking.TrackerKeys.KEY_MERGING_FEATURE_PENALTIES;
+import static fiji.plugin.trackmate.tracking.TrackerKeys.KEY_MERGING_MAX_DISTANCE;
+import static fiji.plugin.trackmate.tracking.TrackerKeys.KEY_SPLITTING_FEATURE_PENALTIES;
+import static fiji.plugin.trackmate.tracking.TrackerKeys.KEY_SPLITTING_MAX_DISTANCE;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.jgrapht.graph.DefaultWeightedEdge;
+import org.jgrapht.graph.SimpleWeightedGraph;
+import org.junit.Test;
+
+import fiji.plugin.trackmate.Spot;
+import fiji.plugin.trackmate.TrackmateConstants;
+import fiji.plugin.trackmate.tracking.sparselap.costfunction.CostFunction;
+import fiji.plugin.trackmate.tracking.sparselap.costfunction.FeaturePenaltyCostFunction;
+import fiji.plugin.trackmate.tracking.sparselap.linker.SparseCostMatrix;
+import fiji.plugin.trackmate.util.LAPUtils;
+import fiji.plugin.trackmate.util.TrackableObjectUtils;
+
+public class JaqamanSegmentCostMatrixCreatorTest
+{
+
+	private static final int N_SEGMENTS = 150;
+
+	private static final int MAX_FRAME_GAP = 3;
+
+	private static final double MAX_DISTANCE = 5d;
+
+	/**
+	 * With negative feature values, a feature penalty can be smaller than 1,
+	 * so targets further than the max distance can still be linked. The
+	 * segment cost matrix must contain the same links as a full scan of all
+	 * the source-target pairs.
+	 */
+	@Test
+	public void testNegativeFeaturePenalties()
+	{
+		final Random ran = new Random( 3l );
+		final SimpleWeightedGraph< Spot, DefaultWeightedEdge > graph =
+				new SimpleWeightedGraph< Spot, DefaultWeightedEdge >( DefaultWeightedEdge.class );
+		for ( int i = 0; i < N_SEGMENTS; i++ )
+		{
+			final int frame = ran.nextInt( 10 );
+			final double x = 60d * ran.nextDouble();
+			final double y = 60d * ran.nextDouble();
+			final double quality = -1d - 9d * ran.nextDouble();
+			Spot previous = null;
+			for ( int t = frame; t < frame + 3; t++ )
+			{
+				final Spot spot = new Spot( x + ran.nextDouble(), y + ran.nextDouble(), 0d, 1d, quality );
+				spot.setFrame( t );
+				graph.addVertex( spot );
+				if ( null != previous )
+				{
+					graph.addEdge( previous, spot );
+				}
+				previous = spot;
+			}
+		}
+
+		final Map< String, Double > penalties = new HashMap< String, Double >();
+		penalties.put( TrackmateConstants.QUALITY, 0.5d );
+
+		final Map< String, Object > settings = LAPUtils.getDefaultLAPSettingsMap();
+		settings.remove( KEY_LINKING_MAX_DISTANCE );
+		settings.remove( KEY_LINKING_FEATURE_PENALTIES );
+		settings.remove( KEY_BLOCKING_VALUE );
+		settings.put( KEY_ALLOW_GAP_CLOSING, true );
+		settings.put( KEY_GAP_CLOSING_MAX_FRAME_GAP, MAX_FRAME_GAP );
+		settings.put( KEY_GAP_CLOSING_MAX_DISTANCE, MAX_DISTANCE );
+		settings.put( KEY_GAP_CLOSING_FEATURE_PENALTIES, penalties );
+		settings.put( KEY_ALLOW_TRACK_MERGING, true );
+		settings.put( KEY_MERGING_MAX_DISTANCE, MAX_DISTANCE );
+		settings.put( KEY_MERGING_FEATURE_PENALTIES, penalties );
+		settings.put( KEY_ALLOW_TRACK_SPLITTING, true );
+		settings.put( KEY_SPLITTING_MAX_DISTANCE, MAX_DISTANCE );
+		settings.put( KEY_SPLITTING_FEATURE_PENALTIES, penalties );
+
+		final JaqamanSegmentCostMatrixCreator< Spot > creator =
+				new JaqamanSegmentCostMatrixCreator< Spot >( graph, settings );
+		creator.setNumThreads( 2 );
+		assertTrue( creator.getErrorMessage(), creator.checkInput() && creator.process() );
+
+		/*
+		 * Full scan.
+		 */
+
+		final GraphSegmentSplitter< Spot > splitter = new GraphSegmentSplitter< Spot >( graph, true );
+		final List< Spot > middles = new ArrayList< Spot >();
+		for ( final List< Spot > segment : splitter.getSegmentMiddles() )
+		{
+			middles.addAll( segment );
+		}
+		final CostFunction< Spot, Spot > costFunction = new FeaturePenaltyCostFunction< Spot >( penalties );
+		final double costThreshold = MAX_DISTANCE * MAX_DISTANCE;
+
+		final Map< Spot, Map< Spot, Double >> expected = new HashMap< Spot, Map< Spot, Double >>();
+		boolean beyondMaxDistance = false;
+		for ( final Spot source : splitter.getSegmentEnds() )
+		{
+			for ( final Spot target : splitter.getSegmentStarts() )
+			{
+				final int gap = target.frame() - source.frame();
+				if ( gap >= 1 && gap <= MAX_FRAME_GAP )
+				{
+					beyondMaxDistance |= addIfBelow( expected, source, target, costFunction, costThreshold );
+				}
+			}
+			for ( final Spot target : middles )
+			{
+				if ( target.frame() - source.frame() == 1 )
+				{
+					beyondMaxDistance |= addIfBelow( expected, source, target, costFunction, costThreshold );
+				}
+			}
+		}
+		for ( final Spot source : middles )
+		{
+			for ( final Spot target : splitter.getSegmentStarts() )
+			{
+				if ( target.frame() - source.frame() == 1 )
+				{
+					beyondMaxDistance |= addIfBelow( expected, source, target, costFunction, costThreshold );
+				}
+			}
+		}
+		assertTrue( "The full scan should find links further than the max distance.", beyondMaxDistance );
+
+		/*
+		 * Compare.
+		 */
+
+		final SparseCostMatrix scm = creator.getResult();
+		final List< Spot > sources = creator.getSourceList();
+		final List< Spot > targets = creator.getTargetList();
+		int nExpected = 0;
+		for ( final Spot source : expected.keySet() )
+		{
+			final int i = sources.indexOf( source );
+			assertTrue( "Missing source " + source, i >= 0 );
+			for ( final Map.Entry< Spot, Double > entry : expected.get( source ).entrySet() )
+			{
+				final int j = targets.indexOf( entry.getKey() );
+				assertTrue( "Missing target " + entry.getKey(), j >= 0 );
+				assertEquals( entry.getValue().doubleValue(), scm.get( i, j, Double.NaN ), 0d );
+				nExpected++;
+			}
+		}
+
+		int nActual = 0;
+		for ( final double[] row : scm.toFullMatrix() )
+		{
+			for ( final double cost : row )
+			{
+				if ( cost != Double.MAX_VALUE )
+				{
+					nActual++;
+				}
+			}
+		}
+		assertEquals( nExpected, nActual );
+	}
+
+	private static boolean addIfBelow( final Map< Spot, Map< Spot, Double >> links, final Spot source, final Spot target, final CostFunction< Spot, Spot > costFunction, final double costThreshold )
+	{
+		final double cost = costFunction.linkingCost( source, target );
+		if ( cost > costThreshold )
+		{
+			return false;
+		}
+		Map< Spot, Double > row = links.get( source );
+		if ( null == row )
+		{
+			row = new HashMap< Spot, Double >();
+			links.put( source, row );
+		}
+		row.put( target, Double.valueOf( cost ) );
+		return TrackableObjectUtils.squareDistanceTo( source, target ) > costThreshold;
+	}
+}
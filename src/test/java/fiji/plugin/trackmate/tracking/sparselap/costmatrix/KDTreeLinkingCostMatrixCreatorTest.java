@@ -0,0 +1,105 @@
+package fiji.plugin.trackmate.tracking.sparselap.costmatrix;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+
+import fiji.plugin.trackmate.Spot;
+import fiji.plugin.trackmate.TrackmateConstants;
+import fiji.plugin.trackmate.tracking.sparselap.costfunction.CostFunction;
+import fiji.plugin.trackmate.tracking.sparselap.costfunction.FeaturePenaltyCostFunction;
+import fiji.plugin.trackmate.tracking.sparselap.costfunction.SquareDistCostFunction;
+
+public class KDTreeLinkingCostMatrixCreatorTest
+{
+
+	private static final int N_SPOTS = 200;
+
+	private static List< Spot > createSpots( final Random ran, final double size )
+	{
+		final List< Spot > spots = new ArrayList< Spot >( N_SPOTS );
+		for ( int i = 0; i < N_SPOTS; i++ )
+		{
+			spots.add( new Spot( size * ran.nextDouble(), size * ran.nextDouble(), size * ran.nextDouble(), 1d, 100 * ran.nextDouble() ) );
+		}
+		return spots;
+	}
+
+	private static void compare( final List< Spot > sources, final List< Spot > targets, final CostFunction< Spot, Spot > costFunction, final double costThreshold )
+	{
+		final JaqamanLinkingCostMatrixCreator< Spot, Spot > bruteForce = new JaqamanLinkingCostMatrixCreator< Spot, Spot >( sources, targets, costFunction, costThreshold, 1.05, 1d );
+		assertTrue( bruteForce.getErrorMessage(), bruteForce.checkInput() && bruteForce.process() );
+		final KDTreeLinkingCostMatrixCreator< Spot, Spot > kdtree = new KDTreeLinkingCostMatrixCreator< Spot, Spot >( sources, targets, costFunction, costThreshold, 1.05, 1d );
+		assertTrue( kdtree.getErrorMessage(), kdtree.checkInput() && kdtree.process() );
+
+		assertEquals( bruteForce.getSourceList(), kdtree.getSourceList() );
+		assertEquals( bruteForce.getTargetList(), kdtree.getTargetList() );
+		if ( null == bruteForce.getResult() )
+		{
+			assertNull( kdtree.getResult() );
+			return;
+		}
+
+		final double[][] expected = bruteForce.getResult().toFullMatrix();
+		final double[][] actual = kdtree.getResult().toFullMatrix();
+		assertEquals( expected.length, actual.length );
+		for ( int i = 0; i < expected.length; i++ )
+		{
+			assertArrayEquals( expected[ i ], actual[ i ], 0d );
+		}
+		for ( final Spot source : bruteForce.getSourceList() )
+		{
+			assertEquals( bruteForce.getAlternativeCostForSource( source ), kdtree.getAlternativeCostForSource( source ), 0d );
+		}
+	}
+
+	@Test
+	public void testSquareDistance()
+	{
+		final Random ran = new Random( 1l );
+		final List< Spot > sources = createSpots( ran, 100d );
+		final List< Spot > targets = createSpots( ran, 100d );
+		final CostFunction< Spot, Spot > costFunction = new SquareDistCostFunction< Spot >();
+		for ( final double maxDist : new double[] { 1d, 5d, 10d, 20d, 200d } )
+		{
+			compare( sources, targets, costFunction, maxDist * maxDist );
+		}
+	}
+
+	@Test
+	public void testFeaturePenalties()
+	{
+		final Random ran = new Random( 2l );
+		final List< Spot > sources = createSpots( ran, 50d );
+		final List< Spot > targets = createSpots( ran, 50d );
+		final Map< String, Double > penalties = new HashMap< String, Double >();
+		penalties.put( TrackmateConstants.QUALITY, 1d );
+		final CostFunction< Spot, Spot > costFunction = new FeaturePenaltyCostFunction< Spot >( penalties );
+		for ( final double maxDist : new double[] { 2d, 10d, 30d } )
+		{
+			compare( sources, targets, costFunction, maxDist * maxDist );
+		}
+	}
+
+	@Test
+	public void testThresholdOnSpot()
+	{
+		// Target exactly at the threshold distance must be rejected, as for
+		// the brute-force search.
+		final List< Spot > sources = new ArrayList< Spot >();
+		sources.add( new Spot( 0d, 0d, 0d, 1d, 1d ) );
+		final List< Spot > targets = new ArrayList< Spot >();
+		targets.add( new Spot( 3d, 0d, 0d, 1d, 1d ) );
+		targets.add( new Spot( 0d, 2d, 0d, 1d, 1d ) );
+		compare( sources, targets, new SquareDistCostFunction< Spot >(), 9d );
+	}
+}
@@ -0,0 +1,123 @@
+package fiji.plugin.trackmate.tracking.sparselap.costmatrix;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import fiji.plugin.trackmate.tracking.sparselap.linker.SparseCostMatrix;
+
+public class SparseCostMatrixBuilderTest
+{
+
+	@Test
+	public void testShuffledElements()
+	{
+		final Random ran = new Random( 4l );
+		final int nRows = 40;
+		final int nCols = 30;
+
+		final double[][] expected = new double[ nRows ][ nCols ];
+		final List< int[] > elements = new ArrayList< int[] >();
+		for ( int r = 0; r < nRows; r++ )
+		{
+			Arrays.fill( expected[ r ], Double.NaN );
+			for ( int c = 0; c < nCols; c++ )
+			{
+				// Keep at least one element per row and per column.
+				if ( r == c || ( r >= nCols && c == 0 ) || ran.nextDouble() < 0.2 )
+				{
+					expected[ r ][ c ] = 100 * ran.nextDouble();
+					elements.add( new int[] { r, c } );
+				}
+			}
+		}
+		Collections.shuffle( elements, ran );
+
+		final int n = elements.size();
+		final int[] rows = new int[ n ];
+		final int[] cols = new int[ n ];
+		final double[] costs = new double[ n ];
+		for ( int i = 0; i < n; i++ )
+		{
+			final int[] element = elements.get( i );
+			rows[ i ] = element[ 0 ];
+			cols[ i ] = element[ 1 ];
+			costs[ i ] = expected[ element[ 0 ] ][ element[ 1 ] ];
+		}
+
+		final SparseCostMatrixBuilder builder = new SparseCostMatrixBuilder( rows, cols, costs, nRows, nCols );
+		assertTrue( builder.getErrorMessage(), builder.checkInput() && builder.process() );
+		final SparseCostMatrix scm = builder.getResult();
+		final double[][] actual = scm.toFullMatrix();
+		assertEquals( nRows, actual.length );
+		for ( int r = 0; r < nRows; r++ )
+		{
+			for ( int c = 0; c < nCols; c++ )
+			{
+				if ( Double.isNaN( expected[ r ][ c ] ) )
+				{
+					assertEquals( Double.MAX_VALUE, actual[ r ][ c ], 0d );
+				}
+				else
+				{
+					assertEquals( expected[ r ][ c ], actual[ r ][ c ], 0d );
+				}
+			}
+		}
+	}
+
+	@Test
+	public void testDuplicates()
+	{
+		final int[] rows = new int[] { 1, 0, 1, 0 };
+		final int[] cols = new int[] { 0, 1, 0, 0 };
+		final double[] costs = new double[] { 1d, 2d, 3d, 4d };
+		final SparseCostMatrixBuilder builder = new SparseCostMatrixBuilder( rows, cols, costs, 2, 2 );
+		assertTrue( builder.checkInput() );
+		assertFalse( builder.process() );
+	}
+
+	@Test
+	public void testOutOfBounds()
+	{
+		final int[] rows = new int[] { 0, 1 };
+		final int[] cols = new int[] { 0, 2 };
+		final double[] costs = new double[] { 1d, 2d };
+		final SparseCostMatrixBuilder builder = new SparseCostMatrixBuilder( rows, cols, costs, 2, 2 );
+		assertTrue( builder.checkInput() );
+		assertFalse( builder.process() );
+	}
+
+	@Test
+	public void testDefaultCostMatrixCreator()
+	{
+		final List< String > rows = Arrays.asList( new String[] { "b", "a", "c", "a", "b" } );
+		final List< String > cols = Arrays.asList( new String[] { "y", "x", "x", "y", "x" } );
+		final double[] costs = new double[] { 1d, 2d, 3d, 4d, 5d };
+		final DefaultCostMatrixCreator< String, String > creator = new DefaultCostMatrixCreator< String, String >( rows, cols, costs, 1d, 1d );
+		assertTrue( creator.getErrorMessage(), creator.checkInput() && creator.process() );
+
+		assertEquals( Arrays.asList( new String[] { "a", "b", "c" } ), creator.getSourceList() );
+		assertEquals( Arrays.asList( new String[] { "x", "y" } ), creator.getTargetList() );
+		final double[][] actual = creator.getResult().toFullMatrix();
+		assertArrayEquals( new double[] { 2d, 4d }, actual[ 0 ], 0d );
+		assertArrayEquals( new double[] { 5d, 1d }, actual[ 1 ], 0d );
+		assertEquals( 3d, actual[ 2 ][ 0 ], 0d );
+		assertEquals( Double.MAX_VALUE, actual[ 2 ][ 1 ], 0d );
+
+		final List< String > duplicateRows = Arrays.asList( new String[] { "a", "b", "a" } );
+		final List< String > duplicateCols = Arrays.asList( new String[] { "x", "x", "x" } );
+		final DefaultCostMatrixCreator< String, String > duplicateCreator = new DefaultCostMatrixCreator< String, String >( duplicateRows, duplicateCols, new double[] { 1d, 2d, 3d }, 1d, 1d );
+		assertTrue( duplicateCreator.checkInput() );
+		assertFalse( duplicateCreator.process() );
+	}
+}
@@ -0,0 +1,95 @@
+package fiji.plugin.trackmate.tracking.sparselap.costmatrix;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import fiji.plugin.trackmate.Spot;
+import fiji.plugin.trackmate.util.TrackableObjectUtils;
+
+public class SpatioTemporalIndexTest
+{
+
+	private static final int N_SPOTS = 500;
+
+	private static final int N_FRAMES = 20;
+
+	@Test
+	public void testSearchIsBruteForce()
+	{
+		final Random ran = new Random( 3l );
+		final List< Spot > spots = new ArrayList< Spot >( N_SPOTS );
+		for ( int i = 0; i < N_SPOTS; i++ )
+		{
+			final Spot spot = new Spot( 50 * ran.nextDouble(), 50 * ran.nextDouble(), 50 * ran.nextDouble(), 1d, 1d );
+			spot.setFrame( ran.nextInt( N_FRAMES ) );
+			spots.add( spot );
+		}
+		final SpatioTemporalIndex< Spot > index = new SpatioTemporalIndex< Spot >( spots );
+
+		final ResizableIntArray found = new ResizableIntArray();
+		final ResizableIntArray expected = new ResizableIntArray();
+		for ( int k = 0; k < 100; k++ )
+		{
+			final Spot reference = new Spot( 50 * ran.nextDouble(), 50 * ran.nextDouble(), 50 * ran.nextDouble(), 1d, 1d );
+			final int minFrame = ran.nextInt( N_FRAMES );
+			final int maxFrame = minFrame + ran.nextInt( 4 );
+			final double maxSquareDistance = 100 * ran.nextDouble();
+
+			found.size = 0;
+			index.search( reference, minFrame, maxFrame, maxSquareDistance, found );
+
+			expected.size = 0;
+			for ( int i = 0; i < spots.size(); i++ )
+			{
+				final Spot spot = spots.get( i );
+				if ( spot.frame() < minFrame || spot.frame() > maxFrame )
+				{
+					continue;
+				}
+				if ( TrackableObjectUtils.squareDistanceTo( spot, reference ) > maxSquareDistance )
+				{
+					continue;
+				}
+				expected.add( i );
+			}
+
+			// Extra far candidates may be returned, but not missing ones.
+			final ResizableIntArray accepted = new ResizableIntArray();
+			for ( int i = 0; i < found.size; i++ )
+			{
+				final Spot spot = index.get( found.data[ i ] );
+				if ( TrackableObjectUtils.squareDistanceTo( spot, reference ) <= maxSquareDistance )
+				{
+					accepted.add( found.data[ i ] );
+				}
+			}
+			assertArrayEquals( Arrays.copyOf( expected.data, expected.size ), Arrays.copyOf( accepted.data, accepted.size ) );
+		}
+	}
+
+	@Test
+	public void testEmptyFrameRange()
+	{
+		final List< Spot > spots = new ArrayList< Spot >();
+		final Spot spot = new Spot( 0d, 0d, 0d, 1d, 1d );
+		spot.setFrame( 2 );
+		spots.add( spot );
+		final SpatioTemporalIndex< Spot > index = new SpatioTemporalIndex< Spot >( spots );
+
+		final ResizableIntArray found = new ResizableIntArray();
+		index.search( spot, 3, 10, 1d, found );
+		assertEquals( 0, found.size );
+		index.search( spot, 2, 1, 1d, found );
+		assertEquals( 0, found.size );
+		index.search( spot, 1, 2, 1d, found );
+		assertEquals( 1, found.size );
+		assertEquals( 0, found.data[ 0 ] );
+	}
+}
@@ -0,0 +1,164 @@
+package fiji.plugin.trackmate.tracking.sparselap.linker;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import fiji.plugin.trackmate.Logger;
+import fiji.plugin.trackmate.tracking.sparselap.costmatrix.DefaultCostMatrixCreator;
+
+public class AuctionLAPTest
+{
+
+	private static void assertPermutation( final int[] assignment )
+	{
+		final boolean[] used = new boolean[ assignment.length ];
+		for ( final int j : assignment )
+		{
+			assertTrue( j >= 0 && j < assignment.length );
+			assertFalse( "Column " + j + " is assigned twice.", used[ j ] );
+			used[ j ] = true;
+		}
+	}
+
+	private static double solveWithLAPJV( final SparseCostMatrix cm )
+	{
+		final LAPJV jv = new LAPJV( cm );
+		assertTrue( jv.getErrorMessage(), jv.checkInput() && jv.process() );
+		return cm.totalAssignmentCost( jv.getResult() );
+	}
+
+	@Test
+	public void testIntegerCostsAreExact()
+	{
+		final Random ran = new Random( 21l );
+		for ( final int numThreads : new int[] { 1, 4 } )
+		{
+			for ( final int size : new int[] { 1, 2, 17, 200, 1500 } )
+			{
+				final SparseCostMatrix cm = JaqamanBlockMatrixTest.createRandomMatrix( ran, size, size, 0.02 );
+				for ( int k = 0; k < cm.cc.length; k++ )
+				{
+					cm.cc[ k ] = Math.floor( cm.cc[ k ] );
+				}
+
+				final AuctionLAP auction = new AuctionLAP( cm );
+				auction.setNumThreads( numThreads );
+				assertTrue( auction.getErrorMessage(), auction.checkInput() && auction.process() );
+				assertPermutation( auction.getResult() );
+				assertEquals( solveWithLAPJV( cm ), cm.totalAssignmentCost( auction.getResult() ), 1e-9 );
+			}
+		}
+	}
+
+	/**
+	 * Small integer costs, plus a single large one so that the cost range is
+	 * much larger than 1e4: the final epsilon must still be small enough for
+	 * the solution to be exact.
+	 */
+	@Test
+	public void testIntegerCostsWithLargeRangeAreExact()
+	{
+		final Random ran = new Random( 23l );
+		for ( final int size : new int[] { 50, 400 } )
+		{
+			final SparseCostMatrix cm = JaqamanBlockMatrixTest.createRandomMatrix( ran, size, size, 0.05 );
+			for ( int k = 0; k < cm.cc.length; k++ )
+			{
+				cm.cc[ k ] = Math.floor( 100 * ran.nextDouble() );
+			}
+			cm.cc[ 0 ] = 1e7;
+
+			final AuctionLAP auction = new AuctionLAP( cm );
+			assertTrue( auction.getErrorMessage(), auction.checkInput() && auction.process() );
+			assertPermutation( auction.getResult() );
+			assertEquals( solveWithLAPJV( cm ), cm.totalAssignmentCost( auction.getResult() ), 0d );
+		}
+	}
+
+	@Test
+	public void testRealCostsWithinEpsilon()
+	{
+		final Random ran = new Random( 22l );
+		final int size = 800;
+		final double finalEpsilon = 1e-3;
+		final SparseCostMatrix cm = JaqamanBlockMatrixTest.createRandomMatrix( ran, size, size, 0.01 );
+		final AuctionLAP auction = new AuctionLAP( cm );
+		auction.setFinalEpsilon( finalEpsilon );
+		assertTrue( auction.getErrorMessage(), auction.checkInput() && auction.process() );
+		assertPermutation( auction.getResult() );
+
+		final double expected = solveWithLAPJV( cm );
+		final double actual = cm.totalAssignmentCost( auction.getResult() );
+		assertTrue( actual >= expected - 1e-9 );
+		assertTrue( actual <= expected + size * finalEpsilon );
+	}
+
+	@Test
+	public void testInfeasible()
+	{
+		// Rows 0 and 1 can only go to column 0.
+		final double[] cc = new double[] { 1, 2, 3, 4, 5 };
+		final int[] kk = new int[] { 0, 0, 0, 1, 2 };
+		final int[] number = new int[] { 1, 1, 3 };
+		final SparseCostMatrix cm = new SparseCostMatrix( cc, kk, number, 3 );
+		final AuctionLAP auction = new AuctionLAP( cm );
+		assertTrue( auction.checkInput() );
+		assertFalse( auction.process() );
+	}
+
+	@Test
+	public void testSelectedByLinker()
+	{
+		final Random ran = new Random( 23l );
+		final List< String > rows = new ArrayList< String >();
+		final List< String > cols = new ArrayList< String >();
+		final List< Double > costList = new ArrayList< Double >();
+		for ( int i = 0; i < 300; i++ )
+		{
+			for ( int j = 0; j < 300; j++ )
+			{
+				if ( ran.nextDouble() < 0.02 )
+				{
+					rows.add( String.format( "s%03d", i ) );
+					cols.add( String.format( "t%03d", j ) );
+					costList.add( Double.valueOf( 1 + ran.nextInt( 100 ) ) );
+				}
+			}
+		}
+		final double[] costs = new double[ costList.size() ];
+		for ( int k = 0; k < costs.length; k++ )
+		{
+			costs[ k ] = costList.get( k ).doubleValue();
+		}
+
+		final JaqamanLinker< String, String > jvLinker = new JaqamanLinker< String, String >( new DefaultCostMatrixCreator< String, String >( rows, cols, costs, 1.05, 0.5 ) );
+		assertTrue( jvLinker.getErrorMessage(), jvLinker.checkInput() && jvLinker.process() );
+
+		final JaqamanLinker< String, String > auctionLinker = new JaqamanLinker< String, String >( new DefaultCostMatrixCreator< String, String >( rows, cols, costs, 1.05, 0.5 ), new AuctionLAP(), Logger.VOID_LOGGER );
+		assertTrue( auctionLinker.getErrorMessage(), auctionLinker.checkInput() && auctionLinker.process() );
+
+		/*
+		 * All alternative costs are equal, so the objective only depends on
+		 * the number of links and their total cost.
+		 */
+		assertEquals( jvLinker.getResult().size(), auctionLinker.getResult().size() );
+		double jvCost = 0;
+		for ( final Double cost : jvLinker.getAssignmentCosts().values() )
+		{
+			jvCost += cost.doubleValue();
+		}
+		double auctionCost = 0;
+		for ( final Double cost : auctionLinker.getAssignmentCosts().values() )
+		{
+			auctionCost += cost.doubleValue();
+		}
+		assertEquals( jvCost, auctionCost, 1e-9 );
+	}
+}
@@ -0,0 +1,282 @@
+package fiji.plugin.trackmate.tracking.sparselap.linker;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+
+import fiji.plugin.trackmate.tracking.sparselap.costmatrix.CostMatrixCreator;
+import fiji.plugin.trackmate.tracking.sparselap.costmatrix.DefaultCostMatrixCreator;
+
+public class CostMatrixComponentsTest
+{
+
+	@Test
+	public void testComponents()
+	{
+		/*
+		 * 3 components: { rows 0, 3; cols 1, 2 }, { row 1; col 0 } and { rows
+		 * 2, 4; col 3 }.
+		 */
+		final int[] number = new int[] { 1, 1, 1, 2, 1 };
+		final int[] kk = new int[] { 2, 0, 3, 1, 2, 3 };
+		final double[] cc = new double[] { 1, 2, 3, 4, 5, 6 };
+		final SparseCostMatrix cm = new SparseCostMatrix( cc, kk, number, 4 );
+
+		final CostMatrixComponents components = new CostMatrixComponents( cm );
+		assertEquals( 3, components.getNComponents() );
+
+		assertEquals( 2, components.getNRows( 0 ) );
+		assertEquals( 0, components.getRow( 0, 0 ) );
+		assertEquals( 3, components.getRow( 0, 1 ) );
+		assertEquals( 2, components.getNCols( 0 ) );
+		assertEquals( 1, components.getCol( 0, 0 ) );
+		assertEquals( 2, components.getCol( 0, 1 ) );
+		final SparseCostMatrix sub = components.getSubMatrix( 0 );
+		assertArrayEquals( new double[] { 4, 5 }, sub.toFullMatrix()[ 1 ], 0d );
+		assertEquals( 1d, sub.get( 0, 1, Double.NaN ), 0d );
+		assertTrue( Double.isNaN( sub.get( 0, 0, Double.NaN ) ) );
+
+		assertEquals( 1, components.getNRows( 1 ) );
+		assertEquals( 1, components.getRow( 1, 0 ) );
+		assertEquals( 0, components.getCol( 1, 0 ) );
+
+		assertEquals( 2, components.getNRows( 2 ) );
+		assertEquals( 1, components.getNCols( 2 ) );
+		assertEquals( 3, components.getCol( 2, 0 ) );
+	}
+
+	/**
+	 * A row without any element makes a component of its own, that the linker
+	 * solves by leaving the row unassigned.
+	 */
+	@Test
+	public void testEmptyRow()
+	{
+		/*
+		 * 3 rows and 2 columns: { row 0 }, { row 1; col 1 } and { row 2; col 0
+		 * }.
+		 */
+		final int[] number = new int[] { 0, 1, 1 };
+		final int[] kk = new int[] { 1, 0 };
+		final double[] cc = new double[] { 1, 2 };
+		final SparseCostMatrix cm = new SparseCostMatrix( cc, kk, number, 2 );
+
+		final CostMatrixComponents components = new CostMatrixComponents( cm );
+		assertEquals( 3, components.getNComponents() );
+		assertEquals( 1, components.getNRows( 0 ) );
+		assertEquals( 0, components.getNCols( 0 ) );
+		assertEquals( 0, components.getSubMatrix( 0 ).cardinality );
+		assertEquals( 1, components.getRow( 1, 0 ) );
+		assertEquals( 1, components.getCol( 1, 0 ) );
+		assertEquals( 2, components.getRow( 2, 0 ) );
+		assertEquals( 0, components.getCol( 2, 0 ) );
+
+		for ( final int numThreads : new int[] { 1, 4 } )
+		{
+			final JaqamanLinker< String, String > linker = new JaqamanLinker< String, String >( new FixedCostMatrixCreator( cm ) );
+			linker.setNumThreads( numThreads );
+			assertTrue( linker.getErrorMessage(), linker.checkInput() && linker.process() );
+			final Map< String, String > assignments = linker.getResult();
+			assertEquals( 2, assignments.size() );
+			assertEquals( "t1", assignments.get( "s1" ) );
+			assertEquals( "t0", assignments.get( "s2" ) );
+		}
+	}
+
+	/**
+	 * Sources and targets are scattered on a line and can only be linked when
+	 * they are close, so that the problem has many components. The linker
+	 * solving them separately must reach the same optimum as a single solve
+	 * of the full matrix.
+	 */
+	@Test
+	public void testSameOptimumAsGlobalSolve()
+	{
+		final Random ran = new Random( 11l );
+		final int nSources = 400;
+		final int nTargets = 380;
+		final double maxDist = 3;
+		final double[] xs = new double[ nSources ];
+		final double[] xt = new double[ nTargets ];
+		for ( int i = 0; i < nSources; i++ )
+		{
+			xs[ i ] = 1000 * ran.nextDouble();
+		}
+		for ( int j = 0; j < nTargets; j++ )
+		{
+			xt[ j ] = 1000 * ran.nextDouble();
+		}
+
+		final List< String > rows = new ArrayList< String >();
+		final List< String > cols = new ArrayList< String >();
+		final List< Double > costList = new ArrayList< Double >();
+		for ( int i = 0; i < nSources; i++ )
+		{
+			for ( int j = 0; j < nTargets; j++ )
+			{
+				final double d = Math.abs( xs[ i ] - xt[ j ] );
+				if ( d < maxDist )
+				{
+					rows.add( String.format( "s%04d", i ) );
+					cols.add( String.format( "t%04d", j ) );
+					costList.add( Double.valueOf( d * d ) );
+				}
+			}
+		}
+		final double[] costs = new double[ costList.size() ];
+		for ( int k = 0; k < costs.length; k++ )
+		{
+			costs[ k ] = costList.get( k ).doubleValue();
+		}
+
+		for ( final int numThreads : new int[] { 1, 4 } )
+		{
+			final DefaultCostMatrixCreator< String, String > creator = new DefaultCostMatrixCreator< String, String >( rows, cols, costs, 1.05, 0.9 );
+			final JaqamanLinker< String, String > linker = new JaqamanLinker< String, String >( creator );
+			linker.setNumThreads( numThreads );
+			assertTrue( linker.getErrorMessage(), linker.checkInput() && linker.process() );
+
+			/*
+			 * Global solve.
+			 */
+
+			final SparseCostMatrix tl = creator.getResult();
+			final List< String > sources = creator.getSourceList();
+			final List< String > targets = creator.getTargetList();
+			assertTrue( new CostMatrixComponents( tl ).getNComponents() > 10 );
+
+			final double[] sac = new double[ sources.size() ];
+			double minCost = Double.POSITIVE_INFINITY;
+			for ( int i = 0; i < sac.length; i++ )
+			{
+				sac[ i ] = creator.getAlternativeCostForSource( sources.get( i ) );
+				minCost = Math.min( minCost, sac[ i ] );
+			}
+			final double[] tac = new double[ targets.size() ];
+			for ( int j = 0; j < tac.length; j++ )
+			{
+				tac[ j ] = creator.getAlternativeCostForTarget( targets.get( j ) );
+				minCost = Math.min( minCost, tac[ j ] );
+			}
+			final SparseCostMatrix full = JaqamanBlockMatrix.assemble( tl, sac, tac, minCost );
+			final LAPJV solver = new LAPJV( full );
+			assertTrue( solver.getErrorMessage(), solver.checkInput() && solver.process() );
+			final double expected = full.totalAssignmentCost( solver.getResult() );
+
+			/*
+			 * Objective of the linker result.
+			 */
+
+			final Map< String, String > assignments = linker.getResult();
+			final Map< String, Double > linkCosts = linker.getAssignmentCosts();
+			double actual = 0;
+			for ( int i = 0; i < sac.length; i++ )
+			{
+				final String source = sources.get( i );
+				if ( assignments.containsKey( source ) )
+				{
+					actual += linkCosts.get( source ).doubleValue() + minCost;
+				}
+				else
+				{
+					actual += sac[ i ];
+				}
+			}
+			for ( int j = 0; j < tac.length; j++ )
+			{
+				if ( !assignments.containsValue( targets.get( j ) ) )
+				{
+					actual += tac[ j ];
+				}
+			}
+			assertEquals( expected, actual, 1e-9 * expected );
+		}
+	}
+
+	/**
+	 * Exposes a fixed top-left quadrant, with sources and targets named after
+	 * their index, and an alternative cost of 10.
+	 */
+	private static final class FixedCostMatrixCreator implements CostMatrixCreator< String, String >
+	{
+
+		private final SparseCostMatrix cm;
+
+		private FixedCostMatrixCreator( final SparseCostMatrix cm )
+		{
+			this.cm = cm;
+		}
+
+		@Override
+		public boolean checkInput()
+		{
+			return true;
+		}
+
+		@Override
+		public boolean process()
+		{
+			return true;
+		}
+
+		@Override
+		public SparseCostMatrix getResult()
+		{
+			return cm;
+		}
+
+		@Override
+		public String getErrorMessage()
+		{
+			return null;
+		}
+
+		@Override
+		public long getProcessingTime()
+		{
+			return 0;
+		}
+
+		@Override
+		public List< String > getSourceList()
+		{
+			final String[] sources = new String[ cm.nRows ];
+			for ( int i = 0; i < sources.length; i++ )
+			{
+				sources[ i ] = "s" + i;
+			}
+			return Arrays.asList( sources );
+		}
+
+		@Override
+		public List< String > getTargetList()
+		{
+			final String[] targets = new String[ cm.nCols ];
+			for ( int j = 0; j < targets.length; j++ )
+			{
+				targets[ j ] = "t" + j;
+			}
+			return Arrays.asList( targets );
+		}
+
+		@Override
+		public double getAlternativeCostForSource( final String source )
+		{
+			return 10;
+		}
+
+		@Override
+		public double getAlternativeCostForTarget( final String target )
+		{
+			return 10;
+		}
+	}
+}
@@ -0,0 +1,140 @@
+package fiji.plugin.trackmate.tracking.sparselap.linker;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.util.Random;
+
+/**
+ * Compares the time and peak heap usage of assembling the full Jaqaman LAP
+ * cost matrix with {@link JaqamanBlockMatrix} against the
+ * <code>transpose</code> / <code>hcat</code> / <code>vcat</code> chain.
+ * <p>
+ * Peak heap is measured from the heap memory pools, after a garbage
+ * collection, so run it with a heap large enough for the biggest size and
+ * little else running in the JVM.
+ */
+public class JaqamanBlockMatrixBenchmark
+{
+
+	private static SparseCostMatrix viaConcatenation( final SparseCostMatrix tl, final double[] cctr, final double[] ccbl, final double brCost )
+	{
+		final int nRows = tl.getNRows();
+		final int nCols = tl.getNCols();
+
+		final int[] kktr = new int[ nRows ];
+		final int[] numbertr = new int[ nRows ];
+		for ( int i = 0; i < nRows; i++ )
+		{
+			kktr[ i ] = i;
+			numbertr[ i ] = 1;
+		}
+		final SparseCostMatrix tr = new SparseCostMatrix( cctr.clone(), kktr, numbertr, nRows );
+
+		final int[] kkbl = new int[ nCols ];
+		final int[] numberbl = new int[ nCols ];
+		for ( int j = 0; j < nCols; j++ )
+		{
+			kkbl[ j ] = j;
+			numberbl[ j ] = 1;
+		}
+		final SparseCostMatrix bl = new SparseCostMatrix( ccbl.clone(), kkbl, numberbl, nCols );
+
+		final SparseCostMatrix br = tl.transpose();
+		br.fillWith( brCost );
+		return ( tl.hcat( tr ) ).vcat( bl.hcat( br ) );
+	}
+
+	private static long usedHeap()
+	{
+		long used = 0;
+		for ( final MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans() )
+		{
+			if ( pool.getType() == MemoryType.HEAP )
+			{
+				used += pool.getUsage().getUsed();
+			}
+		}
+		return used;
+	}
+
+	private static long peakHeap()
+	{
+		long peak = 0;
+		for ( final MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans() )
+		{
+			if ( pool.getType() == MemoryType.HEAP )
+			{
+				peak += pool.getPeakUsage().getUsed();
+			}
+		}
+		return peak;
+	}
+
+	private static void resetPeaks()
+	{
+		System.gc();
+		for ( final MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans() )
+		{
+			if ( pool.getType() == MemoryType.HEAP )
+			{
+				pool.resetPeakUsage();
+			}
+		}
+	}
+
+	public static void main( final String[] args )
+	{
+		final int nRepeats = 10;
+		final Random ran = new Random( 1l );
+		final int[] sizes = new int[] { 1000, 5000, 20000, 50000 };
+		final int nPerRow = 20;
+
+		System.out.println( "Size\tCardinality\tTimeChain(ms)\tTimeDirect(ms)\tPeakChain(MB)\tPeakDirect(MB)" );
+		for ( final int size : sizes )
+		{
+			final SparseCostMatrix tl = JaqamanBlockMatrixTest.createRandomMatrix( ran, size, size, ( double ) nPerRow / size );
+			final double[] cctr = new double[ size ];
+			final double[] ccbl = new double[ size ];
+			for ( int i = 0; i < size; i++ )
+			{
+				cctr[ i ] = 100 * ran.nextDouble();
+				ccbl[ i ] = 100 * ran.nextDouble();
+			}
+
+			// Warm up.
+			viaConcatenation( tl, cctr, ccbl, 1d );
+			JaqamanBlockMatrix.assemble( tl, cctr, ccbl, 1d );
+
+			// CHAIN
+			resetPeaks();
+			long baseline = usedHeap();
+			long start = System.currentTimeMillis();
+			SparseCostMatrix full = null;
+			for ( int i = 0; i < nRepeats; i++ )
+			{
+				full = null;
+				full = viaConcatenation( tl, cctr, ccbl, 1d );
+			}
+			long end = System.currentTimeMillis();
+			final double dtChain = ( double ) ( end - start ) / nRepeats;
+			final double peakChain = ( peakHeap() - baseline ) / 1048576d;
+			full = null;
+
+			// DIRECT
+			resetPeaks();
+			baseline = usedHeap();
+			start = System.currentTimeMillis();
+			for ( int i = 0; i < nRepeats; i++ )
+			{
+				full = null;
+				full = JaqamanBlockMatrix.assemble( tl, cctr, ccbl, 1d );
+			}
+			end = System.currentTimeMillis();
+			final double dtDirect = ( double ) ( end - start ) / nRepeats;
+			final double peakDirect = ( peakHeap() - baseline ) / 1048576d;
+
+			System.out.println( String.format( "%d\t%d\t\t%.1f\t\t%.1f\t\t%.1f\t\t%.1f", size, full.cardinality, dtChain, dtDirect, peakChain, peakDirect ) );
+		}
+	}
+}
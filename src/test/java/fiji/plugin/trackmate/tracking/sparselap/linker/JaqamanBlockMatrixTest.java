@@ -0,0 +1,103 @@
+package fiji.plugin.trackmate.tracking.sparselap.linker;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class JaqamanBlockMatrixTest
+{
+
+	/**
+	 * Creates a random sparse matrix with at least one element in each row
+	 * and each column.
+	 */
+	static SparseCostMatrix createRandomMatrix( final Random ran, final int nRows, final int nCols, final double density )
+	{
+		final int nPerRow = ( int ) Math.ceil( density * nCols );
+		final int capacity = nRows * ( nPerRow + 1 ) + nCols;
+		final double[] cc = new double[ capacity ];
+		final int[] kk = new int[ capacity ];
+		final int[] number = new int[ nRows ];
+		final int[] cols = new int[ nPerRow + 1 + nCols / nRows + 1 ];
+		int index = 0;
+		for ( int i = 0; i < nRows; i++ )
+		{
+			int n = 0;
+			// Cover all rows and columns.
+			for ( int j = i % nCols; j < nCols; j += nRows )
+			{
+				cols[ n++ ] = j;
+			}
+			for ( int k = 0; k < nPerRow; k++ )
+			{
+				cols[ n++ ] = ran.nextInt( nCols );
+			}
+			Arrays.sort( cols, 0, n );
+			for ( int k = 0; k < n; k++ )
+			{
+				if ( k > 0 && cols[ k ] == cols[ k - 1 ] )
+				{
+					continue;
+				}
+				kk[ index ] = cols[ k ];
+				cc[ index ] = 1 + 99 * ran.nextDouble();
+				index++;
+				number[ i ]++;
+			}
+		}
+		return new SparseCostMatrix( Arrays.copyOf( cc, index ), Arrays.copyOf( kk, index ), number, nCols );
+	}
+
+	@Test
+	public void testSameAsConcatenation()
+	{
+		final Random ran = new Random( 5l );
+		final int[][] sizes = new int[][] { { 1, 1 }, { 7, 3 }, { 3, 7 }, { 50, 40 } };
+		for ( final int[] size : sizes )
+		{
+			final int nRows = size[ 0 ];
+			final int nCols = size[ 1 ];
+			final SparseCostMatrix tl = createRandomMatrix( ran, nRows, nCols, 0.2 );
+
+			final double[] cctr = new double[ nRows ];
+			final int[] kktr = new int[ nRows ];
+			final int[] numbertr = new int[ nRows ];
+			for ( int i = 0; i < nRows; i++ )
+			{
+				kktr[ i ] = i;
+				cctr[ i ] = 100 * ran.nextDouble();
+				numbertr[ i ] = 1;
+			}
+			final SparseCostMatrix tr = new SparseCostMatrix( cctr, kktr, numbertr, nRows );
+
+			final double[] ccbl = new double[ nCols ];
+			final int[] kkbl = new int[ nCols ];
+			final int[] numberbl = new int[ nCols ];
+			for ( int j = 0; j < nCols; j++ )
+			{
+				kkbl[ j ] = j;
+				ccbl[ j ] = 100 * ran.nextDouble();
+				numberbl[ j ] = 1;
+			}
+			final SparseCostMatrix bl = new SparseCostMatrix( ccbl, kkbl, numberbl, nCols );
+
+			final double brCost = 12.3;
+			final SparseCostMatrix br = tl.transpose();
+			br.fillWith( brCost );
+			final SparseCostMatrix expected = ( tl.hcat( tr ) ).vcat( bl.hcat( br ) );
+
+			final SparseCostMatrix actual = JaqamanBlockMatrix.assemble( tl, cctr, ccbl, brCost );
+
+			assertEquals( expected.nRows, actual.nRows );
+			assertEquals( expected.nCols, actual.nCols );
+			assertEquals( expected.cardinality, actual.cardinality );
+			assertArrayEquals( expected.number, actual.number );
+			assertArrayEquals( expected.kk, actual.kk );
+			assertArrayEquals( expected.cc, actual.cc, 0d );
+		}
+	}
+}
@@ -242,6 +242,88 @@ public class LAPJVBenchmark
 		}
 	}
 
+	private SparseCostMatrix generateSparseMatrix( final int size, final double density, final Random ran )
+	{
+		final int card = ( int ) Math.ceil( 1.5 * size * Math.max( 1, size * density ) );
+		final double[] cc = new double[ card ];
+		final int[] kk = new int[ card ];
+		final int[] number = new int[ size ];
+		int index = 0;
+		for ( int i = 0; i < size; i++ )
+		{ // Row by row, with at least the diagonal.
+			final int nToCreate = ( int ) Math.max( 1, Math.min( size * density * 1.5, ( size * density ) * ( 1 + 0.2 * ran.nextGaussian() ) ) );
+			final int[] cols = new int[ nToCreate ];
+			cols[ 0 ] = i;
+			for ( int k = 1; k < cols.length; k++ )
+			{
+				cols[ k ] = ran.nextInt( size );
+			}
+			final int[] uCols = uniqueAndSort( cols );
+			for ( final int c : uCols )
+			{
+				kk[ index ] = c;
+				cc[ index ] = Math.floor( pseudoRandom( 1, 100 ) );
+				index++;
+			}
+			number[ i ] = uCols.length;
+		}
+		return new SparseCostMatrix( Arrays.copyOf( cc, index ), Arrays.copyOf( kk, index ), number, size );
+	}
+
+	/**
+	 * Compares {@link LAPJV} with {@link AuctionLAP}, single-threaded and
+	 * using all the cores, on large and very sparse matrices. Costs are
+	 * integers, so both must find the same optimal total cost.
+	 */
+	public final void timeAuctionVsLAPJV()
+	{
+		final int nRepeats = 3;
+		final Random ran = new Random();
+		seed = ran.nextInt();
+		final int nThreads = Runtime.getRuntime().availableProcessors();
+
+		final int[] sizes = new int[] { 1000, 2000, 5000, 10000 };
+		final double[] elementsPerRow = new double[] { 4, 10, 30 };
+
+		System.out.println( "Size\tPerRow\tTimeLAPJV(ms)\tTimeAuction1(ms)\tTimeAuction" + nThreads + "(ms)" );
+		for ( final int size : sizes )
+		{
+			for ( final double perRow : elementsPerRow )
+			{
+				final SparseCostMatrix cm = generateSparseMatrix( size, perRow / size, ran );
+
+				long start = System.currentTimeMillis();
+				double jvCost = 0;
+				for ( int i = 0; i < nRepeats; i++ )
+				{
+					final LAPJV jv = new LAPJV( cm );
+					jv.process();
+					jvCost = cm.totalAssignmentCost( jv.getResult() );
+				}
+				final double dtJV = ( double ) ( System.currentTimeMillis() - start ) / nRepeats;
+
+				final double[] dtAuction = new double[ 2 ];
+				final int[] threads = new int[] { 1, nThreads };
+				for ( int t = 0; t < threads.length; t++ )
+				{
+					start = System.currentTimeMillis();
+					double auctionCost = 0;
+					for ( int i = 0; i < nRepeats; i++ )
+					{
+						final AuctionLAP auction = new AuctionLAP( cm );
+						auction.setNumThreads( threads[ t ] );
+						auction.process();
+						auctionCost = cm.totalAssignmentCost( auction.getResult() );
+					}
+					dtAuction[ t ] = ( double ) ( System.currentTimeMillis() - start ) / nRepeats;
+					assertEquals( jvCost, auctionCost, 1e-9 );
+				}
+
+				System.out.println( String.format( "%d\t%.0f\t%.1f\t\t%.1f\t\t\t%.1f", size, perRow, dtJV, dtAuction[ 0 ], dtAuction[ 1 ] ) );
+			}
+		}
+	}
+
 	public static void main( final String[] args )
 	{
 		final LAPJVBenchmark benchmark = new LAPJVBenchmark();
@@ -257,5 +339,11 @@ public class LAPJVBenchmark
 		System.out.println( "------------" );
 		System.out.println();
 		benchmark.timeVaryingSize();
+
+		System.out.println( "--------------------" );
+		System.out.println( "Auction versus LAPJV" );
+		System.out.println( "--------------------" );
+		System.out.println();
+		benchmark.timeAuctionVsLAPJV();
 	}
 }
@@ -1,6 +1,8 @@
 package fiji.plugin.trackmate.tracking.sparselap.linker;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 
 import java.util.Arrays;
 import java.util.Random;
@@ -195,4 +197,58 @@ public class LAPJVTest
 		}
 
 	}
+
+	@Test
+	public final void testReusedSolver()
+	{
+		final Random ran = new Random( 6l );
+		final LAPJV cold = new LAPJV();
+		final LAPJV warm = new LAPJV();
+		warm.setWarmStart( true );
+		final LAPJV seeded = new LAPJV();
+
+		final int[] sizes = new int[] { 30, 5, 60, 60, 1, 45 };
+		for ( final int size : sizes )
+		{
+			final SparseCostMatrix tl = JaqamanBlockMatrixTest.createRandomMatrix( ran, size, size + ran.nextInt( 10 ), 0.1 );
+			final double[] cctr = new double[ tl.nRows ];
+			for ( int i = 0; i < cctr.length; i++ )
+			{
+				cctr[ i ] = 50 + 50 * ran.nextDouble();
+			}
+			final double[] ccbl = new double[ tl.nCols ];
+			for ( int j = 0; j < ccbl.length; j++ )
+			{
+				ccbl[ j ] = 50 + 50 * ran.nextDouble();
+			}
+			final SparseCostMatrix cm = JaqamanBlockMatrix.assemble( tl, cctr, ccbl, 50d );
+
+			final LAPJV fresh = new LAPJV( cm );
+			assertTrue( fresh.checkInput() && fresh.process() );
+			final double expected = cm.totalAssignmentCost( fresh.getResult() );
+
+			final double[] prices = new double[ cm.nCols ];
+			for ( int j = 0; j < prices.length; j++ )
+			{
+				prices[ j ] = 200 * ran.nextDouble() - 100;
+			}
+			seeded.setColumnPrices( prices );
+
+			for ( final LAPJV solver : new LAPJV[] { cold, warm, seeded } )
+			{
+				solver.setCostMatrix( cm );
+				assertTrue( solver.checkInput() && solver.process() );
+				final int[] result = solver.getResult();
+				assertEquals( cm.nRows, result.length );
+				final boolean[] taken = new boolean[ cm.nCols ];
+				for ( final int j : result )
+				{
+					assertFalse( taken[ j ] );
+					taken[ j ] = true;
+				}
+				assertEquals( expected, cm.totalAssignmentCost( result ), 1e-9 );
+				assertEquals( cm.nCols, solver.getColumnPrices().length );
+			}
+		}
+	}
 }